@@ -0,0 +1,46 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Mostly native array columns, read back through java.sql.Array.
+ */
+public record ArrayRecord(Long id, String name, List<String> labels, List<String> aliases,
+                          List<Long> memberIds, List<Long> history) implements SQLRecord {
+
+    @SuppressWarnings("unchecked")
+    public ArrayRecord(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), (String) map.get("name"),
+                (List<String>) map.get("labels"), (List<String>) map.get("aliases"),
+                (List<Long>) map.get("memberids"), (List<Long>) map.get("history"));
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new ArrayRecord(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof ArrayRecord other)) return false;
+        return Objects.equals(name, other.name) && Objects.equals(labels, other.labels)
+                && Objects.equals(aliases, other.aliases) && Objects.equals(memberIds, other.memberIds)
+                && Objects.equals(history, other.history);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
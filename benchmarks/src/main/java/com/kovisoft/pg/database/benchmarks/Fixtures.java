@@ -0,0 +1,98 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Builds the benchmark records from a fixed seed, so every run and every commit sees the same data.
+ */
+public final class Fixtures {
+
+    public static final String WIDE = "wide";
+    public static final String JSONB = "jsonb";
+    public static final String ARRAY = "array";
+
+    // Roughly how big the collections in the JSONB and array records are.
+    private static final int ELEMENTS = 32;
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private Fixtures(){}
+
+    public static Class<? extends SQLRecord> recordClass(String shape){
+        return switch (shape) {
+            case WIDE -> WideRecord.class;
+            case JSONB -> JsonbRecord.class;
+            case ARRAY -> ArrayRecord.class;
+            default -> throw new IllegalArgumentException("Unknown record shape " + shape);
+        };
+    }
+
+    public static List<SQLRecord> records(String shape, int count){
+        SplittableRandom random = new SplittableRandom(42);
+        List<SQLRecord> records = new ArrayList<>(count);
+        for(long id = 1; id <= count; id++){
+            records.add(switch (shape) {
+                case WIDE -> wide(id, random);
+                case JSONB -> jsonb(id, random);
+                case ARRAY -> array(id, random);
+                default -> throw new IllegalArgumentException("Unknown record shape " + shape);
+            });
+        }
+        return records;
+    }
+
+    private static WideRecord wide(long id, SplittableRandom random){
+        return new WideRecord(id, "name-" + id, "user" + id + "@example.com", random.nextInt(9999) + " Main Street",
+                "City " + random.nextInt(500), "Country " + random.nextInt(50), text(random, 120),
+                random.nextInt(18, 90), random.nextInt(1000), random.nextInt(100), random.nextLong(1_000_000),
+                random.nextLong(1000), random.nextLong(1000), random.nextDouble() * 10_000, random.nextDouble() * 5,
+                random.nextDouble() * 100, random.nextBoolean(), random.nextBoolean(), false,
+                EPOCH.plusMinutes(random.nextInt(500_000)), EPOCH.plusMinutes(random.nextInt(500_000)));
+    }
+
+    private static JsonbRecord jsonb(long id, SplittableRandom random){
+        List<String> tags = new ArrayList<>();
+        List<Long> related = new ArrayList<>();
+        Map<String, Integer> counters = new HashMap<>();
+        Map<String, String> attributes = new HashMap<>();
+        for(int i = 0; i < ELEMENTS; i++){
+            tags.add("tag-" + random.nextInt(1000));
+            related.add(random.nextLong(1_000_000));
+            counters.put("counter-" + i, random.nextInt(10_000));
+            attributes.put("attribute-" + i, text(random, 24));
+        }
+        return new JsonbRecord(id, "name-" + id, new ArrayListHolder<>(String.class, tags),
+                new ArrayListHolder<>(Long.class, related), new HashMapHolder<>(String.class, Integer.class, counters),
+                new HashMapHolder<>(String.class, String.class, attributes));
+    }
+
+    private static ArrayRecord array(long id, SplittableRandom random){
+        List<String> labels = new ArrayList<>();
+        List<String> aliases = new ArrayList<>();
+        List<Long> members = new ArrayList<>();
+        List<Long> history = new ArrayList<>();
+        for(int i = 0; i < ELEMENTS; i++){
+            labels.add("label-" + random.nextInt(1000));
+            aliases.add(text(random, 16));
+            members.add(random.nextLong(1_000_000));
+            history.add(random.nextLong(1_000_000));
+        }
+        return new ArrayRecord(id, "name-" + id, labels, aliases, members, history);
+    }
+
+    private static String text(SplittableRandom random, int length){
+        StringBuilder sb = new StringBuilder(length);
+        for(int i = 0; i < length; i++){
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
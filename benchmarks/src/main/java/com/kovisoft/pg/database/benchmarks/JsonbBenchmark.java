@@ -0,0 +1,56 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson round trips of the JSONB holders on their own, what every holder column pays on a write
+ * and, through the RecordCodec, on a read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JsonbBenchmark {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private ArrayListHolder<String> list;
+    private HashMapHolder<String, Integer> map;
+    private String listJson;
+    private String mapJson;
+
+    @Setup
+    public void setup() throws Exception {
+        JsonbRecord record = (JsonbRecord) Fixtures.records(Fixtures.JSONB, 1).getFirst();
+        list = record.tags();
+        map = record.counters();
+        listJson = om.writeValueAsString(list);
+        mapJson = om.writeValueAsString(map);
+    }
+
+    @Benchmark
+    public String writeArrayListHolder() throws Exception {
+        return om.writeValueAsString(list);
+    }
+
+    @Benchmark
+    public String writeHashMapHolder() throws Exception {
+        return om.writeValueAsString(map);
+    }
+
+    @Benchmark
+    public Object readArrayListHolder() throws Exception {
+        return om.readValue(listJson, om.getTypeFactory().constructParametricType(ArrayListHolder.class, String.class));
+    }
+
+    @Benchmark
+    public Object readHashMapHolder() throws Exception {
+        return om.readValue(mapJson, HashMapHolder.class);
+    }
+}
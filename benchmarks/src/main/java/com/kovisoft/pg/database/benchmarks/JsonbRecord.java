@@ -0,0 +1,47 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Mostly JSONB holder columns, every one of them goes through Jackson on the way in and out.
+ */
+public record JsonbRecord(Long id, String name, ArrayListHolder<String> tags, ArrayListHolder<Long> relatedIds,
+                          HashMapHolder<String, Integer> counters, HashMapHolder<String, String> attributes) implements SQLRecord {
+
+    @SuppressWarnings("unchecked")
+    public JsonbRecord(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), (String) map.get("name"),
+                (ArrayListHolder<String>) map.get("tags"), (ArrayListHolder<Long>) map.get("relatedids"),
+                (HashMapHolder<String, Integer>) map.get("counters"), (HashMapHolder<String, String>) map.get("attributes"));
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new JsonbRecord(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof JsonbRecord other)) return false;
+        return Objects.equals(name, other.name) && Objects.equals(tags, other.tags)
+                && Objects.equals(relatedIds, other.relatedIds) && Objects.equals(counters, other.counters)
+                && Objects.equals(attributes, other.attributes);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
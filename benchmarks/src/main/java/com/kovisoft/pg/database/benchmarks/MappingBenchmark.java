@@ -0,0 +1,87 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.operations.DbOperationsBaseUser;
+import com.kovisoft.pg.database.operations.RecordCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The row mapping and statement binding paths, once with the RecordCodec on its own and once through
+ * the DbOperationsBaseUser calls that wrap it (lease, resultToMap, reflectRecordsFromMaps and populateStatement).
+ * Each shape is run with a single row and with a page of rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MappingBenchmark {
+
+    @Param({Fixtures.WIDE, Fixtures.JSONB, Fixtures.ARRAY})
+    public String shape;
+
+    @Param({"1", "100"})
+    public int rows;
+
+    private final ObjectMapper om = new ObjectMapper();
+    private RecordCodec codec;
+    private DbOperationsBaseUser operations;
+    private Stubs.Table table;
+    private List<SQLRecord> records;
+    private Class<? extends SQLRecord> recordClass;
+    private PreparedStatement bindTarget;
+
+    @Setup
+    public void setup() throws Exception {
+        recordClass = Fixtures.recordClass(shape);
+        records = Fixtures.records(shape, rows);
+        table = Stubs.tableOf(records, om);
+        bindTarget = Stubs.statement(() -> Stubs.resultSet(table));
+        operations = new DbOperationsBaseUser(new StubDBManager(Stubs.wrapper(bindTarget), List.of(recordClass)));
+        // The operations constructor creates the DB_Logger, so the codec is built after it.
+        codec = new RecordCodec(om, LoggerFactory.getLogger("DB_Logger"));
+    }
+
+    @Benchmark
+    public void readRows(Blackhole bh) throws Exception {
+        ResultSet rs = Stubs.resultSet(table);
+        ResultSetMetaData md = rs.getMetaData();
+        int columnCount = md.getColumnCount();
+        while(rs.next()){
+            bh.consume(codec.readRow(columnCount, md, rs));
+        }
+    }
+
+    @Benchmark
+    public void bindRecords(Blackhole bh) throws Exception {
+        for(SQLRecord record : records){
+            codec.bind(bindTarget, record, false);
+        }
+        bh.consume(bindTarget);
+    }
+
+    @Benchmark
+    public List<? extends SQLRecord> getAllEntries(){
+        return operations.getAllEntries(recordClass);
+    }
+
+    @Benchmark
+    public SQLRecord addRecord(){
+        return operations.addRecord(records.getFirst());
+    }
+
+    @Benchmark
+    public SQLRecord updateRecord(){
+        return operations.updateRecord(records.getFirst());
+    }
+}
@@ -0,0 +1,164 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.*;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DBManager that always hands out the same stub wrapper, so the operations run their full
+ * lease, bind and map paths without a database. Nothing here builds or migrates tables.
+ */
+public class StubDBManager extends DBManager {
+
+    private final ConnectionWrapper cw;
+    private final List<Class<? extends SQLRecord>> recordClasses;
+    // Kept so the benchmarks pay for recording the same as a real manager.
+    private final OperationMetrics operationMetrics = new OperationMetrics();
+
+    public StubDBManager(ConnectionWrapper cw, List<Class<? extends SQLRecord>> recordClasses){
+        this.cw = cw;
+        this.recordClasses = recordClasses;
+    }
+
+    @Override
+    protected boolean migrateFromOldTables(List<AbstractMigration> tm, DBManagerConfig config) {
+        return false;
+    }
+
+    @Override
+    public Connection borrowConnection(boolean isPrivileged) throws SQLException {
+        return cw.borrowConnection();
+    }
+
+    @Override
+    public ConnectionWrapper borrowCW(boolean isPrivileged) {
+        return cw;
+    }
+
+    @Override
+    public ConnectionWrapper borrowReadCW(boolean isPrivileged) {
+        return cw;
+    }
+
+    @Override
+    public void pinReadsToPrimary(boolean pinned) {
+    }
+
+    @Override
+    public void releaseCW(ConnectionWrapper cw, boolean isPrivileged) {
+    }
+
+    @Override
+    public BorrowStats getBorrowStats(boolean isPrivileged) {
+        return new BorrowStats(0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public Bulkheads getBulkheads() {
+        return null;
+    }
+
+    @Override
+    public OperationMetrics getOperationMetrics() {
+        return operationMetrics;
+    }
+
+    @Override
+    public OperationListeners getOperationListeners() {
+        return null;
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return null;
+    }
+
+    @Override
+    public List<PlanFinding> getPlanFindings() {
+        return List.of();
+    }
+
+    @Override
+    public List<PoolScalingDecision> getPoolScalingDecisions() {
+        return List.of();
+    }
+
+    @Override
+    public long getLastActivityMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean isIdle() {
+        return false;
+    }
+
+    @Override
+    public Map<String, String> getPrepMap() {
+        return Map.of();
+    }
+
+    @Override
+    public List<Class<? extends SQLRecord>> getRecordClasses() {
+        return recordClasses;
+    }
+
+    @Override
+    public <T extends SQLRecord> SQLRecordMapper<T> getRecordMapper(Class<T> recordClass) {
+        return null;
+    }
+
+    @Override
+    protected void createDBIfAbsent(String url, DBManagerConfig config, String dbName) {
+    }
+
+    @Override
+    protected void addRole(String user, String pass) {
+    }
+
+    @Override
+    protected void createTablesFromRecords() {
+    }
+
+    @Override
+    protected void createTablesFromRecords(String user) {
+    }
+
+    @Override
+    protected void grantDefaultPrivledges(String user, String table) {
+    }
+
+    @Override
+    protected void grantPrivledgesToUser(String user, String table, String privledgeString) {
+    }
+
+    @Override
+    protected Map<String, List<String>> verifyColumnsMatch(Class<? extends SQLRecord> recordClass) {
+        return Map.of();
+    }
+
+    @Override
+    protected void addMissingColumns(List<String> columns, Class<? extends SQLRecord> recordClass) {
+    }
+
+    @Override
+    protected void removeExtraColumns(List<String> columns, Class<? extends SQLRecord> recordClass) {
+    }
+
+    @Override
+    protected void alterColumnTypes(List<String> columns, Class<? extends SQLRecord> recordClass) {
+    }
+
+    @Override
+    protected void adjustColumnsToMatch(Class<? extends SQLRecord> recordClass) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
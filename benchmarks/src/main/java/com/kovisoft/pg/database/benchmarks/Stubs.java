@@ -0,0 +1,186 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.RecordComponent;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * In memory stand ins for the JDBC objects the operations touch, built with dynamic proxies so
+ * only the handful of methods the mapping and binding paths call need answers. Rows are stored the
+ * way the postgres driver hands them back (JSONB as text, arrays as java.sql.Array and so on).
+ * The proxies cost the same between commits so they cancel out when comparing results.
+ */
+public final class Stubs {
+
+    private Stubs(){}
+
+    /**
+     * The column layout and row values a table of records comes back as.
+     */
+    public record Table(String[] names, String[] typeNames, int[] types, List<Object[]> rows){}
+
+    /**
+     * Lays the records out as rows, the component order is the column order like the real tables.
+     */
+    public static Table tableOf(List<? extends SQLRecord> records, ObjectMapper om) throws Exception {
+        RecordComponent[] comps = records.getFirst().getClass().getRecordComponents();
+        String[] names = new String[comps.length];
+        String[] typeNames = new String[comps.length];
+        int[] types = new int[comps.length];
+        for(int i = 0; i < comps.length; i++){
+            names[i] = comps[i].getName().toLowerCase();
+            Class<?> type = comps[i].getType();
+            if(type == ArrayListHolder.class || type == HashMapHolder.class){
+                typeNames[i] = "jsonb";
+                types[i] = Types.OTHER;
+            } else if(List.class.isAssignableFrom(type)){
+                typeNames[i] = "_text";
+                types[i] = Types.ARRAY;
+            } else if(type == Boolean.class){
+                typeNames[i] = "bool";
+                types[i] = Types.BIT;
+            } else if(type == Long.class){
+                typeNames[i] = "int8";
+                types[i] = Types.BIGINT;
+            } else if(type == Integer.class){
+                typeNames[i] = "int4";
+                types[i] = Types.INTEGER;
+            } else if(type == Double.class){
+                typeNames[i] = "float8";
+                types[i] = Types.DOUBLE;
+            } else {
+                typeNames[i] = "text";
+                types[i] = Types.VARCHAR;
+            }
+        }
+        List<Object[]> rows = new ArrayList<>();
+        for(SQLRecord record : records){
+            Object[] row = new Object[comps.length];
+            for(int i = 0; i < comps.length; i++){
+                row[i] = toColumnValue(record.getObjectValueByFieldName(comps[i].getName()), om);
+            }
+            rows.add(row);
+        }
+        return new Table(names, typeNames, types, rows);
+    }
+
+    private static Object toColumnValue(Object value, ObjectMapper om) throws JsonProcessingException {
+        if(value == null) return null;
+        if(value instanceof ArrayListHolder<?> || value instanceof HashMapHolder<?, ?>) return om.writeValueAsString(value);
+        if(value instanceof LocalDateTime) return value.toString();
+        if(value instanceof List<?> list) return list.toArray();
+        return value;
+    }
+
+    public static ResultSet resultSet(Table table){
+        ResultSetMetaData md = proxy(ResultSetMetaData.class, (p, method, args) -> switch (method.getName()) {
+            case "getColumnCount" -> table.names().length;
+            case "getColumnName", "getColumnLabel" -> table.names()[(int) args[0] - 1];
+            case "getColumnTypeName" -> table.typeNames()[(int) args[0] - 1];
+            case "getColumnType" -> table.types()[(int) args[0] - 1];
+            default -> unsupported(method.getName());
+        });
+        int[] cursor = {-1};
+        return proxy(ResultSet.class, (p, method, args) -> switch (method.getName()) {
+            case "next" -> ++cursor[0] < table.rows().size();
+            case "getMetaData" -> md;
+            case "getBoolean" -> {
+                Object value = column(table, cursor[0], args);
+                yield value != null && (Boolean) value;
+            }
+            case "getString" -> {
+                Object value = column(table, cursor[0], args);
+                yield (value == null) ? null : value.toString();
+            }
+            case "getArray" -> {
+                Object value = column(table, cursor[0], args);
+                yield (value == null) ? null : array((Object[]) value);
+            }
+            case "getObject" -> column(table, cursor[0], args);
+            case "getLong" -> {
+                Object value = column(table, cursor[0], args);
+                yield (value == null) ? 0L : ((Number) value).longValue();
+            }
+            case "close" -> null;
+            case "isClosed" -> false;
+            default -> unsupported(method.getName());
+        });
+    }
+
+    /**
+     * A statement whose queries answer with a fresh result set from results, binds are accepted and dropped.
+     */
+    public static PreparedStatement statement(Supplier<ResultSet> results){
+        return proxy(PreparedStatement.class, (p, method, args) -> {
+            String name = method.getName();
+            if(name.startsWith("set") || name.equals("clearParameters") || name.equals("close")
+                    || name.equals("addBatch") || name.equals("clearBatch")) return null;
+            return switch (name) {
+                case "executeQuery", "getGeneratedKeys" -> results.get();
+                case "executeUpdate" -> 1;
+                case "executeBatch" -> new int[0];
+                case "isClosed" -> false;
+                default -> unsupported(name);
+            };
+        });
+    }
+
+    public static Connection connection(PreparedStatement statement){
+        return proxy(Connection.class, (p, method, args) -> switch (method.getName()) {
+            case "prepareStatement" -> statement;
+            case "getAutoCommit" -> true;
+            case "setAutoCommit", "commit", "rollback", "close" -> null;
+            case "isClosed" -> false;
+            default -> unsupported(method.getName());
+        });
+    }
+
+    /**
+     * A wrapper handing out statement for every key, released wrappers are simply reused.
+     */
+    public static ConnectionWrapper wrapper(PreparedStatement statement){
+        Connection connection = connection(statement);
+        return proxy(ConnectionWrapper.class, (p, method, args) -> switch (method.getName()) {
+            case "getPreparedStatement" -> statement;
+            case "borrowConnection" -> connection;
+            case "release", "close", "addPreparedStatements" -> null;
+            case "hashCode" -> System.identityHashCode(p);
+            case "equals" -> p == args[0];
+            case "toString" -> "StubConnectionWrapper";
+            default -> unsupported(method.getName());
+        });
+    }
+
+    private static Object column(Table table, int row, Object[] args){
+        return table.rows().get(row)[(int) args[0] - 1];
+    }
+
+    private static Array array(Object[] values){
+        return proxy(Array.class, (p, method, args) -> switch (method.getName()) {
+            case "getArray" -> values;
+            case "free" -> null;
+            default -> unsupported(method.getName());
+        });
+    }
+
+    private static Object unsupported(String method){
+        throw new UnsupportedOperationException("The benchmark stubs do not support " + method);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,59 @@
+package com.kovisoft.pg.database.benchmarks;
+
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Twenty plain scalar columns, the shape of most user and order style tables.
+ */
+public record WideRecord(Long id, String name, String email, String street, String city, String country,
+                         String note, Integer age, Integer score, Integer rank, Long accountId, Long createdBy,
+                         Long updatedBy, Double balance, Double rating, Double weight, Boolean active,
+                         Boolean verified, Boolean archived, LocalDateTime created, LocalDateTime updated) implements SQLRecord {
+
+    public WideRecord(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), (String) map.get("name"), (String) map.get("email"),
+                (String) map.get("street"), (String) map.get("city"), (String) map.get("country"),
+                (String) map.get("note"), Records.getIntegerOrNull(map.get("age")),
+                Records.getIntegerOrNull(map.get("score")), Records.getIntegerOrNull(map.get("rank")),
+                Records.getLongOrNull(map.get("accountid")), Records.getLongOrNull(map.get("createdby")),
+                Records.getLongOrNull(map.get("updatedby")), (Double) map.get("balance"), (Double) map.get("rating"),
+                (Double) map.get("weight"), (Boolean) map.get("active"), (Boolean) map.get("verified"),
+                (Boolean) map.get("archived"), Records.getLocalDtOrNull(map.get("created")),
+                Records.getLocalDtOrNull(map.get("updated")));
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new WideRecord(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof WideRecord other)) return false;
+        return Objects.equals(name, other.name) && Objects.equals(email, other.email) && Objects.equals(street, other.street)
+                && Objects.equals(city, other.city) && Objects.equals(country, other.country) && Objects.equals(note, other.note)
+                && Objects.equals(age, other.age) && Objects.equals(score, other.score) && Objects.equals(rank, other.rank)
+                && Objects.equals(accountId, other.accountId) && Objects.equals(createdBy, other.createdBy)
+                && Objects.equals(updatedBy, other.updatedBy) && Objects.equals(balance, other.balance)
+                && Objects.equals(rating, other.rating) && Objects.equals(weight, other.weight)
+                && Objects.equals(active, other.active) && Objects.equals(verified, other.verified)
+                && Objects.equals(archived, other.archived) && Objects.equals(created, other.created)
+                && Objects.equals(updated, other.updated);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
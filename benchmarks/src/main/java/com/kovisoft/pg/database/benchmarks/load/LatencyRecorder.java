@@ -0,0 +1,80 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Every latency sample of one worker thread, kept raw so the high percentiles are exact.
+ * The recorders of a scenario are merged into a {@link Summary} once its workers stop.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[1 << 14];
+    private int count = 0;
+    private long errors = 0;
+
+    public void record(long nanos){
+        if(count == samples.length) samples = Arrays.copyOf(samples, samples.length * 2);
+        samples[count++] = nanos;
+    }
+
+    public void error(){
+        errors++;
+    }
+
+    /**
+     * @param name The scenario name.
+     * @param elapsedNanos How long the measured part of the scenario ran for.
+     * @param recorders The recorder of each worker.
+     */
+    public static Summary summarize(String name, long elapsedNanos, LatencyRecorder... recorders){
+        int total = 0;
+        long errors = 0;
+        for(LatencyRecorder recorder : recorders){
+            total += recorder.count;
+            errors += recorder.errors;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for(LatencyRecorder recorder : recorders){
+            System.arraycopy(recorder.samples, 0, merged, offset, recorder.count);
+            offset += recorder.count;
+        }
+        Arrays.sort(merged);
+        double opsPerSecond = (elapsedNanos == 0) ? 0 : total / (elapsedNanos / 1_000_000_000.0);
+        return new Summary(name, total, errors, opsPerSecond, percentile(merged, 0.5),
+                percentile(merged, 0.99), percentile(merged, 0.999), (total == 0) ? 0 : merged[total - 1]);
+    }
+
+    private static long percentile(long[] sorted, double percentile){
+        if(sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * The outcome of one scenario, latencies are in nanoseconds.
+     */
+    public record Summary(String name, long operations, long errors, double opsPerSecond,
+                          long p50, long p99, long p999, long max) {
+
+        public static String header(){
+            return String.format("%-32s %10s %8s %12s %10s %10s %10s %10s", "scenario", "ops", "errors",
+                    "ops/sec", "p50 us", "p99 us", "p999 us", "max us");
+        }
+
+        public static String csvHeader(){
+            return "scenario,ops,errors,ops_per_sec,p50_us,p99_us,p999_us,max_us";
+        }
+
+        public String toRow(){
+            return String.format(Locale.ROOT, "%-32s %10d %8d %12.1f %10.1f %10.1f %10.1f %10.1f", name, operations, errors,
+                    opsPerSecond, p50 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0);
+        }
+
+        public String toCsv(){
+            return String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f", name, operations, errors,
+                    opsPerSecond, p50 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0);
+        }
+    }
+}
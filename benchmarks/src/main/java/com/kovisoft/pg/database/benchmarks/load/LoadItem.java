@@ -0,0 +1,52 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import com.kovisoft.pg.database.data.JsonbIndex;
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The main load table, a typical mix of text, numbers, a timestamp and one GIN indexed JSONB column.
+ */
+public record LoadItem(Long id, String name, String category, Integer quantity, Double price,
+                       @JsonbIndex(pathOps = false) ArrayListHolder<String> tags, LocalDateTime created) implements SQLRecord {
+
+    @SuppressWarnings("unchecked")
+    public LoadItem(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), (String) map.get("name"), (String) map.get("category"),
+                Records.getIntegerOrNull(map.get("quantity")), (Double) map.get("price"),
+                (ArrayListHolder<String>) map.get("tags"), Records.getLocalDtOrNull(map.get("created")));
+    }
+
+    public LoadItem withId(Long newId){
+        return new LoadItem(newId, name, category, quantity, price, tags, created);
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new LoadItem(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof LoadItem other)) return false;
+        return Objects.equals(name, other.name) && Objects.equals(category, other.category)
+                && Objects.equals(quantity, other.quantity) && Objects.equals(price, other.price)
+                && Objects.equals(tags, other.tags) && Objects.equals(created, other.created);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
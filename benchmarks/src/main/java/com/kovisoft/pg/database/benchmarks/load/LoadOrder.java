@@ -0,0 +1,42 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The parent of the compound order groups.
+ */
+public record LoadOrder(Long id, String customer, Double total, LocalDateTime created) implements SQLRecord {
+
+    public LoadOrder(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), (String) map.get("customer"), (Double) map.get("total"),
+                Records.getLocalDtOrNull(map.get("created")));
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new LoadOrder(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof LoadOrder other)) return false;
+        return Objects.equals(customer, other.customer) && Objects.equals(total, other.total)
+                && Objects.equals(created, other.created);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
@@ -0,0 +1,92 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import com.kovisoft.pg.database.data.CompoundSQLRecord;
+import com.kovisoft.pg.database.data.CompoundSQLRecordClass;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An order with its items, stored as a LoadOrder, LoadItems and the LoadOrderLink between them.
+ */
+public class LoadOrderGroup extends CompoundSQLRecordClass {
+
+    private LoadOrder order;
+    private List<LoadItem> items = new ArrayList<>();
+    private LoadOrderLink link;
+
+    public LoadOrderGroup(LoadOrder order, List<LoadItem> items){
+        this.order = order;
+        this.items = new ArrayList<>(items);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LoadOrderGroup(SQLRecord parent, List<? extends SQLRecord> children, CompoundSQLRecord compoundRecord){
+        this.order = (LoadOrder) parent;
+        this.items = new ArrayList<>((List<LoadItem>) children);
+        this.link = (LoadOrderLink) compoundRecord;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends CompoundSQLRecord> Class<T> getCompoundClass() {
+        return (Class<T>) LoadOrderLink.class;
+    }
+
+    /**
+     * Builds the link from the stored order and items, the existing link id is kept for updates.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getCompoundRecord() throws IllegalStateException {
+        if(order == null || order.id() == null) throw new IllegalStateException("The order has to be stored before its link!");
+        List<Long> itemIds = new ArrayList<>();
+        for(LoadItem item : items){
+            if(item.id() == null) throw new IllegalStateException("Every item has to be stored before the link!");
+            itemIds.add(item.id());
+        }
+        HashMapHolder<String, ArrayListHolder<Long>> childMap = new HashMapHolder<>(String.class, (Class) ArrayListHolder.class,
+                Map.of(LoadItem.class.getSimpleName().toLowerCase(), new ArrayListHolder<>(Long.class, itemIds)));
+        return (T) new LoadOrderLink((link == null) ? null : link.id(), order.id(), order.getTableName(), childMap);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getParentRecord() {
+        return (T) order;
+    }
+
+    @Override
+    public List<? extends SQLRecord> getChildRecords() {
+        return items;
+    }
+
+    @Override
+    public <T extends SQLRecord> void setCompoundRecord(T compoundRecord) {
+        this.link = (LoadOrderLink) compoundRecord;
+    }
+
+    @Override
+    public <T extends SQLRecord> void setParentRecord(T parentRecord) {
+        this.order = (LoadOrder) parentRecord;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setChildRecords(List<? extends SQLRecord> childRecords) {
+        this.items = new ArrayList<>((List<LoadItem>) childRecords);
+    }
+
+    @Override
+    public <T extends SQLRecord> void addChildRecord(T childRecord) {
+        items.add((LoadItem) childRecord);
+    }
+
+    public LoadOrderLink getLink(){
+        return link;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import com.kovisoft.pg.database.data.CompoundSQLRecord;
+import com.kovisoft.pg.database.data.Records;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Ties a LoadOrder to its LoadItems for the compound record scenarios.
+ */
+public record LoadOrderLink(Long id, Long parentKey, String parentTable,
+                            HashMapHolder<String, ArrayListHolder<Long>> childMap) implements CompoundSQLRecord {
+
+    // The operations build an empty instance before reading one back by id.
+    public LoadOrderLink(){
+        this(null, null, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LoadOrderLink(Map<String, Object> map){
+        this(Records.getLongOrNull(map.get("id")), Records.getLongOrNull(map.get("parentkey")),
+                (String) map.get("parenttable"), (HashMapHolder<String, ArrayListHolder<Long>>) map.get("childmap"));
+    }
+
+    @Override
+    public Long getParentKey() {
+        return parentKey;
+    }
+
+    @Override
+    public String getParentTable() {
+        return parentTable;
+    }
+
+    @Override
+    public HashMapHolder<String, ArrayListHolder<Long>> getChildMap() {
+        return childMap;
+    }
+
+    @Override
+    public Long getPrimaryKey() {
+        return id;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap) {
+        return (objectMap == null) ? null : (T) new LoadOrderLink(objectMap);
+    }
+
+    @Override
+    public <T extends SQLRecord> boolean equalsWithoutId(T record) {
+        if(!(record instanceof LoadOrderLink other)) return false;
+        return Objects.equals(parentKey, other.parentKey) && Objects.equals(parentTable, other.parentTable)
+                && Objects.equals(childMap, other.childMap);
+    }
+
+    @Override
+    public Object getObjectValueByFieldName(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        return this.getClass().getDeclaredField(fieldName).get(this);
+    }
+}
@@ -0,0 +1,395 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.*;
+import com.kovisoft.pg.database.operations.AbstractDbOperations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * End to end load against a real PostgreSQL. Starts a {@link LocalPostgres} (or uses --host/--port),
+ * sets the database up through DBManagerFactory.overallSetupDB, seeds it and then drives every
+ * DBOperations method for a fixed time at the given concurrency, one scenario after the other.
+ * Reads go through the user operations and writes through the admin operations, like an application would.
+ * <p>
+ * Run from the benchmarks directory after mvn package:
+ * <pre>java -cp target/benchmarks.jar com.kovisoft.pg.database.benchmarks.load.LoadSuite --threads 16 --seconds 20 --csv run.csv</pre>
+ * Options, all optional: --threads (8), --seconds (10), --warmup (3), --seed (10000) rows per item range,
+ * --orders (200) seeded compound records, --batch (100) records per bulk call, --scenarios a regex of the
+ * scenarios to run, --csv a file to write the results to, --pg-bin the postgres bin directory, and
+ * --host, --port, --super-user, --super-pass to use a running server instead of starting one.
+ * getMatchByComponents and getCompoundMatch are left out as they are not implemented yet.
+ */
+public class LoadSuite {
+
+    private static final String DB = "pgdb_load";
+
+    private final int threads;
+    private final int seconds;
+    private final int warmupSeconds;
+    private final int seedRows;
+    private final int seedOrders;
+    private final int batchSize;
+    private DBOperations reads;
+    private DBOperations writes;
+    private LoadItem[] readOnlyItems;
+    private long writeRangeStart;
+    private final List<Long> linkIds = new ArrayList<>();
+    private String updateStatement;
+
+    private LoadSuite(Map<String, String> options){
+        threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        seedRows = Integer.parseInt(options.getOrDefault("seed", "10000"));
+        seedOrders = Integer.parseInt(options.getOrDefault("orders", "200"));
+        batchSize = Integer.parseInt(options.getOrDefault("batch", "100"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        LoadSuite suite = new LoadSuite(options);
+        LocalPostgres pg = null;
+        try{
+            String host = options.get("host");
+            int port;
+            if(host == null){
+                pg = LocalPostgres.start(options.get("pg-bin"), 2 * (suite.threads + 2) + 20);
+                host = pg.getHost();
+                port = pg.getPort();
+                System.out.println("Started postgres in " + pg.getDataDir() + " on port " + port);
+            } else {
+                port = Integer.parseInt(options.getOrDefault("port", "5432"));
+            }
+            DBManagerConfig config = suite.config(host, port, options.getOrDefault("super-user", LocalPostgres.SUPER_USER),
+                    options.getOrDefault("super-pass", LocalPostgres.SUPER_USER));
+            List<LatencyRecorder.Summary> results = suite.run(config, Pattern.compile(options.getOrDefault("scenarios", ".*")));
+            report(results, options.get("csv"));
+        } finally {
+            DBManager manager = DBManagerFactory.getDBManager(DB);
+            if(manager != null) DBManagerFactory.dropDBManager(DB);
+            if(pg != null) pg.close();
+        }
+    }
+
+    private DBManagerConfig config(String host, int port, String superUser, String superPass){
+        Map<Class<? extends SQLRecord>, String> records = new HashMap<>();
+        records.put(LoadItem.class, null);
+        records.put(LoadOrder.class, null);
+        records.put(LoadOrderLink.class, null);
+        Map<String, Object> creationMap = new HashMap<>();
+        creationMap.put("superUser", superUser);
+        creationMap.put("superPass", superPass);
+        creationMap.put("user", DB + "_user");
+        creationMap.put("pass", DB + "_user");
+        creationMap.put("adminUser", DB + "_admin");
+        creationMap.put("adminPass", DB + "_admin");
+        creationMap.put("db", DB);
+        creationMap.put("host", host);
+        creationMap.put("port", port);
+        creationMap.put("userThreads", threads + 2);
+        creationMap.put("adminThreads", threads + 2);
+        creationMap.put("records", records);
+        return new DBManagerConfig(creationMap);
+    }
+
+    private List<LatencyRecorder.Summary> run(DBManagerConfig config, Pattern filter) throws Exception {
+        long setupStart = System.currentTimeMillis();
+        DBManagerFactory.overallSetupDB(config, null);
+        reads = DBManagerFactory.getDBOperations(DB + "-user");
+        writes = DBManagerFactory.getDBOperations(DB + "-admin");
+        updateStatement = DBManagerFactory.getDBManager(DB).getPrepMap().get("loaditem" + AbstractDbOperations.UPDATE);
+        seed();
+        System.out.printf("Setup and seeding took %dms, running %d threads for %ds per scenario (%ds warmup)%n",
+                System.currentTimeMillis() - setupStart, threads, seconds, warmupSeconds);
+
+        List<LatencyRecorder.Summary> results = new ArrayList<>();
+        System.out.println(LatencyRecorder.Summary.header());
+        for(Scenario<?> scenario : scenarios()){
+            if(!filter.matcher(scenario.name()).matches()) continue;
+            LatencyRecorder.Summary summary = measure(scenario);
+            System.out.println(summary.toRow());
+            results.add(summary);
+        }
+        return results;
+    }
+
+    // Two item ranges, the first is only ever read so the match scenarios always find their rows.
+    private void seed(){
+        SplittableRandom random = new SplittableRandom(7);
+        List<LoadItem> readOnly = new ArrayList<>(seedRows);
+        for(int i = 0; i < seedRows; i++) readOnly.add(newItem(random));
+        List<Long> keys = insertAll(readOnly);
+        readOnlyItems = new LoadItem[keys.size()];
+        for(int i = 0; i < keys.size(); i++) readOnlyItems[i] = readOnly.get(i).withId(keys.get(i));
+
+        List<LoadItem> writable = new ArrayList<>(seedRows);
+        for(int i = 0; i < seedRows; i++) writable.add(newItem(random));
+        List<Long> writableKeys = insertAll(writable);
+        if(writableKeys.isEmpty()) throw new IllegalStateException("Seeding the load items failed, check the DB_Logger log.");
+        writeRangeStart = writableKeys.getFirst();
+
+        for(int i = 0; i < seedOrders; i++){
+            LoadOrderGroup group = writes.addCompoundRecord(newGroup(random));
+            if(group != null && group.getLink() != null) linkIds.add(group.getLink().id());
+        }
+        if(linkIds.isEmpty()) throw new IllegalStateException("Seeding the compound records failed, check the DB_Logger log.");
+    }
+
+    private List<Long> insertAll(List<LoadItem> items){
+        List<Long> keys = new ArrayList<>(items.size());
+        for(int from = 0; from < items.size(); from += 1000){
+            keys.addAll(writes.executeBatch(items.subList(from, Math.min(items.size(), from + 1000)), false).generatedKeys());
+        }
+        return keys;
+    }
+
+    private List<Scenario<?>> scenarios(){
+        List<Scenario<?>> scenarios = new ArrayList<>();
+        // Single record CRUD
+        scenarios.add(Scenario.of("addRecord", this::newItem, writes::addRecord));
+        scenarios.add(Scenario.of("getRecordById(record)", this::readOnlyItem, item -> reads.getRecordById(item.id(), item)));
+        scenarios.add(Scenario.of("getRecordById(class)", this::readOnlyItem, item -> reads.getRecordById(item.id(), LoadItem.class)));
+        scenarios.add(Scenario.of("getRecordById(table)", this::readOnlyItem, item -> reads.getRecordById(item.id(), "loaditem")));
+        scenarios.add(Scenario.of("updateRecord", this::changedWritableItem, writes::updateRecord));
+        scenarios.add(Scenario.of("updateOrAddRecord", this::changedWritableItem, writes::updateOrAddRecord));
+        scenarios.add(Scenario.of("deleteById(record)", this::storedItem, writes::deleteById));
+        scenarios.add(Scenario.of("deleteById(class)", this::storedItem, item -> writes.deleteById(item.id(), LoadItem.class)));
+        // Bulk
+        scenarios.add(Scenario.of("addRecords", random -> newItems(random, batchSize), writes::addRecords));
+        scenarios.add(Scenario.of("executeBatch(insert)", random -> newItems(random, batchSize), items -> writes.executeBatch(items, false)));
+        scenarios.add(Scenario.of("executeBatch(update)", this::changedWritableItems, items -> writes.executeBatch(items, true)));
+        scenarios.add(Scenario.of("updateRecords", this::changedWritableItems, writes::updateRecords));
+        scenarios.add(Scenario.of("updateAndAddRecords", this::mixedItems, writes::updateAndAddRecords));
+        scenarios.add(Scenario.of("batchRequestsNoReturn", this::changedWritableItems, items -> {
+            writes.batchRequestsNoReturn(items, updateStatement, true);
+            return Boolean.TRUE;
+        }));
+        scenarios.add(Scenario.of("getRecordsByIds", this::readOnlyIds, ids -> reads.getRecordsByIds(ids, LoadItem.class)));
+        scenarios.add(Scenario.of("deleteByIds(records)", random -> storedItems(random, batchSize), writes::deleteByIds));
+        scenarios.add(Scenario.of("deleteByIds(class)", random -> storedIds(random, batchSize),
+                ids -> writes.deleteByIds(ids, LoadItem.class)));
+        // This overload always returns null, so a completed call is what is counted.
+        scenarios.add(Scenario.of("deleteByIds(table)", random -> storedIds(random, batchSize), ids -> {
+            writes.deleteByIds(ids, "loaditem");
+            return Boolean.TRUE;
+        }));
+        // Matches
+        scenarios.add(Scenario.of("getMatch", this::readOnlyItem, reads::getMatch));
+        scenarios.add(Scenario.of("getMatchNoId", this::readOnlyItem, reads::getMatchNoId));
+        scenarios.add(Scenario.of("getMatchByColumnNames", this::readOnlyItem,
+                item -> reads.getMatchByColumnNames(item, List.of("name", "category"))));
+        scenarios.add(Scenario.of("getContaining", this::tag, tag -> reads.getContaining(LoadItem.class, "tags", tag)));
+        scenarios.add(Scenario.of("getWithAnyKey", random -> List.of(tag(random), tag(random)),
+                tags -> reads.getWithAnyKey(LoadItem.class, "tags", tags)));
+        scenarios.add(Scenario.of("getWithAllKeys", random -> List.of(tag(random), tag(random)),
+                tags -> reads.getWithAllKeys(LoadItem.class, "tags", tags)));
+        // Compound records
+        scenarios.add(Scenario.of("addCompoundRecord", this::newGroup, writes::addCompoundRecord));
+        scenarios.add(Scenario.of("addCompoundRecords", random -> List.of(newGroup(random), newGroup(random), newGroup(random)),
+                writes::addCompoundRecords));
+        scenarios.add(Scenario.of("getCompoundRecordById", this::linkId, id -> reads.getCompoundRecordById(id, emptyGroup())));
+        scenarios.add(Scenario.of("updateCompoundRecord", this::changedGroup, writes::updateCompoundRecord));
+        scenarios.add(Scenario.of("updateCompoundRecords", random -> List.of(changedGroup(random), changedGroup(random)),
+                writes::updateCompoundRecords));
+        scenarios.add(Scenario.of("updateOrAddCompoundRecord", this::changedGroup, writes::updateOrAddCompoundRecord));
+        scenarios.add(Scenario.of("updateOrAddCompoundRecords", random -> List.of(changedGroup(random), newGroup(random)),
+                writes::updateOrAddCompoundRecords));
+        // Scans, the full ones are over the orders table which only grows with the compound scenarios.
+        scenarios.add(Scenario.of("getAllEntries(limit)", random -> batchSize, limit -> reads.getAllEntries(LoadItem.class, limit)));
+        scenarios.add(Scenario.of("getAllEntries(page)", this::pageStart,
+                start -> reads.getAllEntries(LoadItem.class, batchSize, start)));
+        scenarios.add(Scenario.of("getAllEntriesAscending", this::pageStart,
+                start -> reads.getAllEntriesAscending(LoadItem.class, batchSize, start, "price")));
+        scenarios.add(Scenario.of("getAllEntriesDescending", this::pageStart,
+                start -> reads.getAllEntriesDescending(LoadItem.class, batchSize, start, "price")));
+        scenarios.add(Scenario.of("getAllEntries(class)", random -> LoadOrder.class, reads::getAllEntries));
+        scenarios.add(Scenario.of("getAllEntries(record)", random -> new LoadOrder(null, null, null, null), reads::getAllEntries));
+        scenarios.add(Scenario.of("getAllEntriesAsMaps", random -> "loadorder", reads::getAllEntriesAsMaps));
+        return scenarios;
+    }
+
+    private LatencyRecorder.Summary measure(Scenario<?> scenario) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        LatencyRecorder[] recorders = new LatencyRecorder[threads];
+        SplittableRandom seedRandom = new SplittableRandom(scenario.name().hashCode());
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureEnd = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        try{
+            List<Future<?>> running = new ArrayList<>();
+            for(int i = 0; i < threads; i++){
+                LatencyRecorder recorder = new LatencyRecorder();
+                recorders[i] = recorder;
+                SplittableRandom random = seedRandom.split();
+                running.add(workers.submit(() -> {
+                    LatencyRecorder warmup = new LatencyRecorder();
+                    while(System.nanoTime() < warmupEnd) scenario.runOnce(random, warmup);
+                    while(System.nanoTime() < measureEnd) scenario.runOnce(random, recorder);
+                }));
+            }
+            for(Future<?> future : running) future.get();
+        } finally {
+            workers.shutdownNow();
+        }
+        return LatencyRecorder.summarize(scenario.name(), measureEnd - warmupEnd, recorders);
+    }
+
+    private LoadItem newItem(SplittableRandom random){
+        List<String> tags = new ArrayList<>();
+        for(int i = 0; i < 4; i++) tags.add(tag(random));
+        return new LoadItem(null, "item-" + random.nextLong(Long.MAX_VALUE), "category-" + random.nextInt(50),
+                random.nextInt(1000), Math.round(random.nextDouble() * 100_000) / 100.0,
+                new ArrayListHolder<>(String.class, tags), LocalDateTime.now().withNano(0));
+    }
+
+    private String tag(SplittableRandom random){
+        return "tag-" + random.nextInt(200);
+    }
+
+        private List<LoadItem> newItems(SplittableRandom random, int count){
+        List<LoadItem> items = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) items.add(newItem(random));
+        return items;
+    }
+
+    private LoadItem readOnlyItem(SplittableRandom random){
+        return readOnlyItems[random.nextInt(readOnlyItems.length)];
+    }
+
+    private List<Long> readOnlyIds(SplittableRandom random){
+        List<Long> ids = new ArrayList<>(batchSize);
+        for(int i = 0; i < batchSize; i++) ids.add(readOnlyItem(random).id());
+        return ids;
+    }
+
+    private LoadItem changedWritableItem(SplittableRandom random){
+        return newItem(random).withId(writeRangeStart + random.nextInt(seedRows));
+    }
+
+    private List<LoadItem> changedWritableItems(SplittableRandom random){
+        List<LoadItem> items = new ArrayList<>(batchSize);
+        for(int i = 0; i < batchSize; i++) items.add(changedWritableItem(random));
+        return items;
+    }
+
+    private List<LoadItem> mixedItems(SplittableRandom random){
+        List<LoadItem> items = new ArrayList<>(batchSize);
+        for(int i = 0; i < batchSize; i++) items.add((i % 2 == 0) ? changedWritableItem(random) : newItem(random));
+        return items;
+    }
+
+    // Deletes work on rows inserted untimed right before, so the seeded ranges stay intact.
+    private LoadItem storedItem(SplittableRandom random){
+        return writes.addRecord(newItem(random));
+    }
+
+    private List<LoadItem> storedItems(SplittableRandom random, int count){
+        List<LoadItem> items = newItems(random, count);
+        List<Long> keys = writes.executeBatch(items, false).generatedKeys();
+        List<LoadItem> stored = new ArrayList<>(keys.size());
+        for(int i = 0; i < keys.size(); i++) stored.add(items.get(i).withId(keys.get(i)));
+        return stored;
+    }
+
+    private List<Long> storedIds(SplittableRandom random, int count){
+        return writes.executeBatch(newItems(random, count), false).generatedKeys();
+    }
+
+    private LoadOrderGroup newGroup(SplittableRandom random){
+        LoadOrder order = new LoadOrder(null, "customer-" + random.nextInt(10_000),
+                Math.round(random.nextDouble() * 100_000) / 100.0, LocalDateTime.now().withNano(0));
+        return new LoadOrderGroup(order, newItems(random, 3));
+    }
+
+    private Long linkId(SplittableRandom random){
+        return linkIds.get(random.nextInt(linkIds.size()));
+    }
+
+    private LoadOrderGroup emptyGroup(){
+        return new LoadOrderGroup(null, List.of());
+    }
+
+    private LoadOrderGroup changedGroup(SplittableRandom random){
+        LoadOrderGroup group = reads.getCompoundRecordById(linkId(random), emptyGroup());
+        if(group == null) return null;
+        LoadOrder order = group.getParentRecord();
+        group.setParentRecord(new LoadOrder(order.id(), order.customer(),
+                Math.round(random.nextDouble() * 100_000) / 100.0, order.created()));
+        return group;
+    }
+
+    private int pageStart(SplittableRandom random){
+        return random.nextInt(Math.max(1, seedRows - batchSize));
+    }
+
+    private static void report(List<LatencyRecorder.Summary> results, String csv) throws IOException {
+        if(csv == null) return;
+        List<String> lines = new ArrayList<>();
+        lines.add(LatencyRecorder.Summary.csvHeader());
+        results.forEach(summary -> lines.add(summary.toCsv()));
+        Files.write(Path.of(csv), lines);
+        System.out.println("Wrote " + results.size() + " results to " + csv);
+    }
+
+    private static Map<String, String> parseOptions(String[] args){
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++){
+            if(!args[i].startsWith("--") || i + 1 >= args.length){
+                throw new IllegalArgumentException("Options are --name value pairs, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    @FunctionalInterface
+    private interface Prepare<I> {
+        I prepare(SplittableRandom random) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Measured<I> {
+        Object run(I input) throws Exception;
+    }
+
+    /**
+     * One DBOperations call. Only the measured part is timed, the input is built untimed beforehand.
+     * Exceptions and the null or empty results the operations return on failure count as errors.
+     */
+    private record Scenario<I>(String name, Prepare<I> prepare, Measured<I> measured) {
+
+        static <I> Scenario<I> of(String name, Prepare<I> prepare, Measured<I> measured){
+            return new Scenario<>(name, prepare, measured);
+        }
+
+        void runOnce(SplittableRandom random, LatencyRecorder recorder){
+            try{
+                I input = prepare.prepare(random);
+                if(input == null){
+                    recorder.error();
+                    return;
+                }
+                long start = System.nanoTime();
+                Object result = measured.run(input);
+                long elapsed = System.nanoTime() - start;
+                if(result == null || (result instanceof Collection<?> c && c.isEmpty())
+                        || (result instanceof BatchResult batch && !batch.isComplete())){
+                    recorder.error();
+                } else {
+                    recorder.record(elapsed);
+                }
+            } catch (Exception e){
+                recorder.error();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.kovisoft.pg.database.benchmarks.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A throwaway PostgreSQL server in a temp data directory, initialised with trust authentication on a
+ * free local port and deleted again on close. The binaries come from the given bin directory, the
+ * PG_BIN environment variable or the PATH, in that order. Postgres refuses to run as root, so neither can this.
+ */
+public class LocalPostgres implements AutoCloseable {
+
+    public static final String SUPER_USER = "postgres";
+
+    private static final long START_TIMEOUT_SECONDS = 60;
+
+    private final Path binDir;
+    private final Path dataDir;
+    private final int port;
+    private boolean running = false;
+
+    private LocalPostgres(Path binDir, Path dataDir, int port){
+        this.binDir = binDir;
+        this.dataDir = dataDir;
+        this.port = port;
+    }
+
+    /**
+     * Runs initdb into a new temp directory and starts the server.
+     * @param binDir The directory with initdb and pg_ctl, null to use PG_BIN or the PATH.
+     * @param maxConnections The servers max_connections, leave room for the pools of every manager.
+     * @return The running server.
+     */
+    public static LocalPostgres start(String binDir, int maxConnections) throws IOException, InterruptedException {
+        LocalPostgres pg = new LocalPostgres(resolveBinDir(binDir), Files.createTempDirectory("pgdb-load-"), freePort());
+        try{
+            pg.run(List.of(pg.binary("initdb"), "-D", pg.dataDir.toString(), "-U", SUPER_USER, "-A", "trust",
+                    "-E", "UTF8", "--no-locale"));
+            pg.run(List.of(pg.binary("pg_ctl"), "-D", pg.dataDir.toString(), "-l", pg.dataDir.resolve("server.log").toString(),
+                    "-o", String.format("-p %d -k %s -c listen_addresses=localhost -c max_connections=%d -c fsync=off",
+                            pg.port, pg.dataDir, maxConnections), "-w", "-t", String.valueOf(START_TIMEOUT_SECONDS), "start"));
+            pg.running = true;
+            return pg;
+        } catch (IOException | InterruptedException | RuntimeException e){
+            pg.close();
+            throw e;
+        }
+    }
+
+    public String getHost(){
+        return "localhost";
+    }
+
+    public int getPort(){
+        return port;
+    }
+
+    public Path getDataDir(){
+        return dataDir;
+    }
+
+    @Override
+    public void close(){
+        try{
+            if(running) run(List.of(binary("pg_ctl"), "-D", dataDir.toString(), "-m", "fast", "-w", "stop"));
+        } catch (Exception e){
+            System.err.println("Unable to stop the local postgres cleanly: " + e.getMessage());
+        }
+        running = false;
+        try(Stream<Path> paths = Files.walk(dataDir)){
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e){
+            System.err.println("Unable to delete " + dataDir + ": " + e.getMessage());
+        }
+    }
+
+    private void run(List<String> command) throws IOException, InterruptedException {
+        Path output = Files.createTempFile("pgdb-load-cmd-", ".log");
+        try{
+            Process process = new ProcessBuilder(new ArrayList<>(command)).redirectErrorStream(true)
+                    .redirectOutput(output.toFile()).start();
+            if(!process.waitFor(START_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS)){
+                process.destroyForcibly();
+                throw new IOException("Timed out running " + command.getFirst());
+            }
+            if(process.exitValue() != 0){
+                throw new IOException(String.format("%s exited with %d:%n%s", command.getFirst(), process.exitValue(),
+                        Files.readString(output)));
+            }
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private String binary(String name){
+        return (binDir == null) ? name : binDir.resolve(name).toString();
+    }
+
+    private static Path resolveBinDir(String binDir){
+        if(binDir != null) return Path.of(binDir);
+        String env = System.getenv("PG_BIN");
+        return (env == null || env.isBlank()) ? null : Path.of(env);
+    }
+
+    private static int freePort() throws IOException {
+        try(ServerSocket socket = new ServerSocket(0)){
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.kovisoft.pg.database.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a {@code <RecordName>_SQLMapper} class for each record annotated with GenerateSQLMapper.
+ * The generated SQL strings must be identical to the ones DBManagerImpl.prepStatements builds by
+ * reflection, so if one changes the other has to as well.
+ */
+@SupportedAnnotationTypes(SQLMapperProcessor.ANNOTATION)
+public class SQLMapperProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.kovisoft.pg.database.data.GenerateSQLMapper";
+    private static final String SQL_RECORD = "com.kovisoft.pg.database.data.SQLRecord";
+    private static final String MAPPER_INTERFACE = "com.kovisoft.pg.database.data.exports.SQLRecordMapper";
+    private static final String GENERATED_SUFFIX = "_SQLMapper";
+    private static final String CONTENT_HASH = "com.kovisoft.pg.database.data.ContentHash";
+    private static final String CONTENT_HASH_COLUMN = "content_hash";
+
+    // Mirrors SQLConvertType, that enum can not be used here as it starts the runtime logger.
+    // SQLTypesMatchTest fails the build when the two drift apart.
+    static final Map<String, String> SQL_TYPES = new HashMap<>();
+    static {
+        SQL_TYPES.put("STRING", "TEXT");
+        SQL_TYPES.put("LONG", "BIGINT");
+        SQL_TYPES.put("INT", "INT");
+        SQL_TYPES.put("INTEGER", "INT");
+        SQL_TYPES.put("FLOAT", "REAL");
+        SQL_TYPES.put("DOUBLE", "DOUBLE PRECISION");
+        SQL_TYPES.put("BOOLEAN", "BOOLEAN");
+        SQL_TYPES.put("LOCALDATETIME", "TEXT");
+        SQL_TYPES.put("STRING_ARRAY", "TEXT[]");
+        SQL_TYPES.put("LONG_ARRAY", "BIGINT[]");
+        SQL_TYPES.put("INT_ARRAY", "INT[]");
+        SQL_TYPES.put("INTEGER_ARRAY", "INT[]");
+        SQL_TYPES.put("FLOAT_ARRAY", "REAL[]");
+        SQL_TYPES.put("DOUBLE_ARRAY", "DOUBLE PRECISION[]");
+        SQL_TYPES.put("BOOLEAN_ARRAY", "BOOLEAN[]");
+        SQL_TYPES.put("LOCALDATETIME_ARRAY", "TEXT[]");
+        SQL_TYPES.put("ARRAYLIST", "TEXT[]");
+        SQL_TYPES.put("LIST", "TEXT[]");
+        SQL_TYPES.put("MAP", "JSONB");
+        SQL_TYPES.put("HASHMAP", "JSONB");
+        SQL_TYPES.put("TREEMAP", "JSONB");
+        SQL_TYPES.put("ARRAYLISTHOLDER", "JSONB");
+        SQL_TYPES.put("HASHMAPHOLDER", "JSONB");
+    }
+
+    // Prepared map statement key postfixes, these match AbstractDbOperations.
+    private static final String INSERT = "-insert";
+    private static final String INSERT_MANY = "-insert-many";
+    private static final String UPDATE = "-update";
+    private static final String UPDATE_MANY = "-update-many";
+    private static final String MATCH = "-match";
+    private static final String MATCH_NO_ID = "-match-no-id";
+    private static final String PRIMARY_KEY = "-pk";
+    private static final String ALL = "-all";
+    private static final String ALL_LIMIT = "-all-limit";
+    private static final String ALL_LIMIT_START = "-all-limit-start";
+    private static final String ALL_LIMIT_START_ORDER_DESC = "-all-limit-start-order-desc";
+    private static final String ALL_LIMIT_START_ORDER_ASC = "-all-limit-start-order-asc";
+    private static final String DELETE = "-delete";
+
+    private enum BindKind { PRIMITIVE, DATE_TIME, JSON_HOLDER, ENUM, OBJECT }
+
+    private record Column(String accessor, String name, String sqlType, String javaType, BindKind bindKind) {
+        boolean isJsonB(){ return sqlType.contains("JSONB"); }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if(annotation == null) return false;
+        for(Element element : roundEnv.getElementsAnnotatedWith(annotation)){
+            if(element.getKind() != ElementKind.RECORD){
+                error(element, "GenerateSQLMapper can only be used on records.");
+                continue;
+            }
+            TypeElement record = (TypeElement) element;
+            try{
+                generate(record);
+            } catch (IllegalStateException e){
+                error(record, e.getMessage());
+            } catch (IOException e){
+                error(record, "Unable to write generated mapper: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement record) throws IOException {
+        TypeElement sqlRecord = processingEnv.getElementUtils().getTypeElement(SQL_RECORD);
+        if(sqlRecord == null || !processingEnv.getTypeUtils().isAssignable(record.asType(), sqlRecord.asType())){
+            throw new IllegalStateException(record.getSimpleName() + " must implement SQLRecord.");
+        }
+        if(!hasMapConstructor(record)){
+            throw new IllegalStateException(record.getSimpleName() + " needs a non private Map<String, Object> constructor.");
+        }
+        List<? extends RecordComponentElement> comps = record.getRecordComponents();
+        if(comps.isEmpty()) throw new IllegalStateException(record.getSimpleName() + " has no components.");
+        if(!getSimpleTypeName(comps.getFirst().asType()).equalsIgnoreCase("Long")){
+            throw new IllegalStateException("The primary key must be a Long and the first component of " + record.getSimpleName());
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(record).toString();
+        String flatName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+        String mapperName = flatName + GENERATED_SUFFIX;
+        String recordName = record.getQualifiedName().toString();
+        String tableName = record.getSimpleName().toString().toLowerCase();
+        String primaryKey = comps.getFirst().getSimpleName().toString().toLowerCase();
+        String primaryAccessor = comps.getFirst().getAccessor().getSimpleName().toString();
+
+        List<Column> columns = new ArrayList<>();
+        for(int i = 1; i < comps.size(); i++){
+            columns.add(toColumn(comps.get(i), tableName));
+        }
+
+        boolean hashed = hasAnnotation(record, CONTENT_HASH);
+        Map<String, String> statements = buildStatements(tableName, primaryKey, columns, hashed);
+        String create = buildCreate(tableName, primaryKey, columns, hashed);
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                (packageName.isEmpty() ? "" : packageName + ".") + mapperName, record);
+        try(Writer w = file.openWriter()){
+            if(!packageName.isEmpty()) w.write("package " + packageName + ";\n\n");
+            w.write("/**\n * Generated by SQLMapperProcessor for " + recordName + ", do not edit.\n */\n");
+            w.write("public final class " + mapperName + " implements " + MAPPER_INTERFACE + "<" + recordName + "> {\n\n");
+            w.write("    private static final java.util.Map<String, String> STATEMENTS = java.util.Map.ofEntries(\n");
+            Iterator<Map.Entry<String, String>> iter = statements.entrySet().iterator();
+            while(iter.hasNext()){
+                Map.Entry<String, String> entry = iter.next();
+                w.write("            java.util.Map.entry(" + literal(entry.getKey()) + ", " + literal(entry.getValue()) + ")");
+                w.write(iter.hasNext() ? ",\n" : ");\n\n");
+            }
+            w.write("    public " + mapperName + "(){}\n\n");
+            w.write("    @Override\n    public Class<" + recordName + "> getRecordClass() {\n        return " + recordName + ".class;\n    }\n\n");
+            w.write("    @Override\n    public String getCreateStatement() {\n        return " + literal(create) + ";\n    }\n\n");
+            w.write("    @Override\n    public java.util.Map<String, String> getStatements() {\n        return STATEMENTS;\n    }\n\n");
+            w.write("    @Override\n    public void bind(java.sql.PreparedStatement pStmt, " + recordName + " record, boolean isUpdate,\n"
+                    + "                     com.fasterxml.jackson.databind.ObjectMapper om)\n"
+                    + "            throws java.sql.SQLException, com.fasterxml.jackson.core.JsonProcessingException {\n");
+            for(int i = 0; i < columns.size(); i++){
+                w.write(bindLine(columns.get(i), i + 1));
+            }
+            int next = columns.size() + 1;
+            if(hashed) w.write("        pStmt.setLong(" + next++ + ", record.getContentHash());\n");
+            w.write("        if(isUpdate) pStmt.setLong(" + next + ", record." + primaryAccessor + "());\n");
+            w.write("    }\n\n");
+            w.write("    @Override\n    public " + recordName + " mapRow(java.util.Map<String, Object> row) {\n");
+            w.write("        return new " + recordName + "(row);\n    }\n");
+            w.write("}\n");
+        }
+    }
+
+    private Column toColumn(RecordComponentElement comp, String tableName){
+        TypeMirror type = comp.asType();
+        String accessor = comp.getAccessor().getSimpleName().toString();
+        String name = comp.getSimpleName().toString().toLowerCase();
+        boolean isEnum = type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+        String simpleName = isEnum ? "Integer" : getSimpleTypeName(type);
+        String key = (simpleName.indexOf('[') > -1)
+                ? simpleName.substring(0, simpleName.indexOf('[')).toUpperCase() + "_ARRAY"
+                : simpleName.toUpperCase();
+        String sqlType = SQL_TYPES.get(key);
+        if(sqlType == null){
+            throw new IllegalStateException(String.format("Unsupported type of %s in table %s creation statement!", simpleName, tableName));
+        }
+        BindKind bindKind;
+        if(type.getKind().isPrimitive()) bindKind = BindKind.PRIMITIVE;
+        else if(isEnum) bindKind = BindKind.ENUM;
+        else if(simpleName.equals("LocalDateTime")) bindKind = BindKind.DATE_TIME;
+        else if(simpleName.equals("ArrayListHolder") || simpleName.equals("HashMapHolder")) bindKind = BindKind.JSON_HOLDER;
+        else bindKind = BindKind.OBJECT;
+        return new Column(accessor, name, sqlType, type.toString(), bindKind);
+    }
+
+    private String bindLine(Column column, int index){
+        String getter = "record." + column.accessor() + "()";
+        if(column.bindKind() == BindKind.PRIMITIVE){
+            return "        pStmt.setObject(" + index + ", " + getter + ");\n";
+        }
+        String var = "v" + index;
+        String set = switch (column.bindKind()){
+            case DATE_TIME -> "pStmt.setString(" + index + ", " + var + ".toString());";
+            case JSON_HOLDER -> "pStmt.setString(" + index + ", om.writeValueAsString(" + var + "));";
+            case ENUM -> "pStmt.setInt(" + index + ", " + var + ".ordinal());";
+            default -> "pStmt.setObject(" + index + ", " + var + ");";
+        };
+        return "        " + column.javaType() + " " + var + " = " + getter + ";\n"
+                + "        if(" + var + " == null) pStmt.setObject(" + index + ", null);\n"
+                + "        else " + set + "\n";
+    }
+
+    private String buildCreate(String tableName, String primaryKey, List<Column> columns, boolean hashed){
+        StringBuilder createSB = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(tableName).append(" ( ");
+        createSB.append(primaryKey).append(" BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY, ");
+        for(Column column : columns){
+            createSB.append(column.name()).append(" ").append(column.sqlType()).append(", ");
+        }
+        if(hashed) createSB.append(CONTENT_HASH_COLUMN).append(" BIGINT, ");
+        createSB.setLength(createSB.length() - 2);
+        createSB.append(" );");
+        return createSB.toString();
+    }
+
+    private Map<String, String> buildStatements(String tableName, String primaryKey, List<Column> columns, boolean hashed){
+        Map<String, String> statements = new LinkedHashMap<>();
+        StringBuilder insertSB = new StringBuilder("INSERT INTO ").append(tableName).append("(");
+        StringBuilder insertValuesSB = new StringBuilder(") VALUES (");
+        StringBuilder updateSB = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        StringBuilder matchSB = new StringBuilder("SELECT * FROM ").append(tableName).append(" WHERE ");
+        for(Column column : columns){
+            insertSB.append(column.name()).append(", ");
+            insertValuesSB.append(column.isJsonB() ? "?::jsonb," : "?, ");
+            updateSB.append(column.name()).append(" = ?").append(column.isJsonB() ? "::JSONB, " : ", ");
+            matchSB.append(column.name()).append(column.isJsonB() ? " = ?::JSONB AND " : " = ? AND ");
+        }
+        if(hashed){
+            insertSB.append(CONTENT_HASH_COLUMN).append(", ");
+            insertValuesSB.append("?, ");
+            updateSB.append(CONTENT_HASH_COLUMN).append(" = ?, ");
+            matchSB.append("(").append(CONTENT_HASH_COLUMN).append(" = ? OR ").append(CONTENT_HASH_COLUMN).append(" IS NULL) AND ");
+        }
+        insertSB.setLength(insertSB.length() - 2);
+        insertSB.append(insertValuesSB);
+        insertSB.setLength(insertSB.length() - 2);
+        insertSB.append(")");
+        statements.put(tableName + INSERT_MANY, insertSB + ";");
+        statements.put(tableName + INSERT, insertSB.append(" RETURNING *;").toString());
+
+        updateSB.setLength(updateSB.length() - 2);
+        updateSB.append(" WHERE ").append(primaryKey).append(" = ?");
+        statements.put(tableName + UPDATE_MANY, updateSB + ";");
+        statements.put(tableName + UPDATE, updateSB.append(" RETURNING *;").toString());
+
+        statements.put(tableName + MATCH_NO_ID, matchSB.substring(0, matchSB.length() - 4));
+        matchSB.append(primaryKey).append(" = ?");
+        statements.put(tableName + MATCH, matchSB.toString());
+
+        statements.put(tableName + PRIMARY_KEY, "SELECT * FROM " + tableName + " WHERE " + primaryKey + " = ?" + ";");
+
+        String allBase = "SELECT * FROM " + tableName;
+        statements.put(tableName + ALL, allBase + ";");
+        statements.put(tableName + ALL_LIMIT, allBase + " ORDER BY " + primaryKey + " LIMIT ?;");
+        statements.put(tableName + ALL_LIMIT_START, allBase + " ORDER BY " + primaryKey + " OFFSET ? LIMIT ?;");
+        statements.put(tableName + ALL_LIMIT_START_ORDER_DESC, allBase + " ORDER BY " + primaryKey + " DESC OFFSET ? LIMIT ?;");
+        statements.put(tableName + ALL_LIMIT_START_ORDER_ASC, allBase + " ORDER BY " + primaryKey + " ASC OFFSET ? LIMIT ?;");
+
+        statements.put(tableName + DELETE, "DELETE FROM " + tableName + " WHERE " + primaryKey + " = ? RETURNING *" + ";");
+        return statements;
+    }
+
+    private boolean hasAnnotation(TypeElement record, String annotationName){
+        for(AnnotationMirror mirror : record.getAnnotationMirrors()){
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if(type.getQualifiedName().contentEquals(annotationName)) return true;
+        }
+        return false;
+    }
+
+    private boolean hasMapConstructor(TypeElement record){
+        TypeMirror map = processingEnv.getTypeUtils().erasure(
+                processingEnv.getElementUtils().getTypeElement("java.util.Map").asType());
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(record.getEnclosedElements())){
+            if(constructor.getModifiers().contains(Modifier.PRIVATE) || constructor.getParameters().size() != 1) continue;
+            TypeMirror param = processingEnv.getTypeUtils().erasure(constructor.getParameters().getFirst().asType());
+            if(processingEnv.getTypeUtils().isSameType(param, map)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches Class.getSimpleName for the erased type, which is what SQLConvertType expects.
+     */
+    private String getSimpleTypeName(TypeMirror type){
+        if(type.getKind().isPrimitive()) return type.getKind().name().toLowerCase();
+        if(type.getKind() == TypeKind.ARRAY) return getSimpleTypeName(((ArrayType) type).getComponentType()) + "[]";
+        if(type.getKind() == TypeKind.DECLARED) return ((DeclaredType) type).asElement().getSimpleName().toString();
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private String literal(String value){
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private void error(Element element, String message){
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,20 @@
+package com.kovisoft.pg.database.processor;
+
+import com.kovisoft.pg.database.data.exports.SQLConvertType;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The processor keeps its own copy of the type table, a generated mapper has to create the same columns as the runtime.
+class SQLTypesMatchTest {
+
+    @Test
+    void sqlTypesMirrorSQLConvertType(){
+        Map<String, String> runtime = new HashMap<>();
+        for(SQLConvertType type : SQLConvertType.values()) runtime.put(type.name(), type.SQL_TYPE);
+        assertEquals(runtime, SQLMapperProcessor.SQL_TYPES);
+    }
+}
@@ -0,0 +1,25 @@
+package com.kovisoft.pg.database.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives an {@link SQLRecord} table a content_hash BIGINT column holding {@link SQLRecord#getContentHash()}
+ * with a btree index on it. The hash is computed on the client and written with every insert and update,
+ * getMatchNoId (and so every upsert and compound add) then probes the index for the hash and rechecks
+ * the columns on the few rows it finds instead of comparing every column of every row, JSONB included.
+ * The columns stay the real comparison, the hash only narrows the rows, and rows with a null hash are
+ * always compared. Rows already in the table when it is added, or hashed by an older version, are hashed
+ * at startup and a row that can not be hashed fails it. Only rows written through the DBOperations keep
+ * it current, a row changed by hand with plain SQL keeps a stale hash and will not be found by getMatchNoId,
+ * set its content_hash to null to have it compared anyway.
+ * The hash is bound after the components and before the primary key, a generated mapper does the same.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ContentHash {
+
+    String COLUMN = "content_hash";
+}
@@ -0,0 +1,18 @@
+package com.kovisoft.pg.database.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an {@link SQLRecord} record for the PgDatabaseProcessor annotation processor.
+ * For every annotated record a {@code <RecordName>_SQLMapper} class is generated in the
+ * same package which holds the prepared statement strings, a parameter binder and a row mapper.
+ * The DBManager will discover and prefer the generated class over runtime reflection.
+ * The record still needs its Map constructor, the generated row mapper calls it directly.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateSQLMapper {
+}
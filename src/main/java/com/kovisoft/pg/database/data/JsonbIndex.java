@@ -0,0 +1,25 @@
+package com.kovisoft.pg.database.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a GIN index on a JSONB record component and prepares the DBOperations containment and key queries for it.
+ * For an ArrayListHolder the list is indexed and for a HashMapHolder its map, not the type info the holder is
+ * stored with, so the queries look at the values the same way the record does. Managed like {@link SQLIndex}.
+ * <pre>{@code
+ * public record Item(Long id, String name, @JsonbIndex(pathOps = false) ArrayListHolder<String> tags) implements SQLRecord
+ * }</pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.RECORD_COMPONENT)
+public @interface JsonbIndex {
+
+    /**
+     * @return True for a jsonb_path_ops index, smaller and quicker but it only serves getContaining.
+     * False for the default jsonb_ops, which also serves getWithAnyKey and getWithAllKeys.
+     */
+    boolean pathOps() default true;
+}
@@ -1,9 +1,17 @@
 package com.kovisoft.pg.database.data;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class Records {
 
@@ -47,4 +55,93 @@ public class Records {
         return new ArrayList<>();
     }
 
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long JSON_NULL = 0x9e3779b97f4a7c15L;
+    // Configured like the one the DBOperations bind JSONB with, the hash has to see the same json.
+    private static final ObjectMapper om = new ObjectMapper();
+
+    /**
+     * Hashes every component of the record except the first (the primary key) in component order.
+     * Each value is hashed in the form it is bound in, so two records the match statement finds equal
+     * hash the same. Enums by ordinal, LocalDateTime by the text it is stored as, and everything written
+     * as JSONB (holders, maps and the objects in them) by its json the way jsonb compares it: object keys
+     * in any order and numbers by value, so 1, 1.0 and 1.00 are one number. The result only depends on
+     * the values and is the same across runs.
+     * @param record The record to hash.
+     * @return The 64 bit content hash.
+     */
+    public static long contentHash(SQLRecord record){
+        RecordComponent[] comps = record.getClass().getRecordComponents();
+        long hash = FNV_OFFSET;
+        if(comps == null) return hash;
+        for(int i = 1; i < comps.length; i++){
+            Object value;
+            try{
+                value = record.getObjectValueByFieldName(comps[i].getName());
+            } catch (NoSuchFieldException | IllegalAccessException e){
+                value = null;
+            }
+            hash = (hash ^ mix(valueHash(value))) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long valueHash(Object value){
+        if(value == null) return 0;
+        if(value instanceof Enum<?> e) return e.ordinal() + 1;
+        if(value instanceof LocalDateTime dateTime) return dateTime.toString().hashCode();
+        // -0.0 and 0.0 are equal in Postgres but not to Double.hashCode.
+        if(value instanceof Double d) return (d == 0) ? 0 : d.hashCode();
+        if(value instanceof Float f) return (f == 0) ? 0 : f.hashCode();
+        if(value instanceof BigDecimal number) return numberHash(number);
+        if(value instanceof String || value instanceof Number || value instanceof Boolean) return value.hashCode();
+        if(value.getClass().isArray()){
+            long hash = FNV_OFFSET;
+            for(int i = 0; i < Array.getLength(value); i++) hash = (hash ^ mix(valueHash(Array.get(value, i)))) * FNV_PRIME;
+            return hash;
+        }
+        return jsonHash(om.valueToTree(value));
+    }
+
+    private static long jsonHash(JsonNode node){
+        if(node == null || node.isNull() || node.isMissingNode()) return JSON_NULL;
+        if(node.isNumber()){
+            try{
+                // The node's text is what was written, a float read back as a double still prints the same.
+                return numberHash(new BigDecimal(node.asText()));
+            } catch (NumberFormatException e){
+                return node.asText().hashCode();
+            }
+        }
+        if(node.isObject()){
+            // Summed so the key order does not matter, jsonb does not keep it.
+            long sum = 1;
+            for(Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ){
+                Map.Entry<String, JsonNode> field = it.next();
+                sum += mix(field.getKey().hashCode() * 31L + jsonHash(field.getValue()));
+            }
+            return sum;
+        }
+        if(node.isArray()){
+            long hash = FNV_OFFSET;
+            for(JsonNode item : node) hash = (hash ^ mix(jsonHash(item))) * FNV_PRIME;
+            return hash;
+        }
+        if(node.isBoolean()) return Boolean.hashCode(node.booleanValue());
+        return node.asText().hashCode();
+    }
+
+    // numeric compares by value, 1.0 and 1.00 only differ in scale.
+    private static long numberHash(BigDecimal number){
+        BigDecimal stripped = number.stripTrailingZeros();
+        return stripped.unscaledValue().hashCode() * 31L + stripped.scale();
+    }
+
+    // Spreads the bits so small values (ordinals, lengths) do not cluster.
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
 }
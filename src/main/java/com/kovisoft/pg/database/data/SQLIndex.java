@@ -0,0 +1,48 @@
+package com.kovisoft.pg.database.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a secondary index on an {@link SQLRecord} table, repeat it for more than one.
+ * The DBManager creates the declared indexes with the table and keeps them in line with the record at
+ * every startup: indexes it made that are no longer declared or whose definition changed are dropped,
+ * invalid ones left by a failed concurrent build are rebuilt. On tables that already exist the indexes
+ * are built and dropped CONCURRENTLY so writes carry on while they build. Indexes made by hand are never touched.
+ * <pre>{@code
+ * @SQLIndex(columns = {"name"})
+ * @SQLIndex(columns = {"customer", "created DESC"}, where = "deleted = false")
+ * @SQLIndex(columns = {"email"}, unique = true)
+ * public record Account(Long id, String name, ...) implements SQLRecord {...}
+ * }</pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(SQLIndexes.class)
+public @interface SQLIndex {
+
+    /**
+     * @return The record components to index in order, lower or camel case, optionally followed by ASC or DESC.
+     */
+    String[] columns();
+
+    boolean unique() default false;
+
+    /**
+     * @return The predicate of a partial index, left empty to index every row.
+     */
+    String where() default "";
+
+    /**
+     * @return The index method, btree when empty.
+     */
+    String using() default "";
+
+    /**
+     * @return The index name, when empty it is the table and columns joined with an _idx suffix.
+     */
+    String name() default "";
+}
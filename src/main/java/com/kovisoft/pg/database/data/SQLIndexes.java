@@ -0,0 +1,15 @@
+package com.kovisoft.pg.database.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The container of repeated {@link SQLIndex} annotations, the compiler adds it, there is no need to write it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SQLIndexes {
+    SQLIndex[] value();
+}
@@ -23,6 +23,16 @@ public interface SQLRecord {
     <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap);
     <T extends SQLRecord> boolean equalsWithoutId(T record);
 
+    /**
+     * A hash of every component but the primary key, records that are equalsWithoutId must have the
+     * same content hash. The default covers records whose equalsWithoutId compares all non id components,
+     * override both together if yours compares less. Stable across runs, see {@link Records#contentHash}.
+     * @return The 64 bit content hash.
+     */
+    default long getContentHash(){
+        return Records.contentHash(this);
+    }
+
     // Used for migrations of the database
     default List<FieldConverter> getConverter(){
         return List.of();
@@ -0,0 +1,21 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by batchRequestsNoReturn when some of its chunks were rolled back or records could not be bound.
+ * The chunks that committed stay committed, the result says which record ranges did not make it.
+ */
+public class BatchFailedException extends SQLException {
+
+    private final BatchResult result;
+
+    public BatchFailedException(String message, BatchResult result){
+        super(message);
+        this.result = result;
+    }
+
+    public BatchResult getResult(){
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a chunked batch, every chunk commits on its own so a failure only loses that chunk.
+ * @param attempted The records passed in.
+ * @param succeeded The records in chunks that committed.
+ * @param chunks The number of chunks the records were split into.
+ * @param generatedKeys The primary keys of inserted records in insert order, empty for updates.
+ * @param failures The record ranges that were rolled back or could not be bound.
+ */
+public record BatchResult(int attempted, int succeeded, int chunks, List<Long> generatedKeys,
+                          List<ChunkFailure> failures) {
+
+    /**
+     * @param fromIndex The index of the first record of the failed range, inclusive.
+     * @param toIndex The index after the last record of the failed range.
+     * @param message Why the range failed.
+     */
+    public record ChunkFailure(int fromIndex, int toIndex, String message){}
+
+    public static BatchResult empty(){
+        return new BatchResult(0, 0, 0, List.of(), List.of());
+    }
+
+    public boolean isComplete(){
+        return failures.isEmpty() && succeeded == attempted;
+    }
+
+    /**
+     * Combines the results of batches run side by side, failure indexes stay relative to their own batch.
+     * @param results The results to combine.
+     * @return One result covering all of them.
+     */
+    public static BatchResult merge(List<BatchResult> results){
+        int attempted = 0, succeeded = 0, chunks = 0;
+        List<Long> keys = new ArrayList<>();
+        List<ChunkFailure> failures = new ArrayList<>();
+        for(BatchResult result : results){
+            if(result == null) continue;
+            attempted += result.attempted;
+            succeeded += result.succeeded;
+            chunks += result.chunks;
+            keys.addAll(result.generatedKeys);
+            failures.addAll(result.failures);
+        }
+        return new BatchResult(attempted, succeeded, chunks, keys, failures);
+    }
+}
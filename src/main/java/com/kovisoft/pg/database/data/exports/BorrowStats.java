@@ -0,0 +1,18 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Snapshot of the borrow wait queue in front of a connection pool.
+ * @param borrows Successful borrows through the queue.
+ * @param timeouts Borrows that gave up after the configured borrow timeout.
+ * @param interrupts Borrows abandoned because the waiting thread was interrupted.
+ * @param totalWaitNanos Time spent waiting summed over every successful borrow.
+ * @param maxWaitNanos The longest single wait of a successful borrow.
+ * @param waiting The number of threads currently queued for a connection.
+ */
+public record BorrowStats(long borrows, long timeouts, long interrupts, long totalWaitNanos,
+                          long maxWaitNanos, int waiting) {
+
+    public long averageWaitNanos(){
+        return (borrows == 0) ? 0 : totalWaitNanos / borrows;
+    }
+}
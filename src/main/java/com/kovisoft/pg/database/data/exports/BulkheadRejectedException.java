@@ -0,0 +1,14 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Thrown when a bulkhead is at its limit and its wait queue is full, or a queued call waited too long.
+ * No connection was borrowed, retrying later is safe. Unchecked so it passes through the DBOperations
+ * methods, which otherwise log their failures and return null or an empty list. An upsert that was
+ * turned away would take that as no match and insert a duplicate.
+ */
+public class BulkheadRejectedException extends RuntimeException {
+
+    public BulkheadRejectedException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Snapshot of one bulkhead.
+ * @param name The table name, or the operation class as read, write or bulk.
+ * @param limit How many calls may run at once.
+ * @param active Calls running right now.
+ * @param queued Calls waiting for a slot right now.
+ * @param admitted Calls let through since startup.
+ * @param rejected Calls turned away because the queue was full or the wait ran out.
+ */
+public record BulkheadStats(String name, int limit, int active, int queued, long admitted, long rejected) {
+}
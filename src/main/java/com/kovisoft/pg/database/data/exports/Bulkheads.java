@@ -0,0 +1,176 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limits the DBOperations take before they borrow a connection, one per table and one per
+ * {@link OperationClass}. A call has to get into both, calls over a limit wait in a bounded queue and are
+ * rejected with a {@link BulkheadRejectedException} once it is full, so a runaway job on one table
+ * fails fast instead of holding every connection in the pool. Tables and classes without a limit are not held back.
+ */
+public final class Bulkheads {
+
+    /** The table limit key that applies to every table not listed on its own. */
+    public static final String ANY_TABLE = "*";
+
+    private final Map<String, Integer> tableLimits = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<OperationClass, Integer> operationLimits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bulkhead> tables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<OperationClass, Bulkhead> operations = new ConcurrentHashMap<>();
+    private final Integer queueSize;
+    private final long waitNanos;
+
+    /**
+     * @param tableLimits Limit per table name, {@link #ANY_TABLE} sets the limit for the unlisted tables. Can be null.
+     * @param operationLimits Limit per operation class keyed read, write or bulk. Can be null.
+     * @param queueSize How many calls may wait on each bulkhead, null lets as many wait as the limit.
+     * @param waitMillis How long a queued call waits for a slot before it is rejected.
+     */
+    public Bulkheads(Map<String, Integer> tableLimits, Map<String, Integer> operationLimits, Integer queueSize, long waitMillis){
+        if(tableLimits != null) this.tableLimits.putAll(tableLimits);
+        if(operationLimits != null){
+            for(Map.Entry<String, Integer> entry : operationLimits.entrySet()){
+                this.operationLimits.put(OperationClass.valueOf(entry.getKey().toUpperCase()), entry.getValue());
+            }
+        }
+        this.queueSize = queueSize;
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+    }
+
+    /**
+     * @return True if any limit is configured, without one entering is free.
+     */
+    public boolean isEnabled(){
+        return !tableLimits.isEmpty() || !operationLimits.isEmpty();
+    }
+
+    /**
+     * Takes a slot on the tables bulkhead and then on the operation class bulkhead.
+     * @param tableName The table the call works on.
+     * @param operationClass What kind of call it is.
+     * @return The permit, close it when the call is done to free both slots.
+     * @throws BulkheadRejectedException If either bulkhead turned the call away.
+     * @throws SQLException If the thread was interrupted while queued, the interrupt flag is restored.
+     */
+    public Permit enter(String tableName, OperationClass operationClass) throws SQLException {
+        Bulkhead table = tableBulkhead(tableName);
+        Bulkhead operation = operationBulkhead(operationClass);
+        if(table != null) table.acquire();
+        try{
+            if(operation != null) operation.acquire();
+        } catch (SQLException e){
+            if(table != null) table.release();
+            throw e;
+        }
+        return new Permit(table, operation);
+    }
+
+    public List<BulkheadStats> getStats(){
+        List<BulkheadStats> stats = new ArrayList<>();
+        operations.values().forEach(bulkhead -> stats.add(bulkhead.stats()));
+        tables.values().forEach(bulkhead -> stats.add(bulkhead.stats()));
+        return stats;
+    }
+
+    private Bulkhead tableBulkhead(String tableName){
+        if(tableName == null) return null;
+        Integer limit = tableLimits.getOrDefault(tableName, tableLimits.get(ANY_TABLE));
+        if(limit == null) return null;
+        return tables.computeIfAbsent(tableName.toLowerCase(), name -> new Bulkhead(name, limit, queueFor(limit)));
+    }
+
+    private Bulkhead operationBulkhead(OperationClass operationClass){
+        Integer limit = operationLimits.get(operationClass);
+        if(limit == null) return null;
+        return operations.computeIfAbsent(operationClass,
+                op -> new Bulkhead(op.name().toLowerCase(), limit, queueFor(limit)));
+    }
+
+    private int queueFor(int limit){
+        return (queueSize == null) ? limit : queueSize;
+    }
+
+    /**
+     * Holds the slots taken by {@link #enter(String, OperationClass)}, closing it more than once is harmless.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Bulkhead table;
+        private final Bulkhead operation;
+        private boolean closed = false;
+
+        private Permit(Bulkhead table, Bulkhead operation){
+            this.table = table;
+            this.operation = operation;
+        }
+
+        @Override
+        public void close(){
+            if(closed) return;
+            closed = true;
+            if(operation != null) operation.release();
+            if(table != null) table.release();
+        }
+    }
+
+    private final class Bulkhead {
+        private final String name;
+        private final int limit;
+        private final int maxQueued;
+        private final Semaphore slots;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Bulkhead(String name, int limit, int maxQueued){
+            if(limit < 1) throw new IllegalArgumentException("The bulkhead limit for " + name + " must be at least 1!");
+            this.name = name;
+            this.limit = limit;
+            this.maxQueued = Math.max(0, maxQueued);
+            this.slots = new Semaphore(limit, true);
+        }
+
+        private void acquire() throws SQLException {
+            if(slots.tryAcquire()){
+                admitted.increment();
+                return;
+            }
+            if(queued.incrementAndGet() > maxQueued){
+                queued.decrementAndGet();
+                rejected.increment();
+                throw new BulkheadRejectedException(String.format("The %s bulkhead is full, %d running and %d queued!",
+                        name, limit, maxQueued));
+            }
+            try{
+                if(!slots.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)){
+                    rejected.increment();
+                    throw new BulkheadRejectedException(String.format("Waited over %dms for the %s bulkhead!",
+                            TimeUnit.NANOSECONDS.toMillis(waitNanos), name));
+                }
+                admitted.increment();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while queued on the " + name + " bulkhead!", e);
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+
+        private void release(){
+            slots.release();
+        }
+
+        private BulkheadStats stats(){
+            return new BulkheadStats(name, limit, limit - slots.availablePermits(), queued.get(),
+                    admitted.sum(), rejected.sum());
+        }
+    }
+}
@@ -13,13 +13,39 @@ public abstract class DBManager implements AutoCloseable {
     // Method for table migrations
     abstract protected boolean migrateFromOldTables(List<AbstractMigration> tm, DBManagerConfig config);
 
-    // Borrow Connection
+    // Borrow Connection, close the connection to hand it back, it stays pooled and frees the borrow slot.
     public abstract Connection borrowConnection(boolean isPrivileged) throws SQLException;
     public abstract ConnectionWrapper borrowCW(boolean isPrivileged) throws SQLException;
+    // Read only borrow, routed to a read replica when one is configured and eligible.
+    public abstract ConnectionWrapper borrowReadCW(boolean isPrivileged) throws SQLException;
+    // Keeps reads on the current thread on the primary until unpinned (read-your-writes sessions).
+    public abstract void pinReadsToPrimary(boolean pinned);
+    // Release a borrowed wrapper so the next queued borrower is woken.
+    public abstract void releaseCW(ConnectionWrapper cw, boolean isPrivileged);
+    public abstract BorrowStats getBorrowStats(boolean isPrivileged);
+    // Table and operation class limits the DBOperations enter before borrowing, null while initializing.
+    public abstract Bulkheads getBulkheads();
+    // Latency, row and batch size histograms per table and operation, also exposed through the DBMetricsMXBean.
+    public abstract OperationMetrics getOperationMetrics();
+    // Slow statements and their sampled plans, disabled unless slowQueryMillis is set.
+    public abstract SlowQueryLog getSlowQueryLog();
+    // Listeners told about every statement the DBOperations run, see DBOperationListener.
+    public abstract OperationListeners getOperationListeners();
+    // Sequential scans the startup plan audit flagged, empty unless planAudit is on.
+    public abstract List<PlanFinding> getPlanFindings();
+    // The recent pool autoscaler decisions, oldest first. Empty when autoscaling is off.
+    public abstract List<PoolScalingDecision> getPoolScalingDecisions();
+    // Last time a wrapper was borrowed, used by the factory to find idle managers.
+    public abstract long getLastActivityMillis();
+    // True while no wrapper is borrowed or waited for, the factory only evicts idle managers.
+    public abstract boolean isIdle();
 
     abstract public Map<String, String> getPrepMap();
     abstract public List<Class<? extends SQLRecord>> getRecordClasses();
 
+    // Generated mapper for the record class if the PgDatabaseProcessor created one, otherwise null.
+    abstract public <T extends SQLRecord> SQLRecordMapper<T> getRecordMapper(Class<T> recordClass);
+
     //Primary DB build methods, this is more organizational help than part of the interface for the moment.
     abstract protected void createDBIfAbsent(String url, DBManagerConfig config, String dbName) throws SQLException, InterruptedException;
     abstract protected void addRole(String user, String pass) throws SQLException;
@@ -34,6 +60,7 @@ public abstract class DBManager implements AutoCloseable {
 
     abstract protected void addMissingColumns(List<String> columns, Class<? extends SQLRecord> recordClass) throws SQLException;
     abstract protected void removeExtraColumns(List<String> columns, Class<? extends SQLRecord> recordClass) throws SQLException;
+    abstract protected void alterColumnTypes(List<String> columns, Class<? extends SQLRecord> recordClass) throws SQLException;
     abstract protected void adjustColumnsToMatch(Class<? extends SQLRecord> recordClass) throws SQLException;
 
 }
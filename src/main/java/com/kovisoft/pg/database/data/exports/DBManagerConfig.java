@@ -2,6 +2,7 @@ package com.kovisoft.pg.database.data.exports;
 
 import com.kovisoft.pg.database.data.SQLRecord;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -21,6 +22,34 @@ public class DBManagerConfig{
     private boolean destructiveColumns;
     private Integer userThreads;
     private Integer adminThreads;
+    private Integer borrowTimeoutMillis;
+    private List<String> replicas;
+    private Long replicaMaxLagMillis;
+    private String replicaRouting;
+    private Integer readYourWritesMillis;
+    private Long identityStart;
+    private Long identityIncrement;
+    private Long identityMaxValue;
+    private Integer migrationChunkSize;
+    private Integer migrationThreads;
+    private boolean onlineMigration;
+    private Integer migrationThrottleMillis;
+    private Boolean reWriteBatchedInserts;
+    private Map<String, Integer> tableConcurrencyLimits;
+    private Map<String, Integer> operationConcurrencyLimits;
+    private Integer bulkheadQueueSize;
+    private Integer bulkheadWaitMillis;
+    private boolean poolAutoscaling;
+    private Integer minUserThreads;
+    private Integer minAdminThreads;
+    private Integer poolScaleIntervalMillis;
+    private Integer poolScaleTargetWaitMillis;
+    private Boolean jmxMetrics;
+    private Integer slowQueryMillis;
+    private Double slowQuerySampleRate;
+    private Integer slowQueryBufferSize;
+    private boolean planAudit;
+    private Long planAuditMinRows;
     private Map<Class<? extends SQLRecord>, String> records;
 
     /**
@@ -79,6 +108,36 @@ public class DBManagerConfig{
         this.destructiveColumns = (boolean) overrideMap.getOrDefault("destructiveColumns", config.isDestructiveColumns());
         this.userThreads = (Integer) overrideMap.getOrDefault("userThreads", config.getUserThreads());
         this.adminThreads = (Integer) overrideMap.getOrDefault("adminThreads", config.getAdminThreads());
+        this.borrowTimeoutMillis = (Integer) overrideMap.getOrDefault("borrowTimeoutMillis", config.getBorrowTimeoutMillis());
+        this.replicas = (List<String>) overrideMap.getOrDefault("replicas", config.getReplicas());
+        this.replicaMaxLagMillis = (Long) overrideMap.getOrDefault("replicaMaxLagMillis", config.getReplicaMaxLagMillis());
+        this.replicaRouting = (String) overrideMap.getOrDefault("replicaRouting", config.getReplicaRouting());
+        this.readYourWritesMillis = (Integer) overrideMap.getOrDefault("readYourWritesMillis", config.getReadYourWritesMillis());
+        this.identityStart = (Long) overrideMap.getOrDefault("identityStart", config.getIdentityStart());
+        this.identityIncrement = (Long) overrideMap.getOrDefault("identityIncrement", config.getIdentityIncrement());
+        this.identityMaxValue = (Long) overrideMap.getOrDefault("identityMaxValue", config.getIdentityMaxValue());
+        this.migrationChunkSize = (Integer) overrideMap.getOrDefault("migrationChunkSize", config.getMigrationChunkSize());
+        this.migrationThreads = (Integer) overrideMap.getOrDefault("migrationThreads", config.getMigrationThreads());
+        this.onlineMigration = (boolean) overrideMap.getOrDefault("onlineMigration", config.isOnlineMigration());
+        this.migrationThrottleMillis = (Integer) overrideMap.getOrDefault("migrationThrottleMillis", config.getMigrationThrottleMillis());
+        this.reWriteBatchedInserts = (Boolean) overrideMap.getOrDefault("reWriteBatchedInserts", config.getReWriteBatchedInserts());
+        this.tableConcurrencyLimits = (Map<String, Integer>) overrideMap.getOrDefault("tableConcurrencyLimits",
+                config.getTableConcurrencyLimits());
+        this.operationConcurrencyLimits = (Map<String, Integer>) overrideMap.getOrDefault("operationConcurrencyLimits",
+                config.getOperationConcurrencyLimits());
+        this.bulkheadQueueSize = (Integer) overrideMap.getOrDefault("bulkheadQueueSize", config.getBulkheadQueueSize());
+        this.bulkheadWaitMillis = (Integer) overrideMap.getOrDefault("bulkheadWaitMillis", config.getBulkheadWaitMillis());
+        this.poolAutoscaling = (boolean) overrideMap.getOrDefault("poolAutoscaling", config.isPoolAutoscaling());
+        this.minUserThreads = (Integer) overrideMap.getOrDefault("minUserThreads", config.getMinUserThreads());
+        this.minAdminThreads = (Integer) overrideMap.getOrDefault("minAdminThreads", config.getMinAdminThreads());
+        this.poolScaleIntervalMillis = (Integer) overrideMap.getOrDefault("poolScaleIntervalMillis", config.getPoolScaleIntervalMillis());
+        this.poolScaleTargetWaitMillis = (Integer) overrideMap.getOrDefault("poolScaleTargetWaitMillis", config.getPoolScaleTargetWaitMillis());
+        this.jmxMetrics = (Boolean) overrideMap.getOrDefault("jmxMetrics", config.getJmxMetrics());
+        this.slowQueryMillis = (Integer) overrideMap.getOrDefault("slowQueryMillis", config.getSlowQueryMillis());
+        this.slowQuerySampleRate = (Double) overrideMap.getOrDefault("slowQuerySampleRate", config.getSlowQuerySampleRate());
+        this.slowQueryBufferSize = (Integer) overrideMap.getOrDefault("slowQueryBufferSize", config.getSlowQueryBufferSize());
+        this.planAudit = (boolean) overrideMap.getOrDefault("planAudit", config.isPlanAudit());
+        this.planAuditMinRows = (Long) overrideMap.getOrDefault("planAuditMinRows", config.getPlanAuditMinRows());
         this.records = (Map<Class<? extends SQLRecord>, String>) treeMap.getOrDefault("records", config.getRecords());
     }
 
@@ -98,6 +157,34 @@ public class DBManagerConfig{
         this.destructiveColumns = (boolean) treeMap.getOrDefault("destructiveColumns", false);
         this.userThreads = (Integer) treeMap.getOrDefault("userThreads", null);
         this.adminThreads = (Integer) treeMap.getOrDefault("adminThreads", null);
+        this.borrowTimeoutMillis = (Integer) treeMap.getOrDefault("borrowTimeoutMillis", null);
+        this.replicas = (List<String>) treeMap.getOrDefault("replicas", null);
+        this.replicaMaxLagMillis = (Long) treeMap.getOrDefault("replicaMaxLagMillis", null);
+        this.replicaRouting = (String) treeMap.getOrDefault("replicaRouting", null);
+        this.readYourWritesMillis = (Integer) treeMap.getOrDefault("readYourWritesMillis", null);
+        this.identityStart = (Long) treeMap.getOrDefault("identityStart", null);
+        this.identityIncrement = (Long) treeMap.getOrDefault("identityIncrement", null);
+        this.identityMaxValue = (Long) treeMap.getOrDefault("identityMaxValue", null);
+        this.migrationChunkSize = (Integer) treeMap.getOrDefault("migrationChunkSize", null);
+        this.migrationThreads = (Integer) treeMap.getOrDefault("migrationThreads", null);
+        this.onlineMigration = (boolean) treeMap.getOrDefault("onlineMigration", false);
+        this.migrationThrottleMillis = (Integer) treeMap.getOrDefault("migrationThrottleMillis", null);
+        this.reWriteBatchedInserts = (Boolean) treeMap.getOrDefault("reWriteBatchedInserts", null);
+        this.tableConcurrencyLimits = (Map<String, Integer>) treeMap.getOrDefault("tableConcurrencyLimits", null);
+        this.operationConcurrencyLimits = (Map<String, Integer>) treeMap.getOrDefault("operationConcurrencyLimits", null);
+        this.bulkheadQueueSize = (Integer) treeMap.getOrDefault("bulkheadQueueSize", null);
+        this.bulkheadWaitMillis = (Integer) treeMap.getOrDefault("bulkheadWaitMillis", null);
+        this.poolAutoscaling = (boolean) treeMap.getOrDefault("poolAutoscaling", false);
+        this.minUserThreads = (Integer) treeMap.getOrDefault("minUserThreads", null);
+        this.minAdminThreads = (Integer) treeMap.getOrDefault("minAdminThreads", null);
+        this.poolScaleIntervalMillis = (Integer) treeMap.getOrDefault("poolScaleIntervalMillis", null);
+        this.poolScaleTargetWaitMillis = (Integer) treeMap.getOrDefault("poolScaleTargetWaitMillis", null);
+        this.jmxMetrics = (Boolean) treeMap.getOrDefault("jmxMetrics", null);
+        this.slowQueryMillis = (Integer) treeMap.getOrDefault("slowQueryMillis", null);
+        this.slowQuerySampleRate = (Double) treeMap.getOrDefault("slowQuerySampleRate", null);
+        this.slowQueryBufferSize = (Integer) treeMap.getOrDefault("slowQueryBufferSize", null);
+        this.planAudit = (boolean) treeMap.getOrDefault("planAudit", false);
+        this.planAuditMinRows = (Long) treeMap.getOrDefault("planAuditMinRows", null);
         this.records = (Map<Class<? extends SQLRecord>, String>) treeMap.getOrDefault("records", null);
     }
 
@@ -205,6 +292,328 @@ public class DBManagerConfig{
         this.adminThreads = adminThreads;
     }
 
+    /**
+     * @return How long a borrow waits in the pool queue before failing, null uses the DBManager default.
+     */
+    public Integer getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public void setBorrowTimeoutMillis(Integer borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    /**
+     * @return The read replica endpoints as "host:port" (or just "host" for the primary port), null for no replicas.
+     * IPv6 hosts go in brackets when a port is given, "[::1]:5433".
+     * Read only operations are spread over these, writes always go to the primary host.
+     */
+    public List<String> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<String> replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * @return Replicas replaying further behind the primary than this are skipped, null uses the DBManager default.
+     */
+    public Long getReplicaMaxLagMillis() {
+        return replicaMaxLagMillis;
+    }
+
+    public void setReplicaMaxLagMillis(Long replicaMaxLagMillis) {
+        this.replicaMaxLagMillis = replicaMaxLagMillis;
+    }
+
+    /**
+     * @return Either "round-robin" or "least-loaded", null is round-robin.
+     */
+    public String getReplicaRouting() {
+        return replicaRouting;
+    }
+
+    public void setReplicaRouting(String replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    /**
+     * @return How long reads on a thread stay on the primary after that thread wrote, null uses the DBManager default.
+     */
+    public Integer getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    public void setReadYourWritesMillis(Integer readYourWritesMillis) {
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    /**
+     * @return The first primary key the identity columns hand out, null is the Postgres default of 1.
+     * Shards use this with identityIncrement to interleave or offset their keys, see {@link ShardStrategy}.
+     */
+    public Long getIdentityStart() {
+        return identityStart;
+    }
+
+    public void setIdentityStart(Long identityStart) {
+        this.identityStart = identityStart;
+    }
+
+    /**
+     * @return The step between primary keys of the identity columns, null is the Postgres default of 1.
+     */
+    public Long getIdentityIncrement() {
+        return identityIncrement;
+    }
+
+    public void setIdentityIncrement(Long identityIncrement) {
+        this.identityIncrement = identityIncrement;
+    }
+
+    /**
+     * @return The last primary key the identity columns may hand out, null for no limit.
+     */
+    public Long getIdentityMaxValue() {
+        return identityMaxValue;
+    }
+
+    public void setIdentityMaxValue(Long identityMaxValue) {
+        this.identityMaxValue = identityMaxValue;
+    }
+
+    /**
+     * @return The rows read from an archive table and written to the new table per transaction
+     * during a migration, null uses the DBManager default.
+     */
+    public Integer getMigrationChunkSize() {
+        return migrationChunkSize;
+    }
+
+    public void setMigrationChunkSize(Integer migrationChunkSize) {
+        this.migrationChunkSize = migrationChunkSize;
+    }
+
+    /**
+     * @return How many tables are migrated at the same time, each uses two superuser connections.
+     * null uses the DBManager default.
+     */
+    public Integer getMigrationThreads() {
+        return migrationThreads;
+    }
+
+    public void setMigrationThreads(Integer migrationThreads) {
+        this.migrationThreads = migrationThreads;
+    }
+
+    /**
+     * @return If true migrations rebuild each table in place through a shadow table while the database
+     * stays in use, instead of archiving the whole database to a copy. The migration maps archive
+     * table names should then be the tables in the current db.
+     */
+    public boolean isOnlineMigration() {
+        return onlineMigration;
+    }
+
+    public void setOnlineMigration(boolean onlineMigration) {
+        this.onlineMigration = onlineMigration;
+    }
+
+    /**
+     * @return The pause between the batches an online migration copies, null uses the DBManager default.
+     */
+    public Integer getMigrationThrottleMillis() {
+        return migrationThrottleMillis;
+    }
+
+    public void setMigrationThrottleMillis(Integer migrationThrottleMillis) {
+        this.migrationThrottleMillis = migrationThrottleMillis;
+    }
+
+    /**
+     * @return If the driver should rewrite batched inserts into multi row inserts on the user and
+     * admin pools, null is treated as true.
+     */
+    public Boolean getReWriteBatchedInserts() {
+        return reWriteBatchedInserts;
+    }
+
+    public void setReWriteBatchedInserts(Boolean reWriteBatchedInserts) {
+        this.reWriteBatchedInserts = reWriteBatchedInserts;
+    }
+
+    /**
+     * @return How many calls may work on each table at once keyed by table name, "*" applies to every
+     * table not listed. Calls over the limit queue and are rejected when the queue is full, null is unlimited.
+     */
+    public Map<String, Integer> getTableConcurrencyLimits() {
+        return tableConcurrencyLimits;
+    }
+
+    public void setTableConcurrencyLimits(Map<String, Integer> tableConcurrencyLimits) {
+        this.tableConcurrencyLimits = tableConcurrencyLimits;
+    }
+
+    /**
+     * @return How many read, write and bulk calls may run at once, keyed "read", "write" or "bulk".
+     * Missing keys are unlimited.
+     */
+    public Map<String, Integer> getOperationConcurrencyLimits() {
+        return operationConcurrencyLimits;
+    }
+
+    public void setOperationConcurrencyLimits(Map<String, Integer> operationConcurrencyLimits) {
+        this.operationConcurrencyLimits = operationConcurrencyLimits;
+    }
+
+    /**
+     * @return How many calls may wait on a full table or operation limit before new ones are rejected,
+     * null allows as many waiting as the limit itself. 0 rejects as soon as the limit is reached.
+     */
+    public Integer getBulkheadQueueSize() {
+        return bulkheadQueueSize;
+    }
+
+    public void setBulkheadQueueSize(Integer bulkheadQueueSize) {
+        this.bulkheadQueueSize = bulkheadQueueSize;
+    }
+
+    /**
+     * @return How long a queued call waits for a table or operation slot, null uses the borrow timeout.
+     */
+    public Integer getBulkheadWaitMillis() {
+        return bulkheadWaitMillis;
+    }
+
+    public void setBulkheadWaitMillis(Integer bulkheadWaitMillis) {
+        this.bulkheadWaitMillis = bulkheadWaitMillis;
+    }
+
+    /**
+     * @return If true the user and admin pools are grown and shrunk between the min threads and
+     * userThreads/adminThreads based on borrow waits, utilisation and hold times.
+     * See DBManager.getPoolScalingDecisions() for what it decided.
+     */
+    public boolean isPoolAutoscaling() {
+        return poolAutoscaling;
+    }
+
+    public void setPoolAutoscaling(boolean poolAutoscaling) {
+        this.poolAutoscaling = poolAutoscaling;
+    }
+
+    /**
+     * @return The fewest connections the user pool keeps, also its starting size when autoscaling. null uses 2.
+     */
+    public Integer getMinUserThreads() {
+        return minUserThreads;
+    }
+
+    public void setMinUserThreads(Integer minUserThreads) {
+        this.minUserThreads = minUserThreads;
+    }
+
+    /**
+     * @return The fewest connections the admin pool keeps, also its starting size when autoscaling. null uses 2.
+     */
+    public Integer getMinAdminThreads() {
+        return minAdminThreads;
+    }
+
+    public void setMinAdminThreads(Integer minAdminThreads) {
+        this.minAdminThreads = minAdminThreads;
+    }
+
+    /**
+     * @return How often the autoscaler checks the pools, null uses the DBManager default.
+     */
+    public Integer getPoolScaleIntervalMillis() {
+        return poolScaleIntervalMillis;
+    }
+
+    public void setPoolScaleIntervalMillis(Integer poolScaleIntervalMillis) {
+        this.poolScaleIntervalMillis = poolScaleIntervalMillis;
+    }
+
+    /**
+     * @return The average borrow wait the autoscaler grows a pool past, null uses the DBManager default.
+     */
+    public Integer getPoolScaleTargetWaitMillis() {
+        return poolScaleTargetWaitMillis;
+    }
+
+    public void setPoolScaleTargetWaitMillis(Integer poolScaleTargetWaitMillis) {
+        this.poolScaleTargetWaitMillis = poolScaleTargetWaitMillis;
+    }
+
+    /**
+     * @return If the DBManager registers its DBMetricsMXBean with the platform MBean server, null is treated as true.
+     */
+    public Boolean getJmxMetrics() {
+        return jmxMetrics;
+    }
+
+    public void setJmxMetrics(Boolean jmxMetrics) {
+        this.jmxMetrics = jmxMetrics;
+    }
+
+    /**
+     * @return Statements slower than this are logged and kept in the DBManagers SlowQueryLog, null turns it off.
+     */
+    public Integer getSlowQueryMillis() {
+        return slowQueryMillis;
+    }
+
+    public void setSlowQueryMillis(Integer slowQueryMillis) {
+        this.slowQueryMillis = slowQueryMillis;
+    }
+
+    /**
+     * @return The share of slow queries explained with their generic plan, 0 to 1. null uses 0.1.
+     */
+    public Double getSlowQuerySampleRate() {
+        return slowQuerySampleRate;
+    }
+
+    public void setSlowQuerySampleRate(Double slowQuerySampleRate) {
+        this.slowQuerySampleRate = slowQuerySampleRate;
+    }
+
+    /**
+     * @return How many of the most recent slow queries are kept, null uses 100.
+     */
+    public Integer getSlowQueryBufferSize() {
+        return slowQueryBufferSize;
+    }
+
+    public void setSlowQueryBufferSize(Integer slowQueryBufferSize) {
+        this.slowQueryBufferSize = slowQueryBufferSize;
+    }
+
+    /**
+     * @return True to EXPLAIN the generated statements once at startup and report
+     * the sequential scans over large tables, see getPlanAuditMinRows. Off by default.
+     */
+    public boolean isPlanAudit() {
+        return planAudit;
+    }
+
+    public void setPlanAudit(boolean planAudit) {
+        this.planAudit = planAudit;
+    }
+
+    /**
+     * @return Tables with fewer rows than this are not audited, null uses 10000.
+     */
+    public Long getPlanAuditMinRows() {
+        return planAuditMinRows;
+    }
+
+    public void setPlanAuditMinRows(Long planAuditMinRows) {
+        this.planAuditMinRows = planAuditMinRows;
+    }
+
     public Map<Class<? extends SQLRecord>, String> getRecords() {
         return records;
     }
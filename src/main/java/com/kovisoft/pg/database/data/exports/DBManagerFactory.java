@@ -1,64 +1,142 @@
 package com.kovisoft.pg.database.data.exports;
 
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.pg.database.manager.ConnectionBudget;
 import com.kovisoft.pg.database.manager.DBManagerImpl;
 import com.kovisoft.pg.database.operations.DbOperationsAdminUser;
 import com.kovisoft.pg.database.operations.DbOperationsBaseUser;
+import com.kovisoft.pg.database.operations.ShardedDBOperations;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 public class DBManagerFactory {
 
-    private static final HashMap<String, DBManager> MANAGER_MAP = new HashMap<>();
-    private static final HashMap<String, DBOperations> OPERATIONS_MAP = new HashMap<>();
+    // Used for the connection budget when the config leaves the pool sizes to the defaults.
+    private static final int DEFAULT_POOL_CONNECTIONS = 10;
 
-    public static DBManager getDBManager(String dbName){;
-        return MANAGER_MAP.getOrDefault(dbName, null);
+    private static final ConcurrentHashMap<String, FutureTask<ManagerEntry>> MANAGER_MAP = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, OperationsEntry> OPERATIONS_MAP = new ConcurrentHashMap<>();
+    private static final ConnectionBudget BUDGET = new ConnectionBudget(Integer.MAX_VALUE);
+    private static volatile int maxManagers = Integer.MAX_VALUE;
+    private static ScheduledExecutorService evictionService;
+
+    private static final class ManagerEntry {
+        private final DBManager manager;
+        private final int reservedConnections;
+        // Copied at creation, a shard strategy changes the config afterwards.
+        private final List<Long> identity;
+        private volatile long lastAccessMillis = System.currentTimeMillis();
+
+        private ManagerEntry(DBManager manager, int reservedConnections, List<Long> identity){
+            this.manager = manager;
+            this.reservedConnections = reservedConnections;
+            this.identity = identity;
+        }
+
+        private long lastUsed(){
+            return Math.max(lastAccessMillis, manager.getLastActivityMillis());
+        }
+    }
+
+    private record OperationsEntry(DBOperations operations, List<DBManager> managers){}
+
+    @FunctionalInterface
+    private interface ManagerBuilder {
+        DBManager build() throws SQLException, InterruptedException;
+    }
+
+    public static DBManager getDBManager(String dbName){
+        ManagerEntry entry = getCompletedEntry(dbName);
+        if(entry == null) return null;
+        entry.lastAccessMillis = System.currentTimeMillis();
+        return entry.manager;
     }
 
     public static boolean dropDBManager(String dbName) throws Exception{
-        DBManager manager = MANAGER_MAP.get(dbName);
-        if(manager == null) throw new IllegalArgumentException(dbName + " does not exist!");
-        manager.close();
-        MANAGER_MAP.remove(dbName);
+        ManagerEntry entry = getCompletedEntry(dbName);
+        if(entry == null) throw new IllegalArgumentException(dbName + " does not exist!");
+        closeManager(dbName, entry);
         return true;
     }
 
-    public static DBOperations getDBOperations(String opName){;
-        return OPERATIONS_MAP.getOrDefault(opName, null);
+    public static DBOperations getDBOperations(String opName){
+        OperationsEntry entry = OPERATIONS_MAP.get(opName);
+        if(entry == null) return null;
+        entry.managers().forEach(DBManagerFactory::touch);
+        return entry.operations();
     }
 
     public static boolean dropDBOperations(String opName) throws Exception{
-        DBOperations ops = OPERATIONS_MAP.get(opName);
-        if(ops == null) throw new IllegalArgumentException(opName + " does not exist!");
-        OPERATIONS_MAP.remove(opName);
+        OperationsEntry entry = OPERATIONS_MAP.remove(opName);
+        if(entry == null) throw new IllegalArgumentException(opName + " does not exist!");
+        closeOperations(entry);
         return true;
     }
 
     public static DBManager createDBManager(DBManagerConfig config) throws SQLException, InterruptedException {
-        String dbName = config.getDb();
-        if(MANAGER_MAP.containsKey(dbName)) return MANAGER_MAP.get(dbName);
-        DBManager manager = new DBManagerImpl(config);
-        MANAGER_MAP.put(dbName, manager);
-        return manager;
+        return getOrCreate(config, () -> new DBManagerImpl(config));
     }
 
     public static DBManager createDBManager(DBManagerConfig config, AbstractMigration tm) throws SQLException, InterruptedException {
-        String dbName = config.getDb();
-        if(MANAGER_MAP.containsKey(dbName)) return MANAGER_MAP.get(dbName);
-        DBManager manager = new DBManagerImpl(config, List.of(tm));
-        MANAGER_MAP.put(dbName, manager);
-        return manager;
+        return getOrCreateMigrated(config, List.of(tm));
     }
 
     public static DBOperations createDBOperations(DBManager dbManager, String opName, boolean adminUser) throws SQLException, InterruptedException {
-            if(OPERATIONS_MAP.containsKey(opName)) return OPERATIONS_MAP.get(opName);
-            if(adminUser) OPERATIONS_MAP.put(opName, new DbOperationsAdminUser(dbManager));
-            else OPERATIONS_MAP.put(opName, new DbOperationsBaseUser(dbManager));
-            return OPERATIONS_MAP.get(opName);
+        return OPERATIONS_MAP.computeIfAbsent(opName, name -> new OperationsEntry(
+                adminUser ? new DbOperationsAdminUser(dbManager) : new DbOperationsBaseUser(dbManager), List.of(dbManager)))
+                .operations();
+    }
+
+    /**
+     * Creates (or reuses) a DBManager for every shard config and registers DBOperations that spread
+     * the records over them under opName. The strategy sets the identity options on each config so the
+     * keys a shard hands out route back to it, because of that the configs should not be shared with
+     * other managers. Every shard must be its own database, configs with the same db name are rejected.
+     * An existing manager for a shard db built with other identity options is rebuilt, or if it is in use
+     * an IllegalStateException is thrown, the keys it hands out would not route back to its shard.
+     * @param opName The name to get the sharded operations with from getDBOperations(opName).
+     * @param shardConfigs One config per shard, in shard order.
+     * @param strategy How keys are assigned to shards, see {@link ShardStrategy}.
+     * @param adminUser True to use the admin pools of each shard.
+     * @return The sharded DBOperations.
+     */
+    public static DBOperations createShardedDBOperations(String opName, List<DBManagerConfig> shardConfigs,
+                                                         ShardStrategy strategy, boolean adminUser) throws SQLException, InterruptedException {
+        OperationsEntry existing = OPERATIONS_MAP.get(opName);
+        if(existing != null) return existing.operations();
+        if(shardConfigs.size() != strategy.getShardCount()){
+            throw new IllegalArgumentException("Expected " + strategy.getShardCount() + " shard configs but got " + shardConfigs.size());
+        }
+        if(shardConfigs.stream().map(DBManagerConfig::getDb).distinct().count() != shardConfigs.size()){
+            throw new IllegalArgumentException("Every shard must use its own database!");
+        }
+        List<DBManager> managers = new ArrayList<>(shardConfigs.size());
+        List<DBOperations> shards = new ArrayList<>(shardConfigs.size());
+        for(int i = 0; i < shardConfigs.size(); i++){
+            DBManagerConfig config = shardConfigs.get(i);
+            strategy.applyIdentity(config, i);
+            ManagerEntry existingManager = getCompletedEntry(config.getDb());
+            if(existingManager != null && !existingManager.identity.equals(identityOf(config))){
+                replaceExisting(config.getDb(), existingManager, "to apply the identity options of shard " + i);
+            }
+            DBManager manager = createDBManager(config);
+            ManagerEntry created = getCompletedEntry(config.getDb());
+            if(created == null || created.manager != manager || !created.identity.equals(identityOf(config))){
+                throw new IllegalStateException("The DBManager for " + config.getDb()
+                        + " was created concurrently with other identity options than shard " + i);
+            }
+            managers.add(manager);
+            shards.add(adminUser ? new DbOperationsAdminUser(manager) : new DbOperationsBaseUser(manager));
+        }
+        return OPERATIONS_MAP.computeIfAbsent(opName, name -> new OperationsEntry(
+                new ShardedDBOperations(shards, strategy), List.copyOf(managers))).operations();
     }
 
     /**
@@ -79,12 +157,251 @@ public class DBManagerFactory {
     public static void overallSetupDB(DBManagerConfig config, Map<String, List<AbstractMigration>> migrations) throws SQLException, InterruptedException {
         List<AbstractMigration> cms = getCombinedMigrations(migrations);
 
-        DBManager manager = new DBManagerImpl(config, cms);
-        MANAGER_MAP.put(config.getDb(), manager);
-        DBOperations admin = new DbOperationsAdminUser(manager);
-        DBOperations user = new DbOperationsBaseUser(manager);
-        OPERATIONS_MAP.put(config.getDb() + "-admin", admin);
-        OPERATIONS_MAP.put(config.getDb() + "-user", user);
+        DBManager manager = getOrCreateMigrated(config, cms);
+        createDBOperations(manager, config.getDb() + "-admin", true);
+        createDBOperations(manager, config.getDb() + "-user", false);
+    }
+
+    /**
+     * Caps the connections all managers created here may reserve together, the reservation of a
+     * manager is the max size of its user pool plus its admin pool plus one user pool and one lag check
+     * connection per replica. When a new manager does not fit the least recently used idle managers
+     * are closed to make room for it, if none are idle the creation fails instead.
+     * @param maxConnections The total connections shared by every tenant database.
+     */
+    public static void setGlobalConnectionBudget(int maxConnections){
+        BUDGET.setLimit(maxConnections);
+    }
+
+    public static int getReservedConnections(){
+        return BUDGET.getReserved();
+    }
+
+    /**
+     * Caps how many managers are kept open, the least recently used idle ones are closed past this.
+     * @param max The maximum number of open managers.
+     */
+    public static void setMaxManagers(int max){
+        maxManagers = max;
+        evictLeastRecentlyUsed(null);
+    }
+
+    /**
+     * Starts a daemon that closes the pools of managers that have not been accessed or borrowed
+     * from within idleMillis. Closed managers are removed along with their DBOperations. A DBOperations
+     * held across the eviction is not moved to a new manager, every call on it throws a
+     * {@link ManagerClosedException}, callers should get them from the factory again.
+     * @param idleMillis How long a manager may go unused before it is closed.
+     * @param checkIntervalMillis How often to look for idle managers.
+     */
+    public static synchronized void startIdleEviction(long idleMillis, long checkIntervalMillis){
+        stopIdleEviction();
+        evictionService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DBManager-Idle-Eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionService.scheduleWithFixedDelay(() -> evictIdleManagers(idleMillis),
+                checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopIdleEviction(){
+        if(evictionService != null) evictionService.shutdownNow();
+        evictionService = null;
+    }
+
+    /**
+     * Closes every manager that has been unused for at least idleMillis and has nothing borrowed.
+     * @param idleMillis How long a manager may go unused before it is closed.
+     * @return The number of managers closed.
+     */
+    public static int evictIdleManagers(long idleMillis){
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for(String dbName : new ArrayList<>(MANAGER_MAP.keySet())){
+            ManagerEntry entry = getCompletedEntry(dbName);
+            if(entry != null && entry.lastUsed() < cutoff && evictLogged(dbName, entry)) evicted++;
+        }
+        return evicted;
+    }
+
+    // A reused manager never saw these migrations, so it is rebuilt with them unless nothing is pending.
+    private static DBManager getOrCreateMigrated(DBManagerConfig config, List<AbstractMigration> tms) throws SQLException, InterruptedException {
+        String dbName = config.getDb();
+        ManagerEntry existing = getCompletedEntry(dbName);
+        if(existing != null && config.isMigrate() && tms != null && !tms.isEmpty()){
+            replaceExisting(dbName, existing, "to run migrations against it");
+        }
+        return getOrCreate(config, () -> new DBManagerImpl(config, tms));
+    }
+
+    // Closes a manager that has to be built again, it must be idle.
+    private static void replaceExisting(String dbName, ManagerEntry existing, String reason) throws SQLException, InterruptedException {
+        try{
+            if(!closeManager(dbName, existing, true)){
+                throw new IllegalStateException("The DBManager for " + dbName + " is in use, drop it before rebuilding it " + reason + ".");
+            }
+        } catch (SQLException | InterruptedException | RuntimeException e){
+            throw e;
+        } catch (Exception e){
+            throw new SQLException("Unable to close the DBManager for " + dbName + " " + reason + ".", e);
+        }
+    }
+
+    private static List<Long> identityOf(DBManagerConfig config){
+        return Arrays.asList(config.getIdentityStart(), config.getIdentityIncrement(), config.getIdentityMaxValue());
+    }
+
+    private static DBManager getOrCreate(DBManagerConfig config, ManagerBuilder builder) throws SQLException, InterruptedException {
+        String dbName = config.getDb();
+        int reservation = getReservation(config);
+        List<Long> identity = identityOf(config);
+        FutureTask<ManagerEntry> task = new FutureTask<>(() -> {
+            reserveConnections(dbName, reservation);
+            try{
+                return new ManagerEntry(builder.build(), reservation, identity);
+            } catch (Exception e){
+                BUDGET.release(reservation);
+                throw e;
+            }
+        });
+        FutureTask<ManagerEntry> existing = MANAGER_MAP.putIfAbsent(dbName, task);
+        if(existing == null){
+            existing = task;
+            task.run();
+        }
+        try{
+            ManagerEntry entry = existing.get();
+            entry.lastAccessMillis = System.currentTimeMillis();
+            if(existing == task) evictLeastRecentlyUsed(dbName);
+            return entry.manager;
+        } catch (ExecutionException e){
+            MANAGER_MAP.remove(dbName, existing);
+            Throwable cause = e.getCause();
+            if(cause instanceof SQLException sqlException) throw sqlException;
+            if(cause instanceof InterruptedException interruptedException) throw interruptedException;
+            if(cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new SQLException("Unable to create the DBManager for " + dbName, cause);
+        }
+    }
+
+    private static void reserveConnections(String dbName, int reservation) throws SQLException {
+        while(!BUDGET.tryReserve(reservation)){
+            ManagerEntry lru = findLeastRecentlyUsedIdle(dbName);
+            if(lru == null){
+                throw new SQLException(String.format("Global connection budget of %d exhausted and no idle manager to close, %s needs %d connections.",
+                        BUDGET.getLimit(), dbName, reservation));
+            }
+            String lruName = findDbName(lru);
+            try{
+                closeManager(lruName, lru, true);
+            } catch (Exception e){
+                throw new SQLException("Unable to close the DBManager for " + lruName + " to make room for " + dbName, e);
+            }
+        }
+    }
+
+    private static void evictLeastRecentlyUsed(String keep){
+        while(countCompleted() > maxManagers){
+            ManagerEntry lru = findLeastRecentlyUsedIdle(keep);
+            if(lru == null || !evictLogged(findDbName(lru), lru)) return;
+        }
+    }
+
+    private static ManagerEntry findLeastRecentlyUsedIdle(String exclude){
+        return MANAGER_MAP.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(exclude))
+                .map(entry -> getCompletedEntry(entry.getKey()))
+                .filter(entry -> entry != null && entry.manager.isIdle())
+                .min(Comparator.comparingLong(ManagerEntry::lastUsed))
+                .orElse(null);
+    }
+
+    private static long countCompleted(){
+        return MANAGER_MAP.keySet().stream().filter(dbName -> getCompletedEntry(dbName) != null).count();
+    }
+
+    private static String findDbName(ManagerEntry target){
+        for(String dbName : MANAGER_MAP.keySet()){
+            if(getCompletedEntry(dbName) == target) return dbName;
+        }
+        return null;
+    }
+
+    private static ManagerEntry getCompletedEntry(String dbName){
+        if(dbName == null) return null;
+        FutureTask<ManagerEntry> task = MANAGER_MAP.get(dbName);
+        if(task == null || !task.isDone()) return null;
+        try{
+            return task.get();
+        } catch (InterruptedException | ExecutionException | CancellationException e){
+            return null;
+        }
+    }
+
+    private static void touch(DBManager manager){
+        for(String dbName : MANAGER_MAP.keySet()){
+            ManagerEntry entry = getCompletedEntry(dbName);
+            if(entry != null && entry.manager == manager){
+                entry.lastAccessMillis = System.currentTimeMillis();
+                return;
+            }
+        }
+    }
+
+    private static void closeManager(String dbName, ManagerEntry entry) throws Exception {
+        closeManager(dbName, entry, false);
+    }
+
+    /**
+     * Removes the manager from the factory and closes it. When onlyIdle is set a busy manager is left alone,
+     * it is checked before it is taken out so no new caller can get it, and again after. One that got busy in
+     * between is put back, unless a new manager took its place meanwhile, then it is closed as it can no
+     * longer be reached from the factory.
+     * @return True if this call closed the manager, false if it was busy or already gone.
+     * @throws Exception If closing the pools failed, the manager is removed and its budget released regardless.
+     */
+    private static boolean closeManager(String dbName, ManagerEntry entry, boolean onlyIdle) throws Exception {
+        if(dbName == null) return false;
+        FutureTask<ManagerEntry> task = MANAGER_MAP.get(dbName);
+        if(task == null || getCompletedEntry(dbName) != entry) return false;
+        if(onlyIdle && !entry.manager.isIdle()) return false;
+        if(!MANAGER_MAP.remove(dbName, task)) return false;
+        if(onlyIdle && !entry.manager.isIdle() && MANAGER_MAP.putIfAbsent(dbName, task) == null) return false;
+        for(String opName : new ArrayList<>(OPERATIONS_MAP.keySet())){
+            OperationsEntry ops = OPERATIONS_MAP.get(opName);
+            if(ops != null && ops.managers().contains(entry.manager) && OPERATIONS_MAP.remove(opName, ops)) closeOperations(ops);
+        }
+        try{
+            entry.manager.close();
+        } finally {
+            BUDGET.release(entry.reservedConnections);
+        }
+        return true;
+    }
+
+    // Eviction in the background has no caller to throw to, so close failures are logged and not counted.
+    private static boolean evictLogged(String dbName, ManagerEntry entry){
+        try{
+            return closeManager(dbName, entry, true);
+        } catch (Exception e){
+            Logger logger = LoggerFactory.getLogger("DB_Logger");
+            if(logger != null) logger.except("Unable to close the evicted DBManager for " + dbName, e);
+            return false;
+        }
+    }
+
+    // Sharded operations run their fan out on their own threads, the other operations hold nothing.
+    private static void closeOperations(OperationsEntry entry) throws Exception {
+        if(entry.operations() instanceof AutoCloseable closeable) closeable.close();
+    }
+
+    private static int getReservation(DBManagerConfig config){
+        int user = (config.getUserThreads() == null) ? DEFAULT_POOL_CONNECTIONS : config.getUserThreads();
+        int admin = (config.getAdminThreads() == null) ? DEFAULT_POOL_CONNECTIONS : config.getAdminThreads();
+        // Each replica gets a pool sized like the user pool and one connection for its lag check.
+        int replicas = (config.getReplicas() == null) ? 0 : config.getReplicas().size();
+        return (user + 1) * replicas + user + admin;
     }
 
     private static List<AbstractMigration> getCombinedMigrations(Map<String, List<AbstractMigration>> migrations) {
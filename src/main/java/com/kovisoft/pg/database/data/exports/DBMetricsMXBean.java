@@ -0,0 +1,33 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.util.List;
+
+/**
+ * What a DBManager exposes over JMX, registered as
+ * {@code com.kovisoft.pg.database:type=DBManager,name="<db>"} unless jmxMetrics is turned off.
+ * Everything is read from counters the calls already keep, reading them never blocks a call.
+ */
+public interface DBMetricsMXBean {
+
+    String getDatabase();
+
+    /**
+     * @return The user pool, the admin pool and then every replica pool.
+     */
+    List<PoolStats> getPools();
+
+    /**
+     * @return Every table and operation that has been called, see {@link OperationStats}.
+     */
+    List<OperationStats> getOperations();
+
+    /**
+     * @return The most recent statements over the slow query threshold, with a plan for the sampled ones.
+     */
+    List<SlowQuery> getSlowQueries();
+
+    /**
+     * Clears the operation histograms, the pool counters keep running.
+     */
+    void resetOperations();
+}
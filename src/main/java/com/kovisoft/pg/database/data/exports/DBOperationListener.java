@@ -0,0 +1,38 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Sees every statement the DBOperations run, register one with DBManager.getOperationListeners().add(listener).
+ * The callbacks for one call all come on the calling thread, before first and then after or onError,
+ * so a tracing span can be opened in before and kept in a thread local until it ends.
+ * They run inline on the hot path, keep them quick and hand anything slow off to another thread.
+ * Exceptions thrown by a listener are logged and otherwise ignored.
+ */
+public interface DBOperationListener {
+
+    /**
+     * The call is about to ask for admission and a connection.
+     * @param table The table it works on.
+     * @param operation The statement it runs.
+     */
+    default void before(String table, Operation operation){}
+
+    /**
+     * The statement ran.
+     * @param table The table it worked on.
+     * @param operation The statement it ran.
+     * @param rows Rows it returned or wrote.
+     * @param waitNanos Time spent getting through the bulkheads and borrowing the connection.
+     * @param executionNanos Time from holding the connection to the end of the call, mapping the rows included.
+     */
+    default void after(String table, Operation operation, int rows, long waitNanos, long executionNanos){}
+
+    /**
+     * The call failed, it was rejected, got no connection or the statement threw.
+     * @param table The table it worked on.
+     * @param operation The statement it ran.
+     * @param error What went wrong.
+     * @param waitNanos Time spent getting through the bulkheads and borrowing the connection.
+     * @param executionNanos Time from holding the connection to the failure, 0 if it never got one.
+     */
+    default void onError(String table, Operation operation, Throwable error, long waitNanos, long executionNanos){}
+}
@@ -13,6 +13,8 @@ public interface DBOperations {
 
 
     //primary DB operations (pass through to SQL methods preferred over getting connection).
+    // Failures are logged and come back as null or an empty list, except a BulkheadRejectedException
+    // and a ManagerClosedException which are thrown.
     <T extends SQLRecord> T addRecord(T record);
     <T extends SQLRecord> List<T> addRecords(List<T> records);
     <T extends CompoundSQLRecordClass> T addCompoundRecord(T record);
@@ -45,6 +47,29 @@ public interface DBOperations {
     <T extends SQLRecord> List<T> getMatchByColumnNames(T record, List<String> columnNames);
     <T extends SQLRecord> List<T> getMatchByComponents(T record, RecordComponent[] components);
 
+    /**
+     * The records whose JSONB column contains value (column @> value), served by the columns GIN index.
+     * For an ArrayListHolder column value is a list or a single element to find in the list, for a
+     * HashMapHolder column the entries to find in the map, a holder itself works too.
+     * @param columnName A component with a {@link com.kovisoft.pg.database.data.JsonbIndex}.
+     * @return The matches, empty if there are none or the query failed.
+     */
+    <T extends SQLRecord> List<T> getContaining(Class<T> recordClass, String columnName, Object value);
+
+    /**
+     * The records whose JSONB column has any of the keys (column ?| keys), for a list any of the strings.
+     * @param columnName A component with a {@link com.kovisoft.pg.database.data.JsonbIndex} with pathOps false.
+     * @return The matches, empty if there are none or the query failed.
+     */
+    <T extends SQLRecord> List<T> getWithAnyKey(Class<T> recordClass, String columnName, List<String> keys);
+
+    /**
+     * The records whose JSONB column has all of the keys (column ?& keys), for a list all of the strings.
+     * @param columnName A component with a {@link com.kovisoft.pg.database.data.JsonbIndex} with pathOps false.
+     * @return The matches, empty if there are none or the query failed.
+     */
+    <T extends SQLRecord> List<T> getWithAllKeys(Class<T> recordClass, String columnName, List<String> keys);
+
     <T extends SQLRecord> List<T> getAllEntries(T record);
     <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass);
     <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass, int limit);
@@ -61,6 +86,24 @@ public interface DBOperations {
     <T extends SQLRecord> List<T> deleteByIds(List<Long> ids, Class<T> recordClass);
     <T extends SQLRecord> List<T> deleteByIds(List<Long> ids, String tableName);
 
+    /**
+     * Runs pString over the records in chunks that each commit on their own, like executeBatch.
+     * @param records The records to bind, all of one table.
+     * @param pString The insert or update statement.
+     * @param isUpdate True if pString is an update, the primary key is then bound last.
+     * @throws BatchFailedException If any chunk was rolled back or a record could not be bound, it carries the
+     * ranges that did not make it. The committed chunks stay committed.
+     * @throws SQLException If the batch could not be run at all.
+     */
     <T extends SQLRecord> void batchRequestsNoReturn(List<T> records, String pString, boolean isUpdate) throws SQLException;
 
+    /**
+     * Inserts, or updates if isUpdate, the records in chunks that each commit on their own. A failed
+     * chunk is rolled back and reported while the rest still go through. All records must be of one table.
+     * @param records The records to write.
+     * @param isUpdate True to update by primary key instead of inserting.
+     * @return The counts, generated keys of inserts and the ranges that failed.
+     */
+    <T extends SQLRecord> BatchResult executeBatch(List<T> records, boolean isUpdate);
+
 }
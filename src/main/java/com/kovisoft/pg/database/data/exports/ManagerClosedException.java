@@ -0,0 +1,13 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Thrown when a DBOperations is used after its DBManager was closed, by dropDBManager or by the
+ * factory's idle eviction. Unchecked so it passes through the DBOperations methods like a
+ * {@link BulkheadRejectedException}, get the operations from the factory again to carry on.
+ */
+public class ManagerClosedException extends IllegalStateException {
+
+    public ManagerClosedException(String message){
+        super(message);
+    }
+}
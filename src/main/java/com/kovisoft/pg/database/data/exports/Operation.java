@@ -0,0 +1,44 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * The statements the DBOperations run, one per prepared statement kind plus the ones built per call.
+ * The public methods are made of these, addRecords for one is an INSERT_MANY and then a BY_IDS.
+ */
+public enum Operation {
+    INSERT(OperationClass.WRITE),
+    INSERT_MANY(OperationClass.BULK),
+    UPDATE(OperationClass.WRITE),
+    UPDATE_MANY(OperationClass.BULK),
+    MATCH(OperationClass.READ),
+    MATCH_NO_ID(OperationClass.READ),
+    BY_ID(OperationClass.READ),
+    BY_IDS(OperationClass.READ),
+    BY_COLUMNS(OperationClass.READ),
+    ALL(OperationClass.READ),
+    ALL_LIMIT(OperationClass.READ),
+    ALL_LIMIT_START(OperationClass.READ),
+    ALL_ORDER_ASC(OperationClass.READ),
+    ALL_ORDER_DESC(OperationClass.READ),
+    ALL_AS_MAPS(OperationClass.READ),
+    JSONB_CONTAINS(OperationClass.READ),
+    JSONB_KEYS(OperationClass.READ),
+    DELETE(OperationClass.WRITE),
+    DELETE_MANY(OperationClass.BULK),
+    /** batchRequestsNoReturn with a caller supplied statement. */
+    BATCH(OperationClass.BULK),
+    /** A prepared statement key without a known postfix. */
+    OTHER(OperationClass.READ);
+
+    private final OperationClass operationClass;
+
+    Operation(OperationClass operationClass){
+        this.operationClass = operationClass;
+    }
+
+    /**
+     * @return The bulkhead class the statement is admitted under.
+     */
+    public OperationClass getOperationClass(){
+        return operationClass;
+    }
+}
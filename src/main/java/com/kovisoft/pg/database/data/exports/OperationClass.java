@@ -0,0 +1,13 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * The kinds of work the DBOperations admit separately, so a flood of one can't starve the others.
+ */
+public enum OperationClass {
+    /** Lookups, matches and listings. */
+    READ,
+    /** Single record inserts, updates and deletes. */
+    WRITE,
+    /** Batched inserts and updates and multi record deletes. */
+    BULK
+}
@@ -0,0 +1,86 @@
+package com.kovisoft.pg.database.data.exports;
+
+import com.kovisoft.logger.exports.Logger;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link DBOperationListener}s of a DBManager, kept in a copy on write array.
+ * Adding and removing copy the array, dispatching reads the current one without locking,
+ * and the DBOperations skip dispatch entirely while it is empty so an unused hook costs a single read.
+ */
+public final class OperationListeners {
+
+    private static final DBOperationListener[] NONE = new DBOperationListener[0];
+
+    private final Logger logger;
+    private volatile DBOperationListener[] listeners = NONE;
+
+    public OperationListeners(Logger logger){
+        this.logger = logger;
+    }
+
+    public synchronized void add(DBOperationListener listener){
+        if(listener == null) return;
+        DBOperationListener[] current = listeners;
+        DBOperationListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized boolean remove(DBOperationListener listener){
+        DBOperationListener[] current = listeners;
+        for(int i = 0; i < current.length; i++){
+            if(current[i] != listener) continue;
+            DBOperationListener[] updated = new DBOperationListener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+            listeners = updated;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty(){
+        return listeners.length == 0;
+    }
+
+    public List<DBOperationListener> getListeners(){
+        return List.of(listeners);
+    }
+
+    public void before(String table, Operation operation){
+        for(DBOperationListener listener : listeners){
+            try{
+                listener.before(table, operation);
+            } catch (RuntimeException e){
+                failed(listener, e);
+            }
+        }
+    }
+
+    public void after(String table, Operation operation, int rows, long waitNanos, long executionNanos){
+        for(DBOperationListener listener : listeners){
+            try{
+                listener.after(table, operation, rows, waitNanos, executionNanos);
+            } catch (RuntimeException e){
+                failed(listener, e);
+            }
+        }
+    }
+
+    public void onError(String table, Operation operation, Throwable error, long waitNanos, long executionNanos){
+        for(DBOperationListener listener : listeners){
+            try{
+                listener.onError(table, operation, error, waitNanos, executionNanos);
+            } catch (RuntimeException e){
+                failed(listener, e);
+            }
+        }
+    }
+
+    private void failed(DBOperationListener listener, RuntimeException e){
+        if(logger != null) logger.except("Operation listener " + listener.getClass().getName() + " threw, ignoring it.", e);
+    }
+}
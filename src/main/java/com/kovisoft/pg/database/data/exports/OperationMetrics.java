@@ -0,0 +1,108 @@
+package com.kovisoft.pg.database.data.exports;
+
+import com.kovisoft.pg.database.manager.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, row and bound record histograms per table and {@link Operation}, one of these per DBManager.
+ * Read it with getStats and reset, the series are what the DBOperations record into and hold no API of their own.
+ * Looking up a series is a map get and an array read once it exists, so recording allocates nothing.
+ */
+public final class OperationMetrics {
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Series>> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param tableName The table the call works on.
+     * @param operation The statement it runs.
+     * @return The series to record the call into, created on first use.
+     */
+    public Series series(String tableName, Operation operation){
+        AtomicReferenceArray<Series> table = tables.get(tableName);
+        if(table == null) table = tables.computeIfAbsent(tableName, k -> new AtomicReferenceArray<>(OPERATIONS.length));
+        Series series = table.get(operation.ordinal());
+        if(series == null){
+            table.compareAndSet(operation.ordinal(), null, new Series());
+            series = table.get(operation.ordinal());
+        }
+        return series;
+    }
+
+    /**
+     * @return A snapshot of every series that has seen a call, sorted by table then operation.
+     */
+    public List<OperationStats> getStats(){
+        List<OperationStats> stats = new ArrayList<>();
+        for(Map.Entry<String, AtomicReferenceArray<Series>> table : new TreeMap<>(tables).entrySet()){
+            for(Operation operation : OPERATIONS){
+                Series series = table.getValue().get(operation.ordinal());
+                if(series != null && series.latency.getCount() > 0) stats.add(series.snapshot(table.getKey(), operation));
+            }
+        }
+        return stats;
+    }
+
+    public void reset(){
+        for(AtomicReferenceArray<Series> table : tables.values()){
+            for(int i = 0; i < table.length(); i++){
+                Series series = table.get(i);
+                if(series != null) series.reset();
+            }
+        }
+    }
+
+    public static final class Series {
+        private final Histogram latency = new Histogram();
+        private final Histogram rows = new Histogram();
+        private final Histogram bound = new Histogram();
+        private final LongAdder errors = new LongAdder();
+
+        /**
+         * @param latencyNanos How long the call took.
+         * @param rowCount Rows the statement returned or wrote.
+         * @param boundCount Records bound into the statement.
+         * @param failed True if the call threw before it finished.
+         */
+        public void record(long latencyNanos, int rowCount, int boundCount, boolean failed){
+            latency.record(latencyNanos);
+            if(failed){
+                errors.increment();
+                return;
+            }
+            rows.record(rowCount);
+            bound.record(boundCount);
+        }
+
+        public long getErrors(){
+            return errors.sum();
+        }
+
+        private OperationStats snapshot(String tableName, Operation operation){
+            return new OperationStats(tableName, operation, latency.getCount(), errors.sum(),
+                    latency.getMean() / 1000.0, micros(latency.getPercentile(0.5)), micros(latency.getPercentile(0.99)),
+                    micros(latency.getPercentile(0.999)), micros(latency.getMax()),
+                    rows.getMean(), rows.getMax(), bound.getMean(), bound.getMax());
+        }
+
+        private void reset(){
+            latency.reset();
+            rows.reset();
+            bound.reset();
+            errors.reset();
+        }
+
+        private static long micros(long nanos){
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
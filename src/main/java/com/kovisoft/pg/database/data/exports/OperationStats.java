@@ -0,0 +1,22 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Snapshot of one table and operation, the percentiles are power of two bucket bounds so they read high by up to 2x.
+ * @param table The table name.
+ * @param operation The statement kind.
+ * @param calls Calls that completed, failed ones included.
+ * @param errors Calls that threw or were rejected before returning.
+ * @param meanMicros Average latency, admission and the connection borrow included.
+ * @param p50Micros Median latency.
+ * @param p99Micros 99th percentile latency.
+ * @param p999Micros 99.9th percentile latency.
+ * @param maxMicros The slowest call.
+ * @param meanRows Average rows returned or written.
+ * @param maxRows Most rows returned or written by one call.
+ * @param meanBound Average records bound into the statement, the batch size for the bulk operations.
+ * @param maxBound Most records bound by one call.
+ */
+public record OperationStats(String table, Operation operation, long calls, long errors, double meanMicros,
+                             long p50Micros, long p99Micros, long p999Micros, long maxMicros,
+                             double meanRows, long maxRows, double meanBound, long maxBound) {
+}
@@ -0,0 +1,17 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.util.List;
+
+/**
+ * A generated statement the startup plan audit found scanning a large table sequentially.
+ * @param table The record table the statement belongs to.
+ * @param statementKey The prepMap key of the statement.
+ * @param relation The relation the plan scans.
+ * @param estimatedRows The relations row estimate from the catalog.
+ * @param filter The filter the scan applies to every row.
+ * @param columns The columns of the filter, the ones an index would need.
+ * @param suggestedIndex A CREATE INDEX for those columns, null when none of them can take a btree index.
+ */
+public record PlanFinding(String table, String statementKey, String relation, long estimatedRows, String filter,
+                          List<String> columns, String suggestedIndex) {
+}
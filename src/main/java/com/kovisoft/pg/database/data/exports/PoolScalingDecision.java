@@ -0,0 +1,21 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * One evaluation of a pool by the autoscaler, kept whether or not the size changed.
+ * @param pool Which pool, user or admin.
+ * @param timeMillis When the decision was made.
+ * @param previousSize The connection cap before the decision.
+ * @param newSize The connection cap after the decision.
+ * @param utilisation The peak share of the cap in use during the window, 1.0 is every connection out.
+ * @param averageWaitNanos The average borrow wait during the window.
+ * @param averageHoldNanos The average time a connection was held during the window, roughly query latency.
+ * @param timeouts Borrows that timed out during the window.
+ * @param reason Why the size did or did not change.
+ */
+public record PoolScalingDecision(String pool, long timeMillis, int previousSize, int newSize, double utilisation,
+                                  long averageWaitNanos, long averageHoldNanos, long timeouts, String reason) {
+
+    public boolean isResize(){
+        return previousSize != newSize;
+    }
+}
@@ -0,0 +1,19 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Snapshot of a connection pool and the borrow queue in front of it.
+ * @param name user, admin or the replica url.
+ * @param size How many wrappers may be out at once, the autoscaled limit or the pools maximum.
+ * @param outstanding Wrappers borrowed right now.
+ * @param utilisation outstanding over size.
+ * @param waiting Threads queued for a wrapper right now.
+ * @param borrows Successful borrows since startup.
+ * @param timeouts Borrows that gave up.
+ * @param waitP50Micros Median borrow wait.
+ * @param waitP99Micros 99th percentile borrow wait.
+ * @param waitMaxMicros The longest borrow wait.
+ * @param holdP99Micros 99th percentile of how long a wrapper was held before release.
+ */
+public record PoolStats(String name, int size, int outstanding, double utilisation, int waiting, long borrows,
+                        long timeouts, long waitP50Micros, long waitP99Micros, long waitMaxMicros, long holdP99Micros) {
+}
@@ -0,0 +1,52 @@
+package com.kovisoft.pg.database.data.exports;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.pg.database.data.SQLRecord;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Implemented by the classes the PgDatabaseProcessor generates for records annotated with
+ * {@link com.kovisoft.pg.database.data.GenerateSQLMapper}. Everything here is known at compile
+ * time so none of it needs to reflect over the record components at runtime.
+ * @param <T> The record class this mapper was generated for.
+ */
+public interface SQLRecordMapper<T extends SQLRecord> {
+
+    /**
+     * The suffix appended to the (flattened) record class name for the generated mapper.
+     */
+    String GENERATED_SUFFIX = "_SQLMapper";
+
+    Class<T> getRecordClass();
+
+    /**
+     * @return The create table statement, identical to the one built by reflection.
+     */
+    String getCreateStatement();
+
+    /**
+     * @return The prepared statement strings keyed the same way as the DBManager prepMap
+     * ({tableName}{AbstractDbOperations postfix}).
+     */
+    Map<String, String> getStatements();
+
+    /**
+     * Binds every non primary key component in order, then the content hash for ContentHash records,
+     * and the primary key last if isUpdate.
+     * @param pStmt The statement to bind to.
+     * @param record The record holding the values.
+     * @param isUpdate If true the primary key is bound after the other components.
+     * @param om The ObjectMapper used for JSONB holder columns.
+     */
+    void bind(PreparedStatement pStmt, T record, boolean isUpdate, ObjectMapper om) throws SQLException, JsonProcessingException;
+
+    /**
+     * @param row The row data, it should be a case insensitive map.
+     * @return A new record built with the records Map constructor.
+     */
+    T mapRow(Map<String, Object> row);
+}
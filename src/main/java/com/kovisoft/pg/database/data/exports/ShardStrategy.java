@@ -0,0 +1,75 @@
+package com.kovisoft.pg.database.data.exports;
+
+/**
+ * Decides which shard owns a primary key and sets up each shards identity sequence so the keys
+ * it hands out route back to itself. Create one with {@link #hash(int)} or {@link #range(int, long)}.
+ */
+public final class ShardStrategy {
+
+    private enum Kind { HASH, RANGE }
+
+    private final Kind kind;
+    private final int shardCount;
+    private final long rangeSize;
+
+    private ShardStrategy(Kind kind, int shardCount, long rangeSize){
+        if(shardCount < 1) throw new IllegalArgumentException("A sharded table needs at least one shard!");
+        if(kind == Kind.RANGE && rangeSize < 1) throw new IllegalArgumentException("The shard range size must be positive!");
+        this.kind = kind;
+        this.shardCount = shardCount;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Keys are interleaved, shard i starts at i + 1 and increments by the shard count,
+     * so a key belongs to shard (key - 1) mod shardCount. Keys spread evenly as rows are added.
+     * @param shardCount The number of shards.
+     * @return The strategy.
+     */
+    public static ShardStrategy hash(int shardCount){
+        return new ShardStrategy(Kind.HASH, shardCount, 0);
+    }
+
+    /**
+     * Keys are offset, shard i owns the keys i * rangeSize + 1 through (i + 1) * rangeSize.
+     * A shard errors when it runs out of keys rather than handing out keys another shard owns.
+     * @param shardCount The number of shards.
+     * @param rangeSize The number of keys each shard owns.
+     * @return The strategy.
+     */
+    public static ShardStrategy range(int shardCount, long rangeSize){
+        return new ShardStrategy(Kind.RANGE, shardCount, rangeSize);
+    }
+
+    public int getShardCount(){
+        return shardCount;
+    }
+
+    /**
+     * @param primaryKey A key handed out by one of the shards.
+     * @return The index of the shard that owns it.
+     */
+    public int shardFor(long primaryKey){
+        if(kind == Kind.HASH) return (int) Math.floorMod(primaryKey - 1, (long) shardCount);
+        long shard = (primaryKey - 1) / rangeSize;
+        return (int) Math.max(0, Math.min(shardCount - 1, shard));
+    }
+
+    /**
+     * Sets the identity options on the config for the shard at shardIndex, this must
+     * be done before the DBManager for that shard is created.
+     * @param config The config of the shard database.
+     * @param shardIndex The index of the shard, 0 based.
+     */
+    public void applyIdentity(DBManagerConfig config, int shardIndex){
+        if(kind == Kind.HASH){
+            config.setIdentityStart((long) shardIndex + 1);
+            config.setIdentityIncrement((long) shardCount);
+            config.setIdentityMaxValue(null);
+        } else {
+            config.setIdentityStart(shardIndex * rangeSize + 1);
+            config.setIdentityIncrement(1L);
+            config.setIdentityMaxValue((shardIndex + 1) * rangeSize);
+        }
+    }
+}
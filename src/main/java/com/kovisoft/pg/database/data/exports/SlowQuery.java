@@ -0,0 +1,23 @@
+package com.kovisoft.pg.database.data.exports;
+
+import java.util.List;
+
+/**
+ * One statement that ran over the slow query threshold.
+ * @param timeMillis When it finished.
+ * @param table The table it ran on.
+ * @param operation The statement kind.
+ * @param statement The prepared statement sql, parameters left as ?.
+ * @param parameterTypes The type of each bound parameter, values are never kept.
+ * @param durationMicros How long the call took, admission and the borrow included.
+ * @param rows Rows it returned or wrote.
+ * @param failed True if the call threw.
+ * @param plan The generic EXPLAIN of the statement if this one was sampled, otherwise null.
+ */
+public record SlowQuery(long timeMillis, String table, Operation operation, String statement, List<String> parameterTypes,
+                        long durationMicros, int rows, boolean failed, String plan) {
+
+    public SlowQuery withPlan(String plan){
+        return new SlowQuery(timeMillis, table, operation, statement, parameterTypes, durationMicros, rows, failed, plan);
+    }
+}
@@ -0,0 +1,107 @@
+package com.kovisoft.pg.database.data.exports;
+
+import com.kovisoft.logger.exports.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the statements that take longer than the threshold and keeps the most recent ones in a ring buffer.
+ * A sample of them are explained on a background thread with the generic plan of the parameterized statement,
+ * nothing is run again and no parameter value shows up in the plan. The plan is added to the entry once it comes back.
+ * Explains queue up to a small bound and are dropped past it, so a burst of slow queries never piles more load onto
+ * a database that is already struggling.
+ */
+public final class SlowQueryLog implements AutoCloseable {
+
+    private static final int EXPLAIN_QUEUE = 16;
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final int capacity;
+    private final Logger logger;
+    private final Deque<SlowQuery> recent = new ArrayDeque<>();
+    private final ThreadPoolExecutor explainer;
+
+    /**
+     * @param thresholdMillis Statements slower than this are logged, null turns the log off.
+     * @param sampleRate The share of slow queries to explain, 0 to never explain and 1 for all of them.
+     * @param capacity How many slow queries the ring buffer keeps.
+     * @param logger Where the slow queries are logged.
+     */
+    public SlowQueryLog(Integer thresholdMillis, double sampleRate, int capacity, Logger logger){
+        this.thresholdNanos = (thresholdMillis == null) ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        this.capacity = Math.max(1, capacity);
+        this.logger = logger;
+        this.explainer = (thresholdMillis == null || this.sampleRate == 0) ? null
+                : new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(EXPLAIN_QUEUE), r -> {
+                    Thread thread = new Thread(r, "DB-Slow-Query-Explain");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    public boolean isEnabled(){
+        return thresholdNanos != Long.MAX_VALUE;
+    }
+
+    public boolean isSlow(long elapsedNanos){
+        return elapsedNanos > thresholdNanos;
+    }
+
+    /**
+     * @return True if the next slow query should be explained, rolls the sample rate.
+     */
+    public boolean shouldExplain(){
+        return explainer != null && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Logs the slow query and adds it to the buffer.
+     * @param query The slow query, without a plan.
+     * @param explain Runs the EXPLAIN and returns the plan, null to not explain this one.
+     */
+    public void record(SlowQuery query, Callable<String> explain){
+        logger.warn(String.format("Slow %s on %s took %dms and %s %d rows, parameters %s: %s", query.operation(),
+                query.table(), TimeUnit.MICROSECONDS.toMillis(query.durationMicros()), query.failed() ? "failed after" : "returned",
+                query.rows(), query.parameterTypes(), query.statement()));
+        if(explain == null || explainer == null){
+            add(query);
+            return;
+        }
+        explainer.execute(() -> {
+            String plan = null;
+            try{
+                plan = explain.call();
+            } catch (Exception e){
+                logger.except("Unable to explain the slow " + query.operation() + " on " + query.table(), e);
+            }
+            add((plan == null) ? query : query.withPlan(plan));
+            if(plan != null) logger.info(String.format("Plan of the slow %s on %s:%n%s", query.operation(), query.table(), plan));
+        });
+    }
+
+    /**
+     * @return The most recent slow queries, oldest first.
+     */
+    public synchronized List<SlowQuery> getRecent(){
+        return List.copyOf(recent);
+    }
+
+    private synchronized void add(SlowQuery query){
+        if(recent.size() == capacity) recent.removeFirst();
+        recent.addLast(query);
+    }
+
+    @Override
+    public void close(){
+        if(explainer != null) explainer.shutdownNow();
+    }
+}
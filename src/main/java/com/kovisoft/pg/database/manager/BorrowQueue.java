@@ -0,0 +1,232 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.pg.database.data.exports.BorrowStats;
+import com.kovisoft.pg.database.data.exports.PoolStats;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fair, timeout bounded wait queue in front of a {@link SimplePgConnectionPool}.
+ * The pool is called without holding any lock, a slot under the cap is reserved first with a CAS.
+ * When the pool is exhausted threads park on a condition until {@link #release} (or a raised limit)
+ * signals them, they are woken in arrival order and give up once the borrow timeout passes.
+ * Interrupts are honoured, never swallowed. The queue can also cap how many wrappers are out at once
+ * below the pools own maximum, which is how the {@link PoolAutoscaler} sizes the pool without rebuilding it.
+ * Every wrapper has to come back through release, the waiting threads are only woken from there.
+ */
+public class BorrowQueue {
+
+    private final SimplePgConnectionPool pool;
+    private final long timeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+    // Bumped on every release, a waiter only parks if nothing was released since its last attempt.
+    private final AtomicLong wakeups = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder interrupts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private volatile int limit = Integer.MAX_VALUE;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger peakOutstanding = new AtomicInteger();
+    private final ConcurrentHashMap<ConnectionWrapper, Long> borrowedAt = new ConcurrentHashMap<>();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder totalHeldNanos = new LongAdder();
+    private final Histogram waitHistogram = new Histogram();
+    private final Histogram holdHistogram = new Histogram();
+
+    public BorrowQueue(SimplePgConnectionPool pool, long timeoutMillis){
+        this.pool = pool;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Borrows a wrapper from the pool, waiting in line behind earlier callers if the pool is exhausted.
+     * @return The borrowed wrapper.
+     * @throws SQLTimeoutException If no connection became available within the borrow timeout.
+     * @throws SQLException If the thread was interrupted, the interrupt flag is restored.
+     */
+    public ConnectionWrapper borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        SQLException lastException = null;
+        // New arrivals queue behind the threads already waiting instead of barging ahead of them.
+        boolean mayTry = waiting.getAndIncrement() == 0;
+        boolean borrowed = false;
+        try{
+            while(true){
+                long generation = wakeups.get();
+                if(mayTry){
+                    try{
+                        ConnectionWrapper cw = tryBorrow();
+                        if(cw != null){
+                            borrowed = true;
+                            recordWait(System.nanoTime() - start);
+                            return cw;
+                        }
+                    } catch (SQLException e){
+                        lastException = e;
+                    }
+                }
+                mayTry = true;
+                awaitRelease(generation, deadline, lastException);
+            }
+        } catch (InterruptedException e){
+            interrupts.increment();
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to borrow a connection!", e);
+        } finally {
+            int stillWaiting = waiting.decrementAndGet();
+            // Pass the wakeup on, there may be more free than the one signal said, or this thread gave up on its turn.
+            if(!borrowed || stillWaiting > 0) signalRelease();
+        }
+    }
+
+    /**
+     * Releases a wrapper borrowed through this queue back to the pool and wakes the longest waiting thread.
+     * @param cw The wrapper, from {@link #borrow()}.
+     */
+    public void release(ConnectionWrapper cw){
+        Long borrowed = borrowedAt.remove(cw);
+        cw.release();
+        if(borrowed != null){
+            outstanding.decrementAndGet();
+            releases.increment();
+            long held = System.nanoTime() - borrowed;
+            totalHeldNanos.add(held);
+            holdHistogram.record(held);
+        }
+        signalRelease();
+    }
+
+    /**
+     * Wakes the longest waiting thread, call this after a wrapper from this pool is released.
+     * Only takes the lock when someone is waiting.
+     */
+    public void signalRelease(){
+        wakeups.incrementAndGet();
+        if(waiting.get() == 0) return;
+        lock.lock();
+        try{
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reserves a slot under the cap before calling the pool, so the pool itself is called outside the lock.
+    private ConnectionWrapper tryBorrow() throws SQLException, InterruptedException {
+        int current;
+        do{
+            current = outstanding.get();
+            if(current >= limit) return null;
+        } while(!outstanding.compareAndSet(current, current + 1));
+        ConnectionWrapper cw = null;
+        try{
+            cw = pool.borrowConnection();
+        } finally {
+            if(cw == null) outstanding.decrementAndGet();
+        }
+        if(cw == null) return null;
+        borrowedAt.put(cw, System.nanoTime());
+        peakOutstanding.accumulateAndGet(current + 1, Math::max);
+        return cw;
+    }
+
+    private void awaitRelease(long generation, long deadline, SQLException lastException) throws SQLException, InterruptedException {
+        lock.lockInterruptibly();
+        try{
+            while(wakeups.get() == generation){
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    timeouts.increment();
+                    throw new SQLTimeoutException(String.format("Unable to borrow a connection within %dms!",
+                            TimeUnit.NANOSECONDS.toMillis(timeoutNanos)), lastException);
+                }
+                released.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public BorrowStats getStats(){
+        return new BorrowStats(borrows.sum(), timeouts.sum(), interrupts.sum(), totalWaitNanos.sum(),
+                maxWaitNanos.get(), waiting.get());
+    }
+
+    /**
+     * @param name What to call the pool in the snapshot.
+     * @param capacity The pools own maximum, used as the size while no lower limit is set.
+     * @return The queue and pool as exposed over JMX.
+     */
+    public PoolStats getPoolStats(String name, int capacity){
+        BorrowStats stats = getStats();
+        int size = Math.min(limit, capacity);
+        int out = outstanding.get();
+        return new PoolStats(name, size, out, (size <= 0) ? 0 : (double) out / size, stats.waiting(), stats.borrows(),
+                stats.timeouts(), micros(waitHistogram.getPercentile(0.5)), micros(waitHistogram.getPercentile(0.99)),
+                micros(stats.maxWaitNanos()), micros(holdHistogram.getPercentile(0.99)));
+    }
+
+    /**
+     * Caps how many wrappers may be borrowed at once, lowering it never takes back wrappers already out.
+     * @param limit The new cap, at least 1.
+     */
+    public void setLimit(int limit){
+        this.limit = Math.max(1, limit);
+        signalRelease();
+    }
+
+    public int getLimit(){
+        return limit;
+    }
+
+    public int getOutstanding(){
+        return outstanding.get();
+    }
+
+    /**
+     * @return The most wrappers out at once since the last call, the peak then starts over from the current count.
+     */
+    public int takePeakOutstanding(){
+        return peakOutstanding.getAndSet(outstanding.get());
+    }
+
+    public long getReleases(){
+        return releases.sum();
+    }
+
+    /**
+     * @return Time between borrow and release summed over every released wrapper, close to query latency
+     * as the operations hold a wrapper for a single statement.
+     */
+    public long getTotalHeldNanos(){
+        return totalHeldNanos.sum();
+    }
+
+    private static long micros(long nanos){
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private void recordWait(long waitNanos){
+        borrows.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        waitHistogram.record(waitNanos);
+    }
+}
@@ -0,0 +1,38 @@
+package com.kovisoft.pg.database.manager;
+
+/**
+ * A global cap on the connections all DBManagers created by the factory may hold at once.
+ * Each manager reserves the maximum size of its user and admin pools before it is built
+ * and returns the reservation when it is closed.
+ */
+public class ConnectionBudget {
+
+    private int limit;
+    private int reserved = 0;
+
+    public ConnectionBudget(int limit){
+        this.limit = limit;
+    }
+
+    public synchronized boolean tryReserve(int connections){
+        if(reserved + connections > limit) return false;
+        reserved += connections;
+        return true;
+    }
+
+    public synchronized void release(int connections){
+        reserved = Math.max(0, reserved - connections);
+    }
+
+    public synchronized void setLimit(int limit){
+        this.limit = limit;
+    }
+
+    public synchronized int getLimit(){
+        return limit;
+    }
+
+    public synchronized int getReserved(){
+        return reserved;
+    }
+}
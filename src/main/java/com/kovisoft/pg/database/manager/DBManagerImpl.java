@@ -1,49 +1,103 @@
 package com.kovisoft.pg.database.manager;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kovisoft.logger.exports.Logger;
 import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.pg.database.data.ContentHash;
+import com.kovisoft.pg.database.data.JsonbIndex;
 import com.kovisoft.pg.database.data.SQLRecord;
 import com.kovisoft.pg.database.data.exports.*;
 import com.kovisoft.pg.database.data.exports.SQLConvertType;
-import com.kovisoft.pg.database.operations.DbOperationsAdminUser;
 import com.kovisoft.pg.database.operations.AbstractDbOperations;
-import com.kovisoft.pg.database.operations.DbOperationsBaseUser;
+import com.kovisoft.pg.database.operations.DatabaseEvents;
+import com.kovisoft.pg.database.operations.RecordCodec;
 import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
 import com.kovisoft.simple.connection.pool.exports.PoolConfig;
 import com.kovisoft.simple.connection.pool.exports.PoolFactory;
 import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.lang.reflect.RecordComponent;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DBManagerImpl extends DBManager {
 
     private ConnectionWrapper cwCurrent;
-    private ConnectionWrapper cwArchived;
     private static final String F_URL = "jdbc:postgresql://%s:%d/";
     private List<Class<? extends SQLRecord>> recordClasses;
     private final Logger logger;
     private final HashMap<String, String> prepMap = new HashMap<>();
     private final HashMap<String, Integer> constMap = new HashMap<>();
+    private final HashMap<Class<? extends SQLRecord>, SQLRecordMapper<?>> mapperMap = new HashMap<>();
 
     private SimplePgConnectionPool userConnectionPool;
     private SimplePgConnectionPool adminConnectionPool;
+    private BorrowQueue userBorrowQueue;
+    private BorrowQueue adminBorrowQueue;
+    private ReplicaRouter replicaRouter;
+    private Bulkheads bulkheads;
+    private PoolAutoscaler autoscaler;
+    private final OperationMetrics operationMetrics = new OperationMetrics();
+    private DBMetrics metrics;
+    private SlowQueryLog slowQueryLog;
+    private final OperationListeners operationListeners;
+    private final IndexReconciler indexReconciler;
+    private List<PlanFinding> planFindings = List.of();
     private boolean isInInit = false;
+    private volatile boolean closed = false;
     private boolean destructiveColumns = false;
-
-    private static final int BORROW_ATTEMPTS = 5;
-    private static final int TIMEOUT_BETWEEN_BORROWS = 10;
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+    private Long identityStart;
+    private Long identityIncrement;
+    private Long identityMaxValue;
+
+    private static final int DEFAULT_BORROW_TIMEOUT_MS = 5000;
+    private static final long DEFAULT_REPLICA_MAX_LAG_MS = 5000;
+    private static final int DEFAULT_READ_YOUR_WRITES_MS = 1000;
+    private static final int DEFAULT_MIGRATION_CHUNK_SIZE = 5000;
+    private static final int DEFAULT_MIGRATION_THREADS = 4;
+    private static final long DEFAULT_MIGRATION_THROTTLE_MS = 50;
+    private static final int DEFAULT_POOL_MAX = 10;
+    private static final int DEFAULT_POOL_MIN = 2;
+    private static final int DEFAULT_POOL_SCALE_INTERVAL_MS = 10000;
+    private static final int DEFAULT_POOL_SCALE_TARGET_WAIT_MS = 5;
+    private static final double DEFAULT_SLOW_QUERY_SAMPLE_RATE = 0.1;
+    private static final int DEFAULT_SLOW_QUERY_BUFFER = 100;
+    private static final long DEFAULT_PLAN_AUDIT_MIN_ROWS = 10000;
 
     //Column verification keys
     private static final String MISSING = "missing";
     private static final String EXIST_BUT_SHOULD_NOT = "additional";
+    private static final String TYPE_MISMATCH = "mismatched";
+    private static final String FINGERPRINT_PREFIX = "pgdb:";
+    // The archive comment carries this from before the current db is dropped until its data is migrated back.
+    private static final String MOVING_PREFIX = FINGERPRINT_PREFIX + "moving:";
+    private static final String FINGERPRINT_SCHEMA = "SELECT table_name, string_agg(column_name || ' ' || data_type, ',' ORDER BY ordinal_position)"
+            + " FROM information_schema.columns WHERE table_schema = 'public' GROUP BY table_name ORDER BY table_name";
+    private static final String FINGERPRINT_SIZES = "SELECT c.relname, pg_relation_size(c.oid), c.relfilenode FROM pg_catalog.pg_class c"
+            + " WHERE c.relnamespace = 'public'::regnamespace AND c.relkind IN ('r', 'p') ORDER BY c.relname";
 
     //Default SQL Strings
+    // Kept as the comment of the content_hash column, bump it when Records.contentHash changes so the rows are hashed again.
+    private static final String CONTENT_HASH_VERSION = "pgdb:content_hash:2";
+    private static final String CONTENT_HASH_COMMENT = "SELECT col_description(a.attrelid, a.attnum) FROM pg_catalog.pg_attribute a"
+            + " WHERE a.attrelid = to_regclass(?) AND a.attname = ?";
+    private static final String INVALID_CATALOG = "3D000";
     private static final String TABLE_EXISTS = "SELECT EXISTS(SELECT 1 FROM pg_catalog.pg_tables WHERE tablename = ?)";
     private static final String USER_EXISTS = "SELECT EXISTS(SELECT 1 FROM pg_catalog.pg_user WHERE usename = ?)";
-    private static final String GET_TABLE_COLUMNS = "SELECT column_name FROM information_schema.columns WHERE table_name = ?";
+    private static final String GET_TABLE_COLUMNS = "SELECT a.attname, format_type(a.atttypid, a.atttypmod) FROM pg_catalog.pg_attribute a"
+            + " WHERE a.attrelid = to_regclass(?) AND a.attnum > 0 AND NOT a.attisdropped";
 
     private static final String REVOKE_ALL = "REVOKE ALL PRIVILEGES ON TABLE ";
     private static final String DEFAULT_PRIVILEGES = "GRANT SELECT ON TABLE ";
@@ -60,17 +114,40 @@ public class DBManagerImpl extends DBManager {
         } catch (IOException e) {
             throw new RuntimeException("Could not startup the handler logger!", e);
         }
+        operationListeners = new OperationListeners(logger);
+        indexReconciler = new IndexReconciler(logger);
         initDb(config, tms);
         String url = String.format(F_URL, config.getHost(), config.getPort()) + config.getDb();
+        // Lets the driver send a batch of inserts as multi row inserts, it leaves other statements alone.
+        if(!Boolean.FALSE.equals(config.getReWriteBatchedInserts())) url += "?reWriteBatchedInserts=true";
         setupAdminConnectionPool(config, url);
         setupUserConnectionPool(config, url);
+        long borrowTimeout = (config.getBorrowTimeoutMillis() == null) ? DEFAULT_BORROW_TIMEOUT_MS : config.getBorrowTimeoutMillis();
+        adminBorrowQueue = new BorrowQueue(adminConnectionPool, borrowTimeout);
+        userBorrowQueue = new BorrowQueue(userConnectionPool, borrowTimeout);
+        setupReplicaRouter(config, borrowTimeout);
+        long bulkheadWait = (config.getBulkheadWaitMillis() == null) ? borrowTimeout : config.getBulkheadWaitMillis();
+        bulkheads = new Bulkheads(config.getTableConcurrencyLimits(), config.getOperationConcurrencyLimits(),
+                config.getBulkheadQueueSize(), bulkheadWait);
+        if(config.isPoolAutoscaling()) setupAutoscaler(config);
+        slowQueryLog = new SlowQueryLog(config.getSlowQueryMillis(),
+                (config.getSlowQuerySampleRate() == null) ? DEFAULT_SLOW_QUERY_SAMPLE_RATE : config.getSlowQuerySampleRate(),
+                (config.getSlowQueryBufferSize() == null) ? DEFAULT_SLOW_QUERY_BUFFER : config.getSlowQueryBufferSize(), logger);
+        if(!Boolean.FALSE.equals(config.getJmxMetrics())) setupMetrics(config);
+        if(config.isPlanAudit()) auditPlans(config);
         // Should be fine without these but better safe than sorry.
         cwCurrent = null;
         isInInit = false;
     }
 
     private void setupUserConnectionPool(DBManagerConfig config, String url) throws SQLException {
-        if(config.getUserThreads() == null){
+        if(config.isPoolAutoscaling()){
+            // The autoscaler needs known bounds, so the pool is always built from a config when scaling.
+            PoolConfig pc = new PoolConfig(url, config.getUser(), config.getPass());
+            pc.setMaxConnections(poolMax(config.getUserThreads()));
+            pc.setMinConnections(poolMin(config.getMinUserThreads(), config.getUserThreads()));
+            userConnectionPool = PoolFactory.createPgPool(pc, prepMap, constMap);
+        } else if(config.getUserThreads() == null){
             userConnectionPool = PoolFactory.createDefaultPgPool(url, config.getUser(), config.getPass());
         } else {
             PoolConfig pc = new PoolConfig(url, config.getUser(), config.getPass());
@@ -79,17 +156,117 @@ public class DBManagerImpl extends DBManager {
         }
     }
 
+    private void setupReplicaRouter(DBManagerConfig config, long borrowTimeout) throws SQLException {
+        if(config.getReplicas() == null || config.getReplicas().isEmpty()) return;
+        List<ReplicaRouter.Replica> replicas = new ArrayList<>();
+        for(String endpoint : config.getReplicas()){
+            String url = replicaUrl(endpoint, config.getPort()) + config.getDb();
+            SimplePgConnectionPool pool;
+            if(config.getUserThreads() == null){
+                pool = PoolFactory.createDefaultPgPool(url, config.getUser(), config.getPass());
+            } else {
+                PoolConfig pc = new PoolConfig(url, config.getUser(), config.getPass());
+                pc.setMaxConnections(config.getUserThreads());
+                pool = PoolFactory.createPgPool(pc, prepMap, constMap);
+            }
+            replicas.add(new ReplicaRouter.Replica(url, config.getUser(), config.getPass(), pool, new BorrowQueue(pool, borrowTimeout)));
+        }
+        ReplicaRouter.Strategy strategy = "least-loaded".equalsIgnoreCase(config.getReplicaRouting())
+                ? ReplicaRouter.Strategy.LEAST_LOADED : ReplicaRouter.Strategy.ROUND_ROBIN;
+        long maxLag = (config.getReplicaMaxLagMillis() == null) ? DEFAULT_REPLICA_MAX_LAG_MS : config.getReplicaMaxLagMillis();
+        int readYourWrites = (config.getReadYourWritesMillis() == null) ? DEFAULT_READ_YOUR_WRITES_MS : config.getReadYourWritesMillis();
+        replicaRouter = new ReplicaRouter(replicas, strategy, maxLag, readYourWrites, logger);
+        logger.info(String.format("Routing reads over %d replicas (%s).", replicas.size(), strategy));
+    }
+
+    /**
+     * Accepts host, host:port, [ipv6] and [ipv6]:port. A bare ipv6 address has more than one
+     * colon and is taken as having no port.
+     */
+    static String replicaUrl(String endpoint, int defaultPort){
+        String host = endpoint.trim();
+        int port = defaultPort;
+        if(host.startsWith("[")){
+            int close = host.indexOf(']');
+            if(close < 0) throw new IllegalArgumentException("Unclosed bracket in replica endpoint " + endpoint);
+            if(close + 1 < host.length()){
+                if(host.charAt(close + 1) != ':') throw new IllegalArgumentException("Invalid replica endpoint " + endpoint);
+                port = Integer.parseInt(host.substring(close + 2));
+            }
+            host = host.substring(0, close + 1);
+        } else {
+            int colon = host.lastIndexOf(':');
+            if(colon >= 0 && host.indexOf(':') == colon){
+                port = Integer.parseInt(host.substring(colon + 1));
+                host = host.substring(0, colon);
+            } else if(colon >= 0){
+                host = "[" + host + "]";
+            }
+        }
+        return String.format(F_URL, host, port);
+    }
+
     private void setupAdminConnectionPool(DBManagerConfig config, String url) throws SQLException {
         PoolConfig pc = new PoolConfig(url, config.getAdminUser(), config.getAdminPass());
-        if(config.getAdminThreads() == null) pc.setMaxConnections(10);
-        else pc.setMaxConnections(config.getAdminThreads());
-        pc.setMinConnections(2);
+        pc.setMaxConnections(poolMax(config.getAdminThreads()));
+        pc.setMinConnections(poolMin(config.getMinAdminThreads(), config.getAdminThreads()));
         pc.setConnectionLifeSpan(60);
         pc.setConnectionCheckIntervals(5);
         pc.setRequestsPerMinutePerConn(10);
         adminConnectionPool = PoolFactory.createPgPool(pc, prepMap, constMap);
     }
 
+    private void setupAutoscaler(DBManagerConfig config){
+        long targetWait = (config.getPoolScaleTargetWaitMillis() == null) ? DEFAULT_POOL_SCALE_TARGET_WAIT_MS : config.getPoolScaleTargetWaitMillis();
+        long interval = (config.getPoolScaleIntervalMillis() == null) ? DEFAULT_POOL_SCALE_INTERVAL_MS : config.getPoolScaleIntervalMillis();
+        autoscaler = new PoolAutoscaler(targetWait, logger);
+        autoscaler.addPool("user", userBorrowQueue, poolMin(config.getMinUserThreads(), config.getUserThreads()),
+                poolMax(config.getUserThreads()));
+        autoscaler.addPool("admin", adminBorrowQueue, poolMin(config.getMinAdminThreads(), config.getAdminThreads()),
+                poolMax(config.getAdminThreads()));
+        autoscaler.start(interval);
+        logger.info(String.format("Autoscaling the pools every %dms, growing past %dms average borrow wait.", interval, targetWait));
+    }
+
+    private void setupMetrics(DBManagerConfig config){
+        int userMax = poolMax(config.getUserThreads());
+        int adminMax = poolMax(config.getAdminThreads());
+        metrics = new DBMetrics(config.getDb(), operationMetrics, slowQueryLog, () -> {
+            List<PoolStats> pools = new ArrayList<>();
+            pools.add(userBorrowQueue.getPoolStats("user", userMax));
+            pools.add(adminBorrowQueue.getPoolStats("admin", adminMax));
+            if(replicaRouter != null){
+                for(ReplicaRouter.Replica replica : replicaRouter.getReplicas()){
+                    pools.add(replica.getQueue().getPoolStats(replica.getUrl(), userMax));
+                }
+            }
+            return pools;
+        }, logger);
+        metrics.register();
+    }
+
+    // Runs on an admin connection once the pools are up, a failed audit is logged and never stops the startup.
+    private void auditPlans(DBManagerConfig config){
+        long minRows = (config.getPlanAuditMinRows() == null) ? DEFAULT_PLAN_AUDIT_MIN_ROWS : config.getPlanAuditMinRows();
+        ConnectionWrapper cw = null;
+        try{
+            cw = borrowCW(true);
+            planFindings = new PlanAuditor(prepMap, minRows, logger).audit(cw.borrowConnection(), recordClasses);
+        } catch (Exception e){
+            logger.except("Unable to run the startup plan audit.", e);
+        } finally {
+            if(cw != null) releaseCW(cw, true);
+        }
+    }
+
+    private static int poolMax(Integer threads){
+        return (threads == null) ? DEFAULT_POOL_MAX : threads;
+    }
+
+    private static int poolMin(Integer minThreads, Integer threads){
+        return Math.min((minThreads == null) ? DEFAULT_POOL_MIN : minThreads, poolMax(threads));
+    }
+
     private void initDb(DBManagerConfig config, List<AbstractMigration> tms) throws SQLException, InterruptedException {
         this.isInInit = true;
         Map<Class<? extends SQLRecord>, String> records = config.getRecords();
@@ -97,8 +274,15 @@ public class DBManagerImpl extends DBManager {
         String connString = String.format(F_URL, config.getHost(), config.getPort());
         if(config.getSuperUser() != null && config.getSuperPass() != null){
 
-            if(config.isMigrate() && tms != null && !tms.isEmpty()){
-                moveTables(tms, config);
+            if(config.isMigrate() && tms != null && !tms.isEmpty() && !config.isOnlineMigration()){
+                // Archiving again would copy the half migrated db over the archive, so resume instead.
+                if(hasIncompleteMigration(tms, config)){
+                    logger.warn("Found an incomplete migration, resuming it from its last checkpoint instead of moving tables.");
+                    // A move that died between the drop and the register left no current db to resume into.
+                    for(AbstractMigration tm : tms) createDBIfAbsent(connString + "postgres", config, tm.getCurrentDB());
+                } else {
+                    moveTables(tms, config);
+                }
             }
 
             // Create DB and then ConnectionWrapper
@@ -112,8 +296,17 @@ public class DBManagerImpl extends DBManager {
 
             // Create Tables with default privileges for user
             destructiveColumns = config.isDestructiveColumns();
+            identityStart = config.getIdentityStart();
+            identityIncrement = config.getIdentityIncrement();
+            identityMaxValue = config.getIdentityMaxValue();
 
+            // Online migrations swap the rebuilt tables in before the usual create and column checks.
+            if(config.isMigrate() && tms != null && !tms.isEmpty() && config.isOnlineMigration()){
+                migrateOnline(tms, config);
+            }
+            DatabaseEvents.MigrationPhaseEvent schemaEvent = DatabaseEvents.beginMigration("schema", config.getDb(), null);
             createTablesFromRecords();
+            DatabaseEvents.end(schemaEvent);
             // Grant privileges on all tables
             for(Class<? extends SQLRecord> recordClass : recordClasses){
                 String recordString = recordClass.getSimpleName().toLowerCase();
@@ -124,12 +317,12 @@ public class DBManagerImpl extends DBManager {
             }
 
             // If necessary trigger migration of tables and data
-            if(config.isMigrate() && tms != null && !tms.isEmpty()){
+            if(config.isMigrate() && tms != null && !tms.isEmpty() && !config.isOnlineMigration()){
                 if(!migrateFromOldTables(tms, config)) throw new RuntimeException("Migration failed during conversion of data");
+                markMovesComplete(tms, config);
             }
             try{
                 cwCurrent.close();
-                cwArchived.close();
             } catch (Exception e){
                 logger.except("Exception occured while attempting to close init Connection Wrapper!", e);
             }
@@ -147,6 +340,10 @@ public class DBManagerImpl extends DBManager {
      * is dropping all the tables in the database. This allows the tables to be created
      * in the event that a table columns type changed but the name did not.
      * If the migration fails this migration is in jeopardy so, you <u>SHOULD</u> exception out.
+     * Migrations that share no database are moved at the same time, ones that share one are
+     * moved one after the other. An archive whose fingerprint matches the current database is
+     * kept rather than copied again. The archive is marked as moving before the current database is
+     * dropped and stays so until migrateFromOldTables finished, a marked archive is never replaced.
      *
      * @param tms    The table migrations to do, each migration should encompass the entire
      *               database for which the migration is occuring.
@@ -155,97 +352,322 @@ public class DBManagerImpl extends DBManager {
      *                          as it's likely the migration of tables failed spectacularly... Sorry.
      */
     public void moveTables(List<AbstractMigration> tms, DBManagerConfig config) throws RuntimeException{
+        String connString = String.format(F_URL, config.getHost(), config.getPort());
+        List<List<AbstractMigration>> groups = groupIndependentMigrations(tms);
+        int threads = (config.getMigrationThreads() == null) ? DEFAULT_MIGRATION_THREADS : config.getMigrationThreads();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, groups.size())), r -> {
+            Thread thread = new Thread(r, "DB-Archive-Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
+        try{
+            List<Future<?>> moves = new ArrayList<>();
+            for(List<AbstractMigration> group : groups){
+                moves.add(workers.submit(() -> {
+                    for(AbstractMigration tm : group) moveDatabase(tm, config, connString);
+                    return null;
+                }));
+            }
+            for(Future<?> move : moves) move.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("TABLE MOVES FAILED, DO NOT RUN AGAIN UNTIL YOU VERIFY ALL DATA IS IN THE PROPER LOCATION", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("TABLE MOVES INTERRUPTED, DO NOT RUN AGAIN UNTIL YOU VERIFY ALL DATA IS IN THE PROPER LOCATION", e);
+        } finally {
+            workers.shutdownNow();
+        }
+        logger.info(String.format("Moved %d databases in %dms", tms.size(), System.currentTimeMillis() - start));
+    }
+
+    private void moveDatabase(AbstractMigration tm, DBManagerConfig config, String connString) throws SQLException, InterruptedException {
+        DatabaseEvents.MigrationPhaseEvent event = DatabaseEvents.beginMigration("archive", tm.getCurrentDB(), null);
+        long start = System.currentTimeMillis();
         String terminateConnectionsBase = "SELECT pg_terminate_backend(pg_stat_activity.pid)"
                 + " FROM pg_stat_activity WHERE pg_stat_activity.datname = '";
-        String connString = String.format(F_URL, config.getHost(), config.getPort());
-        for(AbstractMigration tm : tms){
-            String terminateArchive = terminateConnectionsBase + tm.getArchiveDB() + "';";
-            String terminateCurrent = terminateConnectionsBase + tm.getCurrentDB() + "';";
-            String dropArchive = "DROP DATABASE " + tm.getArchiveDB() + ";";
-            String dbExists = "SELECT 1 FROM pg_database WHERE datname = '" + tm.getArchiveDB() + "';";
-            String archiveCurrent = "CREATE DATABASE " + tm.getArchiveDB() + " WITH TEMPLATE " + tm.getCurrentDB() + " OWNER " + config.getAdminUser();
-            String dropCurrentDatabase = "DROP DATABASE " + tm.getCurrentDB() + ";";
-
-            try(Connection con = DriverManager.getConnection(connString + "postgres", config.getSuperUser(), config.getSuperPass())){
-                // First section is backing up the database to an archive.
-                Statement statement = con.createStatement();
-                ResultSet rs = statement.executeQuery(dbExists);
-                if(rs.next() && rs.getBoolean(1)){
+        String terminateArchive = terminateConnectionsBase + tm.getArchiveDB() + "';";
+        String terminateCurrent = terminateConnectionsBase + tm.getCurrentDB() + "';";
+        String dropArchive = "DROP DATABASE " + tm.getArchiveDB() + ";";
+        String archiveCurrent = "CREATE DATABASE " + tm.getArchiveDB() + " WITH TEMPLATE " + tm.getCurrentDB() + " OWNER " + config.getAdminUser();
+        String dropCurrentDatabase = "DROP DATABASE " + tm.getCurrentDB() + ";";
+
+        try(Connection con = DriverManager.getConnection(connString + "postgres", config.getSuperUser(), config.getSuperPass());
+            Statement statement = con.createStatement()){
+            // Nothing may write between the fingerprint and the copy or drop, so the connections go first.
+            statement.execute(terminateCurrent);
+            String fingerprint = fingerprintDatabase(connString + tm.getCurrentDB(), config);
+            // First section is backing up the database to an archive.
+            String archiveComment = getDatabaseComment(con, tm.getArchiveDB());
+            if(archiveComment != null && archiveComment.startsWith(MOVING_PREFIX)){
+                throw new SQLException(String.format("Archive %s holds data of a move into %s that never completed, not replacing it.",
+                        tm.getArchiveDB(), tm.getCurrentDB()));
+            }
+            if((FINGERPRINT_PREFIX + fingerprint).equals(archiveComment)
+                    && sameContents(connString + tm.getCurrentDB(), connString + tm.getArchiveDB(), config)){
+                logger.info(String.format("Archive %s already matches %s, skipping the copy.", tm.getArchiveDB(), tm.getCurrentDB()));
+            } else {
+                if(archiveComment != null || databaseExists(con, tm.getArchiveDB())){
                     statement.execute(terminateArchive);
                     statement.execute(dropArchive);
                 }
                 statement.execute(terminateCurrent);
                 statement.execute(archiveCurrent);
-                statement.execute(dropCurrentDatabase);
-                createDBIfAbsent(connString + "postgres", config, tm.getCurrentDB());
-                return;
-            } catch (SQLException | InterruptedException e) {
-                throw new RuntimeException("TABLE MOVES FAILED, DO NOT RUN AGAIN UNTIL YOU VERIFY ALL DATA IS IN THE PROPER LOCATION",e);
+                statement.execute("COMMENT ON DATABASE " + tm.getArchiveDB() + " IS '" + FINGERPRINT_PREFIX + fingerprint + "'");
+                logger.info(String.format("Archived %s to %s in %dms", tm.getCurrentDB(), tm.getArchiveDB(),
+                        System.currentTimeMillis() - start));
             }
+            // Survives the drop, until the data is migrated back the archive is the only copy of it.
+            statement.execute("COMMENT ON DATABASE " + tm.getArchiveDB() + " IS '" + MOVING_PREFIX + fingerprint + "'");
+            statement.execute(terminateCurrent);
+            statement.execute(dropCurrentDatabase);
+        }
+        createDBIfAbsent(connString + "postgres", config, tm.getCurrentDB());
+        try(Connection current = DriverManager.getConnection(connString + tm.getCurrentDB(), config.getSuperUser(), config.getSuperPass())){
+            TableMigrator.registerMigration(current, tm);
         }
+        logger.info(String.format("Moved %s in %dms", tm.getCurrentDB(), System.currentTimeMillis() - start));
+        DatabaseEvents.end(event);
     }
 
+    /**
+     * Migrations that touch the same database have to run in order, everything else can run at once.
+     * Databases are joined with a union-find so a migration that bridges two groups merges them,
+     * each group keeps the order the migrations were given in.
+     */
+    private List<List<AbstractMigration>> groupIndependentMigrations(List<AbstractMigration> tms){
+        Map<String, String> parents = new HashMap<>();
+        for(AbstractMigration tm : tms){
+            union(parents, tm.getCurrentDB(), tm.getArchiveDB());
+        }
+        Map<String, List<AbstractMigration>> groups = new LinkedHashMap<>();
+        for(AbstractMigration tm : tms){
+            groups.computeIfAbsent(find(parents, tm.getCurrentDB()), root -> new ArrayList<>()).add(tm);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static void union(Map<String, String> parents, String a, String b){
+        String rootA = find(parents, a);
+        String rootB = find(parents, b);
+        if(!rootA.equals(rootB)) parents.put(rootB, rootA);
+    }
 
+    private static String find(Map<String, String> parents, String db){
+        String root = db;
+        while(parents.containsKey(root) && !parents.get(root).equals(root)) root = parents.get(root);
+        // Point everything on the way straight at the root so later finds are short.
+        String node = db;
+        while(!node.equals(root)){
+            String next = parents.get(node);
+            parents.put(node, root);
+            node = next;
+        }
+        return root;
+    }
+
+    /**
+     * Hashes the columns and the on disk size and file of every table, read from the catalog so
+     * nothing is scanned. The archive keeps this in its database comment. Any write or vacuum
+     * changes it, so a match only means the contents are worth comparing, see sameContents.
+     */
+    private String fingerprintDatabase(String url, DBManagerConfig config) throws SQLException {
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new SQLException("SHA-256 is not available to fingerprint the database", e);
+        }
+        try(Connection con = DriverManager.getConnection(url, config.getSuperUser(), config.getSuperPass());
+            Statement statement = con.createStatement()){
+            try(ResultSet rs = statement.executeQuery(FINGERPRINT_SCHEMA)){
+                while(rs.next()){
+                    digest.update((rs.getString(1) + "(" + rs.getString(2) + ");").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            try(ResultSet rs = statement.executeQuery(FINGERPRINT_SIZES)){
+                while(rs.next()){
+                    digest.update((rs.getString(1) + ":" + rs.getLong(2) + ":" + rs.getLong(3) + ";").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
 
+    /**
+     * Only run when the catalog fingerprints match, compares the row count and the sum of the 128 bit
+     * md5 of every row of each table in both databases. Sums do not depend on row order so nothing is sorted.
+     */
+    private boolean sameContents(String currentUrl, String archiveUrl, DBManagerConfig config) throws SQLException {
+        return contentDigest(currentUrl, config).equals(contentDigest(archiveUrl, config));
+    }
+
+    private Map<String, String> contentDigest(String url, DBManagerConfig config) throws SQLException {
+        Map<String, String> digests = new TreeMap<>();
+        try(Connection con = DriverManager.getConnection(url, config.getSuperUser(), config.getSuperPass());
+            Statement statement = con.createStatement()){
+            List<String> tables = new ArrayList<>();
+            try(ResultSet rs = statement.executeQuery(FINGERPRINT_SCHEMA)){
+                while(rs.next()) tables.add(rs.getString(1));
+            }
+            for(String table : tables){
+                try(ResultSet rs = statement.executeQuery("SELECT COUNT(*),"
+                        + " COALESCE(SUM(('x' || substr(h, 1, 16))::bit(64)::bigint::numeric), 0),"
+                        + " COALESCE(SUM(('x' || substr(h, 17, 16))::bit(64)::bigint::numeric), 0)"
+                        + " FROM (SELECT md5(t::text) AS h FROM \"" + table + "\" t) r")){
+                    if(rs.next()) digests.put(table, rs.getLong(1) + ":" + rs.getString(2) + ":" + rs.getString(3));
+                }
+            }
+        }
+        return digests;
+    }
+
+    private String getDatabaseComment(Connection con, String dbName) throws SQLException {
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT shobj_description(oid, 'pg_database') FROM pg_database WHERE datname = ?")){
+            pStmt.setString(1, dbName);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private boolean databaseExists(Connection con, String dbName) throws SQLException {
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")){
+            pStmt.setString(1, dbName);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next();
+            }
+        }
+    }
+
+    private TableMigrator createTableMigrator(DBManagerConfig config){
+        String connString = String.format(F_URL, config.getHost(), config.getPort());
+        int chunkSize = (config.getMigrationChunkSize() == null) ? DEFAULT_MIGRATION_CHUNK_SIZE : config.getMigrationChunkSize();
+        return new TableMigrator(connString, config, prepMap, mapperMap::get,
+                new RecordCodec(new ObjectMapper(), logger), logger, Math.max(1, chunkSize));
+    }
+
+    /**
+     * Rebuilds each migrated table in place without taking the database offline, see {@link OnlineMigrator}.
+     * Tables are done one at a time to keep the extra load on the live database low.
+     * @param tms The table migrations, their archive table names are tables in the current db.
+     * @param config The Database config
+     * @throws RuntimeException If a table could not be migrated, tables swapped before it stay migrated.
+     */
+    protected void migrateOnline(List<AbstractMigration> tms, DBManagerConfig config) throws SQLException {
+        String connString = String.format(F_URL, config.getHost(), config.getPort());
+        int chunkSize = (config.getMigrationChunkSize() == null) ? DEFAULT_MIGRATION_CHUNK_SIZE : config.getMigrationChunkSize();
+        long throttle = (config.getMigrationThrottleMillis() == null) ? DEFAULT_MIGRATION_THROTTLE_MS : config.getMigrationThrottleMillis();
+        OnlineMigrator online = new OnlineMigrator(createTableMigrator(config), connString, config, logger,
+                Math.max(1, chunkSize), throttle);
+        for(AbstractMigration tm : tms){
+            for(Map.Entry<String, SQLRecord> migrant : tm.getMigrationMap().entrySet()){
+                Class<? extends SQLRecord> recordClass = migrant.getValue().getClass();
+                String createSQL = applyIdentityOptions(prepStatements(recordClass));
+                String insertSQL = prepMap.get(migrant.getValue().getTableName() + AbstractDbOperations.INSERT_MANY);
+                DatabaseEvents.MigrationPhaseEvent event = DatabaseEvents.beginMigration("online", tm.getCurrentDB(), migrant.getKey());
+                try{
+                    online.migrate(tm, migrant.getKey(), migrant.getValue(), createSQL, insertSQL);
+                    DatabaseEvents.end(event);
+                } catch (SQLException e){
+                    // Take care to make sure this is not swallowed. This exception should exit the application.
+                    logger.except("Exception occurred during online migration of " + migrant.getKey() + "... Bailing!", e);
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A migration is incomplete if an archive is still marked as moving or a current db has unfinished state rows.
+     * Only a missing current db counts as nothing started, any other failure is thrown so a flaky connection can
+     * not send the startup into moveTables over a half migrated db.
+     */
+    private boolean hasIncompleteMigration(List<AbstractMigration> tms, DBManagerConfig config) throws SQLException {
+        String connString = String.format(F_URL, config.getHost(), config.getPort());
+        try(Connection con = DriverManager.getConnection(connString + "postgres", config.getSuperUser(), config.getSuperPass())){
+            for(AbstractMigration tm : tms){
+                String archiveComment = getDatabaseComment(con, tm.getArchiveDB());
+                if(archiveComment != null && archiveComment.startsWith(MOVING_PREFIX)) return true;
+            }
+        }
+        for(AbstractMigration tm : tms){
+            try(Connection current = DriverManager.getConnection(connString + tm.getCurrentDB(), config.getSuperUser(), config.getSuperPass())){
+                if(TableMigrator.hasIncompleteMigration(current)) return true;
+            } catch (SQLException e){
+                if(!INVALID_CATALOG.equals(e.getSQLState())) throw e;
+            }
+        }
+        return false;
+    }
+
+    // Puts the plain fingerprint back on the archives once their data is in the current dbs.
+    private void markMovesComplete(List<AbstractMigration> tms, DBManagerConfig config) throws SQLException {
+        String connString = String.format(F_URL, config.getHost(), config.getPort());
+        try(Connection con = DriverManager.getConnection(connString + "postgres", config.getSuperUser(), config.getSuperPass());
+            Statement statement = con.createStatement()){
+            for(AbstractMigration tm : tms){
+                String archiveComment = getDatabaseComment(con, tm.getArchiveDB());
+                if(archiveComment == null || !archiveComment.startsWith(MOVING_PREFIX)) continue;
+                statement.execute("COMMENT ON DATABASE " + tm.getArchiveDB() + " IS '"
+                        + FINGERPRINT_PREFIX + archiveComment.substring(MOVING_PREFIX.length()) + "'");
+            }
+        }
+    }
+
+    /**
+     * Streams every archive table into its new table, see {@link TableMigrator}. Tables are
+     * independent of each other so they are spread over migrationThreads workers. Progress is
+     * checkpointed per chunk, so running this again after a failure picks up where it stopped.
+     */
     @Override
     protected boolean migrateFromOldTables(List<AbstractMigration> tms, DBManagerConfig config) {
         String connString = String.format(F_URL, config.getHost(), config.getPort());
+        int threads = (config.getMigrationThreads() == null) ? DEFAULT_MIGRATION_THREADS : config.getMigrationThreads();
+        TableMigrator migrator = createTableMigrator(config);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "DB-Migration-Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
         boolean withoutError = true;
-        for(AbstractMigration tm : tms) {
-            // First section is backing up the database to an archive.
-            try {
-                cwCurrent = PoolFactory.createSingleConnectionWrapper(connString + tm.getCurrentDB(),
-                        config.getSuperUser(), config.getSuperPass());
-                cwCurrent.addPreparedStatements(prepMap, constMap);
-
-                cwArchived = PoolFactory.createSingleConnectionWrapper(connString + tm.getArchiveDB(),
-                        config.getSuperUser(), config.getSuperPass());
-                cwArchived.addPreparedStatements(prepMap, constMap);
-
-                // The archive user only needs read access at this point so non-privileged use
-                // is a great differentiator for the borrow connection calls.
-                DBOperations current = new DbOperationsAdminUser(this);
-                DBOperations archive = new DbOperationsBaseUser(this);
-
-                Map<String, SQLRecord> migrationMap = tm.getMigrationMap();
-                for(Map.Entry<String, SQLRecord> migrant : migrationMap.entrySet()){
-                    String className = migrant.getValue().getClass().getSimpleName().toLowerCase();
-                    // Check the amount of entries on the table prior to migrating any new data.
-                    // It should be zero but check anyway.
-                    List<? extends SQLRecord> newTableEntries = current.getAllEntries(migrant.getValue().getClass());
-                    int newTableCount = (newTableEntries == null) ? 0 : newTableEntries.size();
-
-                    //Get the data from the old table remove duplicates.
-                    List<Map<String, Object>> oldTableEntries = archive.getAllEntriesAsMaps(migrant.getKey());
-                    if(oldTableEntries == null || oldTableEntries.isEmpty()) continue;
-
-                    // Old table has entries, convert them to objects (Checked for duplicates in convertEntries
-                    List<? extends SQLRecord> converted =  convertEntries(oldTableEntries, migrant.getValue(), newTableEntries);
-
-                    // Insert those new objects in new table
-                    current.batchRequestsNoReturn(converted, prepMap.get(className + AbstractDbOperations.INSERT_MANY), false);
-
-                    //Retrieve the new table with all entries
-                    List<Map<String, Object>> getAllNewRecords = current.getAllEntriesAsMaps(className);
-
-                    int totalEntries = (getAllNewRecords == null) ? 0 : getAllNewRecords.size();
-
-                    //If the new table has all the expected values we should be good from an entry count standpoint
-                    if(totalEntries - newTableCount == converted.size()){
-                        logger.log("It appears that all entries are in order on the new table: "
-                                + migrant.getValue().getClass().getSimpleName());
-                    } else {
-                        logger.warn("It appears that the number of entries added does not match the number of entries retrieved! table: "
-                                + migrant.getValue().getClass().getSimpleName());
-                        withoutError = false;
-                    }
+        try{
+            // Register up front so the workers do not race to create the state table.
+            for(AbstractMigration tm : tms){
+                try(Connection current = DriverManager.getConnection(connString + tm.getCurrentDB(), config.getSuperUser(), config.getSuperPass())){
+                    TableMigrator.registerMigration(current, tm);
                 }
-            } catch (SQLException e) {
-                // Take care to make sure this is not swallowed. This exception should exit the application.
-                logger.except("Exception occurred during database backup operations... Bailing!", e);
-                throw new RuntimeException(e);
             }
+            List<Future<Boolean>> tables = new ArrayList<>();
+            for(AbstractMigration tm : tms) {
+                for(Map.Entry<String, SQLRecord> migrant : tm.getMigrationMap().entrySet()){
+                    tables.add(workers.submit(() -> {
+                        DatabaseEvents.MigrationPhaseEvent event = DatabaseEvents.beginMigration("copy", tm.getCurrentDB(), migrant.getKey());
+                        boolean migrated = migrator.migrate(tm, migrant.getKey(), migrant.getValue());
+                        DatabaseEvents.end(event);
+                        return migrated;
+                    }));
+                }
+            }
+            for(Future<Boolean> table : tables){
+                withoutError &= table.get();
+            }
+        } catch (SQLException e) {
+            logger.except("Exception occurred while registering the migration state... Bailing!", e);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // Take care to make sure this is not swallowed. This exception should exit the application.
+            logger.except("Exception occurred during database migration operations... Bailing!", e);
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during database migration operations!", e);
+        } finally {
+            workers.shutdownNow();
         }
+        logger.info("Migration of all tables took " + (System.currentTimeMillis() - start) + "ms");
         return withoutError;
     }
 
@@ -253,68 +675,181 @@ public class DBManagerImpl extends DBManager {
 
     @Override
     public Connection borrowConnection(boolean isPrivileged) throws SQLException {
-        int count = 0;
-        while(count < BORROW_ATTEMPTS){
-            count++;
-            try{
-                if(isInInit && isPrivileged){
-                    Connection conn = cwCurrent.borrowConnection();
-                    cwCurrent.release();
-                    return conn;
-                }  else if (isInInit){
-                    Connection conn = cwArchived.borrowConnection();
-                    cwArchived.release();
-                    return conn;
-                } else if (isPrivileged){
-                    return adminConnectionPool.borrowConnection().borrowConnection();
-                } else {
-                    return userConnectionPool.borrowConnection().borrowConnection();
-                }
-            } catch (SQLException | InterruptedException e){
-                logger.except(String.format("Unable to borrow connection, Privileged Attempt: %b, Init: %b.", isPrivileged, isInInit), e);
-                if(count == 4){
-                    throw new SQLException("Unable to borrow connection from the pool!");
-                }
-            }
-            try{
-                Thread.sleep(TIMEOUT_BETWEEN_BORROWS);
-            } catch (InterruptedException e){
-                //I do not care.
-            }
+        if(isInInit){
+            requirePrivilegedInInit(isPrivileged);
+            Connection conn = cwCurrent.borrowConnection();
+            cwCurrent.release();
+            return conn;
         }
-        throw new SQLException("Unable to borrow connection from the pool!");
+        return releasingConnection(borrowCW(isPrivileged), isPrivileged);
+    }
+
+    /**
+     * The wrapper holds a slot of the BorrowQueue (and of the autoscaled limit) until it is released,
+     * so the raw connection hands it back when closed. The physical connection stays with the pool.
+     */
+    private Connection releasingConnection(ConnectionWrapper cw, boolean isPrivileged) throws SQLException {
+        Connection conn;
+        try{
+            conn = cw.borrowConnection();
+        } catch (SQLException | RuntimeException e){
+            releaseCW(cw, isPrivileged);
+            throw e;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if(method.getDeclaringClass() == Object.class) return method.invoke(conn, args);
+                    switch (method.getName()){
+                        case "close" -> {
+                            if(released.compareAndSet(false, true)) releaseCW(cw, isPrivileged);
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            if(released.get()) return true;
+                        }
+                        default -> {
+                            if(released.get()) throw new SQLException("The connection was closed and returned to the pool.");
+                        }
+                    }
+                    try{
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e){
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    // Only the superuser wrapper of the current db exists during init, the migration opens its own connections.
+    private static void requirePrivilegedInInit(boolean isPrivileged) throws SQLException {
+        if(!isPrivileged) throw new SQLException("Unprivileged borrows are not available while the DBManager initializes.");
     }
 
     @Override
     public ConnectionWrapper borrowCW(boolean isPrivileged) throws SQLException {
-        int count = 0;
-        while(count < BORROW_ATTEMPTS){
-            count++;
-            try{
-                if(isInInit && isPrivileged){
-                    cwCurrent.release();
-                    return cwCurrent;
-                } else if (isInInit){
-                    cwArchived.release();
-                    return cwArchived;
-                } else if (isPrivileged){
-                    return adminConnectionPool.borrowConnection();
-                } else {
-                    return userConnectionPool.borrowConnection();
-                }
-            } catch (SQLException | InterruptedException e){
-                logger.except(String.format("Unable to borrow wrapper, Privileged Attempt: %b, Init: %b.", isPrivileged, isInInit), e);
-                if(count == 4){
-                    throw new SQLException("Unable to borrow connection wrapper from the pool!");
-                }
-            }
-            try{
-                Thread.sleep(TIMEOUT_BETWEEN_BORROWS);
-            } catch (InterruptedException e){
-                //I do not care.
+        if(isInInit){
+            requirePrivilegedInInit(isPrivileged);
+            cwCurrent.release();
+            return cwCurrent;
+        }
+        if(closed) throw new ManagerClosedException("This DBManager was closed, get the DBOperations from the factory again.");
+        lastActivityMillis = System.currentTimeMillis();
+        if(replicaRouter != null) replicaRouter.markPrimaryUse();
+        return borrowPrimaryCW(isPrivileged);
+    }
+
+    /**
+     * Replicas are only used for non-privileged reads, they are reached with the user role.
+     * Privileged reads, pinned threads and reads without an eligible replica use the primary.
+     */
+    @Override
+    public ConnectionWrapper borrowReadCW(boolean isPrivileged) throws SQLException {
+        if(isInInit || closed) return borrowCW(isPrivileged);
+        lastActivityMillis = System.currentTimeMillis();
+        if(replicaRouter != null && !isPrivileged){
+            DatabaseEvents.PoolBorrowEvent event = beginBorrow("replica", false);
+            ConnectionWrapper cw = replicaRouter.borrow();
+            endBorrow(event, cw != null);
+            if(cw != null) return cw;
+        }
+        return borrowPrimaryCW(isPrivileged);
+    }
+
+    @Override
+    public void pinReadsToPrimary(boolean pinned) {
+        if(replicaRouter != null) replicaRouter.setPinned(pinned);
+    }
+
+    private ConnectionWrapper borrowPrimaryCW(boolean isPrivileged) throws SQLException {
+        DatabaseEvents.PoolBorrowEvent event = beginBorrow((isPrivileged) ? "admin" : "user", isPrivileged);
+        try{
+            ConnectionWrapper cw = (isPrivileged) ? adminBorrowQueue.borrow() : userBorrowQueue.borrow();
+            endBorrow(event, true);
+            return cw;
+        } catch (SQLException e){
+            endBorrow(event, false);
+            logger.except(String.format("Unable to borrow wrapper, Privileged Attempt: %b.", isPrivileged), e);
+            throw e;
+        }
+    }
+
+    private static DatabaseEvents.PoolBorrowEvent beginBorrow(String pool, boolean isPrivileged){
+        if(!DatabaseEvents.POOL_BORROW.isEnabled()) return null;
+        DatabaseEvents.PoolBorrowEvent event = new DatabaseEvents.PoolBorrowEvent();
+        event.pool = pool;
+        event.privileged = isPrivileged;
+        event.begin();
+        return event;
+    }
+
+    private static void endBorrow(DatabaseEvents.PoolBorrowEvent event, boolean succeeded){
+        if(event == null) return;
+        event.succeeded = succeeded;
+        event.commit();
+    }
+
+    @Override
+    public void releaseCW(ConnectionWrapper cw, boolean isPrivileged) {
+        if(cw == null || isInInit) return;
+        if(replicaRouter != null && replicaRouter.release(cw)) return;
+        if(isPrivileged) adminBorrowQueue.release(cw);
+        else userBorrowQueue.release(cw);
+    }
+
+    @Override
+    public BorrowStats getBorrowStats(boolean isPrivileged) {
+        BorrowQueue queue = isPrivileged ? adminBorrowQueue : userBorrowQueue;
+        return (queue == null) ? new BorrowStats(0, 0, 0, 0, 0, 0) : queue.getStats();
+    }
+
+    @Override
+    public Bulkheads getBulkheads() {
+        return bulkheads;
+    }
+
+    @Override
+    public OperationMetrics getOperationMetrics() {
+        return operationMetrics;
+    }
+
+    @Override
+    public OperationListeners getOperationListeners() {
+        return operationListeners;
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    @Override
+    public List<PlanFinding> getPlanFindings() {
+        return planFindings;
+    }
+
+    @Override
+    public List<PoolScalingDecision> getPoolScalingDecisions() {
+        return (autoscaler == null) ? List.of() : autoscaler.getDecisions();
+    }
+
+    @Override
+    public long getLastActivityMillis() {
+        return lastActivityMillis;
+    }
+
+    @Override
+    public boolean isIdle() {
+        if(isInInit || !isIdle(userBorrowQueue) || !isIdle(adminBorrowQueue)) return false;
+        if(replicaRouter != null){
+            for(ReplicaRouter.Replica replica : replicaRouter.getReplicas()){
+                if(!isIdle(replica.getQueue())) return false;
             }
         }
-        throw new SQLException("Unable to borrow connection from the pool!");
+        return true;
+    }
+
+    private static boolean isIdle(BorrowQueue queue){
+        return queue == null || (queue.getOutstanding() == 0 && queue.getStats().waiting() == 0);
     }
 
     @Override
@@ -327,6 +862,12 @@ public class DBManagerImpl extends DBManager {
         return new ArrayList<>(recordClasses);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SQLRecord> SQLRecordMapper<T> getRecordMapper(Class<T> recordClass) {
+        return (SQLRecordMapper<T>) mapperMap.get(recordClass);
+    }
+
 
     // private and protected methods, some defined by DBManager some are just helpers.
 
@@ -376,17 +917,23 @@ public class DBManagerImpl extends DBManager {
     @Override
     protected void createTablesFromRecords() throws SQLException {
         for(Class<? extends SQLRecord> record : recordClasses){
-            String createSQL = prepStatements(record);
+            String createSQL = applyIdentityOptions(prepStatements(record));
             // If table exists make sure it has all columns, else create it.
-            if(isValidTable(record.getSimpleName().toLowerCase())){
+            boolean exists = isValidTable(record.getSimpleName().toLowerCase());
+            if(exists){
                 Map<String, List<String>> columnMap = verifyColumnsMatch(record);
                 addMissingColumns(columnMap.get(MISSING), record);
+                if(!columnMap.get(TYPE_MISMATCH).isEmpty()) alterColumnTypes(columnMap.get(TYPE_MISMATCH), record);
                 if(destructiveColumns) removeExtraColumns(columnMap.get(EXIST_BUT_SHOULD_NOT), record);
+                alignIdentity(record);
             } else {
                 try(PreparedStatement pStat = borrowConnection().prepareStatement(createSQL)){
                     pStat.executeUpdate();
                 }
             }
+            if(record.isAnnotationPresent(ContentHash.class)) backfillContentHash(record);
+            // Indexes come after the columns, a declared index may be on a column that was just added.
+            indexReconciler.reconcile(borrowConnection(), record, !exists);
         }
     }
 
@@ -419,20 +966,27 @@ public class DBManagerImpl extends DBManager {
     protected Map<String, List<String>> verifyColumnsMatch(Class<? extends SQLRecord> recordClass) throws SQLException {
         List<String> recordColumns = new ArrayList<>(Arrays.stream(recordClass.getRecordComponents())
                 .map(comp -> comp.getName().toLowerCase()).toList());
+        if(recordClass.isAnnotationPresent(ContentHash.class)) recordColumns.add(ContentHash.COLUMN);
+        Map<String, SQLConvertType> recordTypes = getColumnTypes(recordClass);
         Map<String, List<String>> map = new HashMap<>();
         try(PreparedStatement pStmt = borrowConnection().prepareStatement(GET_TABLE_COLUMNS)){
             pStmt.setString(1, recordClass.getSimpleName().toLowerCase());
             ResultSet rs = pStmt.executeQuery();
             List<String> dbColumns = new ArrayList<>();
+            List<String> mismatched = new ArrayList<>();
             if(!rs.next()) {
                 logger.error("There was no table to check the columns or the columns were empty!");
                 return null;
             }
             do{
-                dbColumns.add(rs.getString(1).toLowerCase());
+                String column = rs.getString(1).toLowerCase();
+                dbColumns.add(column);
+                SQLConvertType expected = recordTypes.get(column);
+                if(expected != null && !catalogType(expected.SQL_TYPE).equals(rs.getString(2))) mismatched.add(column);
             } while (rs.next());
 
             map.put(MISSING, recordColumns.stream().filter(entry -> !dbColumns.contains(entry)).toList());
+            map.put(TYPE_MISMATCH, mismatched);
             dbColumns.removeAll(recordColumns);
             map.put(EXIST_BUT_SHOULD_NOT, dbColumns);
         }
@@ -448,6 +1002,9 @@ public class DBManagerImpl extends DBManager {
                 typeMap.put(comp.getName().toLowerCase(), SQLConvertType.getByClassSimpleName(comp.getType().getSimpleName()));
             }
         }
+        if(columns.contains(ContentHash.COLUMN) && recordClass.isAnnotationPresent(ContentHash.class)){
+            typeMap.put(ContentHash.COLUMN, SQLConvertType.getByClassSimpleName(Long.class.getSimpleName()));
+        }
         if(typeMap.size() == 0) return;
         for(Map.Entry<String, SQLConvertType> column : typeMap.entrySet()){
             if(column.getValue() == null) throw new IllegalArgumentException(
@@ -485,65 +1042,229 @@ public class DBManagerImpl extends DBManager {
         }
     }
 
+    /**
+     * Changes the type of every listed column to the type of its record component, all in one ALTER TABLE.
+     * Widening changes (INT to BIGINT, REAL to DOUBLE PRECISION, anything to TEXT) always run, anything
+     * else only runs with destructiveColumns as the cast can fail or lose precision.
+     * @param columns The columns whose catalog type differs from the record, from verifyColumnsMatch.
+     * @param recordClass The record class of the table.
+     * @throws SQLException If the cast of an existing value failed, nothing is changed then.
+     */
+    @Override
+    protected void alterColumnTypes(List<String> columns, Class<? extends SQLRecord> recordClass) throws SQLException {
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        Map<String, SQLConvertType> recordTypes = getColumnTypes(recordClass);
+        Map<String, String> currentTypes = new HashMap<>();
+        try(PreparedStatement pStmt = borrowConnection().prepareStatement(GET_TABLE_COLUMNS)){
+            pStmt.setString(1, tableName);
+            ResultSet rs = pStmt.executeQuery();
+            while(rs.next()) currentTypes.put(rs.getString(1).toLowerCase(), rs.getString(2));
+        }
+        StringBuilder alterSB = new StringBuilder("ALTER TABLE ").append(tableName);
+        int altered = 0;
+        for(String column : columns){
+            SQLConvertType type = recordTypes.get(column);
+            String from = currentTypes.get(column);
+            if(type == null || from == null) continue;
+            String to = catalogType(type.SQL_TYPE);
+            if(!destructiveColumns && !isWidening(from, to)){
+                logger.warn(String.format("Column %s.%s is %s but the record wants %s, enable destructiveColumns to change it.",
+                        tableName, column, from, to));
+                continue;
+            }
+            alterSB.append(" ALTER COLUMN ").append(column).append(" TYPE ").append(type.SQL_TYPE)
+                    .append(" USING ").append(column).append("::").append(type.SQL_TYPE).append(", ");
+            altered++;
+        }
+        if(altered == 0) return;
+        alterSB.setLength(alterSB.length() - 2);
+        alterSB.append(";");
+        logger.info("Changing column types in place: " + alterSB);
+        try(PreparedStatement pStmt = borrowConnection().prepareStatement(alterSB.toString())){
+            pStmt.executeUpdate();
+        }
+    }
+
     @Override
     protected void adjustColumnsToMatch(Class<? extends SQLRecord> recordClass) throws SQLException {
         Map<String, List<String>> columnModsMap = verifyColumnsMatch(recordClass);
         if(!columnModsMap.getOrDefault(MISSING, List.of()).isEmpty()) {
             addMissingColumns(columnModsMap.get(MISSING), recordClass);
         }
+        if(!columnModsMap.getOrDefault(TYPE_MISMATCH, List.of()).isEmpty()) {
+            alterColumnTypes(columnModsMap.get(TYPE_MISMATCH), recordClass);
+        }
         if(!columnModsMap.getOrDefault(EXIST_BUT_SHOULD_NOT, List.of()).isEmpty()) {
             removeExtraColumns(columnModsMap.get(EXIST_BUT_SHOULD_NOT), recordClass);
         }
     }
 
-    private List<? extends SQLRecord> convertEntries(List<Map<String, Object>> tableEntries, SQLRecord record, List<? extends SQLRecord> previousEntries){
-        List<? extends SQLRecord> recordList = new ArrayList<>();
-        List<FieldConverter> converter = record.getConverter();
-
-        // Given the nature of SQLRecords getNewRecord method I don't actually need
-        // to remove and change values, I just need to add another entry with the converted (optionally) obj
-        for(Map<String, Object> entry : tableEntries){
-            for(FieldConverter convert : converter){
-                if(convert.newColumnName == null || convert.originalColumnName == null){
-                    logger.warn(String.format("NewName or originalName is null! newColumnName = %s, originalColumnName = %s",
-                            convert, convert.newColumnName, convert.originalColumnName));
-                }
-                try {
-                    Object original = entry.get(convert.originalColumnName.toLowerCase());
-                    entry.remove(convert.originalColumnName);
-                    entry.put(convert.newColumnName, convert.typeConverter(original));
-                } catch (Exception e){
-                    logger.except("Exception occurred trying to convert value from " + convert.originalColumnName
-                            + " to " + convert.newColumnName);
-                    entry.put(convert.newColumnName, entry.get(convert.originalColumnName));
+    /**
+     * Hashes the rows that have no content hash yet, the ones written before the column was added.
+     * All rows are hashed again when the column comment shows they were hashed by an older Records.contentHash.
+     * Runs in keyset chunks of the primary key, a row that fails to map fails the startup, left unhashed
+     * or with a stale hash getMatchNoId could miss it and an upsert would add a duplicate.
+     * @param recordClass A ContentHash record whose table already exists.
+     */
+    @SuppressWarnings("unchecked")
+    private void backfillContentHash(Class<? extends SQLRecord> recordClass) throws SQLException {
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        String primaryKey = recordClass.getRecordComponents()[0].getName().toLowerCase();
+        SQLRecordMapper<SQLRecord> mapper = (SQLRecordMapper<SQLRecord>) mapperMap.get(recordClass);
+        RecordCodec codec = new RecordCodec(new ObjectMapper(), logger);
+        Connection conn = borrowConnection();
+        boolean rehash = !CONTENT_HASH_VERSION.equals(contentHashVersion(conn, tableName));
+        long lastKey = Long.MIN_VALUE;
+        long hashed = 0;
+        try(PreparedStatement select = conn.prepareStatement("SELECT * FROM " + tableName + " WHERE "
+                + (rehash ? "" : ContentHash.COLUMN + " IS NULL AND ") + primaryKey + " > ? ORDER BY " + primaryKey
+                + " LIMIT " + DEFAULT_MIGRATION_CHUNK_SIZE);
+            PreparedStatement update = conn.prepareStatement("UPDATE " + tableName + " SET " + ContentHash.COLUMN
+                    + " = ? WHERE " + primaryKey + " = ?")){
+            int read;
+            do{
+                read = 0;
+                select.setLong(1, lastKey);
+                try(ResultSet rs = select.executeQuery()){
+                    ResultSetMetaData md = rs.getMetaData();
+                    int columnCount = md.getColumnCount();
+                    while(rs.next()){
+                        read++;
+                        lastKey = rs.getLong(primaryKey);
+                        try{
+                            TreeMap<String, Object> tm = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                            tm.putAll(codec.readRow(columnCount, md, rs));
+                            SQLRecord record = (mapper != null) ? mapper.mapRow(tm)
+                                    : recordClass.getDeclaredConstructor(Map.class).newInstance(tm);
+                            update.setLong(1, record.getContentHash());
+                            update.setLong(2, lastKey);
+                            update.addBatch();
+                        } catch (Exception e){
+                            throw new SQLException("Unable to hash row " + lastKey + " of " + tableName, e);
+                        }
+                    }
                 }
+                if(read > 0) hashed += Arrays.stream(update.executeBatch()).filter(count -> count > 0).count();
+            } while(read == DEFAULT_MIGRATION_CHUNK_SIZE);
+        }
+        // Only once every row is done, a startup that dies part way hashes them all again next time.
+        if(rehash){
+            try(Statement stmt = conn.createStatement()){
+                stmt.execute("COMMENT ON COLUMN " + tableName + "." + ContentHash.COLUMN + " IS '" + CONTENT_HASH_VERSION + "'");
             }
+        }
+        if(hashed > 0) logger.info(String.format("%s the content hash of %d rows in %s.", rehash ? "Rehashed" : "Backfilled",
+                hashed, tableName));
+    }
 
-            //The risk here is in the unchecked cast typical of the creation of the object based off the map.
-            //That being said it is a risk worth taking. Swallowing the exception is fine here after logging
-            //as its possible that the other objects will succeed and only a handful need to have additional
-            //considerations made.
-            try{
-                recordList.add(record.getNewRecord(entry));
-            } catch (ClassCastException e){
-                logger.except("Cast class exception caused during record creation!", e);
+    private static String contentHashVersion(Connection conn, String tableName) throws SQLException {
+        try(PreparedStatement pStmt = conn.prepareStatement(CONTENT_HASH_COMMENT)){
+            pStmt.setString(1, tableName);
+            pStmt.setString(2, ContentHash.COLUMN);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() ? rs.getString(1) : null;
             }
         }
+    }
 
-        if(previousEntries == null) return recordList;
+    // The primary key is left out, it is always the BIGINT identity.
+    private Map<String, SQLConvertType> getColumnTypes(Class<? extends SQLRecord> recordClass){
+        Map<String, SQLConvertType> types = new HashMap<>();
+        RecordComponent[] comps = recordClass.getRecordComponents();
+        for(int i = 1; i < comps.length; i++){
+            Class<?> classType = comps[i].getType();
+            String className = (classType.isEnum()) ? Integer.class.getSimpleName() : classType.getSimpleName();
+            SQLConvertType sqlType = SQLConvertType.getByClassSimpleName(className);
+            if(sqlType != null) types.put(comps[i].getName().toLowerCase(), sqlType);
+        }
+        if(recordClass.isAnnotationPresent(ContentHash.class)){
+            types.put(ContentHash.COLUMN, SQLConvertType.getByClassSimpleName(Long.class.getSimpleName()));
+        }
+        return types;
+    }
 
-        //This is costly, but it should ensure duplicates in db are made.
-        Iterator<? extends SQLRecord> iter = recordList.iterator();
-        while(iter.hasNext()){
-            SQLRecord rec = iter.next();
-            boolean isDuplicate = previousEntries.stream().anyMatch(rec::equalsWithoutId);
-            if(isDuplicate) iter.remove();
+    // SQL_TYPE spelled the way format_type reports it.
+    private static String catalogType(String sqlType){
+        if(sqlType.endsWith("[]")) return catalogType(sqlType.substring(0, sqlType.length() - 2)) + "[]";
+        return sqlType.equalsIgnoreCase("INT") ? "integer" : sqlType.toLowerCase();
+    }
+
+    private static boolean isWidening(String from, String to){
+        if(from.endsWith("[]") && to.endsWith("[]")){
+            return isWidening(from.substring(0, from.length() - 2), to.substring(0, to.length() - 2));
         }
-        return recordList;
+        if(from.endsWith("[]") || to.endsWith("[]")) return false;
+        return switch (to) {
+            case "text" -> !from.equals("jsonb");
+            case "bigint" -> from.equals("integer") || from.equals("smallint");
+            case "integer" -> from.equals("smallint");
+            case "double precision" -> from.equals("real") || from.equals("integer") || from.equals("smallint");
+            default -> false;
+        };
+    }
+
+    private boolean hasIdentityOptions(){
+        return identityStart != null || identityIncrement != null || identityMaxValue != null;
     }
 
+    private String getIdentityOptions(){
+        StringBuilder sb = new StringBuilder();
+        if(identityStart != null) sb.append("START WITH ").append(identityStart).append(" ");
+        if(identityIncrement != null) sb.append("INCREMENT BY ").append(identityIncrement).append(" ");
+        if(identityMaxValue != null) sb.append("MAXVALUE ").append(identityMaxValue).append(" ");
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
 
+    private String applyIdentityOptions(String createSQL){
+        if(createSQL == null || !hasIdentityOptions()) return createSQL;
+        return createSQL.replace("GENERATED ALWAYS AS IDENTITY", "GENERATED ALWAYS AS IDENTITY (" + getIdentityOptions() + ")");
+    }
 
+    /**
+     * Brings the identity sequence of an existing table in line with the configured start, increment
+     * and max value. The sequence restarts at the first key past the highest one it handed out (or the
+     * current max if rows were copied in past it) that still lands on the start + n * increment
+     * progression, so sharded keys keep routing to this database and deleted keys are never reused.
+     * @param recordClass The record class of the table to align.
+     * @throws SQLException If the sequence could not be altered.
+     */
+    private void alignIdentity(Class<? extends SQLRecord> recordClass) throws SQLException {
+        if(!hasIdentityOptions()) return;
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        String primaryKey = recordClass.getRecordComponents()[0].getName().toLowerCase();
+        long start = (identityStart == null) ? 1 : identityStart;
+        long increment = (identityIncrement == null) ? 1 : identityIncrement;
+        long max = 0;
+        String sequence = null;
+        try(PreparedStatement pStmt = borrowConnection().prepareStatement(
+                "SELECT COALESCE(MAX(" + primaryKey + "), 0), pg_get_serial_sequence(?, ?) FROM " + tableName)){
+            pStmt.setString(1, tableName);
+            pStmt.setString(2, primaryKey);
+            ResultSet rs = pStmt.executeQuery();
+            if(rs.next()){
+                max = rs.getLong(1);
+                sequence = rs.getString(2);
+            }
+        }
+        if(sequence != null){
+            try(PreparedStatement pStmt = borrowConnection().prepareStatement(
+                    "SELECT last_value, is_called FROM " + sequence)){
+                ResultSet rs = pStmt.executeQuery();
+                // Before the first nextval last_value is the start and was never handed out.
+                if(rs.next() && rs.getBoolean(2)) max = Math.max(max, rs.getLong(1));
+            }
+        }
+        long restart = (max < start) ? start : start + ((max - start) / increment + 1) * increment;
+        String alter = "ALTER TABLE " + tableName + " ALTER COLUMN " + primaryKey
+                + " SET INCREMENT BY " + increment
+                + ((identityMaxValue == null) ? "" : " SET MAXVALUE " + identityMaxValue)
+                + " RESTART WITH " + restart + ";";
+        try(PreparedStatement pStmt = borrowConnection().prepareStatement(alter)){
+            pStmt.executeUpdate();
+        }
+        logger.info(String.format("Aligned identity of %s to restart at %d incrementing by %d.", tableName, restart, increment));
+    }
 
     private boolean isValidTable(String table) throws SQLException {
         try(PreparedStatement pStmt = borrowConnection().prepareStatement(TABLE_EXISTS)){
@@ -574,6 +1295,16 @@ public class DBManagerImpl extends DBManager {
      */
     private String prepStatements(Class<? extends SQLRecord> recordClass) throws SQLException {
         String tableName = recordClass.getSimpleName().toLowerCase();
+        prepJsonbStatements(recordClass, tableName);
+        prepOrderStatements(recordClass, tableName);
+        SQLRecordMapper<?> mapper = findGeneratedMapper(recordClass);
+        if(mapper != null){
+            mapperMap.put(recordClass, mapper);
+            prepMap.putAll(mapper.getStatements());
+            constMap.put(tableName + AbstractDbOperations.INSERT_MANY, Statement.RETURN_GENERATED_KEYS);
+            logger.info("Using generated prepared statement strings for: " + tableName);
+            return mapper.getCreateStatement();
+        }
         long start = System.currentTimeMillis();
         logger.info("Starting build of prepared statement strings for: " + tableName);
         RecordComponent[] comps = recordClass.getRecordComponents();
@@ -626,6 +1357,15 @@ public class DBManagerImpl extends DBManager {
                 matchSB.append(" = ? AND ");
             }
         }
+        // Last so the hash binds after the components and before the primary key.
+        if(recordClass.isAnnotationPresent(ContentHash.class)){
+            createSB.append(ContentHash.COLUMN).append(" BIGINT, ");
+            insertSB.append(ContentHash.COLUMN).append(", ");
+            insertValuesSB.append("?, ");
+            updateSB.append(ContentHash.COLUMN).append(" = ?, ");
+            // A row without a hash still matches on its columns, the hash only narrows the rows to compare.
+            matchSB.append("(").append(ContentHash.COLUMN).append(" = ? OR ").append(ContentHash.COLUMN).append(" IS NULL) AND ");
+        }
 
         insertSB.setLength(insertSB.length() - 2);
         insertSB.append(insertValuesSB);
@@ -651,10 +1391,11 @@ public class DBManagerImpl extends DBManager {
         //Get All Records
         String allBase = "SELECT * FROM " + tableName;
         prepMap.put(tableName + AbstractDbOperations.ALL, allBase + ";");
-        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT, allBase + " LIMIT ?;");
-        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START, allBase + " OFFSET ? LIMIT ?;");
-        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_DESC, allBase + " ORDER BY ? DESC OFFSET ? LIMIT ?;");
-        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_ASC, allBase + " ORDER BY ? ASC OFFSET ? LIMIT ?;");
+        // Paging needs a stable order, by the key unless a column is asked for (see prepOrderStatements).
+        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT, allBase + " ORDER BY " + primaryKey + " LIMIT ?;");
+        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START, allBase + " ORDER BY " + primaryKey + " OFFSET ? LIMIT ?;");
+        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_DESC, allBase + " ORDER BY " + primaryKey + " DESC OFFSET ? LIMIT ?;");
+        prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_ASC, allBase + " ORDER BY " + primaryKey + " ASC OFFSET ? LIMIT ?;");
 
         //Delete Record by ID
         prepMap.put(tableName + AbstractDbOperations.DELETE, "DELETE FROM " + tableName + " WHERE " + primaryKey + " = ? RETURNING *" + ";");
@@ -669,9 +1410,83 @@ public class DBManagerImpl extends DBManager {
         return createSB.toString();
     }
 
+    /**
+     * The containment and key queries of the JsonbIndex columns, written with the same expression as their index.
+     * The ?| and ?& operators are doubled so the driver does not take them for parameters.
+     */
+    private void prepJsonbStatements(Class<? extends SQLRecord> recordClass, String tableName){
+        RecordComponent[] comps = recordClass.getRecordComponents();
+        if(comps == null) return;
+        for(RecordComponent comp : comps){
+            JsonbIndex jsonbIndex = comp.getAnnotation(JsonbIndex.class);
+            if(jsonbIndex == null || !IndexReconciler.isJsonb(comp)) continue;
+            String column = comp.getName().toLowerCase();
+            String base = "SELECT * FROM " + tableName + " WHERE " + IndexReconciler.jsonbExpression(comp);
+            prepMap.put(tableName + AbstractDbOperations.JSONB_CONTAINS + column, base + " @> ?::jsonb;");
+            if(jsonbIndex.pathOps()) continue;
+            prepMap.put(tableName + AbstractDbOperations.JSONB_ANY_KEYS + column, base + " ??| ?::text[];");
+            prepMap.put(tableName + AbstractDbOperations.JSONB_ALL_KEYS + column, base + " ??& ?::text[];");
+        }
+    }
+
+    /**
+     * A column can not be bound as a parameter, so every orderable column gets its own ascending and
+     * descending statement keyed by the column name. The key breaks ties so paging stays stable.
+     */
+    private void prepOrderStatements(Class<? extends SQLRecord> recordClass, String tableName){
+        RecordComponent[] comps = recordClass.getRecordComponents();
+        if(comps == null) return;
+        String primaryKey = comps[0].getName().toLowerCase();
+        String allBase = "SELECT * FROM " + tableName + " ORDER BY ";
+        for(RecordComponent comp : comps){
+            if(IndexReconciler.isJsonb(comp)) continue;
+            String column = comp.getName().toLowerCase();
+            String tieBreak = column.equals(primaryKey) ? "" : ", " + primaryKey;
+            prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_ASC + "-" + column,
+                    allBase + column + " ASC" + tieBreak + " ASC OFFSET ? LIMIT ?;");
+            prepMap.put(tableName + AbstractDbOperations.ALL_LIMIT_START_ORDER_DESC + "-" + column,
+                    allBase + column + " DESC" + tieBreak + " DESC OFFSET ? LIMIT ?;");
+        }
+    }
+
+    /**
+     * Looks for the class the PgDatabaseProcessor generates for records annotated with
+     * {@link com.kovisoft.pg.database.data.GenerateSQLMapper}, this is the only reflection
+     * used for those records and it only happens once at startup.
+     * @param recordClass The record class to find the generated mapper for.
+     * @return The generated mapper or null if the record was not processed.
+     */
+    private SQLRecordMapper<?> findGeneratedMapper(Class<? extends SQLRecord> recordClass){
+        String packageName = recordClass.getPackageName();
+        String flatName = recordClass.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1)
+                .replace('$', '_');
+        String mapperName = (packageName.isEmpty() ? "" : packageName + ".") + flatName + SQLRecordMapper.GENERATED_SUFFIX;
+        try{
+            Class<?> mapperClass = Class.forName(mapperName, true, recordClass.getClassLoader());
+            SQLRecordMapper<?> mapper = (SQLRecordMapper<?>) mapperClass.getDeclaredConstructor().newInstance();
+            if(mapper.getRecordClass() != recordClass){
+                logger.warn("Generated mapper " + mapperName + " does not belong to " + recordClass.getName() + ", ignoring it.");
+                return null;
+            }
+            return mapper;
+        } catch (ClassNotFoundException e){
+            return null;
+        } catch (Exception e){
+            logger.except("Unable to instantiate generated mapper " + mapperName + ", falling back to reflection.", e);
+            return null;
+        }
+    }
+
     @Override
     public void close() throws Exception {
+        closed = true;
         Exception lastException = null;
+        logger.info("User pool borrow stats at close: " + getBorrowStats(false));
+        logger.info("Admin pool borrow stats at close: " + getBorrowStats(true));
+        if(bulkheads != null && bulkheads.isEnabled()) logger.info("Bulkhead stats at close: " + bulkheads.getStats());
+        if(autoscaler != null) autoscaler.close();
+        if(metrics != null) metrics.close();
+        if(slowQueryLog != null) slowQueryLog.close();
         try{
             userConnectionPool.shutDownPool();
         } catch (Exception e){
@@ -685,5 +1500,8 @@ public class DBManagerImpl extends DBManager {
             logger.except("Exception when closing admin Connection Pool!", e);
             lastException = e;
         }
+
+        if(replicaRouter != null) replicaRouter.close();
+        if(lastException != null) throw lastException;
     }
 }
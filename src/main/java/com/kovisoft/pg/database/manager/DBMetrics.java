@@ -0,0 +1,101 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.exports.DBMetricsMXBean;
+import com.kovisoft.pg.database.data.exports.OperationMetrics;
+import com.kovisoft.pg.database.data.exports.OperationStats;
+import com.kovisoft.pg.database.data.exports.PoolStats;
+import com.kovisoft.pg.database.data.exports.SlowQuery;
+import com.kovisoft.pg.database.data.exports.SlowQueryLog;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The DBMetricsMXBean of one DBManagerImpl, registered on the platform MBean server until closed.
+ * A manager rebuilt for the same database replaces the bean of the old one.
+ */
+class DBMetrics implements DBMetricsMXBean, AutoCloseable {
+
+    static final String DOMAIN = "com.kovisoft.pg.database";
+    private static final Map<ObjectName, DBMetrics> OWNERS = new ConcurrentHashMap<>();
+
+    private final String database;
+    private final OperationMetrics operationMetrics;
+    private final SlowQueryLog slowQueryLog;
+    private final Supplier<List<PoolStats>> pools;
+    private final Logger logger;
+    private ObjectName objectName;
+
+    DBMetrics(String database, OperationMetrics operationMetrics, SlowQueryLog slowQueryLog,
+              Supplier<List<PoolStats>> pools, Logger logger){
+        this.database = database;
+        this.operationMetrics = operationMetrics;
+        this.slowQueryLog = slowQueryLog;
+        this.pools = pools;
+        this.logger = logger;
+    }
+
+    void register(){
+        try{
+            ObjectName name = new ObjectName(DOMAIN + ":type=DBManager,name=" + ObjectName.quote(database));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try{
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e){
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            OWNERS.put(name, this);
+            objectName = name;
+            logger.info("Registered DB metrics as " + name);
+        } catch (Exception e){
+            logger.except("Unable to register the DB metrics MBean, metrics are still kept but not exposed.", e);
+        }
+    }
+
+    @Override
+    public String getDatabase() {
+        return database;
+    }
+
+    @Override
+    public List<PoolStats> getPools() {
+        return new ArrayList<>(pools.get());
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        return operationMetrics.getStats();
+    }
+
+    @Override
+    public List<SlowQuery> getSlowQueries() {
+        return (slowQueryLog == null) ? List.of() : slowQueryLog.getRecent();
+    }
+
+    @Override
+    public void resetOperations() {
+        operationMetrics.reset();
+    }
+
+    @Override
+    public void close() {
+        if(objectName == null) return;
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // Only our own bean, a newer manager for the same database may have replaced it.
+            if(OWNERS.remove(objectName, this) && server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (Exception e){
+            logger.except("Unable to unregister the DB metrics MBean " + objectName, e);
+        }
+        objectName = null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.kovisoft.pg.database.manager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A power of two bucketed histogram of non negative values, nanoseconds or row counts.
+ * Recording is a handful of atomic adds and never allocates, so it sits on the hot path of every call.
+ * Percentiles are the upper bound of the bucket they land in (capped at the max), so they read high
+ * by at most a factor of two, which is plenty to tell a 2ms call from a 200ms one.
+ */
+public final class Histogram {
+
+    // Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i).
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+    public void record(long value){
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount(){
+        return count.sum();
+    }
+
+    public long getSum(){
+        return sum.sum();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    public double getMean(){
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile Between 0 and 1, 0.99 for the p99.
+     * @return The upper bound of the bucket holding the percentile, 0 when empty.
+     */
+    public long getPercentile(double percentile){
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if(total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= target){
+                long upper = (i == 0) ? 0 : (i == BUCKETS - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Starts over, calls recorded while resetting may be half counted.
+     */
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
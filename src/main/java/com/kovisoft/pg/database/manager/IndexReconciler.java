@@ -0,0 +1,292 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.ContentHash;
+import com.kovisoft.pg.database.data.JsonbIndex;
+import com.kovisoft.pg.database.data.SQLIndex;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+import com.kovisoft.pg.database.data.exports.SQLConvertType;
+
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the secondary indexes of a record table in line with its {@link SQLIndex} annotations,
+ * the content hash index of a {@link ContentHash} record and the GIN indexes of its {@link JsonbIndex} components.
+ * Every index made here gets a comment holding its definition, that is how it tells its own indexes from
+ * ones made by hand and notices a changed definition. Changed, undeclared and invalid indexes of its own are
+ * dropped and the missing ones created, concurrently unless the table was just created and is still empty.
+ * CONCURRENTLY can not run in a transaction, the connection has to be in auto commit.
+ * <p>
+ * An index is built under a temporary name and then renamed and commented in one transaction, so a crash
+ * part way leaves a build index the next start drops instead of an unmarked one under the real name.
+ * Instances reconcile a table one at a time under an advisory lock, an invalid index seen while holding it
+ * is a dead build and not one another instance is still running during a rolling start.
+ */
+class IndexReconciler {
+
+    static final String MARKER = "pgdb:";
+    private static final int MAX_NAME = 63;
+    private static final String BUILD = "_build";
+    private static final long LOCK_POLL_MILLIS = 500;
+    private static final String LOCK_KEY = "pgdb_index:";
+    private static final String TABLE_INDEXES = "SELECT c.relname, obj_description(c.oid, 'pg_class'), i.indisvalid, i.indisprimary"
+            + " FROM pg_catalog.pg_index i JOIN pg_catalog.pg_class c ON c.oid = i.indexrelid WHERE i.indrelid = to_regclass(?)";
+
+    private record Existing(String name, String comment, boolean valid){
+        boolean isManaged(){
+            return comment != null && comment.startsWith(MARKER);
+        }
+    }
+
+    private record Declared(String name, String definition){}
+
+    private final Logger logger;
+
+    IndexReconciler(Logger logger){
+        this.logger = logger;
+    }
+
+    /**
+     * @param conn An auto commit connection able to create and drop indexes on the table.
+     * @param recordClass The record the table belongs to.
+     * @param created True if the table was just created, its indexes are then built without CONCURRENTLY.
+     * @throws SQLException If an index fails to build or drop, the table is left part way reconciled.
+     */
+    void reconcile(Connection conn, Class<? extends SQLRecord> recordClass, boolean created) throws SQLException {
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        Map<String, Declared> declared = declaredIndexes(recordClass, tableName);
+        lock(conn, tableName);
+        try{
+            reconcile(conn, tableName, declared, created);
+        } finally {
+            unlock(conn, tableName);
+        }
+    }
+
+    private void reconcile(Connection conn, String tableName, Map<String, Declared> declared, boolean created) throws SQLException {
+        Map<String, Existing> existing = existingIndexes(conn, tableName);
+        Set<String> builds = new HashSet<>();
+        for(String name : declared.keySet()) builds.add(buildName(name));
+        if(declared.isEmpty() && existing.values().stream().noneMatch(Existing::isManaged)) return;
+        String concurrently = (created) ? "" : "CONCURRENTLY ";
+
+        for(Existing index : List.copyOf(existing.values())){
+            if(builds.contains(index.name())){
+                logger.info(String.format("Dropping index %s on %s, a build that never finished.", index.name(), tableName));
+                execute(conn, "DROP INDEX " + concurrently + "IF EXISTS " + index.name());
+                existing.remove(index.name());
+                continue;
+            }
+            if(!index.isManaged()) continue;
+            Declared wanted = declared.get(index.name());
+            String reason = (wanted == null) ? "no longer declared"
+                    : (!index.valid()) ? "invalid"
+                    : (!index.comment().equals(MARKER + wanted.definition())) ? "changed" : null;
+            if(reason == null) continue;
+            logger.info(String.format("Dropping index %s on %s, it is %s.", index.name(), tableName, reason));
+            execute(conn, "DROP INDEX " + concurrently + "IF EXISTS " + index.name());
+            existing.remove(index.name());
+        }
+
+        for(Declared index : declared.values()){
+            Existing current = existing.get(index.name());
+            if(current != null){
+                if(!current.isManaged()) logger.warn(String.format("Index %s on %s was not made from its SQLIndex, leaving it as it is.",
+                        index.name(), tableName));
+                continue;
+            }
+            // Index names are per schema, an archived table or another table may already own this one.
+            String owner = relationOwner(conn, index.name());
+            if(owner == null) owner = relationOwner(conn, buildName(index.name()));
+            if(owner != null){
+                logger.warn(String.format("Not creating index %s on %s, the name is taken by %s.", index.name(), tableName, owner));
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            String build = buildName(index.name());
+            execute(conn, index.definition().replace("INDEX " + index.name() + " ON ", "INDEX " + concurrently + build + " ON "));
+            conn.setAutoCommit(false);
+            try{
+                execute(conn, "ALTER INDEX " + build + " RENAME TO " + index.name());
+                execute(conn, "COMMENT ON INDEX " + index.name() + " IS '" + (MARKER + index.definition()).replace("'", "''") + "'");
+                conn.commit();
+            } catch (SQLException e){
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            logger.info(String.format("Created index %s on %s in %dms.", index.name(), tableName, System.currentTimeMillis() - start));
+        }
+    }
+
+    private Map<String, Declared> declaredIndexes(Class<? extends SQLRecord> recordClass, String tableName) throws SQLException {
+        Map<String, Declared> declared = new LinkedHashMap<>();
+        if(recordClass.isAnnotationPresent(ContentHash.class)){
+            String name = indexName(tableName, List.of(ContentHash.COLUMN));
+            declared.put(name, new Declared(name, "CREATE INDEX " + name + " ON " + tableName + " (" + ContentHash.COLUMN + ")"));
+        }
+        RecordComponent[] comps = recordClass.getRecordComponents();
+        if(comps != null){
+            for(RecordComponent comp : comps){
+                JsonbIndex jsonbIndex = comp.getAnnotation(JsonbIndex.class);
+                if(jsonbIndex == null) continue;
+                if(!isJsonb(comp)) throw new SQLException(String.format("JsonbIndex on %s.%s, it is not a JSONB column.",
+                        tableName, comp.getName()));
+                String column = comp.getName().toLowerCase();
+                String name = indexName(tableName, List.of(column, "gin"));
+                String expression = jsonbExpression(comp);
+                if(!expression.startsWith("(")) expression = "(" + expression + ")";
+                declared.put(name, new Declared(name, "CREATE INDEX " + name + " ON " + tableName + " USING gin (" + expression
+                        + (jsonbIndex.pathOps() ? " jsonb_path_ops" : "") + ")"));
+            }
+        }
+        SQLIndex[] indexes = recordClass.getAnnotationsByType(SQLIndex.class);
+        if(indexes.length == 0) return declared;
+        Set<String> components = new HashSet<>();
+        if(comps != null) for(RecordComponent comp : comps) components.add(comp.getName().toLowerCase());
+
+        for(SQLIndex index : indexes){
+            if(index.columns().length == 0) throw new SQLException("SQLIndex on " + tableName + " declares no columns.");
+            List<String> columns = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for(String column : index.columns()){
+                String[] parts = column.trim().split("\\s+");
+                String name = parts[0].toLowerCase();
+                if(!components.contains(name) || parts.length > 2
+                        || (parts.length == 2 && !parts[1].equalsIgnoreCase("ASC") && !parts[1].equalsIgnoreCase("DESC"))){
+                    throw new SQLException(String.format("SQLIndex column '%s' is not a component of %s.", column, tableName));
+                }
+                columns.add((parts.length == 2) ? name + " " + parts[1].toUpperCase() : name);
+                names.add(name);
+            }
+            String name = index.name().isBlank() ? indexName(tableName, names) : index.name().toLowerCase();
+            StringBuilder sb = new StringBuilder("CREATE ").append(index.unique() ? "UNIQUE " : "").append("INDEX ")
+                    .append(name).append(" ON ").append(tableName);
+            if(!index.using().isBlank()) sb.append(" USING ").append(index.using().trim().toLowerCase());
+            sb.append(" (").append(String.join(", ", columns)).append(")");
+            if(!index.where().isBlank()) sb.append(" WHERE ").append(index.where().trim());
+            if(declared.put(name, new Declared(name, sb.toString())) != null){
+                throw new SQLException("Two SQLIndex on " + tableName + " share the name " + name);
+            }
+        }
+        return declared;
+    }
+
+    /**
+     * The JSONB value a JsonbIndex covers, the queries have to use the exact same expression for the planner
+     * to pick the index. A holder's payload, or the whole column for a plain map.
+     */
+    static String jsonbExpression(RecordComponent comp){
+        String column = comp.getName().toLowerCase();
+        if(comp.getType() == ArrayListHolder.class) return "(" + column + " -> 'list')";
+        if(comp.getType() == HashMapHolder.class) return "(" + column + " -> 'map')";
+        return column;
+    }
+
+    static boolean isJsonb(RecordComponent comp){
+        SQLConvertType type = SQLConvertType.getByClassSimpleName(comp.getType().getSimpleName());
+        return type != null && type.isJsonb();
+    }
+
+    private static String indexName(String tableName, List<String> columns){
+        return fitName(tableName + "_" + String.join("_", columns), "_idx");
+    }
+
+    private static String buildName(String indexName){
+        return fitName(indexName, BUILD);
+    }
+
+    /**
+     * The name an index of a table takes when the table is renamed, so the old name is free for the new table.
+     * The online migration renames the secondary indexes of the table it archives with this.
+     */
+    static String renamedIndex(String oldTable, String newTable, String indexName){
+        String rest = indexName.startsWith(oldTable + "_") ? indexName.substring(oldTable.length()) : "_" + indexName;
+        return fitName(newTable + rest, "");
+    }
+
+    // Postgres cuts names at 63 bytes, a long one keeps a hash of the full name so two of them can't collide.
+    private static String fitName(String base, String suffix){
+        String name = base + suffix;
+        if(name.length() <= MAX_NAME) return name;
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        String tail = String.format("_%08x", crc.getValue()) + suffix;
+        return base.substring(0, MAX_NAME - tail.length()) + tail;
+    }
+
+    // The table a relation of that name hangs off, or the relation itself when it is not an index. Null if the name is free.
+    private static String relationOwner(Connection conn, String name) throws SQLException {
+        try(PreparedStatement pStmt = conn.prepareStatement("SELECT COALESCE(i.indrelid, c.oid)::regclass::text FROM pg_catalog.pg_class c"
+                + " LEFT JOIN pg_catalog.pg_index i ON i.indexrelid = c.oid WHERE c.oid = to_regclass(?)")){
+            pStmt.setString(1, name);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /*
+     * Polls a try lock instead of waiting in pg_advisory_lock, a session stuck in that call holds a snapshot
+     * the other instance's CREATE INDEX CONCURRENTLY would wait on, and one of the two gets killed as a deadlock.
+     */
+    private void lock(Connection conn, String tableName) throws SQLException {
+        boolean logged = false;
+        while(true){
+            try(PreparedStatement pStmt = conn.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))")){
+                pStmt.setString(1, LOCK_KEY + tableName);
+                try(ResultSet rs = pStmt.executeQuery()){
+                    if(rs.next() && rs.getBoolean(1)) return;
+                }
+            }
+            if(!logged) logger.info("Waiting for another instance to finish the indexes of " + tableName);
+            logged = true;
+            try{
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for the index lock of " + tableName, e);
+            }
+        }
+    }
+
+    private void unlock(Connection conn, String tableName){
+        try(PreparedStatement pStmt = conn.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")){
+            pStmt.setString(1, LOCK_KEY + tableName);
+            pStmt.execute();
+        } catch (SQLException e){
+            logger.except("Unable to release the index lock of " + tableName, e);
+        }
+    }
+
+    private static Map<String, Existing> existingIndexes(Connection conn, String tableName) throws SQLException {
+        Map<String, Existing> existing = new HashMap<>();
+        try(PreparedStatement pStmt = conn.prepareStatement(TABLE_INDEXES)){
+            pStmt.setString(1, tableName);
+            try(ResultSet rs = pStmt.executeQuery()){
+                while(rs.next()){
+                    if(rs.getBoolean(4)) continue;
+                    existing.put(rs.getString(1), new Existing(rs.getString(1), rs.getString(2), rs.getBoolean(3)));
+                }
+            }
+        }
+        return existing;
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute(sql);
+        }
+    }
+}
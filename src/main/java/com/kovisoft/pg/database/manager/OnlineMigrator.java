@@ -0,0 +1,350 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.AbstractMigration;
+import com.kovisoft.pg.database.data.exports.DBManagerConfig;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Rebuilds a table while the database stays in use. The new layout is created as a shadow table,
+ * a trigger logs the key of every row written to the source table, the source is copied over in
+ * throttled keyset batches through the records FieldConverters and then the logged keys are replayed.
+ * The last replay and the rename of shadow to source happen in one transaction holding the source lock,
+ * so writers only wait for that final step. The old table is kept as {source}__archived.
+ * <br><br>
+ * The records map constructor must keep the primary key it is given, the shadow rows keep the source keys.
+ * An interrupted online migration starts over from the beginning, the source is untouched until the swap.
+ * The swap only commits if the shadow ended up with as many rows as the locked source, and it records
+ * its completion in the {@link TableMigrator#STATE_TABLE} so a rerun skips the table instead of rebuilding
+ * it. An existing archive is never replaced, drop it once it is no longer needed to migrate the table again.
+ */
+public class OnlineMigrator {
+
+    private static final String SHADOW = "__shadow";
+    private static final String CHANGES = "__changes";
+    private static final String CAPTURE = "__capture";
+    private static final String ARCHIVED = "__archived";
+    private static final String LOCK_TIMEOUT = "10s";
+
+    private final TableMigrator tableMigrator;
+    private final String connString;
+    private final DBManagerConfig config;
+    private final Logger logger;
+    private final int chunkSize;
+    private final long throttleMillis;
+
+    public OnlineMigrator(TableMigrator tableMigrator, String connString, DBManagerConfig config,
+                          Logger logger, int chunkSize, long throttleMillis){
+        this.tableMigrator = tableMigrator;
+        this.connString = connString;
+        this.config = config;
+        this.logger = logger;
+        this.chunkSize = chunkSize;
+        this.throttleMillis = throttleMillis;
+    }
+
+    /**
+     * @param tm The migration the table belongs to, only its current db is used.
+     * @param sourceTable The table in the current db to rebuild.
+     * @param template A record of the new layout.
+     * @param createSql The create statement of the records table, as built by the DBManager.
+     * @param insertSql The insert many statement of the records table, as built by the DBManager.
+     * @throws SQLException If any step failed, the source table is left as it was unless the swap committed.
+     */
+    public void migrate(AbstractMigration tm, String sourceTable, SQLRecord template, String createSql,
+                        String insertSql) throws SQLException {
+        long start = System.currentTimeMillis();
+        String target = template.getTableName();
+        String shadow = target + SHADOW;
+        String newKey = template.getClass().getRecordComponents()[0].getName().toLowerCase();
+
+        try(Connection con = DriverManager.getConnection(connString + tm.getCurrentDB(), config.getSuperUser(), config.getSuperPass())){
+            if(!tableExists(con, sourceTable)){
+                logger.warn(String.format("Online migration has no table %s to migrate from, skipping it.", sourceTable));
+                return;
+            }
+            String archived = sourceTable + ARCHIVED;
+            if(tableExists(con, archived)){
+                if(TableMigrator.isOnlineMigrationComplete(con, tm.getCurrentDB(), sourceTable)){
+                    logger.info(String.format("%s was already migrated online to %s, skipping it.", sourceTable, target));
+                    return;
+                }
+                throw new SQLException(String.format("%s already exists but no finished online migration of %s left it,"
+                        + " drop or rename it before migrating.", archived, sourceTable));
+            }
+            String sourceKey = tableMigrator.findIntegerPrimaryKey(con, sourceTable);
+            prepareShadow(con, sourceTable, sourceKey, target, shadow, createSql);
+
+            String upsert = shadowUpsert(insertSql, target, shadow, newKey);
+            con.setAutoCommit(false);
+            long copied = backfill(con, sourceTable, sourceKey, template, upsert);
+            logger.info(String.format("Copied %d rows of %s to %s in %dms, replaying the writes made meanwhile.",
+                    copied, sourceTable, shadow, System.currentTimeMillis() - start));
+
+            // Catch up outside the lock until a single batch covers what is left.
+            long lastChange = 0;
+            int replayed;
+            do{
+                long[] result = replay(con, sourceTable, sourceKey, template, shadow, newKey, upsert, lastChange);
+                lastChange = result[0];
+                replayed = (int) result[1];
+                con.commit();
+                throttle();
+            } while(replayed >= chunkSize);
+
+            swap(con, tm.getCurrentDB(), sourceTable, sourceKey, template, target, shadow, newKey, upsert, lastChange);
+            logger.info(String.format("Online migration of %s to %s took %dms, the old table is kept as %s.",
+                    sourceTable, target, System.currentTimeMillis() - start, sourceTable + ARCHIVED));
+        }
+    }
+
+    private void prepareShadow(Connection con, String sourceTable, String sourceKey, String target,
+                               String shadow, String createSql) throws SQLException {
+        String changes = sourceTable + CHANGES;
+        String capture = sourceTable + CAPTURE;
+        try(Statement stmt = con.createStatement()){
+            // Leftovers of an interrupted run, nothing in them is reused.
+            stmt.execute("DROP TRIGGER IF EXISTS " + capture + " ON " + sourceTable);
+            stmt.execute("DROP TABLE IF EXISTS " + shadow);
+            stmt.execute("DROP TABLE IF EXISTS " + changes);
+            stmt.execute(createSql.replace("CREATE TABLE IF NOT EXISTS " + target + " (", "CREATE TABLE " + shadow + " ("));
+            stmt.execute("CREATE TABLE " + changes + " (change_id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY, pk BIGINT NOT NULL)");
+            stmt.execute("CREATE OR REPLACE FUNCTION " + capture + "() RETURNS trigger AS $$ BEGIN"
+                    + " IF TG_OP = 'DELETE' THEN INSERT INTO " + changes + " (pk) VALUES (OLD." + sourceKey + "); RETURN OLD; END IF;"
+                    + " IF TG_OP = 'UPDATE' AND OLD." + sourceKey + " <> NEW." + sourceKey + " THEN"
+                    + " INSERT INTO " + changes + " (pk) VALUES (OLD." + sourceKey + "); END IF;"
+                    + " INSERT INTO " + changes + " (pk) VALUES (NEW." + sourceKey + "); RETURN NEW; END $$ LANGUAGE plpgsql");
+            // Created before the copy starts so no write can fall between the two.
+            stmt.execute("CREATE TRIGGER " + capture + " AFTER INSERT OR UPDATE OR DELETE ON " + sourceTable
+                    + " FOR EACH ROW EXECUTE FUNCTION " + capture + "()");
+        }
+    }
+
+    private long backfill(Connection con, String sourceTable, String sourceKey, SQLRecord template,
+                          String upsert) throws SQLException {
+        long copied = 0;
+        Long lastKey = null;
+        try(PreparedStatement select = con.prepareStatement("SELECT * FROM " + sourceTable
+                + " WHERE " + sourceKey + " > ? ORDER BY " + sourceKey + " LIMIT ?");
+            PreparedStatement insert = con.prepareStatement(upsert)){
+            while(true){
+                select.setLong(1, (lastKey == null) ? Long.MIN_VALUE : lastKey);
+                select.setInt(2, chunkSize);
+                List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+                int fetched = 0;
+                try(ResultSet rs = select.executeQuery()){
+                    ResultSetMetaData md = rs.getMetaData();
+                    int columnCount = md.getColumnCount();
+                    while(rs.next()){
+                        fetched++;
+                        lastKey = rs.getLong(sourceKey);
+                        try{
+                            chunk.add(tableMigrator.getCodec().readRow(columnCount, md, rs));
+                        } catch (Exception e){
+                            logger.except("Exception occurred while trying to read row of: " + sourceTable, e);
+                        }
+                    }
+                }
+                if(fetched == 0) break;
+                copied += upsertRecords(insert, tableMigrator.convertEntries(chunk, template, Map.of()));
+                con.commit();
+                throttle();
+            }
+        } catch (SQLException e){
+            con.rollback();
+            throw e;
+        }
+        return copied;
+    }
+
+    /**
+     * Re-reads every source row whose key was logged after afterChange, up to chunkSize log entries,
+     * and upserts it into the shadow table, or deletes it there if it no longer exists.
+     * @return The last change id replayed and the number of log entries read.
+     */
+    private long[] replay(Connection con, String sourceTable, String sourceKey, SQLRecord template, String shadow,
+                          String newKey, String upsert, long afterChange) throws SQLException {
+        Set<Long> keys = new LinkedHashSet<>();
+        long lastChange = afterChange;
+        int read = 0;
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT change_id, pk FROM " + sourceTable + CHANGES
+                + " WHERE change_id > ? ORDER BY change_id LIMIT ?")){
+            pStmt.setLong(1, afterChange);
+            pStmt.setInt(2, chunkSize);
+            try(ResultSet rs = pStmt.executeQuery()){
+                while(rs.next()){
+                    lastChange = rs.getLong(1);
+                    keys.add(rs.getLong(2));
+                    read++;
+                }
+            }
+        }
+        if(keys.isEmpty()) return new long[]{lastChange, 0};
+
+        Array keyArray = con.createArrayOf("bigint", keys.toArray());
+        List<Map<String, Object>> rows = new ArrayList<>();
+        Set<Long> deleted = new HashSet<>(keys);
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT * FROM " + sourceTable + " WHERE " + sourceKey + " = ANY(?)")){
+            pStmt.setArray(1, keyArray);
+            try(ResultSet rs = pStmt.executeQuery()){
+                ResultSetMetaData md = rs.getMetaData();
+                int columnCount = md.getColumnCount();
+                while(rs.next()){
+                    deleted.remove(rs.getLong(sourceKey));
+                    try{
+                        rows.add(tableMigrator.getCodec().readRow(columnCount, md, rs));
+                    } catch (Exception e){
+                        logger.except("Exception occurred while trying to read row of: " + sourceTable, e);
+                    }
+                }
+            }
+        }
+        try(PreparedStatement insert = con.prepareStatement(upsert)){
+            upsertRecords(insert, tableMigrator.convertEntries(rows, template, Map.of()));
+        }
+        if(!deleted.isEmpty()){
+            try(PreparedStatement pStmt = con.prepareStatement("DELETE FROM " + shadow + " WHERE " + newKey + " = ANY(?)")){
+                pStmt.setArray(1, con.createArrayOf("bigint", deleted.toArray()));
+                pStmt.executeUpdate();
+            }
+        }
+        return new long[]{lastChange, read};
+    }
+
+    private void swap(Connection con, String currentDb, String sourceTable, String sourceKey, SQLRecord template,
+                      String target, String shadow, String newKey, String upsert, long lastChange) throws SQLException {
+        String archived = sourceTable + ARCHIVED;
+        try(Statement stmt = con.createStatement()){
+            stmt.execute("SET LOCAL lock_timeout = '" + LOCK_TIMEOUT + "'");
+            stmt.execute("LOCK TABLE " + sourceTable + " IN ACCESS EXCLUSIVE MODE");
+            long[] result;
+            do{
+                result = replay(con, sourceTable, sourceKey, template, shadow, newKey, upsert, lastChange);
+                lastChange = result[0];
+            } while(result[1] > 0);
+
+            // Rows that failed to read, convert or bind were only logged, with the source locked the counts must agree.
+            long sourceRows = countRows(stmt, sourceTable);
+            long shadowRows = countRows(stmt, shadow);
+            if(sourceRows != shadowRows){
+                throw new SQLException(String.format("Online migration of %s copied %d of %d rows, not swapping it in."
+                        + " See the logged row failures.", sourceTable, shadowRows, sourceRows));
+            }
+            if(tableExists(con, archived)) throw new SQLException(archived + " appeared during the online migration, not replacing it.");
+
+            stmt.execute("DROP TRIGGER " + sourceTable + CAPTURE + " ON " + sourceTable);
+            stmt.execute("ALTER TABLE " + sourceTable + " RENAME TO " + archived);
+            stmt.execute("ALTER INDEX IF EXISTS " + sourceTable + "_pkey RENAME TO " + archived + "_pkey");
+            stmt.execute("ALTER SEQUENCE IF EXISTS " + sourceTable + "_" + sourceKey + "_seq RENAME TO " + archived + "_" + sourceKey + "_seq");
+            renameSecondaryIndexes(con, stmt, sourceTable, archived);
+            if(!target.equals(sourceTable) && tableExists(con, target)){
+                try(ResultSet rs = stmt.executeQuery("SELECT EXISTS(SELECT 1 FROM " + target + ")")){
+                    if(rs.next() && rs.getBoolean(1)){
+                        throw new SQLException("Online migration target " + target + " already has rows, not replacing it.");
+                    }
+                }
+                stmt.execute("DROP TABLE " + target);
+            }
+            stmt.execute("ALTER TABLE " + shadow + " RENAME TO " + target);
+            stmt.execute("ALTER INDEX IF EXISTS " + shadow + "_pkey RENAME TO " + target + "_pkey");
+            stmt.execute("ALTER SEQUENCE IF EXISTS " + shadow + "_" + newKey + "_seq RENAME TO " + target + "_" + newKey + "_seq");
+
+            // The copied rows kept their keys, so the identity has to continue past them.
+            long max;
+            try(ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + newKey + "), 0) FROM " + target)){
+                max = rs.next() ? rs.getLong(1) : 0;
+            }
+            stmt.execute("ALTER TABLE " + target + " ALTER COLUMN " + newKey + " RESTART WITH " + (max + 1));
+
+            stmt.execute("DROP TABLE " + sourceTable + CHANGES);
+            stmt.execute("DROP FUNCTION " + sourceTable + CAPTURE + "()");
+            TableMigrator.recordOnlineCompletion(con, currentDb, sourceTable, target, shadowRows);
+            con.commit();
+        } catch (SQLException e){
+            con.rollback();
+            throw e;
+        }
+    }
+
+    // Index names are per schema, left alone the archive keeps the names the reconciler builds on the new table.
+    private static void renameSecondaryIndexes(Connection con, Statement stmt, String sourceTable, String archived) throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT c.relname FROM pg_catalog.pg_index i JOIN pg_catalog.pg_class c"
+                + " ON c.oid = i.indexrelid WHERE i.indrelid = to_regclass(?) AND NOT i.indisprimary")){
+            pStmt.setString(1, archived);
+            try(ResultSet rs = pStmt.executeQuery()){
+                while(rs.next()) indexes.add(rs.getString(1));
+            }
+        }
+        for(String index : indexes){
+            stmt.execute("ALTER INDEX " + index + " RENAME TO " + IndexReconciler.renamedIndex(sourceTable, archived, index));
+        }
+    }
+
+    private int upsertRecords(PreparedStatement insert, List<SQLRecord> records) throws SQLException {
+        if(records.isEmpty()) return 0;
+        int added = 0;
+        for(SQLRecord record : records){
+            try{
+                // Bound like an update so the primary key lands in the last parameter.
+                tableMigrator.bind(insert, record, true);
+                insert.addBatch();
+                added++;
+            } catch (Exception e){
+                logger.except("Something went wrong during batch preparation for: " + record.getTableName(), e);
+            }
+        }
+        if(added > 0) insert.executeBatch();
+        return added;
+    }
+
+    /**
+     * Turns the insert many statement into an upsert of the shadow table that keeps the given key.
+     * INSERT INTO t(a, b) VALUES (?, ?) becomes INSERT INTO t__shadow(a, b, id) OVERRIDING SYSTEM VALUE
+     * VALUES (?, ?, ?) ON CONFLICT (id) DO UPDATE SET a = EXCLUDED.a, b = EXCLUDED.b
+     */
+    private String shadowUpsert(String insertSql, String target, String shadow, String newKey) throws SQLException {
+        if(insertSql == null) throw new SQLException("No insert statement was prepared for table: " + target);
+        String sql = insertSql.trim();
+        if(sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+        int valuesAt = sql.indexOf(") VALUES (");
+        String columns = sql.substring(sql.indexOf('(') + 1, valuesAt);
+        String values = sql.substring(valuesAt + ") VALUES (".length(), sql.lastIndexOf(')'));
+        StringBuilder sb = new StringBuilder("INSERT INTO ").append(shadow).append("(").append(columns).append(", ")
+                .append(newKey).append(") OVERRIDING SYSTEM VALUE VALUES (").append(values).append(", ?) ON CONFLICT (")
+                .append(newKey).append(") DO UPDATE SET ");
+        for(String column : columns.split(",")){
+            sb.append(column.trim()).append(" = EXCLUDED.").append(column.trim()).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private long countRows(Statement stmt, String table) throws SQLException {
+        try(ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)){
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private boolean tableExists(Connection con, String table) throws SQLException {
+        try(PreparedStatement pStmt = con.prepareStatement("SELECT to_regclass(?) IS NOT NULL")){
+            pStmt.setString(1, table);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private void throttle() throws SQLException {
+        if(throttleMillis <= 0) return;
+        try{
+            Thread.sleep(throttleMillis);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted during the online migration!", e);
+        }
+    }
+}
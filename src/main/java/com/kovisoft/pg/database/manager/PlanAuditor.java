@@ -0,0 +1,215 @@
+package com.kovisoft.pg.database.manager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.ContentHash;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.PlanFinding;
+import com.kovisoft.pg.database.data.exports.SQLConvertType;
+import com.kovisoft.pg.database.operations.AbstractDbOperations;
+
+import java.lang.reflect.RecordComponent;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs EXPLAIN (FORMAT JSON) over the generated statements of every record once at startup and flags the
+ * sequential scans that filter tables over the row threshold. The parameters are taken from a sampled row
+ * of the table so the planner sees values that exist, plain EXPLAIN never runs the statement so the
+ * updates and deletes are safe to audit. Unfiltered scans, like the -all statements, are expected and not flagged.
+ */
+class PlanAuditor {
+
+    private static final String TABLE_ROWS = "SELECT GREATEST(c.reltuples, COALESCE(s.n_live_tup, 0))::bigint FROM pg_catalog.pg_class c"
+            + " LEFT JOIN pg_catalog.pg_stat_user_tables s ON s.relid = c.oid WHERE c.relname = ? AND c.relkind IN ('r', 'p')";
+    private static final String[] AUDITED = {AbstractDbOperations.MATCH, AbstractDbOperations.MATCH_NO_ID,
+            AbstractDbOperations.PRIMARY_KEY, AbstractDbOperations.UPDATE, AbstractDbOperations.DELETE,
+            AbstractDbOperations.ALL, AbstractDbOperations.ALL_LIMIT, AbstractDbOperations.ALL_LIMIT_START,
+            AbstractDbOperations.ALL_LIMIT_START_ORDER_ASC, AbstractDbOperations.ALL_LIMIT_START_ORDER_DESC};
+    private static final Pattern FILTER_COLUMN = Pattern.compile("\\(?(\\w+) = ");
+    private static final int SAMPLE_LIMIT = 100;
+
+    private final Map<String, String> prepMap;
+    private final long minRows;
+    private final Logger logger;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    PlanAuditor(Map<String, String> prepMap, long minRows, Logger logger){
+        this.prepMap = prepMap;
+        this.minRows = minRows;
+        this.logger = logger;
+    }
+
+    /**
+     * Audits every record table and logs the report, a table that fails to audit is logged and skipped.
+     * @return What was flagged, empty when nothing was.
+     */
+    List<PlanFinding> audit(Connection conn, List<Class<? extends SQLRecord>> recordClasses){
+        List<PlanFinding> findings = new ArrayList<>();
+        for(Class<? extends SQLRecord> recordClass : recordClasses){
+            String tableName = recordClass.getSimpleName().toLowerCase();
+            try{
+                long rows = tableRows(conn, tableName);
+                if(rows < minRows){
+                    logger.info(String.format("Plan audit skipped %s, about %d rows is under the %d row threshold.", tableName, rows, minRows));
+                    continue;
+                }
+                auditTable(conn, recordClass, tableName, rows, findings);
+            } catch (Exception e){
+                logger.except("Unable to audit the statement plans of " + tableName, e);
+            }
+        }
+        report(findings);
+        return List.copyOf(findings);
+    }
+
+    private void auditTable(Connection conn, Class<? extends SQLRecord> recordClass, String tableName, long rows,
+                            List<PlanFinding> findings) throws SQLException {
+        RecordComponent[] comps = recordClass.getRecordComponents();
+        Map<String, Object> sample = sampleRow(conn, tableName);
+        if(comps == null || sample == null) return;
+        for(String postfix : AUDITED){
+            String sql = prepMap.get(tableName + postfix);
+            if(sql == null) continue;
+            try(PreparedStatement pStmt = conn.prepareStatement("EXPLAIN (FORMAT JSON) " + stripTerminator(sql))){
+                List<Object> params = parameters(postfix, comps, sample, recordClass.isAnnotationPresent(ContentHash.class));
+                for(int i = 0; i < params.size(); i++) pStmt.setObject(i + 1, params.get(i));
+                try(ResultSet rs = pStmt.executeQuery()){
+                    if(!rs.next()) continue;
+                    JsonNode plan = mapper.readTree(rs.getString(1)).path(0).path("Plan");
+                    collectScans(plan, tableName, tableName + postfix, rows, comps, findings);
+                }
+            } catch (Exception e){
+                logger.except("Unable to explain " + tableName + postfix, e);
+            }
+        }
+    }
+
+    // The same parameter order prepStatements builds, the non key columns in record order, the content hash, then the key.
+    private static List<Object> parameters(String postfix, RecordComponent[] comps, Map<String, Object> sample, boolean hashed){
+        List<Object> params = new ArrayList<>();
+        Object key = sample.get(comps[0].getName().toLowerCase());
+        switch (postfix){
+            case AbstractDbOperations.MATCH, AbstractDbOperations.UPDATE -> {
+                addColumns(params, comps, sample, hashed);
+                params.add(key);
+            }
+            case AbstractDbOperations.MATCH_NO_ID -> addColumns(params, comps, sample, hashed);
+            case AbstractDbOperations.PRIMARY_KEY, AbstractDbOperations.DELETE -> params.add(key);
+            case AbstractDbOperations.ALL_LIMIT -> params.add(SAMPLE_LIMIT);
+            case AbstractDbOperations.ALL_LIMIT_START, AbstractDbOperations.ALL_LIMIT_START_ORDER_ASC,
+                 AbstractDbOperations.ALL_LIMIT_START_ORDER_DESC -> params.addAll(List.of(0, SAMPLE_LIMIT));
+            default -> {}
+        }
+        return params;
+    }
+
+    private static void addColumns(List<Object> params, RecordComponent[] comps, Map<String, Object> sample, boolean hashed){
+        for(int i = 1; i < comps.length; i++) params.add(sample.get(comps[i].getName().toLowerCase()));
+        if(hashed) params.add(sample.get(ContentHash.COLUMN));
+    }
+
+    private void collectScans(JsonNode node, String tableName, String key, long rows, RecordComponent[] comps,
+                              List<PlanFinding> findings){
+        if(node == null || node.isMissingNode()) return;
+        String filter = node.path("Filter").asText(null);
+        if("Seq Scan".equals(node.path("Node Type").asText()) && filter != null){
+            String relation = node.path("Relation Name").asText(tableName);
+            List<String> columns = filterColumns(filter, comps);
+            findings.add(new PlanFinding(tableName, key, relation, rows, filter, columns, suggestIndex(relation, columns, comps)));
+        }
+        for(JsonNode child : node.path("Plans")){
+            collectScans(child, tableName, key, rows, comps, findings);
+        }
+    }
+
+    private static List<String> filterColumns(String filter, RecordComponent[] comps){
+        Set<String> known = new HashSet<>();
+        for(RecordComponent comp : comps) known.add(comp.getName().toLowerCase());
+        Set<String> columns = new LinkedHashSet<>();
+        Matcher matcher = FILTER_COLUMN.matcher(filter);
+        while(matcher.find()){
+            if(known.contains(matcher.group(1))) columns.add(matcher.group(1));
+        }
+        return List.copyOf(columns);
+    }
+
+    // JSONB columns can't go in a btree index and large values would blow its row limit anyway, they are left out.
+    private static String suggestIndex(String relation, List<String> columns, RecordComponent[] comps){
+        List<String> indexable = new ArrayList<>();
+        for(String column : columns){
+            for(RecordComponent comp : comps){
+                if(!comp.getName().equalsIgnoreCase(column)) continue;
+                String className = (comp.getType().isEnum()) ? Integer.class.getSimpleName() : comp.getType().getSimpleName();
+                SQLConvertType type = SQLConvertType.getByClassSimpleName(className);
+                if(type != null && !type.isJsonb()) indexable.add(column);
+            }
+        }
+        if(indexable.isEmpty()) return null;
+        return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s_%s_idx ON %s (%s);", relation,
+                String.join("_", indexable), relation, String.join(", ", indexable));
+    }
+
+    private void report(List<PlanFinding> findings){
+        if(findings.isEmpty()){
+            logger.info("Plan audit found no sequential scans over the " + minRows + " row threshold.");
+            return;
+        }
+        Set<String> indexes = new LinkedHashSet<>();
+        for(PlanFinding finding : findings){
+            logger.warn(String.format("Plan audit: %s scans %s sequentially (about %d rows) with filter %s",
+                    finding.statementKey(), finding.relation(), finding.estimatedRows(), finding.filter()));
+            if(finding.suggestedIndex() != null) indexes.add(finding.suggestedIndex());
+        }
+        StringBuilder sb = new StringBuilder("Plan audit flagged ").append(findings.size())
+                .append(" statements, indexes to consider, or declare them with @SQLIndex:");
+        for(String index : indexes) sb.append(System.lineSeparator()).append("    ").append(index);
+        if(indexes.isEmpty()) sb.append(" none, the filters are on JSONB columns only.");
+        logger.warn(sb.toString());
+    }
+
+    private static long tableRows(Connection conn, String tableName) throws SQLException {
+        try(PreparedStatement pStmt = conn.prepareStatement(TABLE_ROWS)){
+            pStmt.setString(1, tableName);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    // Rows with a null column plan as a constant false filter, so the sample prefers the most complete row it sees.
+    private static Map<String, Object> sampleRow(Connection conn, String tableName) throws SQLException {
+        try(PreparedStatement pStmt = conn.prepareStatement("SELECT * FROM " + tableName + " LIMIT " + SAMPLE_LIMIT);
+            ResultSet rs = pStmt.executeQuery()){
+            Map<String, Object> best = null;
+            int bestNulls = Integer.MAX_VALUE;
+            int count = rs.getMetaData().getColumnCount();
+            while(rs.next()){
+                Map<String, Object> row = new HashMap<>();
+                int nulls = 0;
+                for(int i = 1; i <= count; i++){
+                    Object value = rs.getObject(i);
+                    if(value == null) nulls++;
+                    row.put(rs.getMetaData().getColumnName(i), value);
+                }
+                if(nulls < bestNulls){
+                    best = row;
+                    bestNulls = nulls;
+                    if(nulls == 0) break;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static String stripTerminator(String sql){
+        String trimmed = sql.strip();
+        return trimmed.endsWith(";") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,165 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.exports.BorrowStats;
+import com.kovisoft.pg.database.data.exports.PoolScalingDecision;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the user and admin pools between their configured bounds by moving the connection cap of their
+ * {@link BorrowQueue}. The pools are built at the upper bound but only open connections as they are
+ * borrowed and retire them after their lifespan, so a lower cap means fewer live connections.
+ * Every interval each pool is checked, it grows quickly when borrowers wait or time out, grows by one
+ * when it runs near the cap and shrinks by one after a few quiet windows. When waits come with hold
+ * times well above normal the database itself is the bottleneck, so the pool is held rather than grown.
+ */
+public class PoolAutoscaler implements AutoCloseable {
+
+    private static final int HISTORY = 100;
+    private static final double BUSY_UTILISATION = 0.9;
+    private static final double QUIET_UTILISATION = 0.5;
+    private static final int QUIET_WINDOWS_TO_SHRINK = 3;
+    private static final double SATURATED_HOLD_FACTOR = 3.0;
+    private static final double BASELINE_WEIGHT = 0.2;
+
+    private final List<ScaledPool> pools = new ArrayList<>();
+    private final Deque<PoolScalingDecision> decisions = new ArrayDeque<>();
+    private final long targetWaitNanos;
+    private final Logger logger;
+    private ScheduledExecutorService scheduler;
+
+    public PoolAutoscaler(long targetWaitMillis, Logger logger){
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis);
+        this.logger = logger;
+    }
+
+    /**
+     * Puts a pool under the autoscaler, its cap starts at the lower bound.
+     * @param name Used in the decisions, user or admin.
+     * @param queue The borrow queue in front of the pool.
+     * @param min The fewest connections the pool is capped at.
+     * @param max The most connections the pool is capped at, the pools own maximum.
+     */
+    public void addPool(String name, BorrowQueue queue, int min, int max){
+        int lower = Math.max(1, Math.min(min, max));
+        queue.setLimit(lower);
+        pools.add(new ScaledPool(name, queue, lower, Math.max(lower, max)));
+    }
+
+    public void start(long intervalMillis){
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DB-Pool-Autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::evaluate, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks every pool once, the scheduler calls this each interval.
+     */
+    public void evaluate(){
+        for(ScaledPool pool : pools){
+            try{
+                record(pool.evaluate());
+            } catch (Exception e){
+                logger.except("Autoscaling the " + pool.name + " pool failed!", e);
+            }
+        }
+    }
+
+    /**
+     * @return The most recent decisions, oldest first.
+     */
+    public synchronized List<PoolScalingDecision> getDecisions(){
+        return List.copyOf(decisions);
+    }
+
+    private synchronized void record(PoolScalingDecision decision){
+        if(decisions.size() == HISTORY) decisions.removeFirst();
+        decisions.addLast(decision);
+        if(decision.isResize()){
+            logger.info(String.format("Resized the %s pool from %d to %d connections: %s", decision.pool(),
+                    decision.previousSize(), decision.newSize(), decision.reason()));
+        }
+    }
+
+    @Override
+    public void close(){
+        if(scheduler != null) scheduler.shutdownNow();
+    }
+
+    private final class ScaledPool {
+        private final String name;
+        private final BorrowQueue queue;
+        private final int min;
+        private final int max;
+        private long lastBorrows, lastWaitNanos, lastTimeouts, lastReleases, lastHeldNanos;
+        private double baselineHoldNanos = 0;
+        private int quietWindows = 0;
+
+        private ScaledPool(String name, BorrowQueue queue, int min, int max){
+            this.name = name;
+            this.queue = queue;
+            this.min = min;
+            this.max = max;
+        }
+
+        private PoolScalingDecision evaluate(){
+            BorrowStats stats = queue.getStats();
+            long releases = queue.getReleases();
+            long heldNanos = queue.getTotalHeldNanos();
+            long borrows = stats.borrows() - lastBorrows;
+            long timeouts = stats.timeouts() - lastTimeouts;
+            long averageWait = (borrows == 0) ? 0 : (stats.totalWaitNanos() - lastWaitNanos) / borrows;
+            long released = releases - lastReleases;
+            long averageHold = (released == 0) ? 0 : (heldNanos - lastHeldNanos) / released;
+            lastBorrows = stats.borrows();
+            lastWaitNanos = stats.totalWaitNanos();
+            lastTimeouts = stats.timeouts();
+            lastReleases = releases;
+            lastHeldNanos = heldNanos;
+
+            int size = queue.getLimit();
+            double utilisation = (double) queue.takePeakOutstanding() / size;
+            int newSize = size;
+            String reason;
+            boolean waiting = timeouts > 0 || averageWait > targetWaitNanos;
+            boolean saturated = baselineHoldNanos > 0 && averageHold > baselineHoldNanos * SATURATED_HOLD_FACTOR;
+            if(waiting && saturated){
+                reason = String.format("borrowers are waiting but hold times are %.1fx normal, the database is the bottleneck",
+                        averageHold / baselineHoldNanos);
+            } else if(waiting && size < max){
+                newSize = Math.min(max, size + Math.max(1, size / 2));
+                reason = String.format("borrowers waited %.2fms on average with %d timeouts",
+                        averageWait / 1_000_000.0, timeouts);
+            } else if(utilisation >= BUSY_UTILISATION && size < max){
+                newSize = size + 1;
+                reason = String.format("peaked at %.0f%% of the cap", utilisation * 100);
+            } else if(utilisation < QUIET_UTILISATION && !waiting && size > min
+                    && ++quietWindows >= QUIET_WINDOWS_TO_SHRINK){
+                newSize = size - 1;
+                quietWindows = 0;
+                reason = String.format("peaked at %.0f%% of the cap for %d windows", utilisation * 100, QUIET_WINDOWS_TO_SHRINK);
+            } else {
+                reason = (waiting) ? "borrowers are waiting but the pool is at its maximum" : "within target";
+            }
+            if(utilisation >= QUIET_UTILISATION || waiting) quietWindows = 0;
+            // Only calm windows set the baseline, otherwise a saturated database becomes the new normal.
+            if(averageHold > 0 && !waiting){
+                baselineHoldNanos = (baselineHoldNanos == 0) ? averageHold
+                        : baselineHoldNanos * (1 - BASELINE_WEIGHT) + averageHold * BASELINE_WEIGHT;
+            }
+            if(newSize != size) queue.setLimit(newSize);
+            return new PoolScalingDecision(name, System.currentTimeMillis(), size, newSize, utilisation,
+                    averageWait, averageHold, timeouts, reason);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads read only borrows over the read replicas, each replica has its own pool and borrow queue.
+ * Replicas replaying further behind than the lag threshold, or that can not be reached, are skipped
+ * and the caller falls back to the primary. Reads on a thread that recently borrowed from the primary
+ * (or pinned itself) stay on the primary so they see their own writes. The lag is checked on one
+ * connection per replica kept outside its pool, a pool saturated by readers does not make it unreachable.
+ */
+public class ReplicaRouter implements AutoCloseable {
+
+    public enum Strategy { ROUND_ROBIN, LEAST_LOADED }
+
+    // Idle primaries stop advancing the replay timestamp, so a fully replayed replica counts as no lag.
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery()"
+            + " OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+    private static final int LAG_QUERY_TIMEOUT_SECONDS = 5;
+
+    public static final class Replica {
+        private final String url;
+        private final String user;
+        private final String pass;
+        private final SimplePgConnectionPool pool;
+        private final BorrowQueue queue;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long lagMillis = 0;
+        private volatile boolean reachable = true;
+        // Only touched by the lag check thread.
+        private Connection lagConnection;
+
+        public Replica(String url, String user, String pass, SimplePgConnectionPool pool, BorrowQueue queue){
+            this.url = url;
+            this.user = user;
+            this.pass = pass;
+            this.pool = pool;
+            this.queue = queue;
+        }
+
+        public String getUrl(){ return url; }
+        public long getLagMillis(){ return lagMillis; }
+        public boolean isReachable(){ return reachable; }
+        public int getInFlight(){ return inFlight.get(); }
+        public BorrowQueue getQueue(){ return queue; }
+    }
+
+    private final List<Replica> replicas;
+    private final Strategy strategy;
+    private final long maxLagMillis;
+    private final long readYourWritesMillis;
+    private final Logger logger;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<ConnectionWrapper, Replica> leased = new ConcurrentHashMap<>();
+    private final ThreadLocal<long[]> lastPrimaryUse = ThreadLocal.withInitial(() -> new long[]{0L});
+    private final ThreadLocal<boolean[]> pinned = ThreadLocal.withInitial(() -> new boolean[]{false});
+    private final ScheduledExecutorService lagChecker;
+
+    public ReplicaRouter(List<Replica> replicas, Strategy strategy, long maxLagMillis,
+                         long readYourWritesMillis, Logger logger){
+        this.replicas = List.copyOf(replicas);
+        this.strategy = strategy;
+        this.maxLagMillis = maxLagMillis;
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.logger = logger;
+        this.lagChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DB-Replica-Lag-Check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(250, Math.min(1000, maxLagMillis / 2));
+        lagChecker.scheduleWithFixedDelay(this::checkLag, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return A wrapper from an eligible replica, or null if the read should go to the primary.
+     */
+    public ConnectionWrapper borrow(){
+        if(replicas.isEmpty() || isPinned()) return null;
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        Replica chosen = null;
+        for(int i = 0; i < replicas.size(); i++){
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if(!isEligible(replica)) continue;
+            if(strategy == Strategy.ROUND_ROBIN){
+                chosen = replica;
+                break;
+            }
+            if(chosen == null || replica.inFlight.get() < chosen.inFlight.get()) chosen = replica;
+        }
+        if(chosen == null) return null;
+        try{
+            ConnectionWrapper cw = chosen.queue.borrow();
+            chosen.inFlight.incrementAndGet();
+            leased.put(cw, chosen);
+            return cw;
+        } catch (SQLException e){
+            logger.except("Unable to borrow from replica " + chosen.url + ", reading from the primary.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return True if the wrapper came from a replica and was released back to it.
+     */
+    public boolean release(ConnectionWrapper cw){
+        Replica replica = leased.remove(cw);
+        if(replica == null) return false;
+        replica.inFlight.decrementAndGet();
+        replica.queue.release(cw);
+        return true;
+    }
+
+    // Called whenever the current thread borrows from the primary, which is how writes are borrowed.
+    public void markPrimaryUse(){
+        lastPrimaryUse.get()[0] = System.currentTimeMillis();
+    }
+
+    public void setPinned(boolean pin){
+        pinned.get()[0] = pin;
+    }
+
+    public boolean isPinned(){
+        if(pinned.get()[0]) return true;
+        return readYourWritesMillis > 0 && System.currentTimeMillis() - lastPrimaryUse.get()[0] < readYourWritesMillis;
+    }
+
+    public List<Replica> getReplicas(){
+        return replicas;
+    }
+
+    private boolean isEligible(Replica replica){
+        return replica.reachable && replica.lagMillis <= maxLagMillis;
+    }
+
+    private void checkLag(){
+        for(Replica replica : replicas){
+            try{
+                if(replica.lagConnection == null || replica.lagConnection.isClosed()){
+                    replica.lagConnection = DriverManager.getConnection(replica.url, replica.user, replica.pass);
+                }
+                try(Statement stmt = replica.lagConnection.createStatement()){
+                    stmt.setQueryTimeout(LAG_QUERY_TIMEOUT_SECONDS);
+                    try(ResultSet rs = stmt.executeQuery(LAG_QUERY)){
+                        replica.lagMillis = rs.next() ? (long) rs.getDouble(1) : Long.MAX_VALUE;
+                    }
+                }
+                if(!replica.reachable) logger.info("Replica " + replica.url + " is reachable again.");
+                replica.reachable = true;
+            } catch (Exception e){
+                if(replica.reachable) logger.except("Replica " + replica.url + " failed its lag check, skipping it.", e);
+                replica.reachable = false;
+                closeLagConnection(replica);
+            }
+        }
+    }
+
+    private void closeLagConnection(Replica replica){
+        if(replica.lagConnection == null) return;
+        try{
+            replica.lagConnection.close();
+        } catch (SQLException e){
+            logger.except("Exception when closing the lag check connection of " + replica.url, e);
+        }
+        replica.lagConnection = null;
+    }
+
+    @Override
+    public void close() {
+        lagChecker.shutdownNow();
+        try{
+            // The lag connections belong to the checker thread, let a running check finish first.
+            lagChecker.awaitTermination(LAG_QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        for(Replica replica : replicas){
+            closeLagConnection(replica);
+            try{
+                replica.pool.shutDownPool();
+            } catch (Exception e){
+                logger.except("Exception when closing replica Connection Pool for " + replica.url, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.AbstractMigration;
+import com.kovisoft.pg.database.data.exports.DBManagerConfig;
+import com.kovisoft.pg.database.data.exports.FieldConverter;
+import com.kovisoft.pg.database.data.exports.SQLRecordMapper;
+import com.kovisoft.pg.database.operations.AbstractDbOperations;
+import com.kovisoft.pg.database.operations.RecordCodec;
+
+import java.sql.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Copies one archive table into its new table in keyset ordered chunks of the archive primary key.
+ * Each chunk is converted with the records FieldConverters, batch inserted and committed together
+ * with a checkpoint in the migration state table of the current db, so a failed migration resumes
+ * from the last committed chunk when it is run again. Every call opens its own superuser connections
+ * so tables can be migrated in parallel.
+ */
+public class TableMigrator {
+
+    public static final String STATE_TABLE = "pgdb_migration_state";
+
+    private static final String CREATE_STATE = "CREATE TABLE IF NOT EXISTS " + STATE_TABLE + " ("
+            + "archive_db TEXT NOT NULL, archive_table TEXT NOT NULL, table_name TEXT NOT NULL, "
+            + "last_key BIGINT, rows_read BIGINT NOT NULL DEFAULT 0, rows_written BIGINT NOT NULL DEFAULT 0, "
+            + "rows_before BIGINT, existing_key BIGINT, completed BOOLEAN NOT NULL DEFAULT FALSE, "
+            + "updated TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (archive_db, archive_table))";
+    private static final String REGISTER_STATE = "INSERT INTO " + STATE_TABLE
+            + " (archive_db, archive_table, table_name) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+    private static final String SELECT_STATE = "SELECT last_key, rows_read, rows_written, rows_before, existing_key, completed FROM "
+            + STATE_TABLE + " WHERE archive_db = ? AND archive_table = ?";
+    private static final String CHECKPOINT_STATE = "UPDATE " + STATE_TABLE
+            + " SET last_key = ?, rows_read = ?, rows_written = ?, updated = now() WHERE archive_db = ? AND archive_table = ?";
+    private static final String COMPLETE_STATE = "UPDATE " + STATE_TABLE
+            + " SET completed = TRUE, updated = now() WHERE archive_db = ? AND archive_table = ?";
+    private static final String ONLINE_COMPLETE_STATE = "INSERT INTO " + STATE_TABLE
+            + " (archive_db, archive_table, table_name, rows_read, rows_written, completed) VALUES (?, ?, ?, ?, ?, TRUE)"
+            + " ON CONFLICT (archive_db, archive_table) DO UPDATE SET table_name = EXCLUDED.table_name,"
+            + " rows_read = EXCLUDED.rows_read, rows_written = EXCLUDED.rows_written, completed = TRUE, updated = now()";
+    private static final String PRIMARY_KEY_COLUMN = "SELECT a.attname, format_type(a.atttypid, a.atttypmod) FROM pg_index i"
+            + " JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = ANY(i.indkey)"
+            + " WHERE i.indrelid = to_regclass(?) AND i.indisprimary";
+
+    private static final class MigrationState {
+        private Long lastKey;
+        private long rowsRead;
+        private long rowsWritten;
+        private long rowsBefore;
+        private Long existingKey;
+        private boolean completed;
+    }
+
+    private final String connString;
+    private final DBManagerConfig config;
+    private final Map<String, String> prepMap;
+    private final Function<Class<? extends SQLRecord>, SQLRecordMapper<?>> mapperLookup;
+    private final RecordCodec codec;
+    private final Logger logger;
+    private final int chunkSize;
+
+    public TableMigrator(String connString, DBManagerConfig config, Map<String, String> prepMap,
+                         Function<Class<? extends SQLRecord>, SQLRecordMapper<?>> mapperLookup,
+                         RecordCodec codec, Logger logger, int chunkSize){
+        this.connString = connString;
+        this.config = config;
+        this.prepMap = prepMap;
+        this.mapperLookup = mapperLookup;
+        this.codec = codec;
+        this.logger = logger;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Creates the state table in the current db of tm and registers every table of the migration
+     * as not started. Called right after the current db is recreated so a crash before the first
+     * checkpoint still counts as an incomplete migration.
+     * @param current A superuser connection to the current db of tm.
+     * @param tm The migration to register.
+     */
+    public static void registerMigration(Connection current, AbstractMigration tm) throws SQLException {
+        try(Statement stmt = current.createStatement()){
+            stmt.execute(CREATE_STATE);
+        }
+        try(PreparedStatement pStmt = current.prepareStatement(REGISTER_STATE)){
+            for(Map.Entry<String, SQLRecord> migrant : tm.getMigrationMap().entrySet()){
+                pStmt.setString(1, tm.getArchiveDB());
+                pStmt.setString(2, migrant.getKey());
+                pStmt.setString(3, migrant.getValue().getTableName());
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        }
+    }
+
+    /**
+     * @param current A superuser connection to a current db.
+     * @return True if that db has a migration that was started but did not complete.
+     */
+    public static boolean hasIncompleteMigration(Connection current) throws SQLException {
+        try(Statement stmt = current.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + STATE_TABLE + "') IS NOT NULL")){
+            if(!rs.next() || !rs.getBoolean(1)) return false;
+        }
+        try(Statement stmt = current.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT EXISTS(SELECT 1 FROM " + STATE_TABLE + " WHERE NOT completed)")){
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Online migrations keep their archive in the current db, so their state is keyed by the current db
+     * and the source table. Written in the transaction of the swap so it commits with it.
+     * @param current A superuser connection to the current db, inside the swap transaction.
+     */
+    static void recordOnlineCompletion(Connection current, String currentDb, String sourceTable, String tableName,
+                                       long rows) throws SQLException {
+        try(Statement stmt = current.createStatement()){
+            stmt.execute(CREATE_STATE);
+        }
+        try(PreparedStatement pStmt = current.prepareStatement(ONLINE_COMPLETE_STATE)){
+            pStmt.setString(1, currentDb);
+            pStmt.setString(2, sourceTable);
+            pStmt.setString(3, tableName);
+            pStmt.setLong(4, rows);
+            pStmt.setLong(5, rows);
+            pStmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @return True if the online migration of sourceTable in currentDb swapped and committed.
+     */
+    static boolean isOnlineMigrationComplete(Connection current, String currentDb, String sourceTable) throws SQLException {
+        try(Statement stmt = current.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + STATE_TABLE + "') IS NOT NULL")){
+            if(!rs.next() || !rs.getBoolean(1)) return false;
+        }
+        try(PreparedStatement pStmt = current.prepareStatement(SELECT_STATE)){
+            pStmt.setString(1, currentDb);
+            pStmt.setString(2, sourceTable);
+            try(ResultSet rs = pStmt.executeQuery()){
+                return rs.next() && rs.getBoolean(6);
+            }
+        }
+    }
+
+    /**
+     * Copies archiveTable from the archive db of tm into the table of template in the current db,
+     * resuming after the last checkpoint if an earlier run did not finish.
+     * @param tm The migration the table belongs to.
+     * @param archiveTable The name of the table in the archive db, it needs a single integer primary key.
+     * @param template A record of the new table, used for its converters and to build the new records.
+     * @return True if every archive row was read and the new table gained exactly the rows that were written.
+     * @throws SQLException If the table could not be read or written, the migration should not continue.
+     */
+    public boolean migrate(AbstractMigration tm, String archiveTable, SQLRecord template) throws SQLException {
+        long start = System.currentTimeMillis();
+        String tableName = template.getTableName();
+        String insertSql = prepMap.get(tableName + AbstractDbOperations.INSERT_MANY);
+        if(insertSql == null) throw new SQLException("No insert statement was prepared for table: " + tableName);
+        String newKey = template.getClass().getRecordComponents()[0].getName().toLowerCase();
+
+        try(Connection archive = DriverManager.getConnection(connString + tm.getArchiveDB(), config.getSuperUser(), config.getSuperPass());
+            Connection current = DriverManager.getConnection(connString + tm.getCurrentDB(), config.getSuperUser(), config.getSuperPass())){
+            MigrationState state = startState(current, tm.getArchiveDB(), archiveTable, tableName, newKey);
+            if(state.completed){
+                logger.info(String.format("Skipping %s, it was already migrated to %s.", archiveTable, tableName));
+                return true;
+            }
+            if(state.lastKey != null){
+                logger.info(String.format("Resuming migration of %s after key %d, %d rows were already read.",
+                        archiveTable, state.lastKey, state.rowsRead));
+            }
+            String archiveKey = findIntegerPrimaryKey(archive, archiveTable);
+            // Only the rows that were in the new table before the migration started count as duplicates.
+            Map<Long, List<SQLRecord>> existing = (state.existingKey == null) ? Map.of()
+                    : readExisting(current, template, newKey, state.existingKey);
+
+            current.setAutoCommit(false);
+            try(PreparedStatement select = archive.prepareStatement("SELECT * FROM " + archiveTable
+                    + " WHERE " + archiveKey + " > ? ORDER BY " + archiveKey + " LIMIT ?");
+                PreparedStatement insert = current.prepareStatement(insertSql);
+                PreparedStatement checkpoint = current.prepareStatement(CHECKPOINT_STATE)){
+                List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+                while(true){
+                    select.setLong(1, (state.lastKey == null) ? Long.MIN_VALUE : state.lastKey);
+                    select.setInt(2, chunkSize);
+                    chunk.clear();
+                    int fetched = 0;
+                    try(ResultSet rs = select.executeQuery()){
+                        ResultSetMetaData md = rs.getMetaData();
+                        int columnCount = md.getColumnCount();
+                        while(rs.next()){
+                            fetched++;
+                            state.lastKey = rs.getLong(archiveKey);
+                            state.rowsRead++;
+                            try{
+                                chunk.add(codec.readRow(columnCount, md, rs));
+                            } catch (Exception e){
+                                logger.except("Exception occurred while trying to read archive row of: " + archiveTable, e);
+                            }
+                        }
+                    }
+                    if(fetched == 0) break;
+                    state.rowsWritten += writeChunk(current, insert, checkpoint, tm.getArchiveDB(), archiveTable,
+                            convertEntries(chunk, template, existing), state);
+                }
+            }
+            return verify(archive, current, tm.getArchiveDB(), archiveTable, tableName, state, start);
+        }
+    }
+
+    private boolean verify(Connection archive, Connection current, String archiveDb, String archiveTable,
+                           String tableName, MigrationState state, long start) throws SQLException {
+        long archiveRows = countRows(archive, archiveTable);
+        long gained = countRows(current, tableName) - state.rowsBefore;
+        long took = System.currentTimeMillis() - start;
+        //If the new table has all the expected values we should be good from an entry count standpoint
+        if(archiveRows == state.rowsRead && gained == state.rowsWritten){
+            try(PreparedStatement pStmt = current.prepareStatement(COMPLETE_STATE)){
+                pStmt.setString(1, archiveDb);
+                pStmt.setString(2, archiveTable);
+                pStmt.executeUpdate();
+            }
+            current.commit();
+            logger.log(String.format("Migrated %d of %d rows from %s to %s in %dms, all entries are in order.",
+                    state.rowsWritten, state.rowsRead, archiveTable, tableName, took));
+            return true;
+        }
+        logger.warn(String.format("It appears that the number of entries added does not match the number of entries retrieved! "
+                        + "table: %s read %d of %d archive rows, wrote %d but gained %d",
+                tableName, state.rowsRead, archiveRows, state.rowsWritten, gained));
+        return false;
+    }
+
+    private MigrationState startState(Connection current, String archiveDb, String archiveTable,
+                                      String tableName, String newKey) throws SQLException {
+        try(Statement stmt = current.createStatement()){
+            stmt.execute(CREATE_STATE);
+        }
+        try(PreparedStatement pStmt = current.prepareStatement(REGISTER_STATE)){
+            pStmt.setString(1, archiveDb);
+            pStmt.setString(2, archiveTable);
+            pStmt.setString(3, tableName);
+            pStmt.executeUpdate();
+        }
+        // The new table is measured once, before its first chunk, so reruns keep the original baseline.
+        try(PreparedStatement pStmt = current.prepareStatement("UPDATE " + STATE_TABLE
+                + " SET rows_before = t.count, existing_key = t.max, updated = now() FROM (SELECT COUNT(*) AS count, MAX("
+                + newKey + ") AS max FROM " + tableName + ") t WHERE archive_db = ? AND archive_table = ? AND rows_before IS NULL")){
+            pStmt.setString(1, archiveDb);
+            pStmt.setString(2, archiveTable);
+            pStmt.executeUpdate();
+        }
+        MigrationState state = new MigrationState();
+        try(PreparedStatement pStmt = current.prepareStatement(SELECT_STATE)){
+            pStmt.setString(1, archiveDb);
+            pStmt.setString(2, archiveTable);
+            try(ResultSet rs = pStmt.executeQuery()){
+                if(!rs.next()) throw new SQLException("Could not start the migration state of " + archiveTable);
+                state.lastKey = (Long) rs.getObject(1);
+                state.rowsRead = rs.getLong(2);
+                state.rowsWritten = rs.getLong(3);
+                state.rowsBefore = rs.getLong(4);
+                state.existingKey = (Long) rs.getObject(5);
+                state.completed = rs.getBoolean(6);
+            }
+        }
+        return state;
+    }
+
+    String findIntegerPrimaryKey(Connection archive, String archiveTable) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        String type = null;
+        try(PreparedStatement pStmt = archive.prepareStatement(PRIMARY_KEY_COLUMN)){
+            pStmt.setString(1, archiveTable);
+            try(ResultSet rs = pStmt.executeQuery()){
+                while(rs.next()){
+                    columns.add(rs.getString(1));
+                    type = rs.getString(2);
+                }
+            }
+        }
+        if(columns.size() != 1 || !List.of("bigint", "integer", "smallint").contains(type)){
+            throw new SQLException("Archive table " + archiveTable + " needs a single integer primary key to be migrated in chunks.");
+        }
+        return columns.getFirst();
+    }
+
+    private int writeChunk(Connection current, PreparedStatement insert, PreparedStatement checkpoint, String archiveDb,
+                           String archiveTable, List<SQLRecord> records, MigrationState state) throws SQLException {
+        int added = 0;
+        for(SQLRecord record : records){
+            try{
+                bind(insert, record, false);
+                insert.addBatch();
+                added++;
+            } catch (Exception e){
+                logger.except("Something went wrong during batch preparation for: " + record.getTableName(), e);
+            }
+        }
+        // The checkpoint commits with the rows it covers, so a rerun never writes a chunk twice.
+        try{
+            if(added > 0) insert.executeBatch();
+            checkpoint.setLong(1, state.lastKey);
+            checkpoint.setLong(2, state.rowsRead);
+            checkpoint.setLong(3, state.rowsWritten + added);
+            checkpoint.setString(4, archiveDb);
+            checkpoint.setString(5, archiveTable);
+            checkpoint.executeUpdate();
+            current.commit();
+        } catch (SQLException e){
+            current.rollback();
+            throw e;
+        }
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    void bind(PreparedStatement pStmt, SQLRecord record, boolean isUpdate) throws Exception {
+        SQLRecordMapper<SQLRecord> mapper = (SQLRecordMapper<SQLRecord>) mapperLookup.apply(record.getClass());
+        if(mapper != null) mapper.bind(pStmt, record, isUpdate, codec.getObjectMapper());
+        else codec.bind(pStmt, record, isUpdate);
+    }
+
+    RecordCodec getCodec(){
+        return codec;
+    }
+
+    private long countRows(Connection connection, String tableName) throws SQLException {
+        try(Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tableName)){
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Only used when the new table already had rows, so duplicates of those are not inserted again.
+    // Indexed by content hash so each converted record is only compared to the rows sharing its hash.
+    private Map<Long, List<SQLRecord>> readExisting(Connection current, SQLRecord template, String newKey,
+                                                    long existingKey) throws SQLException {
+        Map<Long, List<SQLRecord>> existing = new HashMap<>();
+        try(PreparedStatement pStmt = current.prepareStatement("SELECT * FROM " + template.getTableName()
+                + " WHERE " + newKey + " <= ?")){
+            pStmt.setLong(1, existingKey);
+            ResultSet rs = pStmt.executeQuery();
+            ResultSetMetaData md = rs.getMetaData();
+            int columnCount = md.getColumnCount();
+            while(rs.next()){
+                try{
+                    TreeMap<String, Object> tm = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                    tm.putAll(codec.readRow(columnCount, md, rs));
+                    SQLRecord record = template.getNewRecord(tm);
+                    existing.computeIfAbsent(record.getContentHash(), hash -> new ArrayList<>(1)).add(record);
+                } catch (Exception e){
+                    logger.except("Exception occurred while trying to read existing row of: " + template.getTableName(), e);
+                }
+            }
+        }
+        return existing;
+    }
+
+    List<SQLRecord> convertEntries(List<Map<String, Object>> tableEntries, SQLRecord record, Map<Long, List<SQLRecord>> previousEntries){
+        List<SQLRecord> recordList = new ArrayList<>();
+        List<FieldConverter> converter = record.getConverter();
+
+        // Given the nature of SQLRecords getNewRecord method I don't actually need
+        // to remove and change values, I just need to add another entry with the converted (optionally) obj
+        for(Map<String, Object> entry : tableEntries){
+            for(FieldConverter convert : converter){
+                if(convert.newColumnName == null || convert.originalColumnName == null){
+                    logger.warn(String.format("NewName or originalName is null! newColumnName = %s, originalColumnName = %s",
+                            convert.newColumnName, convert.originalColumnName));
+                }
+                try {
+                    Object original = entry.get(convert.originalColumnName.toLowerCase());
+                    entry.remove(convert.originalColumnName);
+                    entry.put(convert.newColumnName, convert.typeConverter(original));
+                } catch (Exception e){
+                    logger.except("Exception occurred trying to convert value from " + convert.originalColumnName
+                            + " to " + convert.newColumnName);
+                    entry.put(convert.newColumnName, entry.get(convert.originalColumnName));
+                }
+            }
+
+            //The risk here is in the unchecked cast typical of the creation of the object based off the map.
+            //That being said it is a risk worth taking. Swallowing the exception is fine here after logging
+            //as its possible that the other objects will succeed and only a handful need to have additional
+            //considerations made.
+            try{
+                recordList.add(record.getNewRecord(entry));
+            } catch (ClassCastException e){
+                logger.except("Cast class exception caused during record creation!", e);
+            }
+        }
+
+        if(previousEntries.isEmpty()) return recordList;
+
+        // equalsWithoutId still has the final say, the hash just narrows it down to the likely matches.
+        recordList.removeIf(rec -> {
+            List<SQLRecord> candidates = previousEntries.get(rec.getContentHash());
+            return candidates != null && candidates.stream().anyMatch(rec::equalsWithoutId);
+        });
+        return recordList;
+    }
+}
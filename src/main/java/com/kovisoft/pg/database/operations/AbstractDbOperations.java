@@ -17,4 +17,8 @@ public abstract class AbstractDbOperations implements DBOperations {
     public static final String ALL_LIMIT_START_ORDER_DESC = "-all-limit-start-order-desc";
     public static final String ALL_LIMIT_START_ORDER_ASC = "-all-limit-start-order-asc";
     public static final String DELETE = "-delete";
+    // Followed by the column name, only prepared for JsonbIndex columns.
+    public static final String JSONB_CONTAINS = "-jsonb-contains-";
+    public static final String JSONB_ANY_KEYS = "-jsonb-any-keys-";
+    public static final String JSONB_ALL_KEYS = "-jsonb-all-keys-";
 }
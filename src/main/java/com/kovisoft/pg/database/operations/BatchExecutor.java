@@ -0,0 +1,137 @@
+package com.kovisoft.pg.database.operations;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.BatchResult;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs record batches in chunks, each chunk is executed and committed on its own so a failure
+ * only rolls back that chunk and memory stays bounded by the chunk size. The chunk size is kept
+ * per table and adapts to the observed latency, it grows by a fixed step while chunks finish under
+ * the target and halves when one runs over or fails.
+ */
+public class BatchExecutor {
+
+    public static final int MIN_CHUNK = 16;
+    public static final int MAX_CHUNK = 5000;
+    private static final int INITIAL_CHUNK = 250;
+    private static final int ADDITIVE_STEP = 32;
+    private static final long DEFAULT_TARGET_MILLIS = 200;
+
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement pStmt, SQLRecord record) throws Exception;
+    }
+
+    private final Logger logger;
+    private final long targetNanos;
+    private final ConcurrentHashMap<String, AtomicInteger> chunkSizes = new ConcurrentHashMap<>();
+
+    public BatchExecutor(Logger logger){
+        this(logger, DEFAULT_TARGET_MILLIS);
+    }
+
+    public BatchExecutor(Logger logger, long targetMillis){
+        this.logger = logger;
+        this.targetNanos = targetMillis * 1_000_000L;
+    }
+
+    public int getChunkSize(String tableName){
+        AtomicInteger size = chunkSizes.get(tableName);
+        return (size == null) ? INITIAL_CHUNK : size.get();
+    }
+
+    /**
+     * @param connection The connection pStmt belongs to, its autocommit is restored afterwards.
+     * @param pStmt The insert or update statement, it must be prepared with generated keys if returnKeys is set.
+     * @param records The records to write, all of the same table.
+     * @param returnKeys True to collect the generated primary keys of each committed chunk.
+     * @param binder Binds one record onto pStmt.
+     * @return What committed and what failed.
+     * @throws SQLException If the transaction mode of the connection could not be changed.
+     */
+    public <T extends SQLRecord> BatchResult execute(Connection connection, PreparedStatement pStmt, List<T> records,
+                                                     boolean returnKeys, Binder binder) throws SQLException {
+        if(records == null || records.isEmpty()) return BatchResult.empty();
+        String tableName = records.getFirst().getTableName();
+        AtomicInteger size = chunkSizes.computeIfAbsent(tableName, table -> new AtomicInteger(INITIAL_CHUNK));
+        List<Long> keys = new ArrayList<>(returnKeys ? records.size() : 0);
+        List<BatchResult.ChunkFailure> failures = new ArrayList<>();
+        int succeeded = 0;
+        int chunks = 0;
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try{
+            int from = 0;
+            while(from < records.size()){
+                int to = Math.min(records.size(), from + size.get());
+                long start = System.nanoTime();
+                int bound = 0;
+                // Only reported if the chunk commits, a rolled back chunk is reported as a whole so ranges never overlap.
+                List<BatchResult.ChunkFailure> unbound = new ArrayList<>();
+                for(int i = from; i < to; i++){
+                    try{
+                        binder.bind(pStmt, records.get(i));
+                        pStmt.addBatch();
+                        bound++;
+                    } catch (Exception e){
+                        unbound.add(new BatchResult.ChunkFailure(i, i + 1, "Could not bind record: " + e.getMessage()));
+                        logger.except("Something went wrong during batch preparation for: " + tableName, e);
+                    }
+                }
+                try{
+                    if(bound > 0){
+                        pStmt.executeBatch();
+                        List<Long> chunkKeys = returnKeys ? readKeys(pStmt) : List.of();
+                        connection.commit();
+                        keys.addAll(chunkKeys);
+                        succeeded += bound;
+                    }
+                    failures.addAll(unbound);
+                    adapt(size, System.nanoTime() - start, false);
+                } catch (SQLException e){
+                    rollback(connection, pStmt);
+                    failures.add(new BatchResult.ChunkFailure(from, to, e.getMessage()));
+                    logger.except(String.format("Batch chunk %d-%d of %s failed and was rolled back.", from, to, tableName), e);
+                    adapt(size, System.nanoTime() - start, true);
+                }
+                chunks++;
+                from = to;
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return new BatchResult(records.size(), succeeded, chunks, keys, failures);
+    }
+
+    private void adapt(AtomicInteger size, long elapsedNanos, boolean failed){
+        size.updateAndGet(current -> {
+            if(failed || elapsedNanos > targetNanos) return Math.max(MIN_CHUNK, current / 2);
+            return Math.min(MAX_CHUNK, current + ADDITIVE_STEP);
+        });
+    }
+
+    private List<Long> readKeys(PreparedStatement pStmt) throws SQLException {
+        List<Long> keys = new ArrayList<>();
+        try(ResultSet rs = pStmt.getGeneratedKeys()){
+            while(rs.next()) keys.add(rs.getLong(1));
+        }
+        return keys;
+    }
+
+    private void rollback(Connection connection, PreparedStatement pStmt){
+        try{
+            pStmt.clearBatch();
+            connection.rollback();
+        } catch (SQLException e){
+            logger.except("Exception occurred while rolling back a failed batch chunk!", e);
+        }
+    }
+}
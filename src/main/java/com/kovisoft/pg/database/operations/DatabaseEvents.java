@@ -0,0 +1,120 @@
+package com.kovisoft.pg.database.operations;
+
+import jdk.jfr.*;
+
+/**
+ * The Flight Recorder events of the database layer, all under the PgDatabase category.
+ * Every emit site checks the event type is enabled before it creates an event, so with no
+ * recording running (or these events turned off in the settings) they cost a boolean read.
+ * JSONB conversions happen per column per row, so by default only ones over 50us are kept,
+ * set the threshold of com.kovisoft.pg.database.Jsonb to 0 ms in the recording settings to see them all.
+ */
+public final class DatabaseEvents {
+
+    private static final String CATEGORY = "PgDatabase";
+
+    public static final EventType STATEMENT = EventType.getEventType(StatementEvent.class);
+    public static final EventType ROW_MAPPING = EventType.getEventType(RowMappingEvent.class);
+    public static final EventType JSONB = EventType.getEventType(JsonbEvent.class);
+    public static final EventType POOL_BORROW = EventType.getEventType(PoolBorrowEvent.class);
+    public static final EventType MIGRATION = EventType.getEventType(MigrationPhaseEvent.class);
+
+    private DatabaseEvents(){}
+
+    @Name("com.kovisoft.pg.database.Statement")
+    @Label("Database Statement")
+    @Description("A statement run by the DBOperations, from holding the connection to releasing it")
+    @Category(CATEGORY)
+    public static final class StatementEvent extends Event {
+        @Label("Table")
+        public String table;
+        @Label("Operation")
+        public String operation;
+        @Label("Statement Key")
+        @Description("The prepared statement key, or the sql of a statement prepared for the call")
+        public String statementKey;
+        @Label("Rows")
+        public int rows;
+        @Label("Bound Records")
+        public int bound;
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    @Name("com.kovisoft.pg.database.RowMapping")
+    @Label("Database Row Mapping")
+    @Description("Reading result set rows into column maps, or building records from them")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class RowMappingEvent extends Event {
+        @Label("Table")
+        public String table;
+        @Label("Stage")
+        @Description("resultset while reading rows, records while constructing the records")
+        public String stage;
+        @Label("Rows")
+        public int rows;
+        @Label("Generated Mapper")
+        public boolean generatedMapper;
+    }
+
+    @Name("com.kovisoft.pg.database.Jsonb")
+    @Label("Database JSONB Conversion")
+    @Description("Serializing a holder to JSONB or reading one back")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("50 us")
+    public static final class JsonbEvent extends Event {
+        @Label("Column")
+        public String column;
+        @Label("Direction")
+        @Description("write when binding, read when mapping")
+        public String direction;
+        @Label("Length")
+        @Description("Characters of JSON")
+        public int length;
+    }
+
+    @Name("com.kovisoft.pg.database.PoolBorrow")
+    @Label("Database Pool Borrow")
+    @Description("Waiting for a connection from the user, admin or a replica pool")
+    @Category(CATEGORY)
+    public static final class PoolBorrowEvent extends Event {
+        @Label("Pool")
+        public String pool;
+        @Label("Privileged")
+        public boolean privileged;
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("com.kovisoft.pg.database.MigrationPhase")
+    @Label("Database Migration Phase")
+    @Description("One phase of setting up or migrating the database")
+    @Category(CATEGORY)
+    public static final class MigrationPhaseEvent extends Event {
+        @Label("Phase")
+        public String phase;
+        @Label("Database")
+        public String database;
+        @Label("Table")
+        public String table;
+    }
+
+    /**
+     * @return A started migration phase event, or null when the event is off.
+     */
+    public static MigrationPhaseEvent beginMigration(String phase, String database, String table){
+        if(!MIGRATION.isEnabled()) return null;
+        MigrationPhaseEvent event = new MigrationPhaseEvent();
+        event.phase = phase;
+        event.database = database;
+        event.table = table;
+        event.begin();
+        return event;
+    }
+
+    public static void end(Event event){
+        if(event != null) event.commit();
+    }
+}
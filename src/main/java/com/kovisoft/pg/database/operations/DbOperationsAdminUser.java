@@ -22,4 +22,9 @@ public class DbOperationsAdminUser extends DbOperationsBaseUser{
     protected ConnectionWrapper borrowCW() throws SQLException {
         return dbManager.borrowCW(true);
     }
+
+    @Override
+    protected boolean isPrivileged() {
+        return true;
+    }
 }
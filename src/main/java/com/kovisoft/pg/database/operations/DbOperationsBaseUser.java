@@ -2,7 +2,6 @@ package com.kovisoft.pg.database.operations;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 import com.kovisoft.logger.exports.Logger;
@@ -21,13 +20,26 @@ import java.lang.reflect.RecordComponent;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class DbOperationsBaseUser extends AbstractDbOperations implements DBOperations {
 
+    private static final String EXPLAIN_STATEMENT = "slow_query_explain";
+
     protected final Logger logger;
     protected DBManager dbManager;
     protected ObjectMapper om = new ObjectMapper();
+    protected final RecordCodec codec;
+    protected final BatchExecutor batchExecutor;
+    protected final StatementLease.Tracker leaseTracker = new StatementLease.Tracker();
+    private final StatementLease.SlowHook slowHook = this::onLeaseClosing;
+    private final Consumer<ConnectionWrapper> releaser = this::releaseCW;
+    // The table and operation of each statement key, worked out on first use so a lease is a map get.
+    private final ConcurrentHashMap<String, StatementLease.Target> keyTargets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StatementLease.Target[]> tableTargets = new ConcurrentHashMap<>();
 
     public DbOperationsBaseUser(){
         try{
@@ -36,6 +48,8 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         } catch (IOException e) {
             throw new RuntimeException("Could not startup the DB_Logger logger!", e);
         }
+        codec = new RecordCodec(om, logger);
+        batchExecutor = new BatchExecutor(logger);
     }
 
     public DbOperationsBaseUser(DBManager dbManager){
@@ -45,6 +59,8 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         } catch (IOException e) {
             throw new RuntimeException("Could not startup the DB_Logger logger!", e);
         }
+        codec = new RecordCodec(om, logger);
+        batchExecutor = new BatchExecutor(logger);
         this.dbManager = dbManager;
     }
 
@@ -56,19 +72,255 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         return dbManager.borrowCW(false);
     }
 
+    protected ConnectionWrapper borrowReadCW() throws SQLException {
+        return dbManager.borrowReadCW(isPrivileged());
+    }
+
+    protected void releaseCW(ConnectionWrapper cw){
+        if(cw != null) dbManager.releaseCW(cw, isPrivileged());
+    }
+
+    protected boolean isPrivileged(){
+        return false;
+    }
+
+    /**
+     * Enters the bulkheads of the table and operation class of key, then borrows a wrapper and holds
+     * its cached statement for key until the lease is closed. The call is timed into the managers
+     * OperationMetrics from here, so mark it with lease.returned once the statement ran.
+     * @param key The prepMap key of the statement, table name then postfix.
+     * @param fromPrimary True to lease from the primary, otherwise reads may go to a replica.
+     * @return The open lease, close it in a try-with-resources.
+     * @throws BulkheadRejectedException If the table or operation class is at its limit with a full queue.
+     */
+    protected StatementLease lease(String key, boolean fromPrimary) throws SQLException {
+        StatementLease.Target target = keyTargets.get(key);
+        if(target == null) target = keyTargets.computeIfAbsent(key, this::targetOfKey);
+        return open(target, key, false, fromPrimary);
+    }
+
+    /**
+     * Same as lease for keys whose postfix is followed by more, like the JSONB queries with their column.
+     */
+    protected StatementLease lease(String tableName, Operation operation, String key, boolean fromPrimary) throws SQLException {
+        StatementLease.Target target = keyTargets.get(key);
+        if(target == null) target = keyTargets.computeIfAbsent(key, k -> target(tableName, operation));
+        return open(target, key, false, fromPrimary);
+    }
+
+    /**
+     * Same as lease but prepares the sql just for this call, the statement is closed with the lease.
+     */
+    protected StatementLease leaseSql(String tableName, String sql, Operation operation, boolean fromPrimary) throws SQLException {
+        return open(target(tableName, operation), sql, true, fromPrimary);
+    }
+
+    private StatementLease open(StatementLease.Target target, String keyOrSql, boolean prepare, boolean fromPrimary) throws SQLException {
+        long start = System.nanoTime();
+        SlowQueryLog slowLog = dbManager.getSlowQueryLog();
+        StatementLease.SlowHook hook = (slowLog != null && slowLog.isEnabled()) ? slowHook : null;
+        OperationListeners listeners = dbManager.getOperationListeners();
+        if(listeners != null && listeners.isEmpty()) listeners = null;
+        if(listeners != null) listeners.before(target.tableName(), target.operation());
+        try{
+            Bulkheads.Permit permit = admit(target.tableName(), target.operation().getOperationClass());
+            ConnectionWrapper cw = borrowFor(fromPrimary, permit);
+            return (prepare) ? StatementLease.prepared(cw, permit, keyOrSql, releaser, leaseTracker, target, start, hook, listeners)
+                    : StatementLease.cached(cw, permit, keyOrSql, releaser, leaseTracker, target, start, hook, listeners);
+        } catch (SQLException | RuntimeException e){
+            // Rejected by a bulkhead or no connection, still a failed call as far as the caller can tell.
+            long elapsed = System.nanoTime() - start;
+            if(target.series() != null) target.series().record(elapsed, 0, 0, true);
+            if(listeners != null) listeners.onError(target.tableName(), target.operation(), e, elapsed, 0);
+            throw e;
+        }
+    }
+
+    private StatementLease.Target targetOfKey(String key){
+        int split = key.indexOf('-');
+        String tableName = (split < 0) ? key : key.substring(0, split);
+        return target(tableName, operationOf((split < 0) ? "" : key.substring(split)));
+    }
+
+    // Targets are immutable, two threads racing to fill a slot build equal ones so the array needs no locking.
+    private StatementLease.Target target(String tableName, Operation operation){
+        StatementLease.Target[] targets = tableTargets.get(tableName);
+        if(targets == null) targets = tableTargets.computeIfAbsent(tableName, t -> new StatementLease.Target[Operation.values().length]);
+        StatementLease.Target target = targets[operation.ordinal()];
+        if(target != null) return target;
+        OperationMetrics.Series series = series(tableName, operation);
+        target = new StatementLease.Target(tableName, operation, series);
+        // Without metrics yet the target is not kept, the next call tries again.
+        if(series != null) targets[operation.ordinal()] = target;
+        return target;
+    }
+
+    // A rejected call has to reach the caller, returning null or an empty list would read as no match.
+    private static void rethrowIfRejected(Exception e){
+        if(e instanceof BulkheadRejectedException rejected) throw rejected;
+        if(e instanceof ManagerClosedException closed) throw closed;
+    }
+
+    private OperationMetrics.Series series(String tableName, Operation operation){
+        OperationMetrics metrics = (dbManager == null) ? null : dbManager.getOperationMetrics();
+        return (metrics == null) ? null : metrics.series(tableName, operation);
+    }
+
+    // Admission comes before the borrow so a call that is turned away never holds a connection.
+    private Bulkheads.Permit admit(String tableName, OperationClass operationClass) throws SQLException {
+        Bulkheads bulkheads = dbManager.getBulkheads();
+        if(bulkheads == null || !bulkheads.isEnabled()) return null;
+        return bulkheads.enter(tableName, operationClass);
+    }
+
+    private ConnectionWrapper borrowFor(boolean fromPrimary, Bulkheads.Permit permit) throws SQLException {
+        try{
+            return (fromPrimary) ? borrowCW() : borrowReadCW();
+        } catch (SQLException | RuntimeException e){
+            if(permit != null) permit.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands statements over the slow query threshold to the managers SlowQueryLog. The sampled ones are explained
+     * from their parameterized sql under a generic plan, so nothing runs again and no bound value ends up in the plan.
+     */
+    private void onLeaseClosing(StatementLease lease, long elapsedNanos){
+        try{
+            SlowQueryLog slowLog = dbManager.getSlowQueryLog();
+            if(slowLog == null || !slowLog.isSlow(elapsedNanos)) return;
+            PreparedStatement pStmt = lease.statement();
+            String statement = dbManager.getPrepMap().getOrDefault(lease.key(), lease.key());
+            slowLog.record(new SlowQuery(System.currentTimeMillis(), lease.tableName(), lease.operation(), statement,
+                    parameterTypes(pStmt), TimeUnit.NANOSECONDS.toMicros(elapsedNanos), lease.rows(), !lease.isCompleted(), null),
+                    slowLog.shouldExplain() ? () -> explainGeneric(statement) : null);
+        } catch (Exception e){
+            logger.except("Unable to record a slow query on " + lease.tableName(), e);
+        }
+    }
+
+    private static List<String> parameterTypes(PreparedStatement pStmt){
+        try{
+            ParameterMetaData pmd = pStmt.getParameterMetaData();
+            List<String> types = new ArrayList<>(pmd.getParameterCount());
+            for(int i = 1; i <= pmd.getParameterCount(); i++){
+                types.add(pmd.getParameterTypeName(i));
+            }
+            return types;
+        } catch (SQLException e){
+            return List.of();
+        }
+    }
+
+    /*
+     * Runs on a connection of its own, the slow call has long given its wrapper back by the time this runs.
+     * The statement is prepared server side and explained with null arguments while plan_cache_mode forces the
+     * generic plan, the plan then shows $1 and friends instead of values and EXPLAIN without ANALYZE never runs it.
+     * Works back to PG 12, EXPLAIN (GENERIC_PLAN) would need 16.
+     */
+    private String explainGeneric(String sql) throws SQLException {
+        NumberedSql numbered = NumberedSql.of(sql);
+        ConnectionWrapper cw = dbManager.borrowCW(true);
+        Connection connection = cw.borrowConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        try(Statement stmt = connection.createStatement()){
+            stmt.execute("PREPARE " + EXPLAIN_STATEMENT + " AS " + numbered.sql());
+            try{
+                connection.setAutoCommit(false);
+                stmt.execute("SET LOCAL plan_cache_mode = force_generic_plan");
+                StringBuilder sb = new StringBuilder();
+                try(ResultSet rs = stmt.executeQuery("EXPLAIN EXECUTE " + EXPLAIN_STATEMENT + numbered.nullArguments())){
+                    while(rs.next()) sb.append(rs.getString(1)).append(System.lineSeparator());
+                }
+                return sb.toString();
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+                stmt.execute("DEALLOCATE " + EXPLAIN_STATEMENT);
+            }
+        } finally {
+            dbManager.releaseCW(cw, true);
+        }
+    }
+
+    /**
+     * The jdbc sql with its ? placeholders turned into the $n that PREPARE takes. Quoted literals and
+     * identifiers are left alone and the driver's ?? escape goes back to a plain ?.
+     */
+    private record NumberedSql(String sql, int parameters) {
+
+        static NumberedSql of(String jdbcSql){
+            String sql = jdbcSql.strip();
+            if(sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+            StringBuilder sb = new StringBuilder(sql.length() + 16);
+            int parameters = 0;
+            char quote = 0;
+            for(int i = 0; i < sql.length(); i++){
+                char c = sql.charAt(i);
+                if(quote != 0){
+                    if(c == quote) quote = 0;
+                    sb.append(c);
+                } else if(c == '\'' || c == '"'){
+                    quote = c;
+                    sb.append(c);
+                } else if(c == '?' && i + 1 < sql.length() && sql.charAt(i + 1) == '?'){
+                    sb.append('?');
+                    i++;
+                } else if(c == '?'){
+                    sb.append('$').append(++parameters);
+                } else {
+                    sb.append(c);
+                }
+            }
+            return new NumberedSql(sb.toString(), parameters);
+        }
+
+        String nullArguments(){
+            return (parameters == 0) ? "" : "(" + String.join(", ", Collections.nCopies(parameters, "NULL")) + ")";
+        }
+    }
+
+    private static Operation operationOf(String postfix){
+        return switch (postfix) {
+            case INSERT -> Operation.INSERT;
+            case INSERT_MANY -> Operation.INSERT_MANY;
+            case UPDATE -> Operation.UPDATE;
+            case UPDATE_MANY -> Operation.UPDATE_MANY;
+            case MATCH -> Operation.MATCH;
+            case MATCH_NO_ID -> Operation.MATCH_NO_ID;
+            case PRIMARY_KEY -> Operation.BY_ID;
+            case ALL -> Operation.ALL;
+            case ALL_LIMIT -> Operation.ALL_LIMIT;
+            case ALL_LIMIT_START -> Operation.ALL_LIMIT_START;
+            case ALL_LIMIT_START_ORDER_ASC -> Operation.ALL_ORDER_ASC;
+            case ALL_LIMIT_START_ORDER_DESC -> Operation.ALL_ORDER_DESC;
+            case DELETE -> Operation.DELETE;
+            default -> Operation.OTHER;
+        };
+    }
+
+    public StatementLease.Tracker getLeaseTracker(){
+        return leaseTracker;
+    }
+
     public void swapOutDBManager(DBManager dbManager){
         this.dbManager = dbManager;
+        // The targets hold the old managers metrics series.
+        keyTargets.clear();
+        tableTargets.clear();
     }
 
 
     @Override
     public <T extends SQLRecord> T addRecord(T record) {
-        try{
-
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + INSERT);
+        try(StatementLease lease = lease(record.getTableName() + INSERT, true)){
+            PreparedStatement pStmt = lease.statement();
             populateStatement(pStmt, record, false);
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            lease.bound(1);
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Exception occured during add single record event!", e);
         }
         return null;
@@ -76,30 +328,10 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> addRecords(List<T> records) {
-        try{
-            ConnectionWrapper cw = borrowCW();
-            Connection connection = cw.borrowConnection();
-            connection.setAutoCommit(false);
-            Map<Class<T>, PreparedStatement> batchMap = batchRequests(records, INSERT_MANY, false, cw);
-            connection.commit();
-            connection.setAutoCommit(true);
-            for(Map.Entry<Class<T>, PreparedStatement> entry : batchMap.entrySet()){
-                try{
-                    ResultSet rs = entry.getValue().getGeneratedKeys();
-                    if(!rs.next()) throw new SQLException("Unable to retrieve inserted primaryKeys from execution on " + entry.getKey().getSimpleName());
-                    List<Long> generatedIds = new ArrayList<>();
-                    do{
-                        generatedIds.add(rs.getLong(1));
-                    } while(rs.next());
-                    return getRecordsByIds(generatedIds, entry.getKey());
-                } catch (Exception e){
-                    logger.except("Exception occurred during retrieval of generated primaryKeys for: " + entry.getKey().getSimpleName(), e);
-                }
-            }
-        } catch (SQLException e) {
-            logger.except("Exception occurred during overall add records batching process", e);
-        }
-        return List.of();
+        if(records == null || records.isEmpty()) return List.of();
+        BatchResult result = executeBatch(records, false);
+        if(result.generatedKeys().isEmpty()) return List.of();
+        return getRecordsByIds(result.generatedKeys(), (Class<T>) records.getFirst().getClass(), true);
     }
 
     @Override
@@ -116,7 +348,7 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             record.setParentRecord(parent);
             record.setChildRecords(children);
             SQLRecord cRecord = record.getCompoundRecord();
-            SQLRecord match = getMatchNoId(cRecord);
+            SQLRecord match = getMatchNoId(cRecord, true);
             if(match == null){
                 match = updateOrAddRecord(cRecord);
             }
@@ -124,6 +356,7 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             T retrieved = getCompoundRecordById(match.getPrimaryKey(), record);
             return record;
         } catch (Exception e){
+            rethrowIfRejected(e);
             logger.except("Exception occurred during add of Compound Record.", e);
         }
         return null;
@@ -145,11 +378,13 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T updateRecord(T record) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + UPDATE);
+        try(StatementLease lease = lease(record.getTableName() + UPDATE, true)){
+            PreparedStatement pStmt = lease.statement();
             populateStatement(pStmt, record, true);
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            lease.bound(1);
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Exception occured during add single record event!", e);
         }
         return null;
@@ -157,24 +392,19 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> updateRecords(List<T> records) {
-        try{
-            ConnectionWrapper cw = borrowCW();
-            Connection connection = cw.borrowConnection();
-            connection.setAutoCommit(false);
-            Map<Class<T>, PreparedStatement> batchMap = batchRequests(records, UPDATE_MANY, true, cw);
-            connection.commit();
-            connection.setAutoCommit(true);
-            for(Map.Entry<Class<T>, PreparedStatement> entry : batchMap.entrySet()){
-                try{
-                    return getRecordsByIds(records.stream().map(SQLRecord::getPrimaryKey).toList(), (Class<T>) records.getFirst().getClass());
-                } catch (Exception e){
-                    logger.except("Exception occurred during retrieval of generated primaryKeys for: " + entry.getKey().getSimpleName(), e);
-                }
-            }
-        } catch (SQLException e) {
-            logger.except("Exception occurred during overall add records batching process", e);
+        if(records == null || records.isEmpty()) return List.of();
+        BatchResult result = executeBatch(records, true);
+        if(result.succeeded() == 0) return List.of();
+        // Rows of rolled back chunks read back unchanged, only the ones that were written are returned.
+        boolean[] failed = new boolean[records.size()];
+        for(BatchResult.ChunkFailure failure : result.failures()){
+            Arrays.fill(failed, Math.max(0, failure.fromIndex()), Math.min(records.size(), failure.toIndex()), true);
         }
-        return List.of();
+        List<Long> updated = new ArrayList<>(result.succeeded());
+        for(int i = 0; i < records.size(); i++){
+            if(!failed[i]) updated.add(records.get(i).getPrimaryKey());
+        }
+        return getRecordsByIds(updated, (Class<T>) records.getFirst().getClass(), true);
     }
 
     @Override
@@ -191,7 +421,7 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T updateOrAddRecord(T record) {
-        T match = getMatchNoId(record);
+        T match = getMatchNoId(record, true);
         if(match != null) return match;
         return ((record.getPrimaryKey() == null) ? addRecord(record) : updateRecord(record));
     }
@@ -203,7 +433,7 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         recordsUnchecked.stream().collect(Collectors.groupingBy(SQLRecord::getClass)).forEach(
                 (clazz, groupRecords) ->{
                     for(T rec : groupRecords){
-                         T match = getMatchNoId(rec);
+                         T match = getMatchNoId(rec, true);
                          if(match == null) records.add(rec);
                          else returns.add(match);
                     }
@@ -243,11 +473,13 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T getMatch(T record) {
-        try {
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + MATCH);
+        try(StatementLease lease = lease(record.getTableName() + MATCH, false)){
+            PreparedStatement pStmt = lease.statement();
             populateStatement(pStmt, record, true); //Bit hacky, but it works so... not a hack ;)
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            lease.bound(1);
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Match attempt failed with exception", e);
         }
         return null;
@@ -255,11 +487,18 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T getMatchNoId(T record){
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + MATCH_NO_ID);
+        return getMatchNoId(record, false);
+    }
+
+    // Upserts check for a match right before writing, those must read the primary not a lagging replica.
+    private <T extends SQLRecord> T getMatchNoId(T record, boolean fromPrimary){
+        try(StatementLease lease = lease(record.getTableName() + MATCH_NO_ID, fromPrimary)){
+            PreparedStatement pStmt = lease.statement();
             populateStatement(pStmt, record, false);
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            lease.bound(1);
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Match without id attempt failed with exception", e);
         }
         return null;
@@ -272,11 +511,12 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T  getRecordById(Long primaryKey, T record) {
-        try {
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + PRIMARY_KEY);
+        try(StatementLease lease = lease(record.getTableName() + PRIMARY_KEY, false)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setLong(1, primaryKey);
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e){
+            rethrowIfRejected(e);
             logger.except("Get record by primaryKey failed with exception", e);
         }
         return null;
@@ -284,12 +524,13 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T  getRecordById(Long primaryKey, Class<T> recordClass) {
-        try {
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + PRIMARY_KEY);
+        try(StatementLease lease = lease(recordClass.getSimpleName().toLowerCase() + PRIMARY_KEY, false)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setLong(1, primaryKey);
-            Map<String, Object> objMap = executeSingleQuery(pStmt);
+            Map<String, Object> objMap = executeSingleQuery(lease);
             return reflectRecordFromMap(primaryKey, objMap, recordClass);
         } catch (Exception e){
+            rethrowIfRejected(e);
             logger.except("Get record by primaryKey failed with exception", e);
         }
         return null;
@@ -297,15 +538,16 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> T  getRecordById(Long primaryKey, String tableName) {
-        try {
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(tableName.toLowerCase() + PRIMARY_KEY);
+        try(StatementLease lease = lease(tableName.toLowerCase() + PRIMARY_KEY, false)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setLong(1, primaryKey);
-            Map<String, Object> objMap = executeSingleQuery(pStmt);
+            Map<String, Object> objMap = executeSingleQuery(lease);
             Optional<Class<? extends SQLRecord>> recordClass = dbManager.getRecordClasses().stream()
                     .filter(clazz -> clazz.getSimpleName().equalsIgnoreCase(tableName)).findFirst();
             if(recordClass.isEmpty()) throw new IllegalArgumentException("No class matches the table! " + tableName);
             return reflectRecordFromMap(primaryKey, objMap, (Class<T>) recordClass.get());
         } catch (Exception e){
+            rethrowIfRejected(e);
             logger.except("Get record by primaryKey failed with exception", e);
         }
         return null;
@@ -320,17 +562,22 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getRecordsByIds(List<Long> primaryKeys, Class<T> recordClass) {
+        return getRecordsByIds(primaryKeys, recordClass, false);
+    }
+
+    private <T extends SQLRecord> List<T> getRecordsByIds(List<Long> primaryKeys, Class<T> recordClass, boolean fromPrimary) {
         List<Long> nonNullPrimaryKeys = primaryKeys.stream().filter(Objects::nonNull).toList();
         StringBuilder sb = new StringBuilder("SELECT * FROM ").append(recordClass.getSimpleName().toLowerCase());
         String primaryKeyName = recordClass.getRecordComponents()[0].getName().toLowerCase();;
         sb.append(" WHERE ").append(primaryKeyName).append(" IN (")
                 .append(String.join(",", Collections.nCopies(nonNullPrimaryKeys.size(), "?"))).append(");");
-        try(PreparedStatement pStmt = borrowConnection().prepareStatement(sb.toString())){
+        try(StatementLease lease = leaseSql(recordClass.getSimpleName().toLowerCase(), sb.toString(), Operation.BY_IDS, fromPrimary)){
+            PreparedStatement pStmt = lease.statement();
             for(int i = 0; i < nonNullPrimaryKeys.size(); i++){
                 pStmt.setLong(i+1, nonNullPrimaryKeys.get(i));
             }
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+            lease.bound(nonNullPrimaryKeys.size());
+            List<Map<String, Object>> objMaps = query(lease);
             if(objMaps == null){
                 logger.error("Really not one correct primaryKey? You fucking donkey!");
                 return List.of();
@@ -338,6 +585,7 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to get records by primaryKeys for Table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
@@ -355,10 +603,12 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             for(Map.Entry<String, ArrayListHolder<Long>> children : cRec.getChildMap().getEntrySet()){
                 childRecords.addAll(getRecordsByIds(children.getValue().getList(), children.getKey()));
             }
-            Constructor<T> classConstructor = (Constructor<T>) recordInstance.getClass().getDeclaredConstructor(SQLRecord.class, List.class, CompoundSQLRecord.class);
+            Constructor<T> classConstructor = (Constructor<T>) recordInstance.getClass()
+                    .getDeclaredConstructor(SQLRecord.class, List.class, CompoundSQLRecord.class);
             return classConstructor.newInstance(parent, childRecords, cRec);
 
         } catch (Exception e){
+            rethrowIfRejected(e);
             logger.except("Exception occurred while attempting to build Compound Record Class!", e);
         }
         return null;
@@ -405,30 +655,32 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
             }
             sb.setLength(sb.length() - 4);
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(sb.toString());
-            for(int i = 0; i < objList.size(); i++){
-                Class<?> objClass = objList.get(i).getClass();
-                if(objClass == LocalDateTime.class){
-                    pStmt.setString(i+1, objList.get(i).toString());
-                } else if(objClass.isEnum()){
-                    pStmt.setInt(i, ((Enum<?>)objList.get(i)).ordinal());
-                } else if(objClass.equals(ArrayListHolder.class)){
-                    ArrayListHolder<?> arrayListHolder = ((ArrayListHolder<?>)objList.get(i));
-                    String jsonB = om.writeValueAsString(arrayListHolder);
-                    pStmt.setString(i, jsonB);
-                } else if(objClass.equals(HashMapHolder.class)){
-                    HashMapHolder<?, ?> hashMapHolder = ((HashMapHolder<?, ?>)objList.get(i));
-                    String jsonB = om.writeValueAsString(hashMapHolder);
-                    pStmt.setString(i, jsonB);
-                } else {
-                    pStmt.setObject(i+1, objList.get(i));
+            try(StatementLease lease = leaseSql(clazz.getSimpleName().toLowerCase(), sb.toString(), Operation.BY_COLUMNS, false)){
+                PreparedStatement pStmt = lease.statement();
+                for(int i = 0; i < objList.size(); i++){
+                    Class<?> objClass = objList.get(i).getClass();
+                    if(objClass == LocalDateTime.class){
+                        pStmt.setString(i+1, objList.get(i).toString());
+                    } else if(objClass.isEnum()){
+                        pStmt.setInt(i, ((Enum<?>)objList.get(i)).ordinal());
+                    } else if(objClass.equals(ArrayListHolder.class)){
+                        ArrayListHolder<?> arrayListHolder = ((ArrayListHolder<?>)objList.get(i));
+                        String jsonB = om.writeValueAsString(arrayListHolder);
+                        pStmt.setString(i, jsonB);
+                    } else if(objClass.equals(HashMapHolder.class)){
+                        HashMapHolder<?, ?> hashMapHolder = ((HashMapHolder<?, ?>)objList.get(i));
+                        String jsonB = om.writeValueAsString(hashMapHolder);
+                        pStmt.setString(i, jsonB);
+                    } else {
+                        pStmt.setObject(i+1, objList.get(i));
+                    }
                 }
+                lease.bound(1);
+                List<? extends SQLRecord> matches = reflectRecordsFromMaps(query(lease), record.getClass());
+                return (matches != null) ? (List<T>) matches : List.of();
             }
-            ResultSet rs = pStmt.executeQuery();
-            List<? extends SQLRecord> matches = reflectRecordsFromMaps(processQueryResultSet(rs), record.getClass());
-            pStmt.close();
-            return (matches != null) ? (List<T>) matches : List.of();
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Unable to match record by column names.", e);
         }
         return List.of();
@@ -440,13 +692,89 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
     }
 
     @Override
-    public <T extends SQLRecord> List<T> getAllEntries(T record) {
+    public <T extends SQLRecord> List<T> getContaining(Class<T> recordClass, String columnName, Object value) {
+        String tableName = recordClass.getSimpleName().toLowerCase();
         try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + ALL);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+            RecordComponent comp = jsonbComponent(recordClass, columnName, JSONB_CONTAINS);
+            String json = om.writeValueAsString(jsonbPayload(comp.getType(), value));
+            try(StatementLease lease = lease(tableName, Operation.JSONB_CONTAINS,
+                    tableName + JSONB_CONTAINS + comp.getName().toLowerCase(), false)){
+                lease.statement().setString(1, json);
+                lease.bound(1);
+                return jsonbMatches(query(lease), recordClass);
+            }
+        } catch (Exception e) {
+            rethrowIfRejected(e);
+            logger.except("Unable to get the records of " + tableName + " containing a value in " + columnName, e);
+        }
+        return List.of();
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getWithAnyKey(Class<T> recordClass, String columnName, List<String> keys) {
+        return getWithKeys(recordClass, columnName, keys, JSONB_ANY_KEYS);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getWithAllKeys(Class<T> recordClass, String columnName, List<String> keys) {
+        return getWithKeys(recordClass, columnName, keys, JSONB_ALL_KEYS);
+    }
+
+    private <T extends SQLRecord> List<T> getWithKeys(Class<T> recordClass, String columnName, List<String> keys, String postfix){
+        if(keys == null || keys.isEmpty()) return List.of();
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        try{
+            RecordComponent comp = jsonbComponent(recordClass, columnName, postfix);
+            try(StatementLease lease = lease(tableName, Operation.JSONB_KEYS, tableName + postfix + comp.getName().toLowerCase(), false)){
+                PreparedStatement pStmt = lease.statement();
+                pStmt.setArray(1, pStmt.getConnection().createArrayOf("text", keys.toArray()));
+                lease.bound(1);
+                return jsonbMatches(query(lease), recordClass);
+            }
+        } catch (Exception e) {
+            rethrowIfRejected(e);
+            logger.except("Unable to get the records of " + tableName + " by the keys of " + columnName, e);
+        }
+        return List.of();
+    }
+
+    // Only columns with a fitting JsonbIndex have the statement prepared, anything else would be a full scan.
+    private RecordComponent jsonbComponent(Class<? extends SQLRecord> recordClass, String columnName, String postfix){
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        for(RecordComponent comp : recordClass.getRecordComponents()){
+            if(!comp.getName().equalsIgnoreCase(columnName)) continue;
+            if(!dbManager.getPrepMap().containsKey(tableName + postfix + comp.getName().toLowerCase())){
+                throw new IllegalArgumentException(String.format("%s.%s needs a @JsonbIndex%s for this query.", tableName,
+                        columnName, postfix.equals(JSONB_CONTAINS) ? "" : "(pathOps = false)"));
+            }
+            return comp;
+        }
+        throw new IllegalArgumentException(tableName + " has no component " + columnName);
+    }
+
+    // The JsonbIndex covers a holder's payload, so a holder is unwrapped and a lone value is looked for in a list.
+    private static Object jsonbPayload(Class<?> type, Object value){
+        if(value instanceof ArrayListHolder<?> holder) return holder.getList();
+        if(value instanceof HashMapHolder<?, ?> holder) return holder.getMap();
+        if(type == ArrayListHolder.class && !(value instanceof Collection<?>) && !(value instanceof Object[])){
+            return Collections.singletonList(value);
+        }
+        return value;
+    }
+
+    private <T extends SQLRecord> List<T> jsonbMatches(List<Map<String, Object>> objMaps, Class<T> recordClass) throws Exception {
+        if(objMaps == null || objMaps.isEmpty()) return List.of();
+        return reflectRecordsFromMaps(objMaps, recordClass);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntries(T record) {
+        try(StatementLease lease = lease(record.getTableName() + ALL, false)){
+            PreparedStatement pStmt = lease.statement();
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, record.getClass());
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + record.getClass().getSimpleName(), e);
         }
         return List.of();
@@ -454,12 +782,12 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + ALL);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+        try(StatementLease lease = lease(recordClass.getSimpleName().toLowerCase() + ALL, false)){
+            PreparedStatement pStmt = lease.statement();
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
@@ -467,13 +795,13 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass, int limit) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT);
+        try(StatementLease lease = lease(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT, false)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setInt(1, limit);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
@@ -481,14 +809,14 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass, int limit, int startIndex) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT_START);
+        try(StatementLease lease = lease(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT_START, false)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setInt(1, startIndex);
             pStmt.setInt(2, limit);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
@@ -496,15 +824,17 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getAllEntriesAscending(Class<T> recordClass, int limit, int startIndex, String columnName) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT_START_ORDER_ASC);
-            pStmt.setString(1, columnName);
-            pStmt.setInt(2, startIndex);
-            pStmt.setInt(3, limit);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        String key = orderKey(tableName, ALL_LIMIT_START_ORDER_ASC, columnName);
+        if(key == null) return List.of();
+        try(StatementLease lease = lease(tableName, Operation.ALL_ORDER_ASC, key, false)){
+            PreparedStatement pStmt = lease.statement();
+            pStmt.setInt(1, startIndex);
+            pStmt.setInt(2, limit);
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
@@ -512,28 +842,38 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
 
     @Override
     public <T extends SQLRecord> List<T> getAllEntriesDescending(Class<T> recordClass, int limit, int startIndex, String columnName) {
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + ALL_LIMIT_START_ORDER_DESC);
-            pStmt.setString(1, columnName);
-            pStmt.setInt(2, startIndex);
-            pStmt.setInt(3, limit);
-            ResultSet rs = pStmt.executeQuery();
-            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+        String tableName = recordClass.getSimpleName().toLowerCase();
+        String key = orderKey(tableName, ALL_LIMIT_START_ORDER_DESC, columnName);
+        if(key == null) return List.of();
+        try(StatementLease lease = lease(tableName, Operation.ALL_ORDER_DESC, key, false)){
+            PreparedStatement pStmt = lease.statement();
+            pStmt.setInt(1, startIndex);
+            pStmt.setInt(2, limit);
+            List<Map<String, Object>> objMaps = query(lease);
             return reflectRecordsFromMaps(objMaps, recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + recordClass.getSimpleName(), e);
         }
         return List.of();
     }
 
 
+    // Each orderable column has its own prepared statement, see DBManagerImpl.prepOrderStatements.
+    private String orderKey(String tableName, String postfix, String columnName){
+        String key = tableName + postfix + "-" + ((columnName == null) ? "" : columnName.toLowerCase());
+        if(dbManager.getPrepMap().containsKey(key)) return key;
+        logger.error("Can not order " + tableName + " by " + columnName + ", it is not an orderable column of the table.");
+        return null;
+    }
+
     @Override
     public List<Map<String, Object>> getAllEntriesAsMaps(String tableName) {
         logger.warn(String.format("Doing a migration retrieve for %s? Otherwise this is very peculiar", tableName));
-        try (PreparedStatement pStmt = borrowConnection().prepareStatement("SELECT * FROM " + tableName + ";")){
-            ResultSet rs = pStmt.executeQuery();
-            return processQueryResultSet(rs);
+        try (StatementLease lease = leaseSql(tableName, "SELECT * FROM " + tableName + ";", Operation.ALL_AS_MAPS, true)){
+            return query(lease);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except("Failed to retrieve all records from table: " + tableName, e);
         }
         return null;
@@ -545,11 +885,12 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             logger.error("Passed record had a null primaryKey, we cannot delete that which does not exist.");
             return null;
         }
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(record.getTableName() + DELETE);
+        try(StatementLease lease = lease(record.getTableName() + DELETE, true)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setLong(1, record.getPrimaryKey());
-            return record.getNewRecord(executeSingleQuery(pStmt));
+            return record.getNewRecord(executeSingleQuery(lease));
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except(String.format("Failed to delete record %d from table: %s", record.getPrimaryKey(), record.getClass().getSimpleName()), e);
         }
         return null;
@@ -561,11 +902,12 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             logger.error("Passed a null primaryKey, we cannot delete that which does not exist.");
             return null;
         }
-        try{
-            PreparedStatement pStmt = borrowCW().getPreparedStatement(recordClass.getSimpleName().toLowerCase() + DELETE);
+        try(StatementLease lease = lease(recordClass.getSimpleName().toLowerCase() + DELETE, true)){
+            PreparedStatement pStmt = lease.statement();
             pStmt.setLong(1, primaryKey);
-            return reflectRecordFromMap(primaryKey, executeSingleQuery(pStmt), recordClass);
+            return reflectRecordFromMap(primaryKey, executeSingleQuery(lease), recordClass);
         } catch (Exception e) {
+            rethrowIfRejected(e);
             logger.except(String.format("Failed to delete record %d from table: %s", primaryKey, recordClass.getSimpleName()), e);
         }
         return null;
@@ -597,24 +939,27 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         String primaryKeyName = recordClass.getRecordComponents()[0].getName().toLowerCase();
         StringBuilder sb = new StringBuilder("DELETE FROM ").append(recordClass.getSimpleName().toLowerCase());
         sb.append(" WHERE ").append(primaryKeyName).append(" IN (").append(String.join(",", Collections.nCopies(nonNullPrimaryKeys.size(), "?"))).append(");");
-        try(PreparedStatement pStmt = borrowConnection().prepareStatement(sb.toString())){
-            //Cheeky, but it beats implementing a way to retrieve a list of deleted objects from psql
-            // as I'm pretty sure RETURNING * will fail here (though to be fair I only read that, not tested).
-            List<T> toBeDeleted = getRecordsByIds(nonNullPrimaryKeys, recordClass);
+        //Cheeky, but it beats implementing a way to retrieve a list of deleted objects from psql
+        // as I'm pretty sure RETURNING * will fail here (though to be fair I only read that, not tested).
+        // The lookups happen outside the lease so this never holds two wrappers at once.
+        List<T> toBeDeleted = getRecordsByIds(nonNullPrimaryKeys, recordClass, true);
+        try(StatementLease lease = leaseSql(recordClass.getSimpleName().toLowerCase(), sb.toString(), Operation.DELETE_MANY, true)){
+            PreparedStatement pStmt = lease.statement();
             for(int i = 0; i < nonNullPrimaryKeys.size(); i++){
                 pStmt.setLong(i+1, nonNullPrimaryKeys.get(i));
             }
-            pStmt.executeUpdate();
-            List<T> areRemaining = getRecordsByIds(nonNullPrimaryKeys, recordClass);
-            if (!areRemaining.isEmpty()) {
-                logger.error("Some of the primaryKeys failed to delete!");
-                toBeDeleted.removeAll(areRemaining);
-            }
-            return toBeDeleted;
+            lease.bound(nonNullPrimaryKeys.size());
+            lease.returned(pStmt.executeUpdate());
         } catch (SQLException e){
             logger.except("Something went wrong during deletion on table: " + recordClass.getSimpleName(), e);
+            return List.of();
         }
-        return List.of();
+        List<T> areRemaining = getRecordsByIds(nonNullPrimaryKeys, recordClass, true);
+        if (!areRemaining.isEmpty()) {
+            logger.error("Some of the primaryKeys failed to delete!");
+            toBeDeleted.removeAll(areRemaining);
+        }
+        return toBeDeleted;
     }
 
     @Override
@@ -629,106 +974,84 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         return null;
     }
 
-    private <T extends SQLRecord> Map<Class<T>, PreparedStatement> batchRequests(List<T> records, String keyAppend,
-                                                                             boolean isUpdate, ConnectionWrapper cw) throws SQLException {
-
-        if(records == null || records.isEmpty()) return Map.of();
-        HashMap<Class<T>, PreparedStatement> batchMap = new HashMap<>();
-        String className = records.getFirst().getTableName();
-        PreparedStatement pStmt = cw.getPreparedStatement(className + keyAppend);
-        for(SQLRecord record : records){
-            try{
-                populateStatement(pStmt, record, isUpdate);
-                pStmt.addBatch();
-                batchMap.put((Class<T>) record.getClass(), pStmt);
-            } catch (Exception e){
-                logger.except("Something went wrong during batch preparation for: " + className, e);
-            }
+    @Override
+    public <T extends SQLRecord> BatchResult executeBatch(List<T> records, boolean isUpdate) {
+        if(records == null || records.isEmpty()) return BatchResult.empty();
+        String key = records.getFirst().getTableName() + (isUpdate ? UPDATE_MANY : INSERT_MANY);
+        try(StatementLease lease = lease(key, true)){
+            lease.bound(records.size());
+            BatchResult result = batchExecutor.execute(lease.connection(), lease.statement(), records,
+                    !isUpdate, (pStmt, record) -> populateStatement(pStmt, record, isUpdate));
+            lease.returned(result.succeeded());
+            return logBatchFailures(result, key);
+        } catch (SQLException e) {
+            logger.except("Exception occurred during overall batching process", e);
+            return new BatchResult(records.size(), 0, 0, List.of(),
+                    List.of(new BatchResult.ChunkFailure(0, records.size(), e.getMessage())));
         }
-        return batchExecute(batchMap);
     }
 
     @Override
     public <T extends SQLRecord> void batchRequestsNoReturn(List<T> records, String pString, boolean isUpdate) throws SQLException {
-
-        HashMap<Class<T>, PreparedStatement> batchMap = new HashMap<>();
-        Connection connection = borrowConnection();
-        PreparedStatement pStmt = connection.prepareStatement(pString);
-        for(SQLRecord record : records){
-            try{
-                populateStatement(pStmt, record, isUpdate);
-                pStmt.addBatch();
-                batchMap.put((Class<T>) record.getClass() , pStmt);
-            } catch (Exception e){
-                logger.except("Something went wrong during batch preparation! ", e);
+        if(records == null || records.isEmpty()) return;
+        try(StatementLease lease = leaseSql(records.getFirst().getTableName(), pString, Operation.BATCH, true)){
+            lease.bound(records.size());
+            BatchResult result = batchExecutor.execute(lease.connection(), lease.statement(), records, false,
+                    (stmt, record) -> populateStatement(stmt, record, isUpdate));
+            lease.returned(result.succeeded());
+            if(!logBatchFailures(result, pString).isComplete()){
+                throw new BatchFailedException(String.format("Batch for %s wrote %d of %d records.", pString,
+                        result.succeeded(), result.attempted()), result);
             }
         }
-        batchExecute(batchMap);
     }
 
-    private <T extends SQLRecord> Map<Class<T>, PreparedStatement> batchExecute
-            (Map<Class<T>, PreparedStatement> batchMap){
-        batchMap.forEach((className, pStmt) -> {
-            try{
-                pStmt.executeBatch();
-            } catch (SQLException e) {
-                logger.except("Exception occurred during batch execution for: " + className, e);
-            }
-        });
-        return batchMap;
+    private BatchResult logBatchFailures(BatchResult result, String statement){
+        if(!result.isComplete()){
+            logger.warn(String.format("Batch for %s wrote %d of %d records, %d ranges failed: %s", statement,
+                    result.succeeded(), result.attempted(), result.failures().size(), result.failures()));
+        }
+        return result;
     }
 
-    private Map<String, Object> executeSingleQuery(PreparedStatement pStmt) throws SQLException, JsonProcessingException, ClassNotFoundException {
-        ResultSet rs = pStmt.executeQuery();
-        if(!rs.next()) return null;
-        ResultSetMetaData md = rs.getMetaData();
-        int columnCount = md.getColumnCount();
-        return resultToMap(columnCount, md, rs);
-    }
-
-    private Map<String, Object> resultToMap(int columnCount, ResultSetMetaData md, ResultSet rs) throws SQLException, JsonProcessingException, ClassNotFoundException {
-        Map<String, Object> recordData = new HashMap<>();
-        for(int i = 1; i <= columnCount; i++){
-            String columnName = md.getColumnName(i);
-            String columnTypeName = md.getColumnTypeName(i);
-            Object value;
-            if(columnTypeName.equalsIgnoreCase("bool") || columnTypeName.equalsIgnoreCase("boolean")){ //Should be a boolean
-                value = rs.getBoolean(i);
-            } else if(columnTypeName.equalsIgnoreCase("JSONB")){
-                String json = rs.getString(i);
-                JsonNode rootNode = om.readTree(json);
-                if(rootNode.has("list")){
-                    Class<?> clazz = Class.forName(rootNode.get("type").asText());
-                    value = om.readValue(json, om.getTypeFactory().constructParametricType(ArrayListHolder.class, clazz));
-                } else if(rootNode.has("keyType")){
-                    Class<?> keyType = Class.forName(rootNode.get("keyType").asText());
-                    Class<?> valueType = Class.forName(rootNode.get("valueType").asText());
-                    try{
-                        Map<?, ?> objMap = om.convertValue(rootNode.get("map"), Map.class);
-                        value = new HashMapHolder<>(keyType, valueType, objMap);;
-                    } catch (ClassCastException | IllegalArgumentException | IllegalStateException e) {
-                        logger.except("MismatchedInputException occurred during HashMapHolder conversion from db!", e);
-                        value = new HashMapHolder<>(keyType, valueType);
-                    } catch (Exception e) {
-                        logger.except("Exception occurred during HashMapHolder conversion from db!", e);
-                        value = null;
-                    }
-
-
-                } else {
-                    logger.warn("Unknown JSONB type ignored for column named: " + columnName);
-                    value = null;
-                }
-            } else if (md.getColumnType(i) == Types.ARRAY){
-                Array array = rs.getArray(i);
-                value = List.of((Object[])array.getArray());
-
-            } else {
-                value = rs.getObject(i);
+    private Map<String, Object> executeSingleQuery(StatementLease lease) throws SQLException, JsonProcessingException, ClassNotFoundException {
+        try{
+            ResultSet rs = lease.statement().executeQuery();
+            if(!rs.next()){
+                lease.returned(0);
+                return null;
             }
-            if(value != null) recordData.put(columnName, value);
+            DatabaseEvents.RowMappingEvent event = beginMapping(lease.tableName(), "resultset", false);
+            ResultSetMetaData md = rs.getMetaData();
+            int columnCount = md.getColumnCount();
+            Map<String, Object> row = resultToMap(columnCount, md, rs);
+            lease.returned(1);
+            endMapping(event, 1);
+            return row;
+        } catch (SQLException | JsonProcessingException | ClassNotFoundException | RuntimeException e){
+            lease.failed(e);
+            throw e;
+        }
+    }
+
+    private List<Map<String, Object>> query(StatementLease lease) throws SQLException {
+        try{
+            ResultSet rs = lease.statement().executeQuery();
+            DatabaseEvents.RowMappingEvent event = beginMapping(lease.tableName(), "resultset", false);
+            List<Map<String, Object>> objMaps = processQueryResultSet(rs);
+            int rows = (objMaps == null) ? 0 : objMaps.size();
+            lease.returned(rows);
+            endMapping(event, rows);
+            return objMaps;
+        } catch (SQLException | RuntimeException e){
+            lease.failed(e);
+            throw e;
         }
-        return recordData;
+    }
+
+    private Map<String, Object> resultToMap(int columnCount, ResultSetMetaData md, ResultSet rs)
+            throws SQLException, JsonProcessingException, ClassNotFoundException {
+        return codec.readRow(columnCount, md, rs);
     }
 
     private List<Map<String, Object>> processQueryResultSet(ResultSet rs) throws SQLException {
@@ -746,23 +1069,15 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
         return objMaps;
     }
 
+    @SuppressWarnings("unchecked")
     private void populateStatement(PreparedStatement pStmt, SQLRecord record, boolean isUpdate)
             throws InvocationTargetException, IllegalAccessException, SQLException, NoSuchFieldException, JsonProcessingException {
-        RecordComponent[] comps = record.getClass().getRecordComponents();
-        for(int i = 1; i < comps.length; i++){
-
-            Class<?> fieldType = comps[i].getType();
-            String fieldName = comps[i].getName();
-            Object value = record.getObjectValueByFieldName(fieldName);
-            if(value == null) pStmt.setObject(i, null);
-            else if(fieldType.equals(LocalDateTime.class)) pStmt.setString(i, value == null ? "" : value.toString());
-            else if (fieldType == ArrayListHolder.class || fieldType == HashMapHolder.class){
-                pStmt.setString(i, om.writeValueAsString(value));
-            } else if(fieldType.isEnum()){
-                pStmt.setInt(i, ((Enum<?>)value).ordinal());
-            } else pStmt.setObject(i, value);
+        SQLRecordMapper<SQLRecord> mapper = (SQLRecordMapper<SQLRecord>) getRecordMapper(record.getClass());
+        if(mapper != null){
+            mapper.bind(pStmt, record, isUpdate, om);
+            return;
         }
-        if(isUpdate) pStmt.setLong(comps.length, (Long) record.getObjectValueByFieldName(comps[0].getName()));
+        codec.bind(pStmt, record, isUpdate);
     }
 
     /**
@@ -782,11 +1097,13 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             return null;
         }
 
-        RecordComponent[] comps = recordClass.getRecordComponents();
-        Constructor<? extends SQLRecord> constructor = getConstructor(recordClass);
         TreeMap<String, Object> tm = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         tm.putAll(objMap);
-        return (T) constructor.newInstance(tm);
+        SQLRecordMapper<T> mapper = getRecordMapper(recordClass);
+        DatabaseEvents.RowMappingEvent event = beginMapping(recordClass.getSimpleName().toLowerCase(), "records", mapper != null);
+        T record = (mapper != null) ? mapper.mapRow(tm) : (T) getConstructor(recordClass).newInstance(tm);
+        endMapping(event, 1);
+        return record;
     }
 
     /**
@@ -803,20 +1120,43 @@ public class DbOperationsBaseUser extends AbstractDbOperations implements DBOper
             logger.error("List of object maps was null or empty! Table: " + recordClass.getSimpleName().toLowerCase());
             return List.of();
         }
-        Constructor<? extends SQLRecord> constructor = getConstructor(recordClass);
+        SQLRecordMapper<? extends SQLRecord> mapper = getRecordMapper(recordClass);
+        Constructor<? extends SQLRecord> constructor = (mapper == null) ? getConstructor(recordClass) : null;
+        DatabaseEvents.RowMappingEvent event = beginMapping(recordClass.getSimpleName().toLowerCase(), "records", mapper != null);
         List<T> records = new ArrayList<>();
         for(Map<String, Object> objMap : objMaps){
             try{
                 TreeMap<String, Object> tm = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
                 tm.putAll(objMap);
-                records.add((T) constructor.newInstance(tm));
+                records.add((T) ((mapper != null) ? mapper.mapRow(tm) : constructor.newInstance(tm)));
             } catch (Exception e){
                 logger.except("Something went wrong on this reflect record generation!", e);
             }
         }
+        endMapping(event, records.size());
         return records;
     }
 
+    private static DatabaseEvents.RowMappingEvent beginMapping(String tableName, String stage, boolean generatedMapper){
+        if(!DatabaseEvents.ROW_MAPPING.isEnabled()) return null;
+        DatabaseEvents.RowMappingEvent event = new DatabaseEvents.RowMappingEvent();
+        event.table = tableName;
+        event.stage = stage;
+        event.generatedMapper = generatedMapper;
+        event.begin();
+        return event;
+    }
+
+    private static void endMapping(DatabaseEvents.RowMappingEvent event, int rows){
+        if(event == null) return;
+        event.rows = rows;
+        event.commit();
+    }
+
+    private <T extends SQLRecord> SQLRecordMapper<T> getRecordMapper(Class<T> recordClass){
+        return (dbManager == null) ? null : dbManager.getRecordMapper(recordClass);
+    }
+
     /**
      * We exclusively use the map constructor now
      * @param recordClass
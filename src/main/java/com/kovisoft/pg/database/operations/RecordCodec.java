@@ -0,0 +1,145 @@
+package com.kovisoft.pg.database.operations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.ContentHash;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.ArrayListHolder;
+import com.kovisoft.pg.database.data.exports.HashMapHolder;
+
+import java.lang.reflect.RecordComponent;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads result set rows into the column maps the record constructors take and binds record
+ * components onto the prepared statements built by the DBManager. Shared by the DBOperations
+ * and the migration so both read and write the tables the same way.
+ */
+public class RecordCodec {
+
+    private final ObjectMapper om;
+    private final Logger logger;
+
+    public RecordCodec(ObjectMapper om, Logger logger){
+        this.om = om;
+        this.logger = logger;
+    }
+
+    public ObjectMapper getObjectMapper(){
+        return om;
+    }
+
+    /**
+     * Reads the current row of rs, null values are left out of the map.
+     * @param columnCount The column count from md.
+     * @param md The metadata of rs, fetch it once per result set.
+     * @param rs The result set positioned on the row to read.
+     * @return The row keyed by column name.
+     */
+    public Map<String, Object> readRow(int columnCount, ResultSetMetaData md, ResultSet rs)
+            throws SQLException, JsonProcessingException, ClassNotFoundException {
+        Map<String, Object> recordData = new HashMap<>();
+        for(int i = 1; i <= columnCount; i++){
+            String columnName = md.getColumnName(i);
+            String columnTypeName = md.getColumnTypeName(i);
+            Object value;
+            if(columnTypeName.equalsIgnoreCase("bool") || columnTypeName.equalsIgnoreCase("boolean")){ //Should be a boolean
+                value = rs.getBoolean(i);
+            } else if(columnTypeName.equalsIgnoreCase("JSONB")){
+                value = readJsonb(columnName, rs.getString(i));
+            } else if (md.getColumnType(i) == Types.ARRAY){
+                Array array = rs.getArray(i);
+                value = (array == null) ? null : List.of((Object[])array.getArray());
+            } else {
+                value = rs.getObject(i);
+            }
+            if(value != null) recordData.put(columnName, value);
+        }
+        return recordData;
+    }
+
+    /**
+     * Binds every component but the primary key in order, then the content hash if the record has
+     * a {@link ContentHash} column, and for updates the primary key last.
+     * @param pStmt An insert or update statement of the records table.
+     * @param record The record to bind.
+     * @param isUpdate True if pStmt is an update statement.
+     */
+    public void bind(PreparedStatement pStmt, SQLRecord record, boolean isUpdate)
+            throws IllegalAccessException, SQLException, NoSuchFieldException, JsonProcessingException {
+        RecordComponent[] comps = record.getClass().getRecordComponents();
+        for(int i = 1; i < comps.length; i++){
+
+            Class<?> fieldType = comps[i].getType();
+            String fieldName = comps[i].getName();
+            Object value = record.getObjectValueByFieldName(fieldName);
+            if(value == null) pStmt.setObject(i, null);
+            else if(fieldType.equals(LocalDateTime.class)) pStmt.setString(i, value.toString());
+            else if (fieldType == ArrayListHolder.class || fieldType == HashMapHolder.class){
+                DatabaseEvents.JsonbEvent event = beginJsonb(fieldName, "write");
+                String json = om.writeValueAsString(value);
+                endJsonb(event, json);
+                pStmt.setString(i, json);
+            } else if(fieldType.isEnum()){
+                pStmt.setInt(i, ((Enum<?>)value).ordinal());
+            } else pStmt.setObject(i, value);
+        }
+        int next = comps.length;
+        if(record.getClass().isAnnotationPresent(ContentHash.class)) pStmt.setLong(next++, record.getContentHash());
+        if(isUpdate) pStmt.setLong(next, (Long) record.getObjectValueByFieldName(comps[0].getName()));
+    }
+
+    private Object readJsonb(String columnName, String json) throws JsonProcessingException, ClassNotFoundException {
+        if(json == null) return null;
+        DatabaseEvents.JsonbEvent event = beginJsonb(columnName, "read");
+        try{
+            return readJsonbValue(columnName, json);
+        } finally {
+            endJsonb(event, json);
+        }
+    }
+
+    private static DatabaseEvents.JsonbEvent beginJsonb(String column, String direction){
+        if(!DatabaseEvents.JSONB.isEnabled()) return null;
+        DatabaseEvents.JsonbEvent event = new DatabaseEvents.JsonbEvent();
+        event.column = column;
+        event.direction = direction;
+        event.begin();
+        return event;
+    }
+
+    private static void endJsonb(DatabaseEvents.JsonbEvent event, String json){
+        if(event == null) return;
+        event.length = json.length();
+        event.commit();
+    }
+
+    private Object readJsonbValue(String columnName, String json) throws JsonProcessingException, ClassNotFoundException {
+        JsonNode rootNode = om.readTree(json);
+        if(rootNode.has("list")){
+            Class<?> clazz = Class.forName(rootNode.get("type").asText());
+            return om.readValue(json, om.getTypeFactory().constructParametricType(ArrayListHolder.class, clazz));
+        } else if(rootNode.has("keyType")){
+            Class<?> keyType = Class.forName(rootNode.get("keyType").asText());
+            Class<?> valueType = Class.forName(rootNode.get("valueType").asText());
+            try{
+                Map<?, ?> objMap = om.convertValue(rootNode.get("map"), Map.class);
+                return new HashMapHolder<>(keyType, valueType, objMap);
+            } catch (ClassCastException | IllegalArgumentException | IllegalStateException e) {
+                logger.except("MismatchedInputException occurred during HashMapHolder conversion from db!", e);
+                return new HashMapHolder<>(keyType, valueType);
+            } catch (Exception e) {
+                logger.except("Exception occurred during HashMapHolder conversion from db!", e);
+                return null;
+            }
+        }
+        logger.warn("Unknown JSONB type ignored for column named: " + columnName);
+        return null;
+    }
+}
@@ -0,0 +1,528 @@
+package com.kovisoft.pg.database.operations;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.pg.database.data.CompoundSQLRecordClass;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.BatchFailedException;
+import com.kovisoft.pg.database.data.exports.BatchResult;
+import com.kovisoft.pg.database.data.exports.DBOperations;
+import com.kovisoft.pg.database.data.exports.ShardStrategy;
+
+import java.io.IOException;
+import java.lang.reflect.RecordComponent;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Spreads the record tables over several databases, each shard is a regular DBOperations on its own
+ * DBManager. Keys are routed with the {@link ShardStrategy}, new records are spread round-robin and
+ * the shard that inserts a record hands it a key that routes back to that same shard.
+ * Multi key operations are split by shard and run in parallel, full scans merge every shards results.
+ * Compound records reference keys across tables so they are not supported across shards.
+ */
+public class ShardedDBOperations extends AbstractDbOperations implements DBOperations, AutoCloseable {
+
+    private final Logger logger;
+    private final List<DBOperations> shards;
+    private final ShardStrategy strategy;
+    private final ExecutorService executor;
+    private final AtomicInteger nextInsertShard = new AtomicInteger();
+
+    public ShardedDBOperations(List<DBOperations> shards, ShardStrategy strategy){
+        try{
+            logger = LoggerFactory.createLogger(System.getProperty("user.dir") + "/logs",
+                    "DB_Logger");
+        } catch (IOException e) {
+            throw new RuntimeException("Could not startup the DB_Logger logger!", e);
+        }
+        if(shards == null || shards.size() != strategy.getShardCount()){
+            throw new IllegalArgumentException("The number of shards must match the shard strategy!");
+        }
+        this.shards = List.copyOf(shards);
+        this.strategy = strategy;
+        this.executor = Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread thread = new Thread(r, "DB-Shard-Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getShardCount(){
+        return shards.size();
+    }
+
+    @Override
+    public <T extends SQLRecord> T addRecord(T record) {
+        return nextShard().addRecord(record);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> addRecords(List<T> records) {
+        if(records == null || records.isEmpty()) return List.of();
+        return onShardGroups(spreadRoundRobin(records), DBOperations::addRecords);
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> T addCompoundRecord(T record) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> List<T> addCompoundRecords(List<T> records) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends SQLRecord> T updateRecord(T record) {
+        if(record.getPrimaryKey() == null){
+            logger.error("Can not update a record without a primaryKey on a sharded table: " + record.getTableName());
+            return null;
+        }
+        return shardOf(record.getPrimaryKey()).updateRecord(record);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> updateRecords(List<T> records) {
+        if(records == null || records.isEmpty()) return List.of();
+        return onShardGroups(groupByShard(records, SQLRecord::getPrimaryKey), DBOperations::updateRecords);
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> T updateCompoundRecord(T record) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> List<T> updateCompoundRecords(List<T> records) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends SQLRecord> T updateOrAddRecord(T record) {
+        T match = getMatchNoId(record);
+        if(match != null) return match;
+        return ((record.getPrimaryKey() == null) ? addRecord(record) : updateRecord(record));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> updateAndAddRecords(List<T> records) {
+        if(records == null || records.isEmpty()) return List.of();
+        List<T> returns = new ArrayList<>(records.size());
+        List<T> inserts = new ArrayList<>();
+        List<T> keyed = new ArrayList<>();
+        for(T record : records){
+            if(record.getPrimaryKey() != null){
+                keyed.add(record);
+                continue;
+            }
+            // Without a key the duplicate could be on any shard.
+            T match = getMatchNoId(record);
+            if(match == null) inserts.add(record);
+            else returns.add(match);
+        }
+        returns.addAll(onShardGroups(groupByShard(keyed, SQLRecord::getPrimaryKey), DBOperations::updateAndAddRecords));
+        returns.addAll(addRecords(inserts));
+        return returns;
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> T updateOrAddCompoundRecord(T record) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> List<T> updateOrAddCompoundRecords(List<T> records) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends SQLRecord> T getMatch(T record) {
+        if(record.getPrimaryKey() == null) return null;
+        return shardOf(record.getPrimaryKey()).getMatch(record);
+    }
+
+    @Override
+    public <T extends SQLRecord> T getMatchNoId(T record) {
+        return onEachShard(shard -> shard.getMatchNoId(record)).stream()
+                .filter(Objects::nonNull).findFirst().orElse(null);
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> T getCompoundMatch(T record) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends SQLRecord> T getRecordById(Long id, T record) {
+        if(id == null) return null;
+        return shardOf(id).getRecordById(id, record);
+    }
+
+    @Override
+    public <T extends SQLRecord> T getRecordById(Long id, Class<T> recordClass) {
+        if(id == null) return null;
+        return shardOf(id).getRecordById(id, recordClass);
+    }
+
+    @Override
+    public <T extends SQLRecord> T getRecordById(Long id, String tableName) {
+        if(id == null) return null;
+        return shardOf(id).getRecordById(id, tableName);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getRecordsByIds(List<Long> ids, Class<T> recordClass) {
+        if(ids == null || ids.isEmpty()) return List.of();
+        return onShardGroups(groupByShard(ids, Function.identity()),
+                (shard, shardIds) -> shard.getRecordsByIds(shardIds, recordClass));
+    }
+
+    @Override
+    public <T extends CompoundSQLRecordClass> T getCompoundRecordById(Long id, T record) {
+        throw new RuntimeException("Compound records are not currently supported across shards");
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getMatchByColumnNames(T record, List<String> columnNames) {
+        return mergeAll(onEachShard(shard -> shard.getMatchByColumnNames(record, columnNames)));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getMatchByComponents(T record, RecordComponent[] components) {
+        throw new RuntimeException("This method is not currently implemented");
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getContaining(Class<T> recordClass, String columnName, Object value) {
+        return mergeAll(onEachShard(shard -> shard.getContaining(recordClass, columnName, value)));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getWithAnyKey(Class<T> recordClass, String columnName, List<String> keys) {
+        return mergeAll(onEachShard(shard -> shard.getWithAnyKey(recordClass, columnName, keys)));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getWithAllKeys(Class<T> recordClass, String columnName, List<String> keys) {
+        return mergeAll(onEachShard(shard -> shard.getWithAllKeys(recordClass, columnName, keys)));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntries(T record) {
+        return sortByPrimaryKey(mergeAll(onEachShard(shard -> shard.getAllEntries(record))));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass) {
+        return sortByPrimaryKey(mergeAll(onEachShard(shard -> shard.getAllEntries(recordClass))));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass, int limit) {
+        return mergeSorted(onEachShard(shard -> shard.getAllEntries(recordClass, limit)), byPrimaryKey(), 0, limit);
+    }
+
+    // Any shard could hold every row of a page, so each shard returns its own rows up to the end of the
+    // page in the same order and the page is cut while merging them.
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntries(Class<T> recordClass, int limit, int startIndex) {
+        return mergeSorted(onEachShard(shard -> shard.getAllEntries(recordClass, startIndex + limit, 0)),
+                byPrimaryKey(), startIndex, limit);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntriesAscending(Class<T> recordClass, int limit, int startIndex, String columnName) {
+        Comparator<T> order = this.<T>columnComparator(columnName).thenComparing(byPrimaryKey());
+        return mergeSorted(onEachShard(shard -> shard.getAllEntriesAscending(recordClass, startIndex + limit, 0, columnName)),
+                order, startIndex, limit);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> getAllEntriesDescending(Class<T> recordClass, int limit, int startIndex, String columnName) {
+        Comparator<T> order = this.<T>columnComparator(columnName).reversed().thenComparing(this.<T>byPrimaryKey().reversed());
+        return mergeSorted(onEachShard(shard -> shard.getAllEntriesDescending(recordClass, startIndex + limit, 0, columnName)),
+                order, startIndex, limit);
+    }
+
+    @Override
+    public List<Map<String, Object>> getAllEntriesAsMaps(String tableName) {
+        List<List<Map<String, Object>>> results = onEachShard(shard -> shard.getAllEntriesAsMaps(tableName));
+        if(results.stream().allMatch(Objects::isNull)) return null;
+        return mergeAll(results);
+    }
+
+    @Override
+    public <T extends SQLRecord> T deleteById(T record) {
+        if(record.getPrimaryKey() == null){
+            logger.error("Passed record had a null primaryKey, we cannot delete that which does not exist.");
+            return null;
+        }
+        return shardOf(record.getPrimaryKey()).deleteById(record);
+    }
+
+    @Override
+    public <T extends SQLRecord> T deleteById(Long id, Class<T> recordClass) {
+        if(id == null){
+            logger.error("Passed a null primaryKey, we cannot delete that which does not exist.");
+            return null;
+        }
+        return shardOf(id).deleteById(id, recordClass);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> deleteByIds(List<T> records) {
+        if(records == null || records.isEmpty()) return List.of();
+        return onShardGroups(groupByShard(records, SQLRecord::getPrimaryKey), DBOperations::deleteByIds);
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> deleteByIds(List<Long> ids, Class<T> recordClass) {
+        if(ids == null || ids.isEmpty()) return List.of();
+        return onShardGroups(groupByShard(ids, Function.identity()),
+                (shard, shardIds) -> shard.deleteByIds(shardIds, recordClass));
+    }
+
+    @Override
+    public <T extends SQLRecord> List<T> deleteByIds(List<Long> ids, String tableName) {
+        if(ids == null || ids.isEmpty()) return List.of();
+        return onShardGroups(groupByShard(ids, Function.identity()),
+                (shard, shardIds) -> shard.<T>deleteByIds(shardIds, tableName));
+    }
+
+    @Override
+    public <T extends SQLRecord> void batchRequestsNoReturn(List<T> records, String pString, boolean isUpdate) throws SQLException {
+        if(records == null || records.isEmpty()) return;
+        List<Integer> positions = new ArrayList<>(records.size());
+        for(int i = 0; i < records.size(); i++) positions.add(i);
+        Map<Integer, List<Integer>> groups = isUpdate
+                ? groupByShard(positions, position -> records.get(position).getPrimaryKey()) : spreadRoundRobin(positions);
+        List<BatchResult> failed;
+        try{
+            failed = onShardGroups(groups, (shard, shardPositions) -> {
+                List<T> shardRecords = new ArrayList<>(shardPositions.size());
+                for(int position : shardPositions) shardRecords.add(records.get(position));
+                try{
+                    shard.batchRequestsNoReturn(shardRecords, pString, isUpdate);
+                    return List.of();
+                } catch (BatchFailedException e){
+                    return List.of(toOriginalPositions(e.getResult(), shardPositions));
+                } catch (SQLException e){
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e){
+            // await keeps a checked cause wrapped, the shard's SQLException is what the caller declared.
+            if(e.getCause() instanceof SQLException sqlException) throw sqlException;
+            throw e;
+        }
+        if(failed.isEmpty()) return;
+        BatchResult merged = BatchResult.merge(failed);
+        List<BatchResult.ChunkFailure> failures = new ArrayList<>(merged.failures());
+        failures.sort(Comparator.comparingInt(BatchResult.ChunkFailure::fromIndex));
+        int lost = failures.stream().mapToInt(failure -> failure.toIndex() - failure.fromIndex()).sum();
+        throw new BatchFailedException(String.format("Batch for %s failed on %d shards.", pString, failed.size()),
+                new BatchResult(records.size(), records.size() - lost, merged.chunks(), List.of(), failures));
+    }
+
+    /**
+     * Inserts are spread round-robin and updates go to the shard owning each key, every shard runs its
+     * part in parallel. Failure indexes in the merged result are positions in records, updates without
+     * a primaryKey can not be routed and are reported as failures.
+     */
+    @Override
+    public <T extends SQLRecord> BatchResult executeBatch(List<T> records, boolean isUpdate) {
+        if(records == null || records.isEmpty()) return BatchResult.empty();
+        List<Integer> positions = new ArrayList<>(records.size());
+        List<BatchResult.ChunkFailure> unrouted = new ArrayList<>();
+        for(int i = 0; i < records.size(); i++){
+            T record = records.get(i);
+            if(record == null || (isUpdate && record.getPrimaryKey() == null)){
+                unrouted.add(new BatchResult.ChunkFailure(i, i + 1, "The record has no primaryKey to route it to a shard."));
+            } else {
+                positions.add(i);
+            }
+        }
+        Map<Integer, List<Integer>> groups = isUpdate
+                ? groupByShard(positions, position -> records.get(position).getPrimaryKey()) : spreadRoundRobin(positions);
+        List<BatchResult> results = new ArrayList<>(onShardGroups(groups, (shard, shardPositions) -> {
+            List<T> shardRecords = new ArrayList<>(shardPositions.size());
+            for(int position : shardPositions) shardRecords.add(records.get(position));
+            return List.of(toOriginalPositions(shard.executeBatch(shardRecords, isUpdate), shardPositions));
+        }));
+        if(!unrouted.isEmpty()) results.add(new BatchResult(unrouted.size(), 0, 0, List.of(), unrouted));
+        BatchResult merged = BatchResult.merge(results);
+        List<BatchResult.ChunkFailure> failures = new ArrayList<>(merged.failures());
+        failures.sort(Comparator.comparingInt(BatchResult.ChunkFailure::fromIndex));
+        return new BatchResult(merged.attempted(), merged.succeeded(), merged.chunks(), merged.generatedKeys(), failures);
+    }
+
+    // A shards failure range covers positions that need not be next to each other in the full list, so it is split into runs.
+    private BatchResult toOriginalPositions(BatchResult result, List<Integer> positions){
+        if(result == null || result.failures().isEmpty()) return result;
+        List<BatchResult.ChunkFailure> failures = new ArrayList<>();
+        for(BatchResult.ChunkFailure failure : result.failures()){
+            int runStart = -1, previous = -1;
+            for(int i = failure.fromIndex(); i < Math.min(failure.toIndex(), positions.size()); i++){
+                int position = positions.get(i);
+                if(runStart >= 0 && position != previous + 1){
+                    failures.add(new BatchResult.ChunkFailure(runStart, previous + 1, failure.message()));
+                    runStart = -1;
+                }
+                if(runStart < 0) runStart = position;
+                previous = position;
+            }
+            if(runStart >= 0) failures.add(new BatchResult.ChunkFailure(runStart, previous + 1, failure.message()));
+        }
+        return new BatchResult(result.attempted(), result.succeeded(), result.chunks(), result.generatedKeys(), failures);
+    }
+
+    private DBOperations shardOf(long primaryKey){
+        return shards.get(strategy.shardFor(primaryKey));
+    }
+
+    private DBOperations nextShard(){
+        return shards.get(Math.floorMod(nextInsertShard.getAndIncrement(), shards.size()));
+    }
+
+    private <T> Map<Integer, List<T>> groupByShard(List<T> items, Function<T, Long> keyOf){
+        Map<Integer, List<T>> groups = new HashMap<>();
+        for(T item : items){
+            if(item == null) continue;
+            Long key = keyOf.apply(item);
+            if(key == null){
+                logger.warn("Skipping an item without a primaryKey, it can not be routed to a shard.");
+                continue;
+            }
+            groups.computeIfAbsent(strategy.shardFor(key), shard -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    private <T> Map<Integer, List<T>> spreadRoundRobin(List<T> items){
+        Map<Integer, List<T>> groups = new HashMap<>();
+        for(T item : items){
+            int shard = Math.floorMod(nextInsertShard.getAndIncrement(), shards.size());
+            groups.computeIfAbsent(shard, s -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<I, R> {
+        List<R> apply(DBOperations shard, List<I> items);
+    }
+
+    private <I, R> List<R> onShardGroups(Map<Integer, List<I>> groups, ShardCall<I, R> call){
+        List<Future<List<R>>> futures = new ArrayList<>(groups.size());
+        for(Map.Entry<Integer, List<I>> group : groups.entrySet()){
+            DBOperations shard = shards.get(group.getKey());
+            futures.add(executor.submit(() -> call.apply(shard, group.getValue())));
+        }
+        List<R> results = new ArrayList<>();
+        for(Future<List<R>> future : futures){
+            List<R> result = await(future);
+            if(result != null) results.addAll(result);
+        }
+        return results;
+    }
+
+    private <R> List<R> onEachShard(Function<DBOperations, R> call){
+        List<Future<R>> futures = new ArrayList<>(shards.size());
+        for(DBOperations shard : shards){
+            futures.add(executor.submit(() -> call.apply(shard)));
+        }
+        List<R> results = new ArrayList<>(shards.size());
+        for(Future<R> future : futures){
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private <R> R await(Future<R> future){
+        try{
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting on a shard!", e);
+        } catch (ExecutionException e){
+            Throwable cause = (e.getCause() instanceof CompletionException) ? e.getCause().getCause() : e.getCause();
+            logger.except("Exception occurred on a shard!", cause instanceof Exception ? (Exception) cause : e);
+            if(cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new CompletionException(cause);
+        }
+    }
+
+    private <T> List<T> mergeAll(List<List<T>> results){
+        List<T> merged = new ArrayList<>();
+        for(List<T> result : results){
+            if(result != null) merged.addAll(result);
+        }
+        return merged;
+    }
+
+    private <T extends SQLRecord> List<T> sortByPrimaryKey(List<T> records){
+        records.sort(byPrimaryKey());
+        return records;
+    }
+
+    private <T extends SQLRecord> Comparator<T> byPrimaryKey(){
+        return Comparator.comparing(SQLRecord::getPrimaryKey, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    // A k-way merge of results each shard already sorted by order, skipping startIndex rows and keeping limit.
+    private <T> List<T> mergeSorted(List<List<T>> results, Comparator<T> order, int startIndex, int limit){
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>((a, b) -> order.compare(a.current, b.current));
+        for(List<T> result : results){
+            if(result != null && !result.isEmpty()) heads.add(new Cursor<>(result.iterator()));
+        }
+        List<T> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        int skipped = 0;
+        while(!heads.isEmpty() && page.size() < limit){
+            Cursor<T> head = heads.poll();
+            if(skipped < startIndex) skipped++;
+            else page.add(head.current);
+            if(head.advance()) heads.add(head);
+        }
+        return page;
+    }
+
+    private static final class Cursor<T> {
+        private final Iterator<T> iterator;
+        private T current;
+
+        private Cursor(Iterator<T> iterator){
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        private boolean advance(){
+            if(!iterator.hasNext()) return false;
+            current = iterator.next();
+            return true;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private <T extends SQLRecord> Comparator<T> columnComparator(String columnName){
+        return Comparator.comparing(record -> {
+            try{
+                Object value = record.getObjectValueByFieldName(columnName);
+                return (value instanceof Comparable) ? (Comparable) value : null;
+            } catch (NoSuchFieldException | IllegalAccessException e){
+                return null;
+            }
+        }, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    /**
+     * Stops the shard workers, the shards and their managers are left open since the factory owns them.
+     */
+    @Override
+    public void close(){
+        executor.shutdownNow();
+    }
+}
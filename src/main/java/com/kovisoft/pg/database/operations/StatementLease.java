@@ -0,0 +1,296 @@
+package com.kovisoft.pg.database.operations;
+
+import com.kovisoft.pg.database.data.exports.Bulkheads;
+import com.kovisoft.pg.database.data.exports.Operation;
+import com.kovisoft.pg.database.data.exports.OperationListeners;
+import com.kovisoft.pg.database.data.exports.OperationMetrics;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A borrowed wrapper and one of its statements, held by a single caller until closed.
+ * The wrappers cache their statements, so two threads handed the same wrapper (the init wrapper
+ * is shared for one) would otherwise bind over each others parameters. Each wrapper gets a lock
+ * that is held for the life of the lease, closing the lease unlocks and releases the wrapper, then
+ * frees the bulkhead permit the call was admitted with. The call is recorded into its metrics series
+ * on close, from when it asked for admission, a lease closed without {@link #returned(int)} counts as an error.
+ * Calls are handed to the slow hook on close while the statement and its parameters are still held,
+ * then to the operation listeners.
+ * Always open these in a try-with-resources.
+ */
+public final class StatementLease implements AutoCloseable {
+
+    private static final Map<ConnectionWrapper, ReentrantLock> LOCKS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ConnectionWrapper cw;
+    private final PreparedStatement pStmt;
+    private final boolean ownsStatement;
+    private final ReentrantLock lock;
+    private final Consumer<ConnectionWrapper> release;
+    private final Tracker tracker;
+    private final Bulkheads.Permit permit;
+    private final long leasedAt;
+    private final String keyOrSql;
+    private final String tableName;
+    private final Operation operation;
+    private final OperationMetrics.Series series;
+    private final long startNanos;
+    private final SlowHook slowHook;
+    private final OperationListeners listeners;
+    private Throwable error;
+    private final DatabaseEvents.StatementEvent event;
+    private int rows = 0;
+    private int bound = 0;
+    private boolean completed = false;
+    private boolean closed = false;
+
+    private StatementLease(ConnectionWrapper cw, PreparedStatement pStmt, boolean ownsStatement, ReentrantLock lock,
+                           Consumer<ConnectionWrapper> release, Tracker tracker, Bulkheads.Permit permit,
+                           String keyOrSql, Target target, long startNanos, SlowHook slowHook, OperationListeners listeners){
+        this.cw = cw;
+        this.pStmt = pStmt;
+        this.ownsStatement = ownsStatement;
+        this.lock = lock;
+        this.release = release;
+        this.tracker = tracker;
+        this.permit = permit;
+        this.leasedAt = System.nanoTime();
+        this.keyOrSql = keyOrSql;
+        this.tableName = target.tableName;
+        this.operation = target.operation;
+        this.series = target.series;
+        this.startNanos = startNanos;
+        this.slowHook = slowHook;
+        this.listeners = listeners;
+        if(DatabaseEvents.STATEMENT.isEnabled()){
+            event = new DatabaseEvents.StatementEvent();
+            event.begin();
+        } else {
+            event = null;
+        }
+    }
+
+    /**
+     * Leases one of the wrappers cached statements, keyed the same as the DBManagers prepMap.
+     * @param cw A freshly borrowed wrapper, it is released if the lease can't be opened.
+     * @param permit The bulkhead permit the call was admitted with, can be null. Closed with the lease.
+     * @param key The prepared statement key.
+     * @param release How to give the wrapper back, called once on close.
+     * @param tracker Where the wait and hold times go.
+     * @param target What the call is and where it is recorded on close.
+     * @param startNanos When the call started, before admission so the time spent getting in is part of the call.
+     * @param slowHook Handed the call on close, can be null.
+     * @param listeners Told how the call went on close, null when there are none.
+     * @return The open lease.
+     */
+    static StatementLease cached(ConnectionWrapper cw, Bulkheads.Permit permit, String key, Consumer<ConnectionWrapper> release,
+                                 Tracker tracker, Target target, long startNanos, SlowHook slowHook,
+                                 OperationListeners listeners) throws SQLException {
+        return open(cw, permit, key, false, release, tracker, target, startNanos, slowHook, listeners);
+    }
+
+    /**
+     * Leases a statement prepared just for this call from the sql, it is closed with the lease.
+     * Used for the statements that depend on their input (IN lists and such) and are not cached.
+     */
+    static StatementLease prepared(ConnectionWrapper cw, Bulkheads.Permit permit, String sql, Consumer<ConnectionWrapper> release,
+                                   Tracker tracker, Target target, long startNanos, SlowHook slowHook,
+                                   OperationListeners listeners) throws SQLException {
+        return open(cw, permit, sql, true, release, tracker, target, startNanos, slowHook, listeners);
+    }
+
+    private static StatementLease open(ConnectionWrapper cw, Bulkheads.Permit permit, String keyOrSql, boolean prepare,
+                                       Consumer<ConnectionWrapper> release, Tracker tracker, Target target,
+                                       long startNanos, SlowHook slowHook, OperationListeners listeners) throws SQLException {
+        if(cw == null){
+            if(permit != null) permit.close();
+            throw new SQLException("No connection was available to lease a statement from!");
+        }
+        ReentrantLock lock = LOCKS.computeIfAbsent(cw, k -> new ReentrantLock());
+        long waitStart = System.nanoTime();
+        lock.lock();
+        tracker.waited(System.nanoTime() - waitStart);
+        try{
+            PreparedStatement pStmt = (prepare) ? cw.borrowConnection().prepareStatement(keyOrSql)
+                    : cw.getPreparedStatement(keyOrSql);
+            if(pStmt == null) throw new SQLException("No prepared statement exists for key: " + keyOrSql);
+            if(!prepare) pStmt.clearParameters();
+            return new StatementLease(cw, pStmt, prepare, lock, release, tracker, permit, keyOrSql, target,
+                    startNanos, slowHook, listeners);
+        } catch (SQLException | RuntimeException e) {
+            lock.unlock();
+            release.accept(cw);
+            if(permit != null) permit.close();
+            throw e;
+        }
+    }
+
+    public PreparedStatement statement(){
+        return pStmt;
+    }
+
+    /**
+     * @return The leased wrappers connection, for transaction control while the lease is open.
+     */
+    public Connection connection() throws SQLException {
+        return cw.borrowConnection();
+    }
+
+    /**
+     * @return The prepMap key of a cached statement, or the sql of one prepared for the call.
+     */
+    public String key(){
+        return keyOrSql;
+    }
+
+    public String tableName(){
+        return tableName;
+    }
+
+    public Operation operation(){
+        return operation;
+    }
+
+    public int rows(){
+        return rows;
+    }
+
+    public boolean isCompleted(){
+        return completed;
+    }
+
+    /**
+     * Marks the call as done.
+     * @param rows How many rows the statement returned or wrote.
+     */
+    public void returned(int rows){
+        this.rows = rows;
+        this.completed = true;
+    }
+
+    /**
+     * Keeps what the statement threw for the listeners, the caller catches it only after the lease is closed.
+     */
+    public void failed(Throwable error){
+        this.error = error;
+    }
+
+    /**
+     * @param records How many records were bound into the statement, the batch size for batches.
+     */
+    public void bound(int records){
+        this.bound = records;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if(closed) return;
+        closed = true;
+        long elapsed = System.nanoTime() - startNanos;
+        try{
+            if(slowHook != null) slowHook.closing(this, elapsed);
+            if(ownsStatement) pStmt.close();
+        } finally {
+            tracker.held(System.nanoTime() - leasedAt);
+            lock.unlock();
+            release.accept(cw);
+            if(permit != null) permit.close();
+            if(series != null) series.record(elapsed, rows, bound, !completed);
+            if(listeners != null) notifyListeners(elapsed);
+            if(event != null) commitEvent();
+        }
+    }
+
+    private void commitEvent(){
+        event.end();
+        if(!event.shouldCommit()) return;
+        event.table = tableName;
+        event.operation = operation.name();
+        event.statementKey = keyOrSql;
+        event.rows = rows;
+        event.bound = bound;
+        event.failed = !completed;
+        event.commit();
+    }
+
+    private void notifyListeners(long elapsed){
+        long waitNanos = leasedAt - startNanos;
+        long executionNanos = elapsed - waitNanos;
+        if(completed){
+            listeners.after(tableName, operation, rows, waitNanos, executionNanos);
+        } else {
+            listeners.onError(tableName, operation, (error != null) ? error
+                    : new IllegalStateException("The call failed before its statement returned."), waitNanos, executionNanos);
+        }
+    }
+
+    /**
+     * Sees every call as its lease closes, before the statement is closed or its parameters cleared.
+     * Must not throw.
+     */
+    @FunctionalInterface
+    public interface SlowHook {
+        void closing(StatementLease lease, long elapsedNanos);
+    }
+
+    /**
+     * What a lease is for, built once per statement key or table and operation and reused by every call.
+     * @param tableName The table the call works on.
+     * @param operation The statement it runs.
+     * @param series Where the call is recorded on close, can be null.
+     */
+    record Target(String tableName, Operation operation, OperationMetrics.Series series) {
+    }
+
+    /**
+     * Lease counts and timings for one DBOperations, wait time is time spent queued behind another
+     * caller on the same wrapper, if that climbs the pool is handing out shared wrappers.
+     */
+    public static final class Tracker {
+        private final LongAdder leases = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder heldNanos = new LongAdder();
+        private final LongAccumulator maxHeldNanos = new LongAccumulator(Long::max, 0L);
+
+        void waited(long nanos){
+            waitNanos.add(nanos);
+        }
+
+        void held(long nanos){
+            leases.increment();
+            heldNanos.add(nanos);
+            maxHeldNanos.accumulate(nanos);
+        }
+
+        public long getLeaseCount(){
+            return leases.sum();
+        }
+
+        public long getTotalWaitNanos(){
+            return waitNanos.sum();
+        }
+
+        public long getTotalHeldNanos(){
+            return heldNanos.sum();
+        }
+
+        public long getMaxHeldNanos(){
+            return maxHeldNanos.get();
+        }
+
+        public double getAverageHeldMillis(){
+            long count = leases.sum();
+            return (count == 0) ? 0 : heldNanos.sum() / (count * 1_000_000.0);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 module PgDatabase {
     requires java.sql;
+    requires java.management;
+    requires jdk.jfr;
     requires org.postgresql.jdbc;
     requires Logger;
     requires SimpleConnectionPool;
 
     requires com.fasterxml.jackson.annotation;
-    requires com.fasterxml.jackson.core;
-    requires com.fasterxml.jackson.databind;
+    // SQLRecordMapper binds with an ObjectMapper, so modules holding generated mappers read Jackson through this one.
+    requires transitive com.fasterxml.jackson.core;
+    requires transitive com.fasterxml.jackson.databind;
 
     exports com.kovisoft.pg.database.data;
     exports com.kovisoft.pg.database.data.exports;
@@ -0,0 +1,137 @@
+package com.kovisoft.pg.database.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The content hash is bound next to the match statement, records the statement finds equal have to hash the same.
+class RecordsTest {
+
+    enum Color { RED, GREEN }
+
+    record Item(Long id, String name, Double weight, BigDecimal price, Color color, LocalDateTime at,
+                Map<String, Object> attributes, String[] tags) implements SQLRecord {
+
+        @Override
+        public Long getPrimaryKey(){
+            return id;
+        }
+
+        @Override
+        public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends SQLRecord> boolean equalsWithoutId(T record){
+            return false;
+        }
+
+        @Override
+        public Object getObjectValueByFieldName(String fieldName){
+            return switch (fieldName) {
+                case "id" -> id;
+                case "name" -> name;
+                case "weight" -> weight;
+                case "price" -> price;
+                case "color" -> color;
+                case "at" -> at;
+                case "attributes" -> attributes;
+                case "tags" -> tags;
+                default -> null;
+            };
+        }
+    }
+
+    private static final LocalDateTime AT = LocalDateTime.of(2024, 5, 1, 12, 30);
+
+    @Test
+    void ignoresThePrimaryKey(){
+        assertEquals(hash(item(1L)), hash(item(2L)));
+        assertEquals(hash(item(1L)), hash(item(null)));
+    }
+
+    @Test
+    void changesWithAnyOtherComponent(){
+        long base = hash(item(1L));
+        assertNotEquals(base, hash(new Item(1L, "other", 1.5, new BigDecimal("2.50"), Color.RED, AT, attributes(), tags())));
+        assertNotEquals(base, hash(new Item(1L, "box", 1.5, new BigDecimal("2.50"), Color.GREEN, AT, attributes(), tags())));
+        assertNotEquals(base, hash(new Item(1L, "box", 1.5, new BigDecimal("2.50"), Color.RED, AT.plusSeconds(1),
+                attributes(), tags())));
+        assertNotEquals(base, hash(new Item(1L, "box", 1.5, new BigDecimal("2.50"), Color.RED, AT, attributes(),
+                new String[]{"b", "a"})));
+        assertNotEquals(base, hash(new Item(1L, "box", 1.5, new BigDecimal("2.50"), Color.RED, AT, Map.of("size", 4),
+                tags())));
+    }
+
+    @Test
+    void numbersHashByValue(){
+        assertEquals(hash(withPrice("2.5")), hash(withPrice("2.50")));
+        assertEquals(hash(withPrice("100")), hash(withPrice("1E+2")));
+        assertNotEquals(hash(withPrice("2.5")), hash(withPrice("2.05")));
+        assertEquals(hash(withWeight(0.0)), hash(withWeight(-0.0)));
+    }
+
+    @Test
+    void jsonObjectsIgnoreKeyOrderAndNumberScale(){
+        Map<String, Object> ordered = new LinkedHashMap<>();
+        ordered.put("size", 3);
+        ordered.put("ratio", 1.0);
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put("ratio", new BigDecimal("1.00"));
+        reversed.put("size", 3);
+        assertEquals(hash(withAttributes(ordered)), hash(withAttributes(reversed)));
+
+        // Arrays keep their order in jsonb.
+        assertNotEquals(hash(withAttributes(Map.of("list", List.of(1, 2)))),
+                hash(withAttributes(Map.of("list", List.of(2, 1)))));
+        assertNotEquals(hash(withAttributes(Map.of("a", 1, "b", 2))), hash(withAttributes(Map.of("a", 2, "b", 1))));
+    }
+
+    @Test
+    void aNullJsonValueIsNotAnEmptyObject(){
+        assertNotEquals(hash(withAttributes(null)), hash(withAttributes(Map.of())));
+    }
+
+    @Test
+    void isTheSameAcrossRuns(){
+        // Stored hashes from earlier runs have to keep matching, bump CONTENT_HASH_VERSION when this changes.
+        assertEquals(STABLE_HASH, hash(item(7L)));
+    }
+
+    private static final long STABLE_HASH = 1620767867246236415L;
+
+    private static long hash(Item item){
+        return Records.contentHash(item);
+    }
+
+    private static Item item(Long id){
+        return new Item(id, "box", 1.5, new BigDecimal("2.50"), Color.RED, AT, attributes(), tags());
+    }
+
+    private static Item withPrice(String price){
+        return new Item(1L, "box", 1.5, new BigDecimal(price), Color.RED, AT, attributes(), tags());
+    }
+
+    private static Item withWeight(double weight){
+        return new Item(1L, "box", weight, new BigDecimal("2.50"), Color.RED, AT, attributes(), tags());
+    }
+
+    private static Item withAttributes(Map<String, Object> attributes){
+        return new Item(1L, "box", 1.5, new BigDecimal("2.50"), Color.RED, AT, attributes, tags());
+    }
+
+    private static Map<String, Object> attributes(){
+        return Map.of("size", 3, "label", "fragile");
+    }
+
+    private static String[] tags(){
+        return new String[]{"a", "b"};
+    }
+}
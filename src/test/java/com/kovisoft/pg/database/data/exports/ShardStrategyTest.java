@@ -0,0 +1,84 @@
+package com.kovisoft.pg.database.data.exports;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Every key a shards identity sequence hands out has to route back to that shard.
+class ShardStrategyTest {
+
+    @Test
+    void hashInterleavesKeys(){
+        ShardStrategy strategy = ShardStrategy.hash(3);
+        assertEquals(0, strategy.shardFor(1));
+        assertEquals(1, strategy.shardFor(2));
+        assertEquals(2, strategy.shardFor(3));
+        assertEquals(0, strategy.shardFor(4));
+        assertEquals(2, strategy.shardFor(3_000_000_000L));
+    }
+
+    @Test
+    void hashIdentityRoutesBackToItsShard(){
+        ShardStrategy strategy = ShardStrategy.hash(4);
+        for(int shard = 0; shard < 4; shard++){
+            DBManagerConfig config = config();
+            strategy.applyIdentity(config, shard);
+            assertEquals(shard + 1L, (long) config.getIdentityStart());
+            assertEquals(4L, (long) config.getIdentityIncrement());
+            assertNull(config.getIdentityMaxValue());
+            for(long key = config.getIdentityStart(), i = 0; i < 100; key += config.getIdentityIncrement(), i++){
+                assertEquals(shard, strategy.shardFor(key));
+            }
+        }
+    }
+
+    @Test
+    void rangeSplitsKeysIntoBlocks(){
+        ShardStrategy strategy = ShardStrategy.range(3, 1000);
+        assertEquals(0, strategy.shardFor(1));
+        assertEquals(0, strategy.shardFor(1000));
+        assertEquals(1, strategy.shardFor(1001));
+        assertEquals(2, strategy.shardFor(3000));
+        // Keys outside every range still land on a shard rather than an index that does not exist.
+        assertEquals(2, strategy.shardFor(3001));
+        assertEquals(0, strategy.shardFor(0));
+    }
+
+    @Test
+    void rangeIdentityCoversExactlyItsBlock(){
+        ShardStrategy strategy = ShardStrategy.range(3, 1000);
+        for(int shard = 0; shard < 3; shard++){
+            DBManagerConfig config = config();
+            strategy.applyIdentity(config, shard);
+            assertEquals(shard * 1000L + 1, (long) config.getIdentityStart());
+            assertEquals(1L, (long) config.getIdentityIncrement());
+            assertEquals((shard + 1) * 1000L, (long) config.getIdentityMaxValue());
+            assertEquals(shard, strategy.shardFor(config.getIdentityStart()));
+            assertEquals(shard, strategy.shardFor(config.getIdentityMaxValue()));
+        }
+    }
+
+    @Test
+    void rangeIdentityDoesNotOverflowLargeBlocks(){
+        ShardStrategy strategy = ShardStrategy.range(4, 3_000_000_000L);
+        DBManagerConfig config = config();
+        strategy.applyIdentity(config, 3);
+        assertEquals(9_000_000_001L, (long) config.getIdentityStart());
+        assertEquals(12_000_000_000L, (long) config.getIdentityMaxValue());
+        assertEquals(3, strategy.shardFor(config.getIdentityStart()));
+    }
+
+    @Test
+    void rejectsEmptyShardingAndRanges(){
+        assertThrows(IllegalArgumentException.class, () -> ShardStrategy.hash(0));
+        assertThrows(IllegalArgumentException.class, () -> ShardStrategy.range(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> ShardStrategy.range(2, 0));
+    }
+
+    private static DBManagerConfig config(){
+        return new DBManagerConfig("super", "super", "user", "user", "db", "admin", "admin",
+                "localhost", 5432, false, false, 1, 1, Map.of());
+    }
+}
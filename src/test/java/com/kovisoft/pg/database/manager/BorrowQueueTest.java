@@ -0,0 +1,275 @@
+package com.kovisoft.pg.database.manager;
+
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// No database, the pool hands out a fresh wrapper on every call and the queue limit does the capping.
+@Timeout(30)
+class BorrowQueueTest {
+
+    private static final long LONG_WAIT = 10_000;
+
+    @Test
+    void borrowsUpToTheLimitThenTimesOut() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), 50);
+        queue.setLimit(2);
+        queue.borrow();
+        queue.borrow();
+        assertEquals(2, queue.getOutstanding());
+
+        assertThrows(SQLTimeoutException.class, queue::borrow);
+        assertEquals(1, queue.getStats().timeouts());
+        assertEquals(2, queue.getStats().borrows());
+        assertEquals(0, queue.getStats().waiting());
+        assertEquals(2, queue.getOutstanding());
+    }
+
+    @Test
+    void releaseWakesAWaiter() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), LONG_WAIT);
+        queue.setLimit(1);
+        ConnectionWrapper held = queue.borrow();
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try{
+            Future<ConnectionWrapper> waiter = exec.submit(queue::borrow);
+            awaitTrue(() -> queue.getStats().waiting() == 1);
+            assertFalse(waiter.isDone());
+
+            queue.release(held);
+            assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, queue.getOutstanding());
+            assertEquals(1, queue.getReleases());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitersAreServedInArrivalOrder() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), LONG_WAIT);
+        queue.setLimit(1);
+        ConnectionWrapper held = queue.borrow();
+
+        BlockingQueue<String> order = new LinkedBlockingQueue<>();
+        List<ConnectionWrapper> borrowed = new CopyOnWriteArrayList<>();
+        Thread first = waiter(queue, "first", order, borrowed);
+        parked(first);
+        Thread second = waiter(queue, "second", order, borrowed);
+        parked(second);
+
+        queue.release(held);
+        assertEquals("first", order.poll(5, TimeUnit.SECONDS));
+        // The second is still behind the limit until the first gives its wrapper back.
+        assertNull(order.poll(100, TimeUnit.MILLISECONDS));
+
+        queue.release(borrowed.getFirst());
+        assertEquals("second", order.poll(5, TimeUnit.SECONDS));
+        first.join();
+        second.join();
+    }
+
+    @Test
+    void aSingleSignalIsPassedOnToEveryWaiterThatCanBorrow() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), LONG_WAIT);
+        queue.setLimit(1);
+        queue.borrow();
+
+        BlockingQueue<String> order = new LinkedBlockingQueue<>();
+        List<ConnectionWrapper> borrowed = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < 3; i++){
+            Thread thread = waiter(queue, "w" + i, order, borrowed);
+            parked(thread);
+            threads.add(thread);
+        }
+
+        // Raising the limit signals once, each waiter that gets a wrapper has to wake the next one.
+        queue.setLimit(4);
+        for(Thread thread : threads) thread.join(5_000);
+        assertEquals(List.of("w0", "w1", "w2"), order.stream().sorted().toList());
+        assertEquals(4, queue.getOutstanding());
+        assertEquals(0, queue.getStats().waiting());
+    }
+
+    @Test
+    void aWaiterThatTimesOutLeavesTheLineIntact() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), 1_000);
+        queue.setLimit(1);
+        ConnectionWrapper held = queue.borrow();
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try{
+            Future<ConnectionWrapper> early = exec.submit(queue::borrow);
+            awaitTrue(() -> queue.getStats().waiting() == 1);
+            Thread.sleep(500);
+            // Arrives half way through the first ones timeout, so it is still waiting when the first gives up.
+            Future<ConnectionWrapper> late = exec.submit(queue::borrow);
+            ExecutionException timedOut = assertThrows(ExecutionException.class, () -> early.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(SQLTimeoutException.class, timedOut.getCause());
+
+            queue.release(held);
+            assertNotNull(late.get(5, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    void interruptIsRethrownAndRestored() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), LONG_WAIT);
+        queue.setLimit(1);
+        queue.borrow();
+
+        BlockingQueue<Object> outcome = new LinkedBlockingQueue<>();
+        Thread thread = new Thread(() -> {
+            try{
+                outcome.add(queue.borrow());
+            } catch (SQLException e){
+                outcome.add(e);
+                outcome.add(Thread.currentThread().isInterrupted());
+            }
+        });
+        thread.start();
+        parked(thread);
+        thread.interrupt();
+
+        SQLException e = assertInstanceOf(SQLException.class, outcome.poll(5, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedException.class, e.getCause());
+        assertEquals(Boolean.TRUE, outcome.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, queue.getStats().interrupts());
+        assertEquals(0, queue.getStats().waiting());
+    }
+
+    @Test
+    void poolFailuresFreeTheSlotAndEndUpAsTheTimeoutCause() throws Exception {
+        SQLException refused = new SQLException("refused");
+        SimplePgConnectionPool failing = proxy(SimplePgConnectionPool.class, (p, method, args) -> {
+            if(method.getName().equals("borrowConnection")) throw refused;
+            return null;
+        });
+        BorrowQueue queue = new BorrowQueue(failing, 50);
+
+        SQLTimeoutException e = assertThrows(SQLTimeoutException.class, queue::borrow);
+        assertSame(refused, e.getCause());
+        assertEquals(0, queue.getOutstanding());
+    }
+
+    @Test
+    void neverHandsOutMoreThanTheLimit() throws Exception {
+        AtomicInteger live = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        BorrowQueue queue = new BorrowQueue(pool(live), LONG_WAIT);
+        queue.setLimit(3);
+
+        int threads = 16, rounds = 200;
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try{
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                futures.add(exec.submit(() -> {
+                    for(int i = 0; i < rounds; i++){
+                        ConnectionWrapper cw = queue.borrow();
+                        peak.accumulateAndGet(live.get(), Math::max);
+                        Thread.yield();
+                        queue.release(cw);
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures) future.get(20, TimeUnit.SECONDS);
+        } finally {
+            exec.shutdownNow();
+        }
+        assertTrue(peak.get() <= 3, "Peak was " + peak.get());
+        assertEquals(0, live.get());
+        assertEquals(0, queue.getOutstanding());
+        assertEquals(threads * rounds, queue.getStats().borrows());
+        assertEquals(threads * rounds, queue.getReleases());
+        assertEquals(0, queue.getStats().timeouts());
+    }
+
+    @Test
+    void peakStartsOverFromTheCurrentCount() throws Exception {
+        BorrowQueue queue = new BorrowQueue(pool(new AtomicInteger()), LONG_WAIT);
+        ConnectionWrapper a = queue.borrow();
+        queue.borrow();
+        queue.borrow();
+        queue.release(a);
+        assertEquals(3, queue.takePeakOutstanding());
+        assertEquals(2, queue.takePeakOutstanding());
+    }
+
+    // Counts the wrappers out of the pool in live, each wrapper gives its count back once.
+    private static SimplePgConnectionPool pool(AtomicInteger live){
+        return proxy(SimplePgConnectionPool.class, (p, method, args) -> switch (method.getName()) {
+            case "borrowConnection" -> {
+                live.incrementAndGet();
+                yield wrapper(live);
+            }
+            case "hashCode" -> System.identityHashCode(p);
+            case "equals" -> p == args[0];
+            default -> null;
+        });
+    }
+
+    private static ConnectionWrapper wrapper(AtomicInteger live){
+        AtomicInteger released = new AtomicInteger();
+        return proxy(ConnectionWrapper.class, (p, method, args) -> switch (method.getName()) {
+            case "release" -> {
+                if(released.getAndIncrement() == 0) live.decrementAndGet();
+                yield null;
+            }
+            case "hashCode" -> System.identityHashCode(p);
+            case "equals" -> p == args[0];
+            case "toString" -> "TestConnectionWrapper";
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static Thread waiter(BorrowQueue queue, String name, BlockingQueue<String> order, List<ConnectionWrapper> borrowed){
+        Thread thread = new Thread(() -> {
+            try{
+                ConnectionWrapper cw = queue.borrow();
+                borrowed.add(cw);
+                order.add(name);
+            } catch (SQLException e){
+                order.add(name + " failed: " + e.getMessage());
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    // Parked on the condition, not just counted as waiting, so the next waiter lines up behind it.
+    private static void parked(Thread thread) throws InterruptedException {
+        awaitTrue(() -> thread.getState() == Thread.State.TIMED_WAITING);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(!condition.getAsBoolean()){
+            if(System.nanoTime() > deadline) fail("Timed out waiting on the queue");
+            Thread.sleep(1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        return (T) Proxy.newProxyInstance(BorrowQueueTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,68 @@
+package com.kovisoft.pg.database.manager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void emptyReadsZero(){
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    void percentilesAreTheBucketUpperBoundCappedAtTheMax(){
+        Histogram histogram = new Histogram();
+        for(int i = 0; i < 99; i++) histogram.record(100);
+        histogram.record(5000);
+
+        // 100 lands in [64, 128).
+        assertEquals(127, histogram.getPercentile(0.5));
+        assertEquals(127, histogram.getPercentile(0.99));
+        assertEquals(5000, histogram.getPercentile(1.0));
+        assertEquals(5000, histogram.getMax());
+        assertEquals(100, histogram.getCount());
+        assertEquals(99 * 100 + 5000, histogram.getSum());
+    }
+
+    @Test
+    void neverReadsMoreThanTwiceTheValue(){
+        for(long value : new long[]{1, 2, 3, 1023, 1024, 1025, 1_000_000_007L}){
+            Histogram histogram = new Histogram();
+            histogram.record(value);
+            histogram.record(1L << 40);
+            long p50 = histogram.getPercentile(0.5);
+            assertTrue(p50 >= value && p50 < 2 * value, value + " read as " + p50);
+        }
+    }
+
+    @Test
+    void zeroAndNegativeGoToTheFirstBucket(){
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(1.0));
+        assertEquals(0, histogram.getSum());
+    }
+
+    @Test
+    void largestValuesDoNotOverflow(){
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    void resetStartsOver(){
+        Histogram histogram = new Histogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
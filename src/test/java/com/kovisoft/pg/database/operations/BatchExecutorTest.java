@@ -0,0 +1,244 @@
+package com.kovisoft.pg.database.operations;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.pg.database.data.SQLRecord;
+import com.kovisoft.pg.database.data.exports.BatchResult;
+import com.kovisoft.pg.database.data.exports.BatchResult.ChunkFailure;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against a fake connection and statement that record the calls, executeBatch fails for the chunk numbers in failing.
+class BatchExecutorTest {
+
+    private static final long NEVER_SLOW = 60_000;
+
+    @Test
+    void splitsIntoChunksAndGrowsWhileFast() throws SQLException {
+        FakeStatement fake = new FakeStatement();
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(600), false, (p, r) -> {});
+
+        assertEquals(List.of(250, 282, 68), fake.executed);
+        assertEquals(3, result.chunks());
+        assertEquals(600, result.succeeded());
+        assertTrue(result.isComplete());
+        assertEquals(250 + 3 * 32, executor.getChunkSize("row"));
+        assertEquals(3, fake.commits);
+    }
+
+    @Test
+    void aFailedChunkIsRolledBackAndHalvesTheChunk() throws SQLException {
+        FakeStatement fake = new FakeStatement(0);
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(300), false, (p, r) -> {});
+
+        assertEquals(List.of(new ChunkFailure(0, 250, "chunk 0 failed")), result.failures());
+        assertEquals(50, result.succeeded());
+        assertEquals(1, fake.rollbacks);
+        assertEquals(1, fake.commits);
+        // Halved to 125 by the failure, then one step back up for the chunk that went through.
+        assertEquals(125 + 32, executor.getChunkSize("row"));
+        assertFalse(result.isComplete());
+    }
+
+    @Test
+    void aSlowChunkHalvesTheChunkButNotBelowTheMinimum() throws SQLException {
+        FakeStatement fake = new FakeStatement();
+        BatchExecutor executor = new BatchExecutor(logger(), 0);
+
+        executor.execute(fake.connection, fake.statement, rows(250), false, (p, r) -> {});
+        assertEquals(125, executor.getChunkSize("row"));
+
+        executor.execute(fake.connection, fake.statement, rows(2000), false, (p, r) -> {});
+        assertEquals(BatchExecutor.MIN_CHUNK, executor.getChunkSize("row"));
+    }
+
+    @Test
+    void chunkSizesAreKeptPerTable() throws SQLException {
+        FakeStatement fake = new FakeStatement(0);
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        executor.execute(fake.connection, fake.statement, rows(10), false, (p, r) -> {});
+        assertEquals(125, executor.getChunkSize("row"));
+        assertEquals(250, executor.getChunkSize("other"));
+    }
+
+    @Test
+    void bindFailuresAreReportedOnceTheChunkCommits() throws SQLException {
+        FakeStatement fake = new FakeStatement();
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(10), false, failingOn(3));
+
+        assertEquals(List.of(9), fake.executed);
+        assertEquals(9, result.succeeded());
+        assertEquals(1, result.failures().size());
+        assertEquals(3, result.failures().getFirst().fromIndex());
+        assertEquals(4, result.failures().getFirst().toIndex());
+    }
+
+    @Test
+    void bindFailuresInARolledBackChunkDoNotOverlapIt() throws SQLException {
+        FakeStatement fake = new FakeStatement(0);
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(10), false, failingOn(3));
+
+        assertEquals(List.of(new ChunkFailure(0, 10, "chunk 0 failed")), result.failures());
+        assertEquals(0, result.succeeded());
+    }
+
+    @Test
+    void aChunkWithNothingBoundIsNotExecuted() throws SQLException {
+        FakeStatement fake = new FakeStatement();
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(2), false, (p, r) -> {
+            throw new IllegalArgumentException("bad");
+        });
+
+        assertEquals(List.of(), fake.executed);
+        assertEquals(0, fake.commits);
+        assertEquals(2, result.failures().size());
+        assertEquals(0, result.succeeded());
+    }
+
+    @Test
+    void collectsTheKeysOfCommittedChunksOnly() throws SQLException {
+        FakeStatement fake = new FakeStatement(1);
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        BatchResult result = executor.execute(fake.connection, fake.statement, rows(600), true, (p, r) -> {});
+
+        // Chunk 0 commits 250 rows, chunk 1 (282 rows) fails, chunk 2 commits the 68 left.
+        assertEquals(List.of(250, 282, 68), fake.executed);
+        assertEquals(250 + 68, result.generatedKeys().size());
+        assertEquals(1L, (long) result.generatedKeys().getFirst());
+        assertEquals(List.of(new ChunkFailure(250, 532, "chunk 1 failed")), result.failures());
+    }
+
+    @Test
+    void restoresAutoCommit() throws SQLException {
+        FakeStatement fake = new FakeStatement(0);
+        BatchExecutor executor = new BatchExecutor(logger(), NEVER_SLOW);
+
+        executor.execute(fake.connection, fake.statement, rows(5), false, (p, r) -> {});
+        assertTrue(fake.autoCommit);
+        assertEquals(BatchResult.empty(), executor.execute(fake.connection, fake.statement, List.of(), false, (p, r) -> {}));
+    }
+
+    record Row(Long id, int value) implements SQLRecord {
+
+        @Override
+        public Long getPrimaryKey(){
+            return id;
+        }
+
+        @Override
+        public <T extends SQLRecord> T getNewRecord(Map<String, Object> objectMap){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends SQLRecord> boolean equalsWithoutId(T record){
+            return record instanceof Row row && row.value == value;
+        }
+
+        @Override
+        public Object getObjectValueByFieldName(String fieldName){
+            return fieldName.equals("id") ? id : value;
+        }
+    }
+
+    private static List<Row> rows(int count){
+        return IntStream.range(0, count).mapToObj(i -> new Row(null, i)).toList();
+    }
+
+    private static BatchExecutor.Binder failingOn(int value){
+        return (p, record) -> {
+            if(((Row) record).value() == value) throw new IllegalArgumentException("bad value");
+        };
+    }
+
+    private static class FakeStatement {
+        final Set<Integer> failing;
+        final List<Integer> executed = new ArrayList<>();
+        final Connection connection;
+        final PreparedStatement statement;
+        boolean autoCommit = true;
+        int commits, rollbacks, added, chunk;
+        long nextKey = 1;
+
+        FakeStatement(Integer... failing){
+            this.failing = Set.of(failing);
+            connection = proxy(Connection.class, (p, method, args) -> switch (method.getName()) {
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (boolean) args[0];
+                    yield null;
+                }
+                case "commit" -> {
+                    commits++;
+                    yield null;
+                }
+                case "rollback" -> {
+                    rollbacks++;
+                    yield null;
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+            statement = proxy(PreparedStatement.class, (p, method, args) -> switch (method.getName()) {
+                case "addBatch" -> {
+                    added++;
+                    yield null;
+                }
+                case "clearBatch" -> null;
+                case "executeBatch" -> executeBatch();
+                case "getGeneratedKeys" -> keys();
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+        }
+
+        private int[] executeBatch() throws SQLException {
+            int size = added;
+            added = 0;
+            executed.add(size);
+            if(failing.contains(chunk++)) throw new SQLException("chunk " + (chunk - 1) + " failed");
+            return new int[size];
+        }
+
+        private ResultSet keys(){
+            int count = executed.getLast();
+            int[] read = {0};
+            long first = nextKey;
+            nextKey += count;
+            return proxy(ResultSet.class, (p, method, args) -> switch (method.getName()) {
+                case "next" -> read[0]++ < count;
+                case "getLong" -> first + read[0] - 1;
+                case "close" -> null;
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+        }
+    }
+
+    private static Logger logger(){
+        return proxy(Logger.class, (p, method, args) -> null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        return (T) Proxy.newProxyInstance(BatchExecutorTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}